@@ -0,0 +1,79 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+
+/**
+ * Idempotency key of a RouterManager or RouterManagerAsync call, given as
+ * the last parameter of the mutations.
+ * A call made again with the key of a successful call of the same method
+ * and arguments returns the original outcome without touching the SR or
+ * the agent, so that a caller can safely retry after a timeout. A failed
+ * call doesn't keep its key: a retry runs again.
+ * <pre>
+ * routerManager.createRouter(routerName, agentName, configurationName, port,
+ *         new IdempotencyKey(requestId));
+ * </pre>
+ */
+public final class IdempotencyKey implements Serializable {
+
+    /**
+     * Serial version UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The value of the key
+     */
+    private final String value;
+
+    /**
+     * Constructor
+     * @param value the value of the key, unique per logical request
+     */
+    public IdempotencyKey(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value of an idempotency key can't be null");
+        }
+        this.value = value;
+    }
+
+    /**
+     * @return the value of the key
+     */
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof IdempotencyKey && value.equals(((IdempotencyKey) obj).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+
+/**
+ * A load balancer of a router
+ */
+public class LoadBalancerLocation implements Serializable, Comparable<LoadBalancerLocation> {
+
+    /**
+     * Name of the router
+     */
+    private String routerName;
+
+    /**
+     * Name of the load balancer
+     */
+    private String lbName;
+
+    /**
+     * Constructor
+     * @param routerName Name of the router
+     * @param lbName Name of the load balancer
+     */
+    public LoadBalancerLocation(String routerName, String lbName) {
+        this.routerName = routerName;
+        this.lbName = lbName;
+    }
+
+    public String getRouterName() {
+        return routerName;
+    }
+
+    public String getLbName() {
+        return lbName;
+    }
+
+    public int compareTo(LoadBalancerLocation other) {
+        int result = routerName.compareTo(other.routerName);
+        return result != 0 ? result : lbName.compareTo(other.lbName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LoadBalancerLocation)) {
+            return false;
+        }
+        LoadBalancerLocation other = (LoadBalancerLocation) o;
+        return routerName.equals(other.routerName) && lbName.equals(other.lbName);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * routerName.hashCode() + lbName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return routerName + "/" + lbName;
+    }
+}
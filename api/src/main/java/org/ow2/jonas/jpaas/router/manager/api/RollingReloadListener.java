@@ -0,0 +1,44 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+/**
+ * Progress of a rolling reload of routers, see
+ * {@link RouterManager#reloadRouters(java.util.List, int, int, double, RollingReloadListener)}.
+ * The callbacks are made by the thread running the rolling reload, as soon
+ * as the agent of a router is done, so the routers of a batch may be
+ * reported out of order.
+ */
+public interface RollingReloadListener {
+
+    /**
+     * A router has been reloaded and its agent is healthy, or has failed
+     * @param routerName Name of the router
+     * @param error the error message, null if the router has been reloaded
+     */
+    public void routerReloaded(String routerName, String error);
+
+    /**
+     * A batch of routers is done, the next one starts unless the error rate is exceeded
+     * @param batch number of the batch, from 1
+     * @param batchCount number of batches
+     * @param result the outcome of the rolling reload so far
+     */
+    public void batchCompleted(int batch, int batchCount, RollingReloadResult result);
+}
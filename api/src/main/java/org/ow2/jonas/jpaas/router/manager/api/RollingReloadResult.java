@@ -0,0 +1,119 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a rolling reload of routers
+ */
+public class RollingReloadResult implements Serializable {
+
+    /**
+     * The reloaded routers
+     */
+    private List<String> reloadedRouters = new ArrayList<String>();
+
+    /**
+     * The error message, by router which couldn't be reloaded
+     */
+    private Map<String, String> failedRouters = new LinkedHashMap<String, String>();
+
+    /**
+     * The routers left untouched after the abort of the rolling reload
+     */
+    private List<String> skippedRouters = new ArrayList<String>();
+
+    /**
+     * Number of the completed batches
+     */
+    private int completedBatches;
+
+    /**
+     * True if the rolling reload has been aborted on the error rate
+     */
+    private boolean aborted;
+
+    /**
+     * Time (ms) taken by the operation
+     */
+    private long elapsedTime;
+
+    public List<String> getReloadedRouters() {
+        return reloadedRouters;
+    }
+
+    public Map<String, String> getFailedRouters() {
+        return failedRouters;
+    }
+
+    public List<String> getSkippedRouters() {
+        return skippedRouters;
+    }
+
+    public int getCompletedBatches() {
+        return completedBatches;
+    }
+
+    public void setCompletedBatches(int completedBatches) {
+        this.completedBatches = completedBatches;
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    public void setAborted(boolean aborted) {
+        this.aborted = aborted;
+    }
+
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public void setElapsedTime(long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * @return the ratio of the failed routers to the routers processed so far, 0 if none
+     */
+    public double getErrorRate() {
+        int processed = reloadedRouters.size() + failedRouters.size();
+        return processed == 0 ? 0d : (double) failedRouters.size() / processed;
+    }
+
+    /**
+     * @return true if all the routers have been reloaded
+     */
+    public boolean isComplete() {
+        return failedRouters.isEmpty() && skippedRouters.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return reloadedRouters.size() + " routers reloaded, " + failedRouters.size() + " routers failed, "
+                + skippedRouters.size() + " routers skipped, " + completedBatches + " batches"
+                + (aborted ? " (aborted)" : "") + " (" + elapsedTime + " ms)";
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A change to apply to a router with {@link RouterManager#applyChanges(String, java.util.List)}
+ */
+public class RouterChange implements Serializable {
+
+    /**
+     * Type of change
+     */
+    public enum Type {
+        CREATE_WORKER, REMOVE_WORKER, ENABLE_WORKER, DISABLE_WORKER,
+        CREATE_LOAD_BALANCER, REMOVE_LOAD_BALANCER, ADD_WORKER_TO_LOAD_BALANCER,
+        REMOVE_WORKER_FROM_LOAD_BALANCER, ADD_MOUNT_POINT, REMOVE_MOUNT_POINT
+    }
+
+    /**
+     * Type of change
+     */
+    private Type type;
+
+    /**
+     * Name of the worker
+     */
+    private String workerName;
+
+    /**
+     * The worker target host
+     */
+    private String targetHost;
+
+    /**
+     * The worker target port number
+     */
+    private Integer targetPortNumber;
+
+    /**
+     * Name of the load balancer
+     */
+    private String lbName;
+
+    /**
+     * The workers balanced by the load balancer
+     */
+    private List<String> workers;
+
+    /**
+     * The mount points of the load balancer
+     */
+    private List<String> mountPoints;
+
+    /**
+     * Constructor
+     * @param type Type of change
+     */
+    public RouterChange(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * @param workerName Name of the worker to create
+     * @param targetHost The worker target host
+     * @param targetPortNumber the worker target port number
+     * @return a worker creation
+     */
+    public static RouterChange createWorker(String workerName, String targetHost, Integer targetPortNumber) {
+        RouterChange change = new RouterChange(Type.CREATE_WORKER);
+        change.setWorkerName(workerName);
+        change.setTargetHost(targetHost);
+        change.setTargetPortNumber(targetPortNumber);
+        return change;
+    }
+
+    /**
+     * @param workerName Name of the worker to remove
+     * @return a worker removal
+     */
+    public static RouterChange removeWorker(String workerName) {
+        RouterChange change = new RouterChange(Type.REMOVE_WORKER);
+        change.setWorkerName(workerName);
+        return change;
+    }
+
+    /**
+     * @param workerName Name of the worker to enable
+     * @return a worker activation
+     */
+    public static RouterChange enableWorker(String workerName) {
+        RouterChange change = new RouterChange(Type.ENABLE_WORKER);
+        change.setWorkerName(workerName);
+        return change;
+    }
+
+    /**
+     * @param workerName Name of the worker to disable
+     * @return a worker deactivation
+     */
+    public static RouterChange disableWorker(String workerName) {
+        RouterChange change = new RouterChange(Type.DISABLE_WORKER);
+        change.setWorkerName(workerName);
+        return change;
+    }
+
+    /**
+     * @param lbName Name of the load balancer
+     * @param workers the workers balanced by this load balancer
+     * @param mountPoints the mount Points of this load balancer
+     * @return a load balancer creation
+     */
+    public static RouterChange createLoadBalancer(String lbName, List<String> workers, List<String> mountPoints) {
+        RouterChange change = new RouterChange(Type.CREATE_LOAD_BALANCER);
+        change.setLbName(lbName);
+        change.setWorkers(workers);
+        change.setMountPoints(mountPoints);
+        return change;
+    }
+
+    /**
+     * @param lbName Name of the load balancer
+     * @return a load balancer removal
+     */
+    public static RouterChange removeLoadBalancer(String lbName) {
+        RouterChange change = new RouterChange(Type.REMOVE_LOAD_BALANCER);
+        change.setLbName(lbName);
+        return change;
+    }
+
+    /**
+     * @param lbName Name of the load balancer
+     * @param workerName Name of the worker to add
+     * @return the addition of a worker to a load balancer
+     */
+    public static RouterChange addWorkerToLoadBalancer(String lbName, String workerName) {
+        RouterChange change = new RouterChange(Type.ADD_WORKER_TO_LOAD_BALANCER);
+        change.setLbName(lbName);
+        change.setWorkerName(workerName);
+        return change;
+    }
+
+    /**
+     * @param lbName Name of the load balancer
+     * @param workerName Name of the worker to remove
+     * @return the removal of a worker from a load balancer
+     */
+    public static RouterChange removeWorkerFromLoadBalancer(String lbName, String workerName) {
+        RouterChange change = new RouterChange(Type.REMOVE_WORKER_FROM_LOAD_BALANCER);
+        change.setLbName(lbName);
+        change.setWorkerName(workerName);
+        return change;
+    }
+
+    /**
+     * @param lbName Name of the load balancer
+     * @param mountPoint the mount point to add
+     * @return the addition of a mount point to a load balancer
+     */
+    public static RouterChange addMountPoint(String lbName, String mountPoint) {
+        RouterChange change = new RouterChange(Type.ADD_MOUNT_POINT);
+        change.setLbName(lbName);
+        change.setMountPoints(Collections.singletonList(mountPoint));
+        return change;
+    }
+
+    /**
+     * @param lbName Name of the load balancer
+     * @param mountPoint the mount point to remove
+     * @return the removal of a mount point of a load balancer
+     */
+    public static RouterChange removeMountPoint(String lbName, String mountPoint) {
+        RouterChange change = new RouterChange(Type.REMOVE_MOUNT_POINT);
+        change.setLbName(lbName);
+        change.setMountPoints(Collections.singletonList(mountPoint));
+        return change;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getWorkerName() {
+        return workerName;
+    }
+
+    public void setWorkerName(String workerName) {
+        this.workerName = workerName;
+    }
+
+    public String getTargetHost() {
+        return targetHost;
+    }
+
+    public void setTargetHost(String targetHost) {
+        this.targetHost = targetHost;
+    }
+
+    public Integer getTargetPortNumber() {
+        return targetPortNumber;
+    }
+
+    public void setTargetPortNumber(Integer targetPortNumber) {
+        this.targetPortNumber = targetPortNumber;
+    }
+
+    public String getLbName() {
+        return lbName;
+    }
+
+    public void setLbName(String lbName) {
+        this.lbName = lbName;
+    }
+
+    public List<String> getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(List<String> workers) {
+        this.workers = workers;
+    }
+
+    public List<String> getMountPoints() {
+        return mountPoints;
+    }
+
+    public void setMountPoints(List<String> mountPoints) {
+        this.mountPoints = mountPoints;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(type.toString());
+        if (lbName != null) {
+            sb.append(" lb=").append(lbName);
+        }
+        if (workerName != null) {
+            sb.append(" worker=").append(workerName);
+        }
+        if (targetHost != null) {
+            sb.append(" host=").append(targetHost).append(" port=").append(targetPortNumber);
+        }
+        if (workers != null) {
+            sb.append(" wk=").append(workers);
+        }
+        if (mountPoints != null) {
+            sb.append(" mt=").append(mountPoints);
+        }
+        return sb.toString();
+    }
+}
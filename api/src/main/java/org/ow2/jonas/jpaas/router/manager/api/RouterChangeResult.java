@@ -0,0 +1,74 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of a {@link RouterChange}
+ */
+public class RouterChangeResult implements Serializable {
+
+    /**
+     * The change
+     */
+    private RouterChange change;
+
+    /**
+     * True if the change has been applied
+     */
+    private boolean success;
+
+    /**
+     * The error message if the change failed
+     */
+    private String error;
+
+    /**
+     * Constructor
+     * @param change the change
+     * @param success true if the change has been applied
+     * @param error the error message if the change failed
+     */
+    public RouterChangeResult(RouterChange change, boolean success, String error) {
+        this.change = change;
+        this.success = success;
+        this.error = error;
+    }
+
+    public RouterChange getChange() {
+        return change;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        if (success) {
+            return change + " : OK";
+        }
+        return change + " : FAILED (" + error + ")";
+    }
+}
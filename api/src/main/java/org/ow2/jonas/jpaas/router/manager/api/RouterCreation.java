@@ -0,0 +1,106 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+
+/**
+ * A router to create with {@link RouterManager#createRouters(java.util.List)}
+ */
+public class RouterCreation implements Serializable {
+
+    /**
+     * Name of the router to create
+     */
+    private String routerName;
+
+    /**
+     * Name of the PaasAgent
+     */
+    private String paasAgentName;
+
+    /**
+     * Name of the PaasConfiguration to use
+     */
+    private String paasConfigurationName;
+
+    /**
+     * The listen port
+     */
+    private Integer listenPort;
+
+    /**
+     * Default constructor
+     */
+    public RouterCreation() {
+    }
+
+    /**
+     * Constructor
+     * @param routerName Name of the router to create
+     * @param paasAgentName Name of the PaasAgent
+     * @param paasConfigurationName Name of the PaasConfiguration to use
+     * @param listenPort the listen port
+     */
+    public RouterCreation(String routerName, String paasAgentName, String paasConfigurationName,
+            Integer listenPort) {
+        this.routerName = routerName;
+        this.paasAgentName = paasAgentName;
+        this.paasConfigurationName = paasConfigurationName;
+        this.listenPort = listenPort;
+    }
+
+    public String getRouterName() {
+        return routerName;
+    }
+
+    public void setRouterName(String routerName) {
+        this.routerName = routerName;
+    }
+
+    public String getPaasAgentName() {
+        return paasAgentName;
+    }
+
+    public void setPaasAgentName(String paasAgentName) {
+        this.paasAgentName = paasAgentName;
+    }
+
+    public String getPaasConfigurationName() {
+        return paasConfigurationName;
+    }
+
+    public void setPaasConfigurationName(String paasConfigurationName) {
+        this.paasConfigurationName = paasConfigurationName;
+    }
+
+    public Integer getListenPort() {
+        return listenPort;
+    }
+
+    public void setListenPort(Integer listenPort) {
+        this.listenPort = listenPort;
+    }
+
+    @Override
+    public String toString() {
+        return "RouterCreation[router=" + routerName + ", agent=" + paasAgentName + ", conf="
+                + paasConfigurationName + ", port=" + listenPort + "]";
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of a {@link RouterCreation}
+ */
+public class RouterCreationResult implements Serializable {
+
+    /**
+     * The creation
+     */
+    private RouterCreation creation;
+
+    /**
+     * True if the router has been created
+     */
+    private boolean success;
+
+    /**
+     * The error message if the creation failed
+     */
+    private String error;
+
+    /**
+     * Constructor
+     * @param creation the creation
+     * @param success true if the router has been created
+     * @param error the error message if the creation failed
+     */
+    public RouterCreationResult(RouterCreation creation, boolean success, String error) {
+        this.creation = creation;
+        this.success = success;
+        this.error = error;
+    }
+
+    public RouterCreation getCreation() {
+        return creation;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        if (success) {
+            return creation + " : OK";
+        }
+        return creation + " : FAILED (" + error + ")";
+    }
+}
@@ -21,6 +21,12 @@ package org.ow2.jonas.jpaas.router.manager.api;
 
 import java.util.List;
 
+/**
+ * Management of the Apache jk routers.
+ * A call changing a router returns once the Apache of its agent has been
+ * reloaded with the change. A caller not willing to wait for the reload
+ * uses the {@link RouterManagerAsync} for that call.
+ */
 public interface RouterManager {
 
     /**
@@ -34,6 +40,35 @@ public interface RouterManager {
     public void createRouter(String routerName, String paasAgentName, String paasConfigurationName, Integer listenPort)
             throws RouterManagerBeanException;
 
+    /**
+     * Same as {@link #createRouter(String, String, String, Integer)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void createRouter(String routerName, String paasAgentName, String paasConfigurationName,
+            Integer listenPort, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * Create several routers. The agents, the configurations and the
+     * existing routers are resolved once for all of them. A failed creation
+     * doesn't prevent the next ones.
+     * @param creations the routers to create
+     * @return the outcome of each creation, in the same order
+     * @throws RouterManagerBeanException
+     */
+    public List<RouterCreationResult> createRouters(List<RouterCreation> creations)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #createRouters(List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of each creation, in the same order
+     * @throws RouterManagerBeanException
+     */
+    public List<RouterCreationResult> createRouters(List<RouterCreation> creations, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
     /**
      * Remove a router
      * @param routerName name of the router to remove
@@ -41,6 +76,13 @@ public interface RouterManager {
      */
     public void removeRouter(String routerName) throws RouterManagerBeanException ;
 
+    /**
+     * Same as {@link #removeRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void removeRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
     /**
      * Start a router
      * @param routerName Name of the router to start
@@ -48,6 +90,13 @@ public interface RouterManager {
      */
     public void startRouter(String routerName) throws RouterManagerBeanException ;
 
+    /**
+     * Same as {@link #startRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void startRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
     /**
      * Stop a router
      * @param routerName Name of the router to stop
@@ -55,6 +104,13 @@ public interface RouterManager {
      */
     public void stopRouter(String routerName) throws RouterManagerBeanException ;
 
+    /**
+     * Same as {@link #stopRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void stopRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
     /**
      * Add a worker
      * @param routerName Name of the router
@@ -66,6 +122,15 @@ public interface RouterManager {
     public void createWorker(String routerName, String workerName, String targetHost, Integer targetPortNumber)
             throws RouterManagerBeanException ;
 
+    /**
+     * Same as {@link #createWorker(String, String, String, Integer)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void createWorker(String routerName, String workerName, String targetHost, Integer targetPortNumber,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
     /**
      * Remove a worker
      * @param routerName Name of the router
@@ -75,7 +140,18 @@ public interface RouterManager {
     public void removeWorker(String routerName, String workerName) throws RouterManagerBeanException ;
 
     /**
-     * Disable a worker
+     * Same as {@link #removeWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void removeWorker(String routerName, String workerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Disable a worker. The enabling and disabling calls on the same worker made
+     * at the same time are coalesced, last writer wins: they all return once
+     * the last requested status is committed, which may not be the one of
+     * this call.
      * @param routerName Name of the router
      * @param workerName Name of the worker to disable
      * @throws RouterManagerBeanException
@@ -83,13 +159,32 @@ public interface RouterManager {
     public void disableWorker(String routerName, String workerName) throws RouterManagerBeanException;
 
     /**
-     * Enable a worker
+     * Same as {@link #disableWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void disableWorker(String routerName, String workerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Enable a worker. The enabling and disabling calls on the same worker made
+     * at the same time are coalesced, last writer wins: they all return once
+     * the last requested status is committed, which may not be the one of
+     * this call.
      * @param routerName Name of the router
      * @param workerName Name of the worker to enable
      * @throws RouterManagerBeanException
      */
     public void enableWorker(String routerName, String workerName) throws RouterManagerBeanException;
 
+    /**
+     * Same as {@link #enableWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void enableWorker(String routerName, String workerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
     /**
      * Create a loadbalancer
      * @param routerName Name of the router
@@ -101,6 +196,15 @@ public interface RouterManager {
     public void createLoadBalancer(String routerName, String lbName, List<String> workedList, List<String> mountsPoints)
             throws RouterManagerBeanException;
 
+    /**
+     * Same as {@link #createLoadBalancer(String, String, List, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void createLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
     /**
      * Remove a loadbalancer
      * @param routerName Name of the router
@@ -109,6 +213,37 @@ public interface RouterManager {
      */
     public void removeLoadBalancer(String routerName, String lbName) throws RouterManagerBeanException;
 
+    /**
+     * Same as {@link #removeLoadBalancer(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void removeLoadBalancer(String routerName, String lbName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Replace the load balancers of mount points by a new one, switching all
+     * of them with a single reload, then remove the old load balancers left
+     * without mount point
+     * @param routerName Name of the router
+     * @param lbName  Name of the new load balancer
+     * @param workedList  the workers balanced by the new load balancer
+     * @param mountsPoints the mount Points moved to the new load balancer
+     * @return the names of the removed load balancers
+     * @throws RouterManagerBeanException
+     */
+    public List<String> swapLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #swapLoadBalancer(String, String, List, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the names of the removed load balancers
+     * @throws RouterManagerBeanException
+     */
+    public List<String> swapLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
     /**
      * add a worker to a loadbalancer
      * @param routerName Name of the router
@@ -118,5 +253,154 @@ public interface RouterManager {
     public void addWorkerToLoadBalancer(String routerName, String lbName, String workerName)
             throws RouterManagerBeanException;
 
+    /**
+     * Same as {@link #addWorkerToLoadBalancer(String, String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void addWorkerToLoadBalancer(String routerName, String lbName, String workerName,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * remove a worker from a loadbalancer, the worker itself being kept
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @param workerName Name of the worker to remove
+     * @throws RouterManagerBeanException
+     */
+    public void removeWorkerFromLoadBalancer(String routerName, String lbName, String workerName)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #removeWorkerFromLoadBalancer(String, String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void removeWorkerFromLoadBalancer(String routerName, String lbName, String workerName,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * Apply a list of changes to a router in a single transaction, with a
+     * single reload. A failed change doesn't prevent the next ones.
+     * @param routerName Name of the router
+     * @param changes the changes to apply, in order
+     * @return the outcome of each change, in the same order
+     * @throws RouterManagerBeanException if the router or its agent can't be found
+     */
+    public List<RouterChangeResult> applyChanges(String routerName, List<RouterChange> changes)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #applyChanges(String, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of each change, in the same order
+     * @throws RouterManagerBeanException if the router or its agent can't be found
+     */
+    public List<RouterChangeResult> applyChanges(String routerName, List<RouterChange> changes,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * Bring the jk configuration of the agent of a router to the state known
+     * by the SR. Only the differences are sent to the agent, followed by a
+     * single reload if needed.
+     * @param routerName Name of the router
+     * @return the number of changes sent to the agent
+     * @throws RouterManagerBeanException
+     */
+    public int reconcileRouter(String routerName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #reconcileRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the number of changes sent to the agent
+     * @throws RouterManagerBeanException
+     */
+    public int reconcileRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Disable a backend target on all the routers having a worker for it.
+     * The routers are updated concurrently, with a single reload each.
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @param timeout time budget (ms): the routers not updated within it are
+     * reported as pending, their update goes on
+     * @return the outcome of the disabling
+     * @throws RouterManagerBeanException
+     */
+    public TargetFailoverResult disableTarget(String targetHost, Integer targetPortNumber, long timeout)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #disableTarget(String, Integer, long)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of the disabling
+     * @throws RouterManagerBeanException
+     */
+    public TargetFailoverResult disableTarget(String targetHost, Integer targetPortNumber, long timeout,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * Reload the Apache of several routers, batch after batch. The agents of
+     * a batch are reloaded concurrently, each one once whatever its number of
+     * routers, and checked before the next batch. The routers left are
+     * skipped as soon as the error rate exceeds the threshold.
+     * @param routerNames Names of the routers, in the order of the reload
+     * @param batchSize number of routers of a batch
+     * @param parallelism maximum number of agents reloaded at the same time
+     * @param maxErrorRate ratio (0 to 1) of failed routers aborting the rolling reload when exceeded
+     * @param listener progress of the rolling reload, may be null
+     * @return the outcome of the rolling reload
+     * @throws RouterManagerBeanException if the parameters are invalid
+     */
+    public RollingReloadResult reloadRouters(List<String> routerNames, int batchSize, int parallelism,
+            double maxErrorRate, RollingReloadListener listener) throws RouterManagerBeanException;
+
+    /**
+     * Forget a catalog configuration cached for the router creations, to be
+     * called after its change in the catalog
+     * @param paasConfigurationName Name of the PaasConfiguration, null for all the configurations
+     */
+    public void invalidatePaasConfiguration(String paasConfigurationName);
+
+    /**
+     * Find the workers of a backend target, on all the routers
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @return the workers of the target, sorted
+     * @throws RouterManagerBeanException
+     */
+    public List<WorkerLocation> findWorkersByTarget(String targetHost, Integer targetPortNumber)
+            throws RouterManagerBeanException;
+
+    /**
+     * Find the load balancers routing to a backend target, on all the routers
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @return the load balancers having a worker of the target as member, sorted
+     * @throws RouterManagerBeanException
+     */
+    public List<LoadBalancerLocation> findLoadBalancersByTarget(String targetHost, Integer targetPortNumber)
+            throws RouterManagerBeanException;
+
+    /**
+     * Find the routers having a worker
+     * @param workerName Name of the worker
+     * @return the names of the routers, sorted
+     * @throws RouterManagerBeanException
+     */
+    public List<String> findRoutersByWorker(String workerName) throws RouterManagerBeanException;
+
+    /**
+     * Find the load balancers having a worker as member, on all the routers
+     * @param workerName Name of the worker
+     * @return the load balancers, sorted
+     * @throws RouterManagerBeanException
+     */
+    public List<LoadBalancerLocation> findLoadBalancersByWorker(String workerName)
+            throws RouterManagerBeanException;
 
 }
@@ -0,0 +1,381 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous variant of {@link RouterManager}.
+ * Each operation is queued and the call returns at once. The returned Future
+ * completes when the operation ends, its Apache reload included; a failure
+ * is reported by Future.get() as an ExecutionException whose cause is the
+ * RouterManagerBeanException. Whether to wait for the reload is thus chosen
+ * per call, by getting the Future or not.
+ */
+public interface RouterManagerAsync {
+
+    /**
+     * Create a router
+     * @param routerName Name of the router to create
+     * @param paasAgentName Name of the PaasAgent
+     * @param paasConfigurationName Name of the PaasConfiguration to use
+     * @param listenPort the listen port
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createRouter(String routerName, String paasAgentName, String paasConfigurationName,
+            Integer listenPort) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #createRouter(String, String, String, Integer)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createRouter(String routerName, String paasAgentName, String paasConfigurationName,
+            Integer listenPort, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Create several routers
+     * @param creations the routers to create
+     * @return the pending operation, giving the outcome of each creation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<RouterCreationResult>> createRouters(List<RouterCreation> creations)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #createRouters(List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the outcome of each creation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<RouterCreationResult>> createRouters(List<RouterCreation> creations,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * Remove a router
+     * @param routerName name of the router to remove
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeRouter(String routerName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #removeRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeRouter(String routerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Start a router
+     * @param routerName Name of the router to start
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> startRouter(String routerName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #startRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> startRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Stop a router
+     * @param routerName Name of the router to stop
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> stopRouter(String routerName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #stopRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> stopRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Add a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to create
+     * @param targetHost The worker target host
+     * @param targetPortNumber the worker target port number
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createWorker(String routerName, String workerName, String targetHost,
+            Integer targetPortNumber) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #createWorker(String, String, String, Integer)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createWorker(String routerName, String workerName, String targetHost,
+            Integer targetPortNumber, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Remove a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to remove
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeWorker(String routerName, String workerName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #removeWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeWorker(String routerName, String workerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Disable a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to disable
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> disableWorker(String routerName, String workerName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #disableWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> disableWorker(String routerName, String workerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Enable a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to enable
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> enableWorker(String routerName, String workerName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #enableWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> enableWorker(String routerName, String workerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Create a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @param workedList  the workers balanced by this load balancer
+     * @param mountsPoints the mount Points of this load balancer
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #createLoadBalancer(String, String, List, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Remove a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeLoadBalancer(String routerName, String lbName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #removeLoadBalancer(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeLoadBalancer(String routerName, String lbName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Replace the load balancers of mount points by a new one, with a single reload
+     * @param routerName Name of the router
+     * @param lbName  Name of the new load balancer
+     * @param workedList  the workers balanced by the new load balancer
+     * @param mountsPoints the mount Points moved to the new load balancer
+     * @return the pending operation, giving the names of the removed load balancers
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<String>> swapLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #swapLoadBalancer(String, String, List, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the names of the removed load balancers
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<String>> swapLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints, IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * add a worker to a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @param workerName Name of the worker to add
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> addWorkerToLoadBalancer(String routerName, String lbName, String workerName)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #addWorkerToLoadBalancer(String, String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> addWorkerToLoadBalancer(String routerName, String lbName, String workerName,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * remove a worker from a loadbalancer, the worker itself being kept
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @param workerName Name of the worker to remove
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeWorkerFromLoadBalancer(String routerName, String lbName, String workerName)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #removeWorkerFromLoadBalancer(String, String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeWorkerFromLoadBalancer(String routerName, String lbName, String workerName,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * Apply a list of changes to a router
+     * @param routerName Name of the router
+     * @param changes the changes to apply, in order
+     * @return the pending operation, giving the outcome of each change
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<RouterChangeResult>> applyChanges(String routerName, List<RouterChange> changes)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #applyChanges(String, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the outcome of each change
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<RouterChangeResult>> applyChanges(String routerName, List<RouterChange> changes,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * Bring the jk configuration of the agent of a router to the state known by the SR
+     * @param routerName Name of the router
+     * @return the pending operation, giving the number of changes sent to the agent
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Integer> reconcileRouter(String routerName) throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #reconcileRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the number of changes sent to the agent
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Integer> reconcileRouter(String routerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException;
+
+    /**
+     * Disable a backend target on all the routers having a worker for it
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @param timeout time budget (ms) of the disabling
+     * @return the pending operation, giving the outcome of the disabling
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<TargetFailoverResult> disableTarget(String targetHost, Integer targetPortNumber, long timeout)
+            throws RouterManagerBeanException;
+
+    /**
+     * Same as {@link #disableTarget(String, Integer, long)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the outcome of the disabling
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<TargetFailoverResult> disableTarget(String targetHost, Integer targetPortNumber, long timeout,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException;
+
+    /**
+     * Reload the Apache of several routers, batch after batch
+     * @param routerNames Names of the routers, in the order of the reload
+     * @param batchSize number of routers of a batch
+     * @param parallelism maximum number of agents reloaded at the same time
+     * @param maxErrorRate ratio (0 to 1) of failed routers aborting the rolling reload when exceeded
+     * @param listener progress of the rolling reload, may be null
+     * @return the pending operation, giving the outcome of the rolling reload
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<RollingReloadResult> reloadRouters(List<String> routerNames, int batchSize, int parallelism,
+            double maxErrorRate, RollingReloadListener listener) throws RouterManagerBeanException;
+
+    /**
+     * Get the number of operations queued or running for the agent of a
+     * router. The operations of low priority are rejected once it reaches
+     * the maximum depth, so a caller can slow down before that.
+     * @param routerName Name of the router
+     * @return the number of pending operations
+     */
+    public int getPendingOperations(String routerName);
+
+}
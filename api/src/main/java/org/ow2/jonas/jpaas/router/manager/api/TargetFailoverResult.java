@@ -0,0 +1,113 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of the disabling of a backend target on all the routers
+ */
+public class TargetFailoverResult implements Serializable {
+
+    /**
+     * The target host
+     */
+    private String targetHost;
+
+    /**
+     * The target port number
+     */
+    private Integer targetPortNumber;
+
+    /**
+     * The disabled workers
+     */
+    private List<WorkerLocation> disabledWorkers = new ArrayList<WorkerLocation>();
+
+    /**
+     * The error message, by router whose workers couldn't be disabled
+     */
+    private Map<String, String> failedRouters = new LinkedHashMap<String, String>();
+
+    /**
+     * The routers still being updated when the time budget expired
+     */
+    private List<String> pendingRouters = new ArrayList<String>();
+
+    /**
+     * Time (ms) taken by the operation
+     */
+    private long elapsedTime;
+
+    /**
+     * Constructor
+     * @param targetHost the target host
+     * @param targetPortNumber the target port number
+     */
+    public TargetFailoverResult(String targetHost, Integer targetPortNumber) {
+        this.targetHost = targetHost;
+        this.targetPortNumber = targetPortNumber;
+    }
+
+    public String getTargetHost() {
+        return targetHost;
+    }
+
+    public Integer getTargetPortNumber() {
+        return targetPortNumber;
+    }
+
+    public List<WorkerLocation> getDisabledWorkers() {
+        return disabledWorkers;
+    }
+
+    public Map<String, String> getFailedRouters() {
+        return failedRouters;
+    }
+
+    public List<String> getPendingRouters() {
+        return pendingRouters;
+    }
+
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public void setElapsedTime(long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * @return true if the target has been disabled on all its routers within the time budget
+     */
+    public boolean isComplete() {
+        return failedRouters.isEmpty() && pendingRouters.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return targetHost + ":" + targetPortNumber + " : " + disabledWorkers.size() + " workers disabled, "
+                + failedRouters.size() + " routers failed, " + pendingRouters.size() + " routers pending ("
+                + elapsedTime + " ms)";
+    }
+}
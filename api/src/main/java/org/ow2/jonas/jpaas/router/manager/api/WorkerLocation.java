@@ -0,0 +1,82 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.api;
+
+import java.io.Serializable;
+
+/**
+ * A worker of a router
+ */
+public class WorkerLocation implements Serializable, Comparable<WorkerLocation> {
+
+    /**
+     * Name of the router
+     */
+    private String routerName;
+
+    /**
+     * Name of the worker
+     */
+    private String workerName;
+
+    /**
+     * Constructor
+     * @param routerName Name of the router
+     * @param workerName Name of the worker
+     */
+    public WorkerLocation(String routerName, String workerName) {
+        this.routerName = routerName;
+        this.workerName = workerName;
+    }
+
+    public String getRouterName() {
+        return routerName;
+    }
+
+    public String getWorkerName() {
+        return workerName;
+    }
+
+    public int compareTo(WorkerLocation other) {
+        int result = routerName.compareTo(other.routerName);
+        return result != 0 ? result : workerName.compareTo(other.workerName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WorkerLocation)) {
+            return false;
+        }
+        WorkerLocation other = (WorkerLocation) o;
+        return routerName.equals(other.routerName) && workerName.equals(other.workerName);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * routerName.hashCode() + workerName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return routerName + "/" + workerName;
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Requests received by the {@link FakeAgent} during an iteration, reported
+ * by JMH next to the primary result. The counters of the agent are shared
+ * by all the threads, so only the first thread copies them, after each of
+ * its operations; the counters of the other threads stay at 0 and JMH sums
+ * them all.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class AgentCounters {
+
+    /**
+     * Generator of the thread numbers
+     */
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    /**
+     * Number of agent requests of the iteration
+     */
+    public long agentRequests;
+
+    /**
+     * Number of Apache reloads of the iteration
+     */
+    public long agentReloads;
+
+    /**
+     * True for the thread copying the counters of the agent
+     */
+    private final boolean reporter = threads.getAndIncrement() == 0;
+
+    /**
+     * Clear the counters before an iteration
+     */
+    @Setup(Level.Iteration)
+    public void clear() {
+        agentRequests = 0L;
+        agentReloads = 0L;
+    }
+
+    /**
+     * Copy the counters of the agent, after an operation
+     * @param agent the agent
+     */
+    public void update(FakeAgent agent) {
+        if (reporter) {
+            agentRequests = agent.getRequestCount();
+            agentReloads = agent.getReloadCount();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.jonas.jpaas.router.manager.api.RouterChange;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enable/disable of a group of workers of a router, either as a single
+ * applyChanges call or as one call per worker, so that the gain of the
+ * batching in agent round trips and reloads can be measured.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(ApplyChangesBenchmark.THREADS)
+@State(Scope.Benchmark)
+public class ApplyChangesBenchmark extends RouterManagerFixture {
+
+    /**
+     * Number of threads, each one toggling its own workers
+     */
+    static final int THREADS = 4;
+
+    /**
+     * Number of workers changed by an operation
+     */
+    @Param({"16"})
+    public int changeCount;
+
+    /**
+     * True to send the changes with a single applyChanges call, false for one call per worker
+     */
+    @Param({"true", "false"})
+    public boolean batched;
+
+    @Override
+    protected void setUpRouter(String routerName) throws RouterManagerBeanException {
+        List<RouterChange> changes = new ArrayList<RouterChange>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            for (int i = 0; i < changeCount; i++) {
+                changes.add(RouterChange.createWorker(getWorkerName(thread, i), "10.0." + thread + "." + i, 8009));
+            }
+        }
+        routerManager.applyChanges(routerName, changes);
+    }
+
+    @Benchmark
+    public void toggleWorkers(ChangeState state, AgentCounters counters) throws RouterManagerBeanException {
+        if (batched) {
+            routerManager.applyChanges(routerName, state.enable ? state.enableChanges : state.disableChanges);
+        } else {
+            for (String workerName : state.workerNames) {
+                if (state.enable) {
+                    routerManager.enableWorker(routerName, workerName);
+                } else {
+                    routerManager.disableWorker(routerName, workerName);
+                }
+            }
+        }
+        state.enable = !state.enable;
+        counters.update(agent);
+    }
+
+    /**
+     * @param thread number of the thread
+     * @param i number of the worker in the thread
+     * @return the name of a worker toggled by a thread
+     */
+    private static String getWorkerName(int thread, int i) {
+        return "batch" + thread + "-" + i;
+    }
+
+    /**
+     * The workers toggled by a thread
+     */
+    @State(Scope.Thread)
+    public static class ChangeState {
+
+        /**
+         * Generator of the thread numbers
+         */
+        private static final AtomicInteger threads = new AtomicInteger();
+
+        /**
+         * Names of the workers
+         */
+        final List<String> workerNames = new ArrayList<String>();
+
+        /**
+         * The changes enabling the workers
+         */
+        final List<RouterChange> enableChanges = new ArrayList<RouterChange>();
+
+        /**
+         * The changes disabling the workers
+         */
+        final List<RouterChange> disableChanges = new ArrayList<RouterChange>();
+
+        /**
+         * True to enable the workers on next call
+         */
+        boolean enable = false;
+
+        /**
+         * Build the changes of the thread
+         * @param benchmark the benchmark
+         */
+        @Setup
+        public void setUp(ApplyChangesBenchmark benchmark) {
+            int thread = threads.getAndIncrement() % THREADS;
+            for (int i = 0; i < benchmark.changeCount; i++) {
+                String workerName = getWorkerName(thread, i);
+                workerNames.add(workerName);
+                enableChanges.add(RouterChange.enableWorker(workerName));
+                disableChanges.add(RouterChange.disableWorker(workerName));
+            }
+        }
+    }
+}
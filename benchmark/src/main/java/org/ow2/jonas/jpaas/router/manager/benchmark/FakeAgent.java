@@ -0,0 +1,234 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.benchmark;
+
+import org.ow2.jonas.jpaas.router.manager.bean.AgentEndpoint;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process JOnAS agent answering the jkmanager and apache-manager
+ * requests with an empty reply, after an injected latency.
+ * The requests are counted by method and resource (jkmanager/worker,
+ * apache-manager/server...), so that a benchmark can tell how many round
+ * trips and reloads an operation costs.
+ */
+public class FakeAgent {
+
+    /**
+     * Status of the replies
+     */
+    private static final int HTTP_STATUS_NO_CONTENT = 204;
+
+    /**
+     * The HTTP server
+     */
+    private final HttpServer server;
+
+    /**
+     * Threads handling the requests
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Number of requests, by method and resource
+     */
+    private final ConcurrentMap<String, AtomicLong> requests = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Number of requests
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Number of Apache reloads
+     */
+    private final AtomicLong reloadCount = new AtomicLong();
+
+    /**
+     * Latency (ms) added to each request
+     */
+    private volatile long latency = 0L;
+
+    /**
+     * Constructor, listening on an ephemeral port of the loopback
+     * @param threads number of threads handling the requests
+     * @throws IOException if the server can't be started
+     */
+    public FakeAgent(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FakeAgent-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                FakeAgent.this.handle(exchange);
+            }
+        });
+    }
+
+    /**
+     * Start the agent
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop the agent
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the API url of the agent
+     */
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @param latency latency (ms) added to each request
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @return the number of requests, by method and resource
+     */
+    public Map<String, Long> getRequests() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : requests.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of requests
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of Apache reloads
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * Forget the request counts
+     */
+    public void resetRequests() {
+        requests.clear();
+        requestCount.set(0L);
+        reloadCount.set(0L);
+    }
+
+    /**
+     * Reply to a request
+     * @param exchange the request
+     * @throws IOException on network error
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            // read the uploaded files
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                continue;
+            }
+            in.close();
+
+            String path = exchange.getRequestURI().getPath();
+            count(exchange.getRequestMethod() + " " + getResource(path));
+            requestCount.incrementAndGet();
+            if (path.endsWith(AgentEndpoint.RELOAD_PATH)) {
+                reloadCount.incrementAndGet();
+            }
+
+            long delay = latency;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(HTTP_STATUS_NO_CONTENT, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @param path path of a request
+     * @return the first two segments of the path (jkmanager/worker...)
+     */
+    private String getResource(String path) {
+        String[] segments = path.replaceAll("^/+", "").split("/+");
+        if (segments.length < 2) {
+            return path;
+        }
+        return segments[0] + "/" + segments[1];
+    }
+
+    /**
+     * Count a request
+     * @param key method and resource of the request
+     */
+    private void count(String key) {
+        AtomicLong counter = requests.get(key);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existing = requests.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        counter.incrementAndGet();
+    }
+}
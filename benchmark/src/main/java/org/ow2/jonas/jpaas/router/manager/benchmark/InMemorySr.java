@@ -0,0 +1,262 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.benchmark;
+
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.IaasComputeVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.LoadBalancerVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasResourceVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.WorkerVO;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in of the SR facades used by the RouterManagerBean.
+ * A facade is a proxy calling the method of this class with the same
+ * signature, so that only the methods used by the bean are implemented.
+ * The lists of a router are replaced on each change instead of being
+ * modified, so that they can be read while other threads change them.
+ */
+public class InMemorySr {
+
+    /**
+     * The routers, by id
+     */
+    private final ConcurrentMap<String, ApacheJkVO> routers = new ConcurrentHashMap<String, ApacheJkVO>();
+
+    /**
+     * The agents, by id
+     */
+    private final ConcurrentMap<String, PaasAgentVO> agents = new ConcurrentHashMap<String, PaasAgentVO>();
+
+    /**
+     * Agent id of the resources, by resource id
+     */
+    private final ConcurrentMap<String, String> agentLinks = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Methods of this class implementing the facade methods
+     */
+    private final ConcurrentMap<Method, Method> implementations = new ConcurrentHashMap<Method, Method>();
+
+    /**
+     * Generator of the ids
+     */
+    private final AtomicLong ids = new AtomicLong();
+
+    /**
+     * Get a facade backed by this SR
+     * @param itf interface of the facade
+     * @return the facade
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getFacade(Class<T> itf) {
+        return (T) Proxy.newProxyInstance(itf.getClassLoader(), new Class<?>[] {itf}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                try {
+                    return getImplementation(method).invoke(InMemorySr.this, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    /**
+     * Add an agent
+     * @param name Name of the agent
+     * @param apiUrl API url of the agent
+     * @return the agent
+     */
+    public PaasAgentVO addAgent(String name, String apiUrl) {
+        PaasAgentVO agent = new PaasAgentVO();
+        agent.setId(newId());
+        agent.setName(name);
+        agent.setApiUrl(apiUrl);
+        agents.put(agent.getId(), agent);
+        return agent;
+    }
+
+    /**
+     * Add a router linked to an agent
+     * @param name Name of the router
+     * @param agent the agent
+     * @return the router
+     */
+    public ApacheJkVO addRouter(String name, PaasAgentVO agent) {
+        ApacheJkVO apacheJk = new ApacheJkVO();
+        apacheJk.setName(name);
+        apacheJk.setState("RUNNING");
+        apacheJk = createApacheJkRouter(apacheJk);
+        addPaasResourceAgentLink(apacheJk.getId(), agent.getId());
+        return apacheJk;
+    }
+
+    // ISrPaasApacheJkRouterFacade
+
+    public List<ApacheJkVO> findApacheJkRouters() {
+        return new ArrayList<ApacheJkVO>(routers.values());
+    }
+
+    public ApacheJkVO createApacheJkRouter(ApacheJkVO apacheJk) {
+        apacheJk.setId(newId());
+        apacheJk.setWorkerList(new ArrayList<WorkerVO>());
+        apacheJk.setLoadBalancerList(new ArrayList<LoadBalancerVO>());
+        routers.put(apacheJk.getId(), apacheJk);
+        return apacheJk;
+    }
+
+    public ApacheJkVO getApacheJkRouter(String id) {
+        return routers.get(id);
+    }
+
+    public ApacheJkVO updateApacheJkRouter(ApacheJkVO apacheJk) {
+        routers.put(apacheJk.getId(), apacheJk);
+        return apacheJk;
+    }
+
+    public void deleteApacheJkRouter(String id) {
+        routers.remove(id);
+        agentLinks.remove(id);
+    }
+
+    public void addWorker(String id, String name, String host, Integer port) {
+        ApacheJkVO apacheJk = routers.get(id);
+        WorkerVO worker = new WorkerVO();
+        worker.setName(name);
+        worker.setHost(host);
+        worker.setPort(port);
+        worker.setStatus("ENABLE");
+        synchronized (apacheJk) {
+            List<WorkerVO> workers = new ArrayList<WorkerVO>(apacheJk.getWorkerList());
+            workers.add(worker);
+            apacheJk.setWorkerList(workers);
+        }
+    }
+
+    public void removeWorker(String id, String name) {
+        ApacheJkVO apacheJk = routers.get(id);
+        synchronized (apacheJk) {
+            List<WorkerVO> workers = new ArrayList<WorkerVO>();
+            for (WorkerVO worker : apacheJk.getWorkerList()) {
+                if (!worker.getName().equals(name)) {
+                    workers.add(worker);
+                }
+            }
+            apacheJk.setWorkerList(workers);
+        }
+    }
+
+    public void addLoadBalancer(String id, String name, List<String> mountPoints, List<String> workers) {
+        ApacheJkVO apacheJk = routers.get(id);
+        LoadBalancerVO loadBalancer = new LoadBalancerVO();
+        loadBalancer.setName(name);
+        loadBalancer.setMountPoints(new ArrayList<String>(mountPoints));
+        loadBalancer.setWorkers(new ArrayList<String>(workers));
+        synchronized (apacheJk) {
+            List<LoadBalancerVO> loadBalancers = new ArrayList<LoadBalancerVO>(apacheJk.getLoadBalancerList());
+            loadBalancers.add(loadBalancer);
+            apacheJk.setLoadBalancerList(loadBalancers);
+        }
+    }
+
+    public void removeLoadBalancer(String id, String name) {
+        ApacheJkVO apacheJk = routers.get(id);
+        synchronized (apacheJk) {
+            List<LoadBalancerVO> loadBalancers = new ArrayList<LoadBalancerVO>();
+            for (LoadBalancerVO loadBalancer : apacheJk.getLoadBalancerList()) {
+                if (!loadBalancer.getName().equals(name)) {
+                    loadBalancers.add(loadBalancer);
+                }
+            }
+            apacheJk.setLoadBalancerList(loadBalancers);
+        }
+    }
+
+    // ISrPaasAgentFacade
+
+    public List<PaasAgentVO> findAgents() {
+        return new ArrayList<PaasAgentVO>(agents.values());
+    }
+
+    // ISrPaasResourcePaasAgentLink
+
+    public List<PaasResourceVO> findPaasResourcesByAgent(String agentId) {
+        List<PaasResourceVO> resources = new ArrayList<PaasResourceVO>();
+        for (ApacheJkVO apacheJk : routers.values()) {
+            if (agentId.equals(agentLinks.get(apacheJk.getId()))) {
+                resources.add(apacheJk);
+            }
+        }
+        return resources;
+    }
+
+    public void addPaasResourceAgentLink(String resourceId, String agentId) {
+        agentLinks.put(resourceId, agentId);
+    }
+
+    public PaasAgentVO findAgentByPaasResource(String resourceId) {
+        String agentId = agentLinks.get(resourceId);
+        return agentId == null ? null : agents.get(agentId);
+    }
+
+    // ISrPaasAgentIaasComputeLink and ISrPaasResourceIaasComputeLink, there is no IaaS compute
+
+    public IaasComputeVO findIaasComputeByPaasAgent(String agentId) {
+        return null;
+    }
+
+    public IaasComputeVO findIaasComputeByPaasResource(String resourceId) {
+        return null;
+    }
+
+    /**
+     * @return a new id
+     */
+    private String newId() {
+        return String.valueOf(ids.incrementAndGet());
+    }
+
+    /**
+     * @param method a facade method
+     * @return the method of this class implementing it
+     * @throws UnsupportedOperationException if the method is not implemented
+     */
+    private Method getImplementation(Method method) {
+        Method implementation = implementations.get(method);
+        if (implementation == null) {
+            try {
+                implementation = InMemorySr.class.getMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                throw new UnsupportedOperationException("In-memory SR: " + method);
+            }
+            implementations.put(method, implementation);
+        }
+        return implementation;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creation of load balancers with large mount point lists, each mount
+ * point being a jkmanager request unless the router is in full push mode.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LoadBalancerBenchmark extends RouterManagerFixture {
+
+    /**
+     * Number of mount points of a load balancer
+     */
+    @Param({"10", "100", "1000"})
+    public int mountPointCount;
+
+    /**
+     * Workers of the load balancers
+     */
+    private final List<String> workers = Arrays.asList("lbWorker1", "lbWorker2");
+
+    /**
+     * Mount points of the load balancers
+     */
+    private List<String> mountPoints;
+
+    /**
+     * Generator of the names of the load balancers
+     */
+    private final AtomicLong loadBalancers = new AtomicLong();
+
+    @Override
+    protected void setUpRouter(String routerName) throws RouterManagerBeanException {
+        for (String worker : workers) {
+            routerManager.createWorker(routerName, worker, "10.0.0.1", 8009);
+        }
+        mountPoints = new ArrayList<String>(mountPointCount);
+        for (int i = 0; i < mountPointCount; i++) {
+            mountPoints.add("/app/path" + i + "/*");
+        }
+    }
+
+    @Benchmark
+    public void createLoadBalancer(AgentCounters counters) throws RouterManagerBeanException {
+        routerManager.createLoadBalancer(routerName, "lb" + loadBalancers.incrementAndGet(), workers, mountPoints);
+        counters.update(agent);
+    }
+}
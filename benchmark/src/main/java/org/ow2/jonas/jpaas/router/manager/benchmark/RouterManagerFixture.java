@@ -0,0 +1,206 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.ow2.jonas.jpaas.catalog.api.IPaasCatalogFacade;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.jonas.jpaas.router.manager.bean.RouterManagerBean;
+import org.ow2.jonas.jpaas.router.manager.bean.RouterTransactions;
+import org.ow2.jonas.jpaas.router.manager.bean.RouterTransactionsBean;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentFacade;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentIaasComputeLink;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasResourceIaasComputeLink;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasResourcePaasAgentLink;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A RouterManagerBean wired, outside of any container, to an in-memory SR
+ * and to a {@link FakeAgent}. Each measurement iteration works on a new
+ * router, so that the routers don't grow over the whole run.
+ * The connection reuse and the reload window are read once per JVM, by the
+ * JDK and by the bean: they are set before the first request, JMH running
+ * each combination of parameters in its own fork. The requests received by
+ * the agent are reported with {@link AgentCounters}.
+ */
+@State(Scope.Benchmark)
+public abstract class RouterManagerFixture {
+
+    /**
+     * System property giving the routers in full push mode
+     */
+    private static final String FULL_PUSH_ROUTERS_PROPERTY = "jpaas.router.manager.push.fullRouters";
+
+    /**
+     * System property giving the window (ms) during which the reloads of an agent are merged
+     */
+    private static final String RELOAD_WINDOW_PROPERTY = "jpaas.router.manager.reload.window";
+
+    /**
+     * System property of the JDK telling if the HTTP connections are kept alive and reused
+     */
+    private static final String KEEP_ALIVE_PROPERTY = "http.keepAlive";
+
+    /**
+     * Number of threads of the fake agent
+     */
+    private static final int AGENT_THREADS = 64;
+
+    /**
+     * Latency (ms) of each agent request
+     */
+    @Param({"0", "5"})
+    public long agentLatency;
+
+    /**
+     * True to push the whole jk configuration instead of the jkmanager requests
+     */
+    @Param({"false", "true"})
+    public boolean fullPush;
+
+    /**
+     * True to reuse the HTTP connections to the agent
+     */
+    @Param({"true", "false"})
+    public boolean keepAlive;
+
+    /**
+     * Window (ms) during which the reloads of the agent are merged, 0 for no merging
+     */
+    @Param({"0", "200"})
+    public long reloadWindow;
+
+    /**
+     * The bean under test
+     */
+    protected RouterManagerBean routerManager;
+
+    /**
+     * The SR
+     */
+    protected InMemorySr sr;
+
+    /**
+     * The agent
+     */
+    protected FakeAgent agent;
+
+    /**
+     * The agent, as known by the SR
+     */
+    protected PaasAgentVO paasAgent;
+
+    /**
+     * Name of the router of the current iteration
+     */
+    protected volatile String routerName;
+
+    /**
+     * Number of the current iteration
+     */
+    private final AtomicInteger iterations = new AtomicInteger();
+
+    /**
+     * Start the agent and wire the bean
+     * @throws Exception on error
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        if (fullPush) {
+            System.setProperty(FULL_PUSH_ROUTERS_PROPERTY, "*");
+        } else {
+            System.clearProperty(FULL_PUSH_ROUTERS_PROPERTY);
+        }
+        System.setProperty(KEEP_ALIVE_PROPERTY, String.valueOf(keepAlive));
+        System.setProperty(RELOAD_WINDOW_PROPERTY, String.valueOf(reloadWindow));
+
+        agent = new FakeAgent(AGENT_THREADS);
+        agent.setLatency(agentLatency);
+        agent.start();
+
+        sr = new InMemorySr();
+        paasAgent = sr.addAgent("bench-agent", agent.getApiUrl());
+
+        routerManager = new RouterManagerBean();
+        inject(IPaasCatalogFacade.class, sr.getFacade(IPaasCatalogFacade.class));
+        inject(ISrPaasApacheJkRouterFacade.class, sr.getFacade(ISrPaasApacheJkRouterFacade.class));
+        inject(ISrPaasAgentFacade.class, sr.getFacade(ISrPaasAgentFacade.class));
+        inject(ISrPaasResourcePaasAgentLink.class, sr.getFacade(ISrPaasResourcePaasAgentLink.class));
+        inject(ISrPaasAgentIaasComputeLink.class, sr.getFacade(ISrPaasAgentIaasComputeLink.class));
+        inject(ISrPaasResourceIaasComputeLink.class, sr.getFacade(ISrPaasResourceIaasComputeLink.class));
+        // no transaction outside of a container: the units of work only run in the caller thread
+        inject(RouterTransactions.class, new RouterTransactionsBean());
+        routerManager.init();
+    }
+
+    /**
+     * Create the router of the iteration
+     * @throws RouterManagerBeanException on error
+     */
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws RouterManagerBeanException {
+        routerName = "bench-" + iterations.incrementAndGet();
+        sr.addRouter(routerName, paasAgent);
+        agent.resetRequests();
+        setUpRouter(routerName);
+    }
+
+    /**
+     * Stop the agent
+     */
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        routerManager.destroy();
+        agent.stop();
+    }
+
+    /**
+     * Prepare the router of an iteration
+     * @param routerName Name of the router
+     * @throws RouterManagerBeanException on error
+     */
+    protected void setUpRouter(String routerName) throws RouterManagerBeanException {
+    }
+
+    /**
+     * Set the facade or bean field of the bean having a given type
+     * @param type type of the field
+     * @param facade the facade or bean
+     * @throws IllegalAccessException on error
+     */
+    private void inject(Class<?> type, Object facade) throws IllegalAccessException {
+        for (Field field : RouterManagerBean.class.getDeclaredFields()) {
+            if (field.getType() == type) {
+                field.setAccessible(true);
+                field.set(routerManager, facade);
+                return;
+            }
+        }
+        throw new IllegalStateException("No field of type " + type.getName() + " in RouterManagerBean");
+    }
+}
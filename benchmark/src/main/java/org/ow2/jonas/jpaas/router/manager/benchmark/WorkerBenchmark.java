@@ -0,0 +1,107 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creation and enable/disable of the workers of a router.
+ * The threads work on the same router, so that the router locks and the
+ * merging of the reloads are exercised.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class WorkerBenchmark extends RouterManagerFixture {
+
+    /**
+     * Number of workers toggled
+     */
+    private static final int TOGGLED_WORKERS = 16;
+
+    /**
+     * Generator of the names of the created workers
+     */
+    private final AtomicLong workers = new AtomicLong();
+
+    @Override
+    protected void setUpRouter(String routerName) throws RouterManagerBeanException {
+        for (int i = 0; i < TOGGLED_WORKERS; i++) {
+            routerManager.createWorker(routerName, "toggle" + i, "10.0.0." + i, 8009);
+        }
+    }
+
+    @Benchmark
+    public void createWorker(AgentCounters counters) throws RouterManagerBeanException {
+        long n = workers.incrementAndGet();
+        routerManager.createWorker(routerName, "worker" + n, "10.0." + (n >> 8 & 0xff) + "." + (n & 0xff), 8009);
+        counters.update(agent);
+    }
+
+    @Benchmark
+    public void toggleWorker(ToggleState state, AgentCounters counters) throws RouterManagerBeanException {
+        if (state.enable) {
+            routerManager.enableWorker(routerName, state.workerName);
+        } else {
+            routerManager.disableWorker(routerName, state.workerName);
+        }
+        state.enable = !state.enable;
+        counters.update(agent);
+    }
+
+    /**
+     * The worker toggled by a thread
+     */
+    @State(Scope.Thread)
+    public static class ToggleState {
+
+        /**
+         * Generator of the thread numbers
+         */
+        private static final AtomicInteger threads = new AtomicInteger();
+
+        /**
+         * Name of the worker
+         */
+        String workerName = "toggle" + threads.getAndIncrement() % TOGGLED_WORKERS;
+
+        /**
+         * True to enable the worker on next call
+         */
+        boolean enable = false;
+    }
+}
@@ -0,0 +1,814 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * REST client of the JOnAS agents, shared by all the bean instances.
+ * A single Jersey client is created on first use and destroyed when the last
+ * bean instance releases it. Every response is closed once read, so that the
+ * underlying HTTP connection goes back to the keep-alive pool of its agent
+ * (host and port) and is reused by the next request.
+ * Independent requests to an agent may be sent concurrently, within a limit
+ * of concurrent requests per agent.
+ * The health of each agent is tracked: the idempotent requests (GET, PUT and
+ * DELETE) failing without reply or with a server error are retried with a
+ * jittered exponential backoff, and the requests to an agent failing
+ * repeatedly are rejected without being sent for a while.
+ */
+public class AgentClient {
+
+    /**
+     * System property giving the connect timeout (ms) of the agent requests
+     */
+    public static final String CONNECT_TIMEOUT_PROPERTY = "jpaas.router.manager.agent.connectTimeout";
+
+    /**
+     * System property giving the read timeout (ms) of the agent requests
+     */
+    public static final String READ_TIMEOUT_PROPERTY = "jpaas.router.manager.agent.readTimeout";
+
+    /**
+     * System property giving the maximum number of concurrent requests sent to an agent
+     */
+    public static final String MAX_CONCURRENT_REQUESTS_PROPERTY = "jpaas.router.manager.agent.maxConcurrentRequests";
+
+    /**
+     * System property giving the number of threads sending the concurrent requests
+     */
+    public static final String FAN_OUT_THREADS_PROPERTY = "jpaas.router.manager.agent.fanOutThreads";
+
+    /**
+     * System property giving the chunk size (bytes) of the uploaded files
+     */
+    public static final String CHUNK_SIZE_PROPERTY = "jpaas.router.manager.agent.chunkSize";
+
+    /**
+     * Default chunk size of the uploaded files
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * System property giving the maximum number of retries of an idempotent request
+     */
+    public static final String MAX_RETRIES_PROPERTY = "jpaas.router.manager.agent.maxRetries";
+
+    /**
+     * System property giving the base backoff (ms) between two tries of a request
+     */
+    public static final String RETRY_BACKOFF_PROPERTY = "jpaas.router.manager.agent.retryBackoff";
+
+    /**
+     * System property giving the number of consecutive failures after which an agent is considered down
+     */
+    public static final String FAILURE_THRESHOLD_PROPERTY = "jpaas.router.manager.agent.failureThreshold";
+
+    /**
+     * System property giving the time (ms) during which the requests to a down agent are rejected
+     */
+    public static final String OPEN_TIME_PROPERTY = "jpaas.router.manager.agent.openTime";
+
+    /**
+     * System property giving the time (ms) after which an agent not supporting an optional request is asked again
+     */
+    public static final String UNSUPPORTED_TTL_PROPERTY = "jpaas.router.manager.agent.unsupportedTtl";
+
+    /**
+     * Default maximum number of retries of an idempotent request
+     */
+    private static final int DEFAULT_MAX_RETRIES = 2;
+
+    /**
+     * Default base backoff (ms) between two tries of a request
+     */
+    private static final long DEFAULT_RETRY_BACKOFF = 200L;
+
+    /**
+     * Default number of consecutive failures after which an agent is considered down
+     */
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * Default time (ms) during which the requests to a down agent are rejected
+     */
+    private static final long DEFAULT_OPEN_TIME = 30000L;
+
+    /**
+     * Default time (ms) after which an agent not supporting an optional request is asked again
+     */
+    private static final long DEFAULT_UNSUPPORTED_TTL = 600000L;
+
+    /**
+     * First Http server error status
+     */
+    private static final int HTTP_STATUS_SERVER_ERROR = 500;
+
+    /**
+     * Default maximum number of concurrent requests sent to an agent
+     */
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * Default number of threads sending the concurrent requests
+     */
+    private static final int DEFAULT_FAN_OUT_THREADS = 32;
+
+    /**
+     * Idle time (s) after which a fan out thread is stopped
+     */
+    private static final long KEEP_ALIVE_TIME = 60L;
+
+    /**
+     * Default connect timeout (ms)
+     */
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Default read timeout (ms)
+     */
+    private static final int DEFAULT_READ_TIMEOUT = 60000;
+
+    /**
+     * Http accepted status
+     */
+    private static final int HTTP_STATUS_ACCEPTED = 202;
+
+    /**
+     * Http Ok status
+     */
+    private static final int HTTP_STATUS_OK = 200;
+
+    /**
+     * Http no content status
+     */
+    private static final int HTTP_STATUS_NO_CONTENT = 204;
+
+    /**
+     * Http Created status
+     */
+    private static final int HTTP_STATUS_CREATED = 201;
+
+    /**
+     * Http not found status
+     */
+    private static final int HTTP_STATUS_NOT_FOUND = 404;
+
+    /**
+     * Http method not allowed status
+     */
+    private static final int HTTP_STATUS_METHOD_NOT_ALLOWED = 405;
+
+    /**
+     * Http not implemented status
+     */
+    private static final int HTTP_STATUS_NOT_IMPLEMENTED = 501;
+
+    /**
+     * REST request type
+     */
+    public enum REST_TYPE {
+        PUT, POST, GET, DELETE
+    }
+
+    /**
+     * The shared instance
+     */
+    private static AgentClient instance = null;
+
+    /**
+     * Number of users of the shared instance
+     */
+    private static int references = 0;
+
+    /**
+     * The Jersey client
+     */
+    private final Client client;
+
+    /**
+     * Executor sending the concurrent requests
+     */
+    private final ThreadPoolExecutor fanOutExecutor;
+
+    /**
+     * Permits of concurrent requests, by agent (host:port)
+     */
+    private final ConcurrentMap<String, Semaphore> agentPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * Maximum number of concurrent requests sent to an agent
+     */
+    private final int maxConcurrentRequests;
+
+    /**
+     * Maximum number of retries of an idempotent request
+     */
+    private final int maxRetries;
+
+    /**
+     * Base backoff (ms) between two tries of a request
+     */
+    private final long retryBackoff;
+
+    /**
+     * Number of consecutive failures after which an agent is considered down
+     */
+    private final int failureThreshold;
+
+    /**
+     * Time (ms) during which the requests to a down agent are rejected
+     */
+    private final long openTime;
+
+    /**
+     * Health of the agents, by agent (host:port)
+     */
+    private final ConcurrentMap<String, AgentHealth> agentHealth = new ConcurrentHashMap<String, AgentHealth>();
+
+    /**
+     * Time (ms) after which an agent not supporting an optional request is asked again
+     */
+    private final long unsupportedTtl;
+
+    /**
+     * The optional requests not supported by the agents, as "host:port feature", with the time (ms) of the refusal
+     */
+    private final ConcurrentMap<String, Long> unsupportedRequests = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Constructor
+     * @param connectTimeout connect timeout (ms)
+     * @param readTimeout read timeout (ms)
+     * @param maxConcurrentRequests maximum number of concurrent requests sent to an agent
+     * @param fanOutThreads number of threads sending the concurrent requests
+     * @param chunkSize chunk size of the uploaded files
+     * @param maxRetries maximum number of retries of an idempotent request
+     * @param retryBackoff base backoff (ms) between two tries of a request
+     * @param failureThreshold number of consecutive failures after which an agent is considered down
+     * @param openTime time (ms) during which the requests to a down agent are rejected
+     * @param unsupportedTtl time (ms) after which an agent not supporting an optional request is asked again
+     */
+    private AgentClient(int connectTimeout, int readTimeout, int maxConcurrentRequests, int fanOutThreads,
+            int chunkSize, int maxRetries, long retryBackoff, int failureThreshold, long openTime,
+            long unsupportedTtl) {
+        ClientConfig config = new DefaultClientConfig();
+        config.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, connectTimeout);
+        config.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout);
+        // stream the uploaded files instead of buffering them
+        config.getProperties().put(ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, chunkSize);
+        client = Client.create(config);
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+        this.unsupportedTtl = unsupportedTtl;
+        fanOutExecutor = new ThreadPoolExecutor(fanOutThreads, fanOutThreads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "RouterManager-agent-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        fanOutExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the shared client, creating it if needed.
+     * Each call must be balanced by a call to {@link #release()}.
+     * @return the shared client
+     */
+    public static synchronized AgentClient acquire() {
+        if (instance == null) {
+            instance = new AgentClient(
+                    Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT),
+                    Integer.getInteger(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT),
+                    Integer.getInteger(MAX_CONCURRENT_REQUESTS_PROPERTY, DEFAULT_MAX_CONCURRENT_REQUESTS),
+                    Integer.getInteger(FAN_OUT_THREADS_PROPERTY, DEFAULT_FAN_OUT_THREADS),
+                    Integer.getInteger(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE),
+                    Integer.getInteger(MAX_RETRIES_PROPERTY, DEFAULT_MAX_RETRIES),
+                    Long.getLong(RETRY_BACKOFF_PROPERTY, DEFAULT_RETRY_BACKOFF),
+                    Integer.getInteger(FAILURE_THRESHOLD_PROPERTY, DEFAULT_FAILURE_THRESHOLD),
+                    Long.getLong(OPEN_TIME_PROPERTY, DEFAULT_OPEN_TIME),
+                    Long.getLong(UNSUPPORTED_TTL_PROPERTY, DEFAULT_UNSUPPORTED_TTL));
+            RouterMetrics.getInstance().setAgentHealth(instance.getAgentHealth());
+        }
+        references++;
+        return instance;
+    }
+
+    /**
+     * Release the shared client. The client is destroyed when it has no more user.
+     */
+    public static synchronized void release() {
+        if (references > 0) {
+            references--;
+            if (references == 0) {
+                instance.fanOutExecutor.shutdown();
+                instance.client.destroy();
+                instance = null;
+                RouterMetrics.getInstance().setAgentHealth(null);
+            }
+        }
+    }
+
+    /**
+     * Send a REST request and get response
+     *
+     * @param type
+     *            Http type of the request
+     * @param url
+     *            request path
+     * @param params
+     *            XML content of the request
+     * @param responseClass
+     *            response class
+     * @return ResponseClass response class
+     */
+    public <ResponseClass> ResponseClass sendRequestWithReply(REST_TYPE type,
+            String url, MultivaluedMap<String, String> params,
+            java.lang.Class<ResponseClass> responseClass)
+            throws RouterManagerBeanException {
+        url = AgentEndpoint.normalize(url);
+        return execute(AgentEndpoint.getHostPort(url), type, url, params, null, responseClass);
+    }
+
+    /**
+     * Send a REST request to an agent and get response
+     *
+     * @param endpoint
+     *            the agent endpoint
+     * @param type
+     *            Http type of the request
+     * @param url
+     *            request path, built by the endpoint
+     * @param params
+     *            XML content of the request
+     * @param responseClass
+     *            response class
+     * @return ResponseClass response class
+     */
+    public <ResponseClass> ResponseClass sendRequestWithReply(AgentEndpoint endpoint, REST_TYPE type,
+            String url, MultivaluedMap<String, String> params,
+            java.lang.Class<ResponseClass> responseClass)
+            throws RouterManagerBeanException {
+        return execute(endpoint.getHostPort(), type, url, params, null, responseClass);
+    }
+
+    /**
+     * Send a REST request of an optional feature of the agents. An agent
+     * replying that it doesn't implement the request (405 or 501) is
+     * remembered as not supporting the feature, and not asked again until
+     * the jpaas.router.manager.agent.unsupportedTtl delay is elapsed, so that
+     * an upgraded agent is used. A 404 reply may be about the resource
+     * rather than the request: it only makes this call fall back.
+     *
+     * @param endpoint
+     *            the agent endpoint
+     * @param feature
+     *            name of the feature
+     * @param type
+     *            Http type of the request
+     * @param url
+     *            request path, built by the endpoint
+     * @param params
+     *            parameters of the request, may be null
+     * @return false if the agent doesn't support the feature
+     * @throws RouterManagerBeanException
+     *            on agent error
+     */
+    public boolean sendOptionalRequest(AgentEndpoint endpoint, String feature, REST_TYPE type, String url,
+            MultivaluedMap<String, String> params) throws RouterManagerBeanException {
+        String key = endpoint.getHostPort() + " " + feature;
+        Long refusalTime = unsupportedRequests.get(key);
+        if (refusalTime != null) {
+            if (System.currentTimeMillis() - refusalTime < unsupportedTtl) {
+                return false;
+            }
+            unsupportedRequests.remove(key, refusalTime);
+        }
+        try {
+            execute(endpoint.getHostPort(), type, url, params, null, null);
+            return true;
+        } catch (UnsupportedRequestException e) {
+            if (e.getStatus() != HTTP_STATUS_NOT_FOUND) {
+                unsupportedRequests.put(key, System.currentTimeMillis());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Upload a file with a PUT request. The file is written to the
+     * connection while it is sent.
+     *
+     * @param endpoint
+     *            the agent endpoint
+     * @param url
+     *            request path, built by the endpoint
+     * @param content
+     *            content of the file
+     * @throws RouterManagerBeanException
+     *            on agent error
+     */
+    public void uploadFile(AgentEndpoint endpoint, String url, StreamingOutput content)
+            throws RouterManagerBeanException {
+        execute(endpoint.getHostPort(), REST_TYPE.PUT, url, null, content, null);
+    }
+
+    /**
+     * @return live view of the health of the agents already contacted, published by the {@link RouterMetrics}
+     */
+    public Collection<AgentHealth> getAgentHealth() {
+        return Collections.unmodifiableCollection(agentHealth.values());
+    }
+
+    /**
+     * Send a REST request, retrying the idempotent ones, and get response
+     *
+     * @param hostPort
+     *            the agent (host:port)
+     * @param type
+     *            Http type of the request
+     * @param url
+     *            normalized request path
+     * @param params
+     *            query parameters of the request
+     * @param content
+     *            content of the request, may be null
+     * @param responseClass
+     *            response class
+     * @return ResponseClass response class
+     * @throws RouterManagerBeanException
+     *            if the agent is down or on agent error
+     */
+    private <ResponseClass> ResponseClass execute(String hostPort, REST_TYPE type, String url,
+            MultivaluedMap<String, String> params, StreamingOutput content,
+            java.lang.Class<ResponseClass> responseClass) throws RouterManagerBeanException {
+
+        if (type != REST_TYPE.GET) {
+            JournalInterceptor.progress();
+        }
+        RouterMetrics metrics = RouterMetrics.getInstance();
+        long start = metrics.start();
+        boolean failed = true;
+        try {
+            ResponseClass response = execute(getHealth(hostPort), type, url, params, content, responseClass);
+            failed = false;
+            return response;
+        } finally {
+            metrics.record(RouterMetrics.PHASE, RouterMetrics.AGENT_CALL, start, failed, hostPort);
+        }
+    }
+
+    /**
+     * Send a REST request, retrying it while the agent doesn't reply
+     * @param health the health of the agent
+     * @param type Http type of the request
+     * @param url request path
+     * @param params parameters of the request, may be null
+     * @param content content of the request, may be null
+     * @param responseClass response class
+     * @return ResponseClass response class
+     * @throws RouterManagerBeanException
+     */
+    private <ResponseClass> ResponseClass execute(AgentHealth health, REST_TYPE type, String url,
+            MultivaluedMap<String, String> params, StreamingOutput content,
+            java.lang.Class<ResponseClass> responseClass) throws RouterManagerBeanException {
+
+        boolean idempotent = type != REST_TYPE.POST;
+
+        WebResource webResource = client.resource(url);
+
+        if (params != null) {
+            webResource = webResource.queryParams(params);
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            health.beforeRequest();
+
+            ClientResponse clientResponse;
+            try {
+                clientResponse = send(webResource, type, content);
+            } catch (ClientHandlerException e) {
+                // no reply: connection refused, timeout...
+                health.onFailure();
+                if (idempotent && attempt < maxRetries) {
+                    backoff(health, attempt, type, url);
+                    continue;
+                }
+                throw new RouterManagerBeanException("Error on JOnAS agent request " + type + " " + url + " : "
+                        + e.getMessage(), e);
+            } catch (RuntimeException e) {
+                // never leave a trial request running
+                health.onFailure();
+                throw e;
+            }
+
+            // the agent replied that it doesn't implement the request: it is not failing
+            if (clientResponse.getStatus() >= HTTP_STATUS_SERVER_ERROR
+                    && clientResponse.getStatus() != HTTP_STATUS_NOT_IMPLEMENTED) {
+                health.onFailure();
+                if (idempotent && attempt < maxRetries) {
+                    clientResponse.close();
+                    backoff(health, attempt, type, url);
+                    continue;
+                }
+            } else {
+                health.onSuccess();
+            }
+            return readResponse(clientResponse, responseClass, type, url);
+        }
+    }
+
+    /**
+     * Send a REST request
+     * @param webResource the resource
+     * @param type Http type of the request
+     * @param content content of the request, may be null
+     * @return the response
+     */
+    private ClientResponse send(WebResource webResource, REST_TYPE type, StreamingOutput content) {
+        if (content != null) {
+            return webResource.type(MediaType.TEXT_PLAIN).put(ClientResponse.class, content);
+        }
+        switch (type) {
+            case PUT:
+                return webResource.put(ClientResponse.class);
+            case GET:
+                return webResource.get(ClientResponse.class);
+            case POST:
+                return webResource.post(ClientResponse.class);
+            case DELETE:
+                return webResource.delete(ClientResponse.class);
+            default:// put
+                return webResource.put(ClientResponse.class);
+        }
+    }
+
+    /**
+     * Wait before the next try of a request: an exponential backoff, half of
+     * it being random so that the callers of a recovering agent don't retry
+     * all at the same time.
+     * @param health the health of the agent
+     * @param attempt number of the failed try, from 0
+     * @param type Http type of the request
+     * @param url request path
+     * @throws RouterManagerBeanException if interrupted
+     */
+    private void backoff(AgentHealth health, int attempt, REST_TYPE type, String url)
+            throws RouterManagerBeanException {
+        health.onRetry();
+        long delay = retryBackoff << attempt;
+        delay = delay / 2 + (long) (Math.random() * (delay / 2 + 1));
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RouterManagerBeanException("Interrupted while retrying JOnAS agent request " + type + " "
+                    + url, e);
+        }
+    }
+
+    /**
+     * Check the status of a response and read its entity
+     *
+     * @param clientResponse
+     *            the response
+     * @param responseClass
+     *            response class
+     * @param type
+     *            Http type of the request
+     * @param url
+     *            request path
+     * @return ResponseClass response class
+     * @throws RouterManagerBeanException
+     *            on error status
+     */
+    private <ResponseClass> ResponseClass readResponse(ClientResponse clientResponse,
+            java.lang.Class<ResponseClass> responseClass, REST_TYPE type, String url)
+            throws RouterManagerBeanException {
+        try {
+            int status = clientResponse.getStatus();
+
+            if (status == HTTP_STATUS_NOT_FOUND || status == HTTP_STATUS_METHOD_NOT_ALLOWED
+                    || status == HTTP_STATUS_NOT_IMPLEMENTED) {
+                throw new UnsupportedRequestException(
+                        "Error on JOnAS agent request " + type + " " + url + " : " + status, status);
+            }
+
+            if (status != HTTP_STATUS_ACCEPTED && status != HTTP_STATUS_OK
+                    && status != HTTP_STATUS_NO_CONTENT && status != HTTP_STATUS_CREATED) {
+                throw new RouterManagerBeanException(
+                        "Error on JOnAS agent request " + type + " " + url + " : " + status);
+            }
+
+            ResponseClass r = null;
+
+            if (status != HTTP_STATUS_NO_CONTENT) {
+                //ToDo Apache-Manager REST interfaces need to be harmonized
+/*                if (clientResponse.getType() != MediaType.APPLICATION_XML_TYPE) {
+                    throw new RouterManagerBeanException(
+                            "Error on JOnAS agent response, unexpected type : "
+                                    + clientResponse.getType());
+                }*/
+
+                if (responseClass != null)
+                    r = clientResponse.getEntity(responseClass);
+            }
+
+            return r;
+        } finally {
+            // give the connection back to the keep-alive pool
+            clientResponse.close();
+        }
+    }
+
+    /**
+     * Send the same REST request with several parameters sets, concurrently,
+     * and wait for all the replies. The number of concurrent requests to the
+     * agent is limited.
+     *
+     * @param endpoint
+     *            the agent endpoint
+     * @param type
+     *            Http type of the requests
+     * @param url
+     *            request path, built by the endpoint
+     * @param paramsList
+     *            parameters of each request
+     * @throws RouterManagerBeanException
+     *            the first error met, once all the requests are done
+     */
+    public void sendRequests(final AgentEndpoint endpoint, final REST_TYPE type, final String url,
+            List<MultivaluedMap<String, String>> paramsList) throws RouterManagerBeanException {
+
+        if (type != REST_TYPE.GET && !paramsList.isEmpty()) {
+            // the fan out threads don't see the operation of the caller
+            JournalInterceptor.progress();
+        }
+        if (paramsList.size() <= 1) {
+            for (MultivaluedMap<String, String> params : paramsList) {
+                sendRequestWithReply(endpoint, type, url, params, null);
+            }
+            return;
+        }
+
+        final Semaphore permits = getPermits(endpoint.getHostPort());
+        List<Future<Void>> replies = new ArrayList<Future<Void>>(paramsList.size());
+        RouterManagerBeanException error = null;
+        try {
+            for (final MultivaluedMap<String, String> params : paramsList) {
+                // the caller waits for a permit, the fan out threads never block
+                permits.acquire();
+                try {
+                    replies.add(fanOutExecutor.submit(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            try {
+                                sendRequestWithReply(endpoint, type, url, params, null);
+                                return null;
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw new RouterManagerBeanException("Error on JOnAS agent request : client released", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = new RouterManagerBeanException("Interrupted while sending JOnAS agent requests", e);
+        }
+
+        // same semantic as the sequential requests: fail if one of them failed
+        for (Future<Void> reply : replies) {
+            try {
+                reply.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (error == null) {
+                    error = new RouterManagerBeanException("Interrupted while sending JOnAS agent requests", e);
+                }
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    if (e.getCause() instanceof RouterManagerBeanException) {
+                        error = (RouterManagerBeanException) e.getCause();
+                    } else {
+                        error = new RouterManagerBeanException("Error on JOnAS agent request : " + e.getCause(),
+                                e.getCause());
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Get the permits of concurrent requests of an agent
+     * @param hostPort the agent (host:port)
+     * @return the permits of the agent
+     */
+    private Semaphore getPermits(String hostPort) {
+        Semaphore permits = agentPermits.get(hostPort);
+        if (permits == null) {
+            permits = new Semaphore(maxConcurrentRequests);
+            Semaphore existing = agentPermits.putIfAbsent(hostPort, permits);
+            if (existing != null) {
+                permits = existing;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Get the health of an agent
+     * @param hostPort the agent (host:port)
+     * @return the health of the agent
+     */
+    private AgentHealth getHealth(String hostPort) {
+        AgentHealth health = agentHealth.get(hostPort);
+        if (health == null) {
+            health = new AgentHealth(hostPort, failureThreshold, openTime);
+            AgentHealth existing = agentHealth.putIfAbsent(hostPort, health);
+            if (existing != null) {
+                health = existing;
+            }
+        }
+        return health;
+    }
+
+    /**
+     * Error of a request unknown by the agent
+     */
+    private static class UnsupportedRequestException extends RouterManagerBeanException {
+
+        /**
+         * The Http status of the reply
+         */
+        private final int status;
+
+        public UnsupportedRequestException(String message, int status) {
+            super(message);
+            this.status = status;
+        }
+
+        /**
+         * @return the Http status of the reply: 404, 405 or 501
+         */
+        public int getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+
+import java.net.URI;
+
+/**
+ * REST endpoint of a JOnAS agent.
+ * The API url of the agent is normalized once and the urls of the
+ * jkmanager and apache-manager resources are prebuilt, so that sending a
+ * request only appends a name to a prefix.
+ */
+public class AgentEndpoint {
+
+    /**
+     * Path of the reload action of the apache-manager
+     */
+    public static final String RELOAD_PATH = "apache-manager/server/action/reload";
+
+    /**
+     * Path of the stop action of the apache-manager
+     */
+    public static final String STOP_PATH = "apache-manager/server/action/stop";
+
+    /**
+     * Path of the workers.properties file of the jkmanager
+     */
+    public static final String WORKERS_PROPERTIES_PATH = "jkmanager/workers.properties";
+
+    /**
+     * Path of the uriworkermap.properties file of the jkmanager
+     */
+    public static final String URI_WORKER_MAP_PATH = "jkmanager/uriworkermap.properties";
+
+    /**
+     * The agent
+     */
+    private final PaasAgentVO agent;
+
+    /**
+     * Normalized API url of the agent, without trailing slash
+     */
+    private final String baseUrl;
+
+    /**
+     * The agent host and port (host:port)
+     */
+    private final String hostPort;
+
+    /**
+     * Prefix of the worker urls
+     */
+    private final String workerPrefix;
+
+    /**
+     * Prefix of the load balancer urls
+     */
+    private final String loadBalancerPrefix;
+
+    /**
+     * Prefix of the mount point urls
+     */
+    private final String mountPrefix;
+
+    /**
+     * Url of the reload action
+     */
+    private final String reloadUrl;
+
+    /**
+     * Url of the stop action
+     */
+    private final String stopUrl;
+
+    /**
+     * Url of the workers.properties file
+     */
+    private final String workersPropertiesUrl;
+
+    /**
+     * Url of the uriworkermap.properties file
+     */
+    private final String uriWorkerMapUrl;
+
+    /**
+     * Constructor
+     * @param agent the agent
+     */
+    public AgentEndpoint(PaasAgentVO agent) {
+        this.agent = agent;
+        String url = normalize(agent.getApiUrl());
+        if (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        this.baseUrl = url;
+        this.hostPort = getHostPort(url);
+        this.workerPrefix = url + "/jkmanager/worker/";
+        this.loadBalancerPrefix = url + "/jkmanager/loadbalancer/";
+        this.mountPrefix = url + "/jkmanager/mount/";
+        this.reloadUrl = url + "/" + RELOAD_PATH;
+        this.stopUrl = url + "/" + STOP_PATH;
+        this.workersPropertiesUrl = url + "/" + WORKERS_PROPERTIES_PATH;
+        this.uriWorkerMapUrl = url + "/" + URI_WORKER_MAP_PATH;
+    }
+
+    /**
+     * @return the agent
+     */
+    public PaasAgentVO getAgent() {
+        return agent;
+    }
+
+    /**
+     * @return the name of the agent
+     */
+    public String getName() {
+        return agent.getName();
+    }
+
+    /**
+     * @return the normalized API url of the agent, without trailing slash
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return the agent host and port (host:port)
+     */
+    public String getHostPort() {
+        return hostPort;
+    }
+
+    /**
+     * @param workerName Name of a worker
+     * @return the url of the worker
+     */
+    public String getWorkerUrl(String workerName) {
+        return workerPrefix + workerName;
+    }
+
+    /**
+     * @param workerName Name of a worker
+     * @param enable true for the enable action, false for the disable one
+     * @return the url of the enable or disable action of the worker
+     */
+    public String getWorkerStatusUrl(String workerName, boolean enable) {
+        return workerPrefix + workerName + (enable ? "/enable" : "/disable");
+    }
+
+    /**
+     * @param lbName Name of a load balancer
+     * @return the url of the load balancer
+     */
+    public String getLoadBalancerUrl(String lbName) {
+        return loadBalancerPrefix + lbName;
+    }
+
+    /**
+     * @param lbName Name of a load balancer
+     * @param workerName Name of a worker
+     * @return the url of the membership of the worker in the load balancer
+     */
+    public String getLoadBalancerMemberUrl(String lbName, String workerName) {
+        return loadBalancerPrefix + lbName + "/worker/" + workerName;
+    }
+
+    /**
+     * @param lbName Name of a load balancer
+     * @return the url of the mount points of the load balancer
+     */
+    public String getMountUrl(String lbName) {
+        return mountPrefix + lbName;
+    }
+
+    /**
+     * @return the url of the reload action
+     */
+    public String getReloadUrl() {
+        return reloadUrl;
+    }
+
+    /**
+     * @return the url of the stop action
+     */
+    public String getStopUrl() {
+        return stopUrl;
+    }
+
+    /**
+     * @return the url of the workers.properties file
+     */
+    public String getWorkersPropertiesUrl() {
+        return workersPropertiesUrl;
+    }
+
+    /**
+     * @return the url of the uriworkermap.properties file
+     */
+    public String getUriWorkerMapUrl() {
+        return uriWorkerMapUrl;
+    }
+
+    @Override
+    public String toString() {
+        return "AgentEndpoint[" + agent.getName() + ", " + baseUrl + "]";
+    }
+
+    /**
+     * Remove redundant forward slash in a String url
+     * @param s a String url
+     * @return The String url without redundant forward slash
+     */
+    public static String normalize(String s) {
+        String tmp = s.replaceAll("/+", "/");
+        return tmp.replaceAll(":/", "://");
+    }
+
+    /**
+     * @param url a normalized url
+     * @return the host and port of the url (host:port)
+     */
+    public static String getHostPort(String url) {
+        URI uri = URI.create(url);
+        return uri.getHost() + ":" + uri.getPort();
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasResourcePaasAgentLink;
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of the agent endpoints by router name.
+ * The agent of a router is resolved from the SR link once, then reused
+ * until the entry expires or the RouterManagerBean changes the link.
+ */
+public class AgentEndpointCache {
+
+    /**
+     * Default time to live of an entry (ms)
+     */
+    public static final long DEFAULT_TTL = 300000L;
+
+    /**
+     * The endpoints, by router name
+     */
+    private final ConcurrentMap<String, CachedEndpoint> endpoints = new ConcurrentHashMap<String, CachedEndpoint>();
+
+    /**
+     * Time to live of an entry (ms)
+     */
+    private final long ttl;
+
+    /**
+     * Constructor
+     * @param ttl time to live of an entry (ms)
+     */
+    public AgentEndpointCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Get the agent endpoint of a router, resolving it from the SR if needed
+     * @param apacheJk the router
+     * @param srApacheAgentLinkEjb SR facade apache - agent link used to resolve the agent
+     * @return the endpoint or null if the router has no agent
+     */
+    public AgentEndpoint get(ApacheJkVO apacheJk, ISrPaasResourcePaasAgentLink srApacheAgentLinkEjb) {
+        CachedEndpoint cached = endpoints.get(apacheJk.getName());
+        // a router recreated with the same name may have another agent
+        if (cached != null && !cached.isExpired() && cached.getRouterId().equals(apacheJk.getId())) {
+            return cached.getEndpoint();
+        }
+        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+        if (agent == null) {
+            endpoints.remove(apacheJk.getName());
+            return null;
+        }
+        AgentEndpoint endpoint = new AgentEndpoint(agent);
+        put(apacheJk, endpoint);
+        return endpoint;
+    }
+
+    /**
+     * Get the known agent endpoint of a router, without resolving it nor checking its age
+     * @param routerName Name of the router
+     * @return the endpoint or null if it is unknown
+     */
+    public AgentEndpoint peek(String routerName) {
+        CachedEndpoint cached = endpoints.get(routerName);
+        return cached == null ? null : cached.getEndpoint();
+    }
+
+    /**
+     * Add or replace the agent endpoint of a router
+     * @param apacheJk the router
+     * @param endpoint the endpoint of its agent
+     */
+    public void put(ApacheJkVO apacheJk, AgentEndpoint endpoint) {
+        endpoints.put(apacheJk.getName(), new CachedEndpoint(apacheJk.getId(), endpoint, System.currentTimeMillis()));
+    }
+
+    /**
+     * Forget the agent endpoint of a router, after a change of its agent link
+     * @param routerName Name of the router
+     */
+    public void remove(String routerName) {
+        endpoints.remove(routerName);
+    }
+
+    /**
+     * Forget all the agent endpoints
+     */
+    public void clear() {
+        endpoints.clear();
+    }
+
+    /**
+     * An endpoint of the index
+     */
+    private class CachedEndpoint {
+
+        /**
+         * Id of the router
+         */
+        private final String routerId;
+
+        /**
+         * The endpoint
+         */
+        private final AgentEndpoint endpoint;
+
+        /**
+         * Time of the resolution (ms)
+         */
+        private final long resolveTime;
+
+        public CachedEndpoint(String routerId, AgentEndpoint endpoint, long resolveTime) {
+            this.routerId = routerId;
+            this.endpoint = endpoint;
+            this.resolveTime = resolveTime;
+        }
+
+        public String getRouterId() {
+            return routerId;
+        }
+
+        public AgentEndpoint getEndpoint() {
+            return endpoint;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() - resolveTime > ttl;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.util.log.Log;
+import org.ow2.util.log.LogFactory;
+
+/**
+ * Health of an agent (host:port), with a circuit breaker.
+ * After a number of consecutive failures the circuit is opened and the
+ * requests to the agent fail immediately. Once the open time is elapsed, a
+ * single request is let through: its success closes the circuit, its failure
+ * opens it again.
+ */
+public class AgentHealth {
+
+    /**
+     * State of the circuit
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * The logger
+     */
+    private static Log logger = LogFactory.getLog(AgentHealth.class);
+
+    /**
+     * The agent (host:port)
+     */
+    private final String agent;
+
+    /**
+     * Number of consecutive failures opening the circuit
+     */
+    private final int failureThreshold;
+
+    /**
+     * Time (ms) during which the circuit stays open
+     */
+    private final long openTime;
+
+    /**
+     * State of the circuit
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * Number of consecutive failures
+     */
+    private int consecutiveFailures = 0;
+
+    /**
+     * Time the circuit was opened
+     */
+    private long openedAt = 0;
+
+    /**
+     * True while the trial request of a half open circuit is running
+     */
+    private boolean trialRunning = false;
+
+    /**
+     * Number of failed requests
+     */
+    private long failures = 0;
+
+    /**
+     * Number of retried requests
+     */
+    private long retries = 0;
+
+    /**
+     * Number of requests rejected because the circuit was open
+     */
+    private long rejected = 0;
+
+    /**
+     * Number of times the circuit was opened
+     */
+    private long opened = 0;
+
+    /**
+     * Number of times the circuit was half opened
+     */
+    private long halfOpened = 0;
+
+    /**
+     * Number of times the circuit was closed again
+     */
+    private long closed = 0;
+
+    /**
+     * Constructor
+     * @param agent the agent (host:port)
+     * @param failureThreshold number of consecutive failures opening the circuit
+     * @param openTime time (ms) during which the circuit stays open
+     */
+    public AgentHealth(String agent, int failureThreshold, long openTime) {
+        this.agent = agent;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Check that a request can be sent to the agent
+     * @throws RouterManagerBeanException if the circuit is open
+     */
+    public synchronized void beforeRequest() throws RouterManagerBeanException {
+        switch (state) {
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openTime) {
+                    rejected++;
+                    throw new RouterManagerBeanException("JOnAS agent '" + agent + "' is unavailable, "
+                            + consecutiveFailures + " consecutive failures. Request not sent.");
+                }
+                transition(State.HALF_OPEN);
+                halfOpened++;
+                trialRunning = true;
+                break;
+            case HALF_OPEN:
+                if (trialRunning) {
+                    rejected++;
+                    throw new RouterManagerBeanException("JOnAS agent '" + agent
+                            + "' is unavailable, waiting for a trial request. Request not sent.");
+                }
+                trialRunning = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Record a successful request (the agent replied)
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        trialRunning = false;
+        if (state != State.CLOSED) {
+            transition(State.CLOSED);
+            closed++;
+        }
+    }
+
+    /**
+     * Record a failed request (no reply or server error)
+     */
+    public synchronized void onFailure() {
+        failures++;
+        consecutiveFailures++;
+        trialRunning = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            transition(State.OPEN);
+            opened++;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Record a retried request
+     */
+    public synchronized void onRetry() {
+        retries++;
+    }
+
+    /**
+     * Change the state of the circuit
+     * @param newState the new state
+     */
+    private void transition(State newState) {
+        if (newState == State.OPEN) {
+            logger.warn("JOnAS agent '" + agent + "' - circuit " + state + " -> " + newState + " after "
+                    + consecutiveFailures + " consecutive failures");
+        } else {
+            logger.info("JOnAS agent '" + agent + "' - circuit " + state + " -> " + newState);
+        }
+        state = newState;
+    }
+
+    /**
+     * @return the agent (host:port)
+     */
+    public String getAgent() {
+        return agent;
+    }
+
+    /**
+     * @return the state of the circuit
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of consecutive failures
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the number of failed requests
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of retried requests
+     */
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the number of requests rejected because the circuit was open
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of times the circuit was opened
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    /**
+     * @return the number of times the circuit was half opened
+     */
+    public synchronized long getHalfOpened() {
+        return halfOpened;
+    }
+
+    /**
+     * @return the number of times the circuit was closed again
+     */
+    public synchronized long getClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the state of the circuit and the counters, read at once
+     */
+    public synchronized AgentHealthSnapshot snapshot() {
+        return new AgentHealthSnapshot(agent, state.name(), consecutiveFailures, failures, retries, rejected,
+                opened, halfOpened, closed);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AgentHealth[agent=" + agent + ", state=" + state + ", consecutiveFailures=" + consecutiveFailures
+                + ", failures=" + failures + ", retries=" + retries + ", rejected=" + rejected + ", opened="
+                + opened + ", halfOpened=" + halfOpened + ", closed=" + closed + "]";
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * State of the circuit breaker of an agent and its counters at a given time
+ */
+public class AgentHealthSnapshot {
+
+    /**
+     * The agent (host:port)
+     */
+    private final String agent;
+
+    /**
+     * State of the circuit: CLOSED, OPEN or HALF_OPEN
+     */
+    private final String state;
+
+    /**
+     * Number of consecutive failures
+     */
+    private final int consecutiveFailures;
+
+    /**
+     * Number of failed requests
+     */
+    private final long failures;
+
+    /**
+     * Number of retried requests
+     */
+    private final long retries;
+
+    /**
+     * Number of requests rejected because the circuit was open
+     */
+    private final long rejected;
+
+    /**
+     * Number of times the circuit was opened
+     */
+    private final long opened;
+
+    /**
+     * Number of times the circuit was half opened
+     */
+    private final long halfOpened;
+
+    /**
+     * Number of times the circuit was closed again
+     */
+    private final long closed;
+
+    /**
+     * Constructor
+     */
+    @ConstructorProperties({"agent", "state", "consecutiveFailures", "failures", "retries", "rejected", "opened",
+            "halfOpened", "closed"})
+    public AgentHealthSnapshot(String agent, String state, int consecutiveFailures, long failures, long retries,
+            long rejected, long opened, long halfOpened, long closed) {
+        this.agent = agent;
+        this.state = state;
+        this.consecutiveFailures = consecutiveFailures;
+        this.failures = failures;
+        this.retries = retries;
+        this.rejected = rejected;
+        this.opened = opened;
+        this.halfOpened = halfOpened;
+        this.closed = closed;
+    }
+
+    public String getAgent() {
+        return agent;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getOpened() {
+        return opened;
+    }
+
+    public long getHalfOpened() {
+        return halfOpened;
+    }
+
+    public long getClosed() {
+        return closed;
+    }
+
+    @Override
+    public String toString() {
+        return "agent " + agent + " " + state + " consecutiveFailures=" + consecutiveFailures + " failures="
+                + failures + " retries=" + retries + " rejected=" + rejected + " opened=" + opened + " halfOpened="
+                + halfOpened + " closed=" + closed;
+    }
+}
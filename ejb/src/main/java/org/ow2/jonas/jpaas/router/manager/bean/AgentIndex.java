@@ -0,0 +1,183 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentFacade;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasResourcePaasAgentLink;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasResourceVO;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of the SR agents by name, and of the resources linked to
+ * each agent.
+ * The agents are loaded with a single findAgents() call and the resources of
+ * an agent with a single findPaasResourcesByAgent() call, then looked up in
+ * constant time until the index expires. An unknown agent name reloads the
+ * agents, at most once per second.
+ */
+public class AgentIndex {
+
+    /**
+     * Default time to live of the index (ms)
+     */
+    public static final long DEFAULT_TTL = 60000L;
+
+    /**
+     * Minimum time (ms) between two loads of the agents caused by unknown names
+     */
+    private static final long MIN_RELOAD_INTERVAL = 1000L;
+
+    /**
+     * The agents, by name
+     */
+    private volatile ConcurrentMap<String, PaasAgentVO> agents = new ConcurrentHashMap<String, PaasAgentVO>();
+
+    /**
+     * Ids of the resources linked to an agent, by agent id
+     */
+    private final ConcurrentMap<String, Set<String>> links = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * Time of the last load of the agents (ms)
+     */
+    private volatile long loadTime = 0L;
+
+    /**
+     * Lock used to load the agents only once when several lookups miss at the same time
+     */
+    private final Object loadLock = new Object();
+
+    /**
+     * Time to live of the index (ms)
+     */
+    private final long ttl;
+
+    /**
+     * Constructor
+     * @param ttl time to live of the index (ms)
+     */
+    public AgentIndex(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Get an agent, loading the agents from the SR if needed
+     * @param agentName Name of the agent
+     * @param srAgentEjb SR facade agent used to load the agents
+     * @return the agent or null if it doesn't exist
+     */
+    public PaasAgentVO getAgent(String agentName, ISrPaasAgentFacade srAgentEjb) {
+        long age = System.currentTimeMillis() - loadTime;
+        PaasAgentVO agent = agents.get(agentName);
+        if ((agent != null && age <= ttl) || (agent == null && age < MIN_RELOAD_INTERVAL)) {
+            return agent;
+        }
+        synchronized (loadLock) {
+            // may have been loaded by another thread in the meantime
+            agent = agents.get(agentName);
+            age = System.currentTimeMillis() - loadTime;
+            if ((agent == null && age >= MIN_RELOAD_INTERVAL) || age > ttl) {
+                load(srAgentEjb);
+                agent = agents.get(agentName);
+            }
+        }
+        return agent;
+    }
+
+    /**
+     * Tell if a resource is linked to an agent, loading the resources of the agent from the SR if needed
+     * @param agentId Id of the agent
+     * @param resourceId Id of the resource
+     * @param srApacheAgentLinkEjb SR facade apache - agent link used to load the resources
+     * @return true if the resource is linked to the agent
+     */
+    public boolean isLinked(String agentId, String resourceId, ISrPaasResourcePaasAgentLink srApacheAgentLinkEjb) {
+        Set<String> resources = links.get(agentId);
+        if (resources == null) {
+            resources = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            List<PaasResourceVO> paasResources = srApacheAgentLinkEjb.findPaasResourcesByAgent(agentId);
+            if (paasResources != null) {
+                for (PaasResourceVO paasResource : paasResources) {
+                    resources.add(paasResource.getId());
+                }
+            }
+            Set<String> existing = links.putIfAbsent(agentId, resources);
+            if (existing != null) {
+                resources = existing;
+            }
+        }
+        return resources.contains(resourceId);
+    }
+
+    /**
+     * Record a new link between a resource and an agent
+     * @param agentId Id of the agent
+     * @param resourceId Id of the resource
+     */
+    public void addLink(String agentId, String resourceId) {
+        Set<String> resources = links.get(agentId);
+        if (resources != null) {
+            resources.add(resourceId);
+        }
+    }
+
+    /**
+     * Forget the links of a removed resource
+     * @param resourceId Id of the resource
+     */
+    public void removeLinks(String resourceId) {
+        for (Set<String> resources : links.values()) {
+            resources.remove(resourceId);
+        }
+    }
+
+    /**
+     * Forget all the agents and links
+     */
+    public void clear() {
+        synchronized (loadLock) {
+            agents = new ConcurrentHashMap<String, PaasAgentVO>();
+            links.clear();
+            loadTime = 0L;
+        }
+    }
+
+    /**
+     * Reload the agents from the SR. The links are reloaded on next lookup.
+     * @param srAgentEjb SR facade agent
+     */
+    private void load(ISrPaasAgentFacade srAgentEjb) {
+        ConcurrentMap<String, PaasAgentVO> loaded = new ConcurrentHashMap<String, PaasAgentVO>();
+        List<PaasAgentVO> paasAgentVOList = srAgentEjb.findAgents();
+        if (paasAgentVOList != null) {
+            for (PaasAgentVO agent : paasAgentVOList) {
+                loaded.put(agent.getName(), agent);
+            }
+        }
+        agents = loaded;
+        links.clear();
+        loadTime = System.currentTimeMillis();
+    }
+}
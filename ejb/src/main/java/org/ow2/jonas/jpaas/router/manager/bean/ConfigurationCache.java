@@ -0,0 +1,244 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.catalog.api.PaasConfiguration;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * In-memory cache of the catalog PaasConfigurations, with the outcome of
+ * their validation.
+ * A configuration is loaded and validated once, then both the configuration
+ * and the validation error, if any, are reused until the entry expires or
+ * is invalidated. The least recently used entries are evicted beyond the
+ * maximum number of entries. Concurrent lookups of a missing configuration
+ * share a single load. The catalog errors are not cached.
+ */
+public class ConfigurationCache {
+
+    /**
+     * Default time to live of an entry (ms)
+     */
+    public static final long DEFAULT_TTL = 300000L;
+
+    /**
+     * Default maximum number of entries
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    /**
+     * Loader of the configurations
+     */
+    public interface Loader {
+
+        /**
+         * Load a configuration from the catalog
+         * @param paasConfigurationName Name of the PaasConfiguration
+         * @return the configuration
+         * @throws RouterManagerBeanException if the configuration can't be loaded
+         */
+        PaasConfiguration load(String paasConfigurationName) throws RouterManagerBeanException;
+
+        /**
+         * Validate a configuration
+         * @param configuration the configuration
+         * @return the validation error, null if the configuration is valid
+         */
+        String validate(PaasConfiguration configuration);
+    }
+
+    /**
+     * The configurations, by name, in access order
+     */
+    private final Map<String, CachedConfiguration> configurations;
+
+    /**
+     * The loads in progress, by name
+     */
+    private final ConcurrentMap<String, FutureTask<CachedConfiguration>> loads =
+            new ConcurrentHashMap<String, FutureTask<CachedConfiguration>>();
+
+    /**
+     * Number of invalidations, so that a load started before an invalidation
+     * is not cached, guarded by the configurations
+     */
+    private long invalidations = 0L;
+
+    /**
+     * Time to live of an entry (ms)
+     */
+    private final long ttl;
+
+    /**
+     * Constructor
+     * @param ttl time to live of an entry (ms)
+     * @param maxEntries maximum number of entries
+     */
+    public ConfigurationCache(long ttl, final int maxEntries) {
+        this.ttl = ttl;
+        this.configurations = new LinkedHashMap<String, CachedConfiguration>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedConfiguration> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get a valid configuration, loading and validating it if needed
+     * @param paasConfigurationName Name of the PaasConfiguration
+     * @param loader loader of the configuration
+     * @return the configuration
+     * @throws RouterManagerBeanException if the configuration can't be loaded or is not valid
+     */
+    public PaasConfiguration get(final String paasConfigurationName, final Loader loader)
+            throws RouterManagerBeanException {
+        CachedConfiguration cached;
+        synchronized (configurations) {
+            cached = configurations.get(paasConfigurationName);
+        }
+        if (cached == null || cached.isExpired()) {
+            cached = load(paasConfigurationName, loader);
+        }
+        if (cached.getError() != null) {
+            throw new RouterManagerBeanException(cached.getError());
+        }
+        return cached.getConfiguration();
+    }
+
+    /**
+     * Forget a configuration, after a change in the catalog
+     * @param paasConfigurationName Name of the PaasConfiguration
+     */
+    public void invalidate(String paasConfigurationName) {
+        synchronized (configurations) {
+            configurations.remove(paasConfigurationName);
+            invalidations++;
+        }
+    }
+
+    /**
+     * Forget all the configurations
+     */
+    public void clear() {
+        synchronized (configurations) {
+            configurations.clear();
+            invalidations++;
+        }
+    }
+
+    /**
+     * Load and validate a configuration, sharing the load with the concurrent lookups
+     * @param paasConfigurationName Name of the PaasConfiguration
+     * @param loader loader of the configuration
+     * @return the loaded configuration
+     * @throws RouterManagerBeanException if the configuration can't be loaded
+     */
+    private CachedConfiguration load(final String paasConfigurationName, final Loader loader)
+            throws RouterManagerBeanException {
+        FutureTask<CachedConfiguration> load = new FutureTask<CachedConfiguration>(
+                new Callable<CachedConfiguration>() {
+                    public CachedConfiguration call() throws RouterManagerBeanException {
+                        long generation;
+                        synchronized (configurations) {
+                            generation = invalidations;
+                        }
+                        PaasConfiguration configuration = loader.load(paasConfigurationName);
+                        CachedConfiguration cached = new CachedConfiguration(configuration,
+                                loader.validate(configuration), System.currentTimeMillis());
+                        synchronized (configurations) {
+                            if (generation == invalidations) {
+                                configurations.put(paasConfigurationName, cached);
+                            }
+                        }
+                        return cached;
+                    }
+                });
+        FutureTask<CachedConfiguration> existing = loads.putIfAbsent(paasConfigurationName, load);
+        if (existing != null) {
+            load = existing;
+        } else {
+            try {
+                load.run();
+            } finally {
+                loads.remove(paasConfigurationName, load);
+            }
+        }
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RouterManagerBeanException("Interrupted while loading the PaaS Configuration named "
+                    + paasConfigurationName + ".", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RouterManagerBeanException) {
+                throw (RouterManagerBeanException) e.getCause();
+            }
+            throw new RouterManagerBeanException("Error to load the PaaS Configuration named "
+                    + paasConfigurationName + ".", e.getCause());
+        }
+    }
+
+    /**
+     * A configuration of the cache
+     */
+    private class CachedConfiguration {
+
+        /**
+         * The configuration
+         */
+        private final PaasConfiguration configuration;
+
+        /**
+         * The validation error, null if the configuration is valid
+         */
+        private final String error;
+
+        /**
+         * Time of the load (ms)
+         */
+        private final long loadTime;
+
+        public CachedConfiguration(PaasConfiguration configuration, String error, long loadTime) {
+            this.configuration = configuration;
+            this.error = error;
+            this.loadTime = loadTime;
+        }
+
+        public PaasConfiguration getConfiguration() {
+            return configuration;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() - loadTime > ttl;
+        }
+    }
+}
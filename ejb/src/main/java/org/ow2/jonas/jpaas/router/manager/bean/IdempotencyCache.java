@@ -0,0 +1,209 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * In-memory cache of the outcomes of the RouterManager calls by
+ * idempotency key. The outcome of a successful call is kept until it
+ * expires or is evicted, the least recently used first, beyond the maximum
+ * number of keys. A call made again with the key of a running call waits
+ * for it. A key is bound to the method and the fingerprint of the arguments
+ * of its call: reusing it for another call is an error.
+ */
+public class IdempotencyCache {
+
+    /**
+     * Default time to live of an outcome (ms)
+     */
+    public static final long DEFAULT_TTL = 3600000L;
+
+    /**
+     * Default maximum number of keys
+     */
+    public static final int DEFAULT_MAX_KEYS = 10000;
+
+    /**
+     * The calls, by key, in access order
+     */
+    private final Map<String, Call> calls;
+
+    /**
+     * Time to live of an outcome (ms)
+     */
+    private final long ttl;
+
+    /**
+     * Constructor
+     * @param ttl time to live of an outcome (ms)
+     * @param maxKeys maximum number of keys
+     */
+    public IdempotencyCache(long ttl, final int maxKeys) {
+        this.ttl = ttl;
+        this.calls = new LinkedHashMap<String, Call>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Call> eldest) {
+                // a running call is never evicted
+                return size() > maxKeys && eldest.getValue().isDone();
+            }
+        };
+    }
+
+    /**
+     * Start a call, or join the call already made with the same key
+     * @param key the idempotency key
+     * @param method name of the method called
+     * @param fingerprint fingerprint of the arguments of the call
+     * @return the call, started by the current thread if {@link Call#isOwner()}
+     * @throws RouterManagerBeanException if the key is used by a call of another method or with other arguments
+     */
+    public Call start(String key, String method, String fingerprint) throws RouterManagerBeanException {
+        synchronized (calls) {
+            Call call = calls.get(key);
+            if (call != null && call.isDone() && call.isExpired()) {
+                call = null;
+            }
+            if (call == null) {
+                call = new Call(key, method, fingerprint);
+                calls.put(key, call);
+            } else if (!call.method.equals(method)) {
+                throw new RouterManagerBeanException("Idempotency key '" + key + "' already used by a "
+                        + call.method + " call !");
+            } else if (!call.fingerprint.equals(fingerprint)) {
+                throw new RouterManagerBeanException("Idempotency key '" + key + "' already used by a "
+                        + method + " call with different arguments !");
+            }
+            return call;
+        }
+    }
+
+    /**
+     * Record the outcome of a call
+     * @param call the call
+     * @param result the result, on success
+     * @param failed true if the call failed: its key is released
+     */
+    public void end(Call call, Object result, boolean failed) {
+        synchronized (calls) {
+            if (failed && calls.get(call.key) == call) {
+                calls.remove(call.key);
+            }
+        }
+        call.complete(result, failed);
+    }
+
+    /**
+     * A call with an idempotency key
+     */
+    public class Call {
+
+        /**
+         * The idempotency key
+         */
+        private final String key;
+
+        /**
+         * Name of the method
+         */
+        private final String method;
+
+        /**
+         * Fingerprint of the arguments
+         */
+        private final String fingerprint;
+
+        /**
+         * The thread making the call
+         */
+        private final Thread owner = Thread.currentThread();
+
+        /**
+         * Released once the call is over
+         */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * The result of the call
+         */
+        private volatile Object result;
+
+        /**
+         * True if the call failed
+         */
+        private volatile boolean failed;
+
+        /**
+         * End time of the call (ms)
+         */
+        private volatile long endTime;
+
+        public Call(String key, String method, String fingerprint) {
+            this.key = key;
+            this.method = method;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * @return true if the current thread makes the call, false for a duplicate
+         */
+        public boolean isOwner() {
+            return !isDone() && owner == Thread.currentThread();
+        }
+
+        /**
+         * Wait for the outcome of the call
+         * @return the result of the call
+         * @throws RouterManagerBeanException if the call failed: the duplicate is to be retried
+         */
+        public Object getResult() throws RouterManagerBeanException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RouterManagerBeanException("Interrupted while waiting for the call with idempotency key '"
+                        + key + "' !", e);
+            }
+            if (failed) {
+                throw new RouterManagerBeanException("The " + method + " call with idempotency key '" + key
+                        + "' failed, retry it !");
+            }
+            return result;
+        }
+
+        private boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - endTime > ttl;
+        }
+
+        private void complete(Object result, boolean failed) {
+            this.result = result;
+            this.failed = failed;
+            this.endTime = System.currentTimeMillis();
+            done.countDown();
+        }
+    }
+}
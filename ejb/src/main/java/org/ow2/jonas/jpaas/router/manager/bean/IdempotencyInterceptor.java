@@ -0,0 +1,134 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.IdempotencyKey;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.util.log.Log;
+import org.ow2.util.log.LogFactory;
+
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Gives back the original outcome of a RouterManager mutation called again
+ * with the same {@link IdempotencyKey}, given as its last parameter, without
+ * running it. The key of a call can't be reused with other arguments.
+ */
+public class IdempotencyInterceptor {
+
+    /**
+     * System property giving the time to live (ms) of the outcomes
+     */
+    private static final String TTL_PROPERTY = "jpaas.router.manager.idempotency.ttl";
+
+    /**
+     * System property giving the maximum number of idempotency keys kept
+     */
+    private static final String MAX_KEYS_PROPERTY = "jpaas.router.manager.idempotency.maxKeys";
+
+    /**
+     * The mutations of the RouterManager
+     */
+    private static final Set<String> MUTATIONS = new HashSet<String>(Arrays.asList(
+            "createRouter", "createRouters", "removeRouter", "startRouter", "stopRouter", "createWorker",
+            "removeWorker", "disableWorker", "enableWorker", "createLoadBalancer", "removeLoadBalancer",
+            "swapLoadBalancer", "addWorkerToLoadBalancer", "removeWorkerFromLoadBalancer", "applyChanges",
+            "reconcileRouter", "disableTarget"));
+
+    /**
+     * Outcomes of the calls by idempotency key, shared by all the bean instances
+     */
+    private static final IdempotencyCache cache = new IdempotencyCache(
+            Long.getLong(TTL_PROPERTY, IdempotencyCache.DEFAULT_TTL),
+            Integer.getInteger(MAX_KEYS_PROPERTY, IdempotencyCache.DEFAULT_MAX_KEYS));
+
+    /**
+     * The logger
+     */
+    private Log logger = LogFactory.getLog(IdempotencyInterceptor.class);
+
+    /**
+     * Run a mutation once per idempotency key
+     * @param invocationContext the invocation
+     * @return the result of the method, or of its first call with the same key
+     * @throws Exception the exception of the method
+     */
+    @AroundInvoke
+    public Object deduplicate(InvocationContext invocationContext) throws Exception {
+        String method = invocationContext.getMethod().getName();
+        if (!MUTATIONS.contains(method)) {
+            return invocationContext.proceed();
+        }
+        Object[] parameters = invocationContext.getParameters();
+        if (parameters == null || parameters.length == 0
+                || !(parameters[parameters.length - 1] instanceof IdempotencyKey)) {
+            return invocationContext.proceed();
+        }
+        String key = ((IdempotencyKey) parameters[parameters.length - 1]).getValue();
+        IdempotencyCache.Call call = cache.start(key, method,
+                fingerprint(Arrays.copyOf(parameters, parameters.length - 1)));
+        if (!call.isOwner()) {
+            logger.info("Duplicate " + method + " call with idempotency key '" + key + "', original outcome returned");
+            return call.getResult();
+        }
+        Object result = null;
+        boolean failed = true;
+        try {
+            result = invocationContext.proceed();
+            failed = false;
+            return result;
+        } finally {
+            cache.end(call, result, failed);
+        }
+    }
+
+    /**
+     * @param arguments the arguments of a call, without its idempotency key
+     * @return the SHA-256 digest of the serialized arguments, in hex
+     * @throws RouterManagerBeanException if an argument can't be serialized
+     */
+    static String fingerprint(Object[] arguments) throws RouterManagerBeanException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(arguments);
+            out.close();
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            throw new RouterManagerBeanException("Cannot fingerprint the arguments of the call !", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RouterManagerBeanException("Cannot fingerprint the arguments of the call !", e);
+        }
+    }
+}
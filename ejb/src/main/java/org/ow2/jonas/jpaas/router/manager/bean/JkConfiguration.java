@@ -0,0 +1,266 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.LoadBalancerVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.WorkerVO;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * mod_jk configuration of a router: its workers, its load balancers and the
+ * mount points of the load balancers.
+ * It is built either from the routers of the SR (the desired state) or from
+ * the workers.properties and uriworkermap.properties files of the agent (the
+ * current state).
+ */
+public class JkConfiguration {
+
+    /**
+     * Status of a disabled worker in the SR
+     */
+    public static final String DISABLED_STATUS = "DISABLE";
+
+    /**
+     * The workers, by name
+     */
+    private final Map<String, Worker> workers = new LinkedHashMap<String, Worker>();
+
+    /**
+     * The members of the load balancers, by load balancer name
+     */
+    private final Map<String, List<String>> loadBalancers = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * The load balancer of each mount point, by path
+     */
+    private final Map<String, String> mountPoints = new LinkedHashMap<String, String>();
+
+    /**
+     * Build the configuration of a router of the SR
+     * @param apacheJk the router
+     * @return the configuration
+     */
+    public static JkConfiguration fromRouter(ApacheJkVO apacheJk) {
+        JkConfiguration configuration = new JkConfiguration();
+        configuration.add(apacheJk);
+        return configuration;
+    }
+
+    /**
+     * Build the configuration of several routers of the SR sharing an agent
+     * @param routers the routers
+     * @return the configuration
+     */
+    public static JkConfiguration fromRouters(Collection<ApacheJkVO> routers) {
+        JkConfiguration configuration = new JkConfiguration();
+        for (ApacheJkVO apacheJk : routers) {
+            configuration.add(apacheJk);
+        }
+        return configuration;
+    }
+
+    /**
+     * Add the workers, load balancers and mount points of a router of the SR
+     * @param apacheJk the router
+     */
+    private void add(ApacheJkVO apacheJk) {
+        if (apacheJk.getWorkerList() != null) {
+            for (WorkerVO worker : apacheJk.getWorkerList()) {
+                workers.put(worker.getName(), new Worker(worker.getHost(), worker.getPort(),
+                        DISABLED_STATUS.equals(worker.getStatus())));
+            }
+        }
+        if (apacheJk.getLoadBalancerList() != null) {
+            for (LoadBalancerVO loadBalancer : apacheJk.getLoadBalancerList()) {
+                List<String> members = new ArrayList<String>();
+                if (loadBalancer.getWorkers() != null) {
+                    members.addAll(loadBalancer.getWorkers());
+                }
+                loadBalancers.put(loadBalancer.getName(), members);
+                if (loadBalancer.getMountPoints() != null) {
+                    for (String path : loadBalancer.getMountPoints()) {
+                        mountPoints.put(path, loadBalancer.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse the mod_jk configuration files of an agent
+     * @param workersProperties content of the workers.properties file
+     * @param uriWorkerMap content of the uriworkermap.properties file
+     * @return the configuration
+     * @throws IOException if a file can't be parsed
+     */
+    public static JkConfiguration parse(String workersProperties, String uriWorkerMap) throws IOException {
+        JkConfiguration configuration = new JkConfiguration();
+
+        Properties properties = new Properties();
+        if (workersProperties != null) {
+            properties.load(new StringReader(workersProperties));
+        }
+        for (String key : properties.stringPropertyNames()) {
+            // worker.<name>.type
+            if (!key.startsWith("worker.") || !key.endsWith(".type")) {
+                continue;
+            }
+            String name = key.substring("worker.".length(), key.length() - ".type".length());
+            String type = properties.getProperty(key).trim();
+            String prefix = "worker." + name + ".";
+            if ("lb".equals(type)) {
+                configuration.loadBalancers.put(name,
+                        split(properties.getProperty(prefix + "balance_workers")));
+            } else if (type.startsWith("ajp")) {
+                String port = properties.getProperty(prefix + "port");
+                configuration.workers.put(name, new Worker(
+                        trim(properties.getProperty(prefix + "host")),
+                        port == null ? null : Integer.valueOf(port.trim()),
+                        "D".equalsIgnoreCase(trim(properties.getProperty(prefix + "activation")))));
+            }
+        }
+
+        if (uriWorkerMap != null) {
+            BufferedReader reader = new BufferedReader(new StringReader(uriWorkerMap));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                // skip comments, exclusions and disabled mounts
+                if (line.length() == 0 || line.startsWith("#") || line.startsWith("!") || line.startsWith("-")) {
+                    continue;
+                }
+                int separator = line.indexOf('=');
+                if (separator > 0) {
+                    configuration.mountPoints.put(line.substring(0, separator).trim(),
+                            line.substring(separator + 1).trim());
+                }
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * @return the workers, by name
+     */
+    public Map<String, Worker> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return the members of the load balancers, by load balancer name
+     */
+    public Map<String, List<String>> getLoadBalancers() {
+        return loadBalancers;
+    }
+
+    /**
+     * @return the load balancer of each mount point, by path
+     */
+    public Map<String, String> getMountPoints() {
+        return mountPoints;
+    }
+
+    /**
+     * Split a comma separated list
+     * @param value the list
+     * @return the elements
+     */
+    private static List<String> split(String value) {
+        if (value == null || value.trim().length() == 0) {
+            return Collections.emptyList();
+        }
+        List<String> elements = new ArrayList<String>();
+        for (String element : value.split(",")) {
+            if (element.trim().length() > 0) {
+                elements.add(element.trim());
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * @param value a value
+     * @return the trimmed value or null
+     */
+    private static String trim(String value) {
+        if (value == null) {
+            return null;
+        }
+        return value.trim();
+    }
+
+    /**
+     * A mod_jk worker
+     */
+    public static class Worker {
+
+        /**
+         * The target host
+         */
+        private final String host;
+
+        /**
+         * The target port
+         */
+        private final Integer port;
+
+        /**
+         * True if the worker is disabled
+         */
+        private final boolean disabled;
+
+        public Worker(String host, Integer port, boolean disabled) {
+            this.host = host;
+            this.port = port;
+            this.disabled = disabled;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public Integer getPort() {
+            return port;
+        }
+
+        public boolean isDisabled() {
+            return disabled;
+        }
+
+        /**
+         * @param other another worker
+         * @return true if both workers target the same host and port
+         */
+        public boolean hasSameTarget(Worker other) {
+            return (host == null ? other.host == null : host.equals(other.host))
+                    && (port == null ? other.port == null : port.equals(other.port));
+        }
+    }
+}
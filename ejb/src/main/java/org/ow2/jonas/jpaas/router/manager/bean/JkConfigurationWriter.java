@@ -0,0 +1,227 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.LoadBalancerVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.WorkerVO;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Renders the mod_jk configuration files of the routers of an agent, which
+ * share them. The files are written directly from the routers to the
+ * output, line by line, without building them in memory first. A worker or
+ * load balancer name used by several routers is written once, from the
+ * first router.
+ */
+public class JkConfigurationWriter {
+
+    /**
+     * Encoding of the files
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Header of the files
+     */
+    private static final String HEADER = "# Generated by the JPaaS router manager for routers ";
+
+    /**
+     * The routers of the agent
+     */
+    private final List<ApacheJkVO> routers;
+
+    /**
+     * Constructor
+     * @param routers the routers of the agent
+     */
+    public JkConfigurationWriter(List<ApacheJkVO> routers) {
+        this.routers = routers;
+    }
+
+    /**
+     * @return the workers.properties file, written when it is sent
+     */
+    public StreamingOutput getWorkersProperties() {
+        return new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(output, ENCODING));
+                writeWorkersProperties(writer);
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * @return the uriworkermap.properties file, written when it is sent
+     */
+    public StreamingOutput getUriWorkerMap() {
+        return new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(output, ENCODING));
+                writeUriWorkerMap(writer);
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * Write the workers.properties file
+     * @param writer the output
+     * @throws IOException on write error
+     */
+    public void writeWorkersProperties(Writer writer) throws IOException {
+        writeHeader(writer);
+
+        // the load balancers and the workers are all declared
+        Set<String> names = new HashSet<String>();
+        writer.write("worker.list=");
+        boolean first = true;
+        for (ApacheJkVO apacheJk : routers) {
+            if (apacheJk.getLoadBalancerList() != null) {
+                for (LoadBalancerVO loadBalancer : apacheJk.getLoadBalancerList()) {
+                    if (names.add(loadBalancer.getName())) {
+                        first = writeListElement(writer, loadBalancer.getName(), first);
+                    }
+                }
+            }
+            if (apacheJk.getWorkerList() != null) {
+                for (WorkerVO worker : apacheJk.getWorkerList()) {
+                    if (names.add(worker.getName())) {
+                        first = writeListElement(writer, worker.getName(), first);
+                    }
+                }
+            }
+        }
+        writer.write('\n');
+
+        names.clear();
+        for (ApacheJkVO apacheJk : routers) {
+            if (apacheJk.getWorkerList() == null) {
+                continue;
+            }
+            for (WorkerVO worker : apacheJk.getWorkerList()) {
+                if (!names.add(worker.getName())) {
+                    continue;
+                }
+                writeProperty(writer, worker.getName(), "type", "ajp13");
+                writeProperty(writer, worker.getName(), "host", worker.getHost());
+                writeProperty(writer, worker.getName(), "port", String.valueOf(worker.getPort()));
+                if (JkConfiguration.DISABLED_STATUS.equals(worker.getStatus())) {
+                    writeProperty(writer, worker.getName(), "activation", "D");
+                }
+            }
+        }
+
+        for (ApacheJkVO apacheJk : routers) {
+            if (apacheJk.getLoadBalancerList() == null) {
+                continue;
+            }
+            for (LoadBalancerVO loadBalancer : apacheJk.getLoadBalancerList()) {
+                if (!names.add(loadBalancer.getName())) {
+                    continue;
+                }
+                writeProperty(writer, loadBalancer.getName(), "type", "lb");
+                writer.write("worker.");
+                writer.write(loadBalancer.getName());
+                writer.write(".balance_workers=");
+                if (loadBalancer.getWorkers() != null) {
+                    first = true;
+                    for (String member : loadBalancer.getWorkers()) {
+                        first = writeListElement(writer, member, first);
+                    }
+                }
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Write the uriworkermap.properties file
+     * @param writer the output
+     * @throws IOException on write error
+     */
+    public void writeUriWorkerMap(Writer writer) throws IOException {
+        writeHeader(writer);
+
+        for (ApacheJkVO apacheJk : routers) {
+            if (apacheJk.getLoadBalancerList() == null) {
+                continue;
+            }
+            for (LoadBalancerVO loadBalancer : apacheJk.getLoadBalancerList()) {
+                if (loadBalancer.getMountPoints() == null) {
+                    continue;
+                }
+                for (String path : loadBalancer.getMountPoints()) {
+                    writer.write(path);
+                    writer.write('=');
+                    writer.write(loadBalancer.getName());
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the header line naming the routers
+     */
+    private void writeHeader(Writer writer) throws IOException {
+        writer.write(HEADER);
+        boolean first = true;
+        for (ApacheJkVO apacheJk : routers) {
+            first = writeListElement(writer, apacheJk.getName(), first);
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Write a worker.name.key=value line
+     */
+    private static void writeProperty(Writer writer, String name, String key, String value) throws IOException {
+        writer.write("worker.");
+        writer.write(name);
+        writer.write('.');
+        writer.write(key);
+        writer.write('=');
+        writer.write(value);
+        writer.write('\n');
+    }
+
+    /**
+     * Write an element of a comma separated list
+     * @return false, the next element is not the first one
+     */
+    private static boolean writeListElement(Writer writer, String element, boolean first) throws IOException {
+        if (!first) {
+            writer.write(',');
+        }
+        writer.write(element);
+        return false;
+    }
+}
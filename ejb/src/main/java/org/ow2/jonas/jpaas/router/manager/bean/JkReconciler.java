@@ -0,0 +1,268 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.jonas.jpaas.router.manager.bean.AgentClient.REST_TYPE;
+import org.ow2.util.log.Log;
+import org.ow2.util.log.LogFactory;
+
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the mod_jk configuration of an agent to a desired state.
+ * The current configuration is read from the agent, compared with the
+ * desired one and only the differences, computed by
+ * {@link #diff(JkConfiguration, JkConfiguration, JkConfiguration)}, are
+ * sent to the agent, with the same jkmanager requests as the
+ * RouterManagerBean operations. Reloading the Apache is left to the caller.
+ * The mod_jk configuration of an agent is shared by all its routers: the
+ * entries desired by the other routers of the agent are never deleted, only
+ * the ones no router of the agent desires anymore.
+ */
+public class JkReconciler {
+
+    /**
+     * The logger
+     */
+    private Log logger = LogFactory.getLog(JkReconciler.class);
+
+    /**
+     * REST client of the agents
+     */
+    private final AgentClient agentClient;
+
+    /**
+     * The agent endpoint
+     */
+    private final AgentEndpoint endpoint;
+
+    /**
+     * Constructor
+     * @param agentClient REST client of the agents
+     * @param endpoint the agent endpoint
+     */
+    public JkReconciler(AgentClient agentClient, AgentEndpoint endpoint) {
+        this.agentClient = agentClient;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Read the current mod_jk configuration of the agent
+     * @return the current configuration
+     * @throws RouterManagerBeanException if the configuration can't be read
+     */
+    public JkConfiguration readConfiguration() throws RouterManagerBeanException {
+        String workersProperties = agentClient.sendRequestWithReply(endpoint, REST_TYPE.GET,
+                endpoint.getWorkersPropertiesUrl(), null, String.class);
+        String uriWorkerMap = agentClient.sendRequestWithReply(endpoint, REST_TYPE.GET,
+                endpoint.getUriWorkerMapUrl(), null, String.class);
+        try {
+            return JkConfiguration.parse(workersProperties, uriWorkerMap);
+        } catch (IOException e) {
+            throw new RouterManagerBeanException("Invalid jk configuration on agent '" + endpoint.getName() + "'",
+                    e);
+        }
+    }
+
+    /**
+     * Send the differences between the current and the desired configuration to the agent
+     * @param desired the desired configuration of the router
+     * @param others the configuration of the other routers of the agent, kept as is
+     * @param current the current configuration of the agent
+     * @return the number of requests sent to the agent
+     * @throws RouterManagerBeanException on agent error
+     */
+    public int reconcile(JkConfiguration desired, JkConfiguration others, JkConfiguration current)
+            throws RouterManagerBeanException {
+        List<Request> requests = diff(desired, others, current);
+        for (Request request : requests) {
+            logger.debug("Agent '" + endpoint.getName() + "' - " + request);
+            agentClient.sendRequestWithReply(endpoint, request.getType(), request.getUrl(), request.getParams(),
+                    null);
+        }
+        return requests.size();
+    }
+
+    /**
+     * Compute the requests bringing the agent from the current to the desired configuration
+     * @param desired the desired configuration of the router
+     * @param others the configuration of the other routers of the agent, kept as is
+     * @param current the current configuration of the agent
+     * @return the requests, in the order they are to be sent
+     */
+    public List<Request> diff(JkConfiguration desired, JkConfiguration others, JkConfiguration current) {
+        List<Request> requests = new ArrayList<Request>();
+
+        // create or update the workers first, the load balancers may need them
+        for (Map.Entry<String, JkConfiguration.Worker> entry : desired.getWorkers().entrySet()) {
+            String name = entry.getKey();
+            JkConfiguration.Worker worker = entry.getValue();
+            JkConfiguration.Worker currentWorker = current.getWorkers().get(name);
+            if (currentWorker != null && !currentWorker.hasSameTarget(worker)) {
+                requests.add(new Request(REST_TYPE.DELETE, endpoint.getWorkerUrl(name), params("name", name)));
+                currentWorker = null;
+            }
+            if (currentWorker == null) {
+                MultivaluedMap<String, String> params = params("name", name);
+                params.add("host", worker.getHost());
+                params.add("port", String.valueOf(worker.getPort()));
+                requests.add(new Request(REST_TYPE.POST, endpoint.getWorkerUrl(name), params));
+            }
+            boolean currentlyDisabled = currentWorker != null && currentWorker.isDisabled();
+            if (worker.isDisabled() != currentlyDisabled) {
+                requests.add(new Request(REST_TYPE.POST, endpoint.getWorkerStatusUrl(name, !worker.isDisabled()),
+                        null));
+            }
+        }
+
+        // create or update the load balancers
+        for (Map.Entry<String, List<String>> entry : desired.getLoadBalancers().entrySet()) {
+            String name = entry.getKey();
+            List<String> currentMembers = current.getLoadBalancers().get(name);
+            if (currentMembers == null || !currentMembers.equals(entry.getValue())) {
+                MultivaluedMap<String, String> params = params("name", name);
+                params.add("wl", join(entry.getValue()));
+                requests.add(new Request(currentMembers == null ? REST_TYPE.POST : REST_TYPE.PUT,
+                        endpoint.getLoadBalancerUrl(name), params));
+            }
+        }
+
+        // mount points
+        for (Map.Entry<String, String> entry : current.getMountPoints().entrySet()) {
+            if (!entry.getValue().equals(desired.getMountPoints().get(entry.getKey()))
+                    && !entry.getValue().equals(others.getMountPoints().get(entry.getKey()))) {
+                requests.add(new Request(REST_TYPE.DELETE, endpoint.getMountUrl(entry.getValue()),
+                        params("path", entry.getKey())));
+            }
+        }
+        for (Map.Entry<String, String> entry : desired.getMountPoints().entrySet()) {
+            if (!entry.getValue().equals(current.getMountPoints().get(entry.getKey()))) {
+                requests.add(new Request(REST_TYPE.POST, endpoint.getMountUrl(entry.getValue()),
+                        params("path", entry.getKey())));
+            }
+        }
+
+        // remove what is not desired anymore, load balancers before their members
+        for (String name : current.getLoadBalancers().keySet()) {
+            if (!desired.getLoadBalancers().containsKey(name) && !others.getLoadBalancers().containsKey(name)) {
+                requests.add(new Request(REST_TYPE.DELETE, endpoint.getLoadBalancerUrl(name), null));
+            }
+        }
+        for (String name : current.getWorkers().keySet()) {
+            if (!desired.getWorkers().containsKey(name) && !others.getWorkers().containsKey(name)) {
+                requests.add(new Request(REST_TYPE.DELETE, endpoint.getWorkerUrl(name), params("name", name)));
+            }
+        }
+
+        return requests;
+    }
+
+    /**
+     * A jkmanager request to the agent
+     */
+    public static class Request {
+
+        /**
+         * Http type of the request
+         */
+        private final REST_TYPE type;
+
+        /**
+         * Url of the request
+         */
+        private final String url;
+
+        /**
+         * Parameters of the request, may be null
+         */
+        private final MultivaluedMap<String, String> params;
+
+        /**
+         * Constructor
+         * @param type Http type of the request
+         * @param url url of the request
+         * @param params parameters of the request, may be null
+         */
+        public Request(REST_TYPE type, String url, MultivaluedMap<String, String> params) {
+            this.type = type;
+            this.url = url;
+            this.params = params;
+        }
+
+        /**
+         * @return the Http type of the request
+         */
+        public REST_TYPE getType() {
+            return type;
+        }
+
+        /**
+         * @return the url of the request
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the parameters of the request, may be null
+         */
+        public MultivaluedMap<String, String> getParams() {
+            return params;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + url + (params == null ? "" : " " + params);
+        }
+    }
+
+    /**
+     * @param name name of the parameter
+     * @param value value of the parameter
+     * @return the parameters of a request
+     */
+    private static MultivaluedMap<String, String> params(String name, String value) {
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add(name, value);
+        return params;
+    }
+
+    /**
+     * @param elements a list
+     * @return the comma separated elements
+     */
+    private static String join(List<String> elements) {
+        StringBuilder sb = new StringBuilder();
+        for (String element : elements) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(element);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterChangeResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterCreation;
+import org.ow2.jonas.jpaas.router.manager.api.RouterCreationResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManager;
+import org.ow2.jonas.jpaas.router.manager.api.TargetFailoverResult;
+import org.ow2.jonas.jpaas.router.manager.api.WorkerLocation;
+
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records the RouterManager methods changing the jk configuration of
+ * routers in the {@link OperationJournal}, when it is enabled. The failed
+ * methods, and the ones reporting a failed part, are kept in the journal to
+ * be recovered, provided that they have written to the SR or sent a request
+ * changing an agent: a method failing on a validation error has nothing to
+ * recover.
+ */
+public class JournalInterceptor {
+
+    /**
+     * The methods changing the router given by their first parameter
+     */
+    private static final Set<String> ROUTER_CHANGES = new HashSet<String>(Arrays.asList(
+            "createRouter", "removeRouter", "createWorker", "removeWorker", "disableWorker", "enableWorker",
+            "createLoadBalancer", "removeLoadBalancer", "swapLoadBalancer", "addWorkerToLoadBalancer",
+            "removeWorkerFromLoadBalancer", "applyChanges"));
+
+    /**
+     * Progress of the operation journaled by the thread: true once the SR or an agent is changed
+     */
+    private static final ThreadLocal<AtomicBoolean> PROGRESS = new ThreadLocal<AtomicBoolean>();
+
+    /**
+     * Journal a business method
+     * @param invocationContext the invocation
+     * @return the result of the method
+     * @throws Exception the exception of the method
+     */
+    @AroundInvoke
+    public Object journal(InvocationContext invocationContext) throws Exception {
+        OperationJournal journal = OperationJournal.getInstance();
+        if (journal == null) {
+            return invocationContext.proceed();
+        }
+        Set<String> routers = getRouters(invocationContext);
+        if (routers == null) {
+            return invocationContext.proceed();
+        }
+        long id = journal.begin(invocationContext.getMethod().getName(), routers);
+        AtomicBoolean progress = new AtomicBoolean();
+        AtomicBoolean previous = bindProgress(progress);
+        boolean failed = true;
+        try {
+            Object result = invocationContext.proceed();
+            failed = isPartialFailure(result);
+            return result;
+        } finally {
+            bindProgress(previous);
+            journal.end(id, failed && progress.get());
+        }
+    }
+
+    /**
+     * Record that the operation journaled by the current thread is about to
+     * change the SR or an agent, so that it is recovered if it fails
+     */
+    public static void progress() {
+        AtomicBoolean progress = PROGRESS.get();
+        if (progress != null) {
+            progress.set(true);
+        }
+    }
+
+    /**
+     * @return the progress of the operation journaled by the current thread, null if none
+     */
+    public static AtomicBoolean getProgress() {
+        return PROGRESS.get();
+    }
+
+    /**
+     * Bind the progress of an operation to the current thread, working on behalf of the operation
+     * @param progress the progress of the operation, may be null
+     * @return the progress previously bound to the thread, to bind again once done
+     */
+    public static AtomicBoolean bindProgress(AtomicBoolean progress) {
+        AtomicBoolean previous = PROGRESS.get();
+        if (progress == null) {
+            PROGRESS.remove();
+        } else {
+            PROGRESS.set(progress);
+        }
+        return previous;
+    }
+
+    /**
+     * Wrap a SR facade so that its write methods record the progress of the journaled operation
+     * @param itf the facade interface
+     * @param facade the facade
+     * @param <T> the facade type
+     * @return the wrapped facade
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T trackWrites(Class<T> itf, final T facade) {
+        if (facade == null || (Proxy.isProxyClass(facade.getClass())
+                && Proxy.getInvocationHandler(facade) instanceof WriteHandler)) {
+            return facade;
+        }
+        return (T) Proxy.newProxyInstance(itf.getClassLoader(), new Class<?>[] {itf}, new WriteHandler(facade));
+    }
+
+    /**
+     * Get the routers changed by a method
+     * @param invocationContext the invocation
+     * @return the names of the routers, null if the method doesn't change any router
+     * @throws Exception if the routers of a target can't be found
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> getRouters(InvocationContext invocationContext) throws Exception {
+        String name = invocationContext.getMethod().getName();
+        Object[] parameters = invocationContext.getParameters();
+        if (ROUTER_CHANGES.contains(name) && parameters[0] instanceof String) {
+            return Collections.singleton((String) parameters[0]);
+        }
+        Set<String> routers = new LinkedHashSet<String>();
+        if ("createRouters".equals(name) && parameters[0] != null) {
+            for (RouterCreation creation : (List<RouterCreation>) parameters[0]) {
+                routers.add(creation.getRouterName());
+            }
+            return routers;
+        }
+        if ("disableTarget".equals(name) && invocationContext.getTarget() instanceof RouterManager) {
+            RouterManager routerManager = (RouterManager) invocationContext.getTarget();
+            for (WorkerLocation location : routerManager.findWorkersByTarget((String) parameters[0],
+                    (Integer) parameters[1])) {
+                routers.add(location.getRouterName());
+            }
+            return routers;
+        }
+        return null;
+    }
+
+    /**
+     * @param result the result of a method
+     * @return true if the result reports a failed part
+     */
+    private boolean isPartialFailure(Object result) {
+        if (result instanceof TargetFailoverResult) {
+            return !((TargetFailoverResult) result).isComplete();
+        }
+        if (result instanceof List) {
+            for (Object part : (List<?>) result) {
+                if ((part instanceof RouterChangeResult && !((RouterChangeResult) part).isSuccess())
+                        || (part instanceof RouterCreationResult && !((RouterCreationResult) part).isSuccess())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the progress of the journaled operation on the write methods of a facade
+     */
+    private static class WriteHandler implements InvocationHandler {
+
+        /**
+         * The facade
+         */
+        private final Object target;
+
+        public WriteHandler(Object target) {
+            this.target = target;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (method.getDeclaringClass() != Object.class && !methodName.startsWith("find")
+                    && !methodName.startsWith("get")) {
+                progress();
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Values of a metric at a given time. The times are in microseconds and
+ * the percentiles are the upper bounds of the histogram buckets.
+ */
+public class MetricSnapshot {
+
+    /**
+     * Kind of the metric: method or phase
+     */
+    private final String kind;
+
+    /**
+     * Name of the method or of the phase
+     */
+    private final String name;
+
+    /**
+     * Tag of the metric (router=... or agent=...), empty for the whole metric
+     */
+    private final String tag;
+
+    /**
+     * Number of calls
+     */
+    private final long count;
+
+    /**
+     * Number of failed calls
+     */
+    private final long errors;
+
+    /**
+     * Mean time (us)
+     */
+    private final long meanTime;
+
+    /**
+     * Maximum time (us)
+     */
+    private final long maxTime;
+
+    /**
+     * Median time (us)
+     */
+    private final long p50Time;
+
+    /**
+     * 90th percentile of the time (us)
+     */
+    private final long p90Time;
+
+    /**
+     * 99th percentile of the time (us)
+     */
+    private final long p99Time;
+
+    /**
+     * Constructor
+     */
+    @ConstructorProperties({"kind", "name", "tag", "count", "errors", "meanTime", "maxTime", "p50Time", "p90Time",
+            "p99Time"})
+    public MetricSnapshot(String kind, String name, String tag, long count, long errors, long meanTime,
+            long maxTime, long p50Time, long p90Time, long p99Time) {
+        this.kind = kind;
+        this.name = name;
+        this.tag = tag;
+        this.count = count;
+        this.errors = errors;
+        this.meanTime = meanTime;
+        this.maxTime = maxTime;
+        this.p50Time = p50Time;
+        this.p90Time = p90Time;
+        this.p99Time = p99Time;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getMeanTime() {
+        return meanTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public long getP50Time() {
+        return p50Time;
+    }
+
+    public long getP90Time() {
+        return p90Time;
+    }
+
+    public long getP99Time() {
+        return p99Time;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + name + (tag.length() == 0 ? "" : " [" + tag + "]") + " count=" + count + " errors="
+                + errors + " mean=" + meanTime + "us max=" + maxTime + "us p50=" + p50Time + "us p90=" + p90Time
+                + "us p99=" + p99Time + "us";
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records the time of the RouterManager methods in the {@link RouterMetrics}.
+ * The router name of the methods working on a single router, their first
+ * parameter, tags the method and the phases it goes through. The other
+ * methods, whose first parameter may be a host or a worker name, are left
+ * untagged.
+ */
+public class MetricsInterceptor {
+
+    /**
+     * The methods whose first parameter is the name of their router
+     */
+    private static final Set<String> ROUTER_METHODS = new HashSet<String>(Arrays.asList(
+            "createRouter", "removeRouter", "startRouter", "stopRouter", "createWorker", "removeWorker",
+            "disableWorker", "enableWorker", "createLoadBalancer", "removeLoadBalancer", "swapLoadBalancer",
+            "addWorkerToLoadBalancer", "removeWorkerFromLoadBalancer", "applyChanges", "reconcileRouter"));
+
+    /**
+     * Time a business method
+     * @param invocationContext the invocation
+     * @return the result of the method
+     * @throws Exception the exception of the method
+     */
+    @AroundInvoke
+    public Object time(InvocationContext invocationContext) throws Exception {
+        RouterMetrics metrics = RouterMetrics.getInstance();
+        long start = metrics.start();
+        if (start == RouterMetrics.NOT_STARTED) {
+            return invocationContext.proceed();
+        }
+        String method = invocationContext.getMethod().getName();
+        Object[] parameters = invocationContext.getParameters();
+        String routerName = null;
+        if (ROUTER_METHODS.contains(method) && parameters != null && parameters.length > 0
+                && parameters[0] instanceof String) {
+            routerName = (String) parameters[0];
+        }
+        String previous = metrics.enter(routerName);
+        boolean failed = true;
+        try {
+            Object result = invocationContext.proceed();
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(RouterMetrics.METHOD, method, start, failed, null);
+            metrics.exit(previous);
+        }
+    }
+}
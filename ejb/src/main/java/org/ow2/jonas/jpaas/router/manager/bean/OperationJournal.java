@@ -0,0 +1,497 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.util.log.Log;
+import org.ow2.util.log.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local append-only journal of the RouterManager operations.
+ * The intent of an operation, with the routers it changes, is made durable
+ * before the operation starts, its end is recorded once it is over. An
+ * operation whose end is missing after a restart, or which failed, may have
+ * left the agent and the SR apart: its routers are given back to the
+ * RouterManagerBean to be reconciled, which replays on the agent what the
+ * SR has recorded and rolls back what it hasn't.
+ * The intents are made durable by group commit: the threads waiting for a
+ * sync share a single force of the file.
+ */
+public class OperationJournal {
+
+    /**
+     * System property giving the journal file, the journal is disabled when it is not set
+     */
+    public static final String FILE_PROPERTY = "jpaas.router.manager.journal.file";
+
+    /**
+     * System property giving the size (bytes) beyond which the journal is compacted
+     */
+    public static final String MAX_SIZE_PROPERTY = "jpaas.router.manager.journal.maxSize";
+
+    /**
+     * Default size (bytes) beyond which the journal is compacted
+     */
+    private static final long DEFAULT_MAX_SIZE = 1024L * 1024L;
+
+    /**
+     * Record of the intent of an operation: "B id operation router,router"
+     */
+    private static final String BEGIN = "B";
+
+    /**
+     * Record of the success of an operation, or of its recovery: "C id"
+     */
+    private static final String COMMIT = "C";
+
+    /**
+     * Record of the failure of an operation: "F id"
+     */
+    private static final String FAIL = "F";
+
+    /**
+     * Record of the recovery of a router of an operation: "R id router"
+     */
+    private static final String RECOVERED = "R";
+
+    /**
+     * Encoding of the journal and of the router names
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The logger
+     */
+    private static Log logger = LogFactory.getLog(OperationJournal.class);
+
+    /**
+     * The shared instance, null if the journal is disabled
+     */
+    private static final OperationJournal instance = create();
+
+    /**
+     * The journal file
+     */
+    private final File file;
+
+    /**
+     * Size (bytes) beyond which the journal is compacted
+     */
+    private final long maxSize;
+
+    /**
+     * Channel of the journal file, guarded by the sync lock
+     */
+    private FileChannel channel;
+
+    /**
+     * Records appended and not written yet, guarded by the write lock
+     */
+    private StringBuilder buffer = new StringBuilder();
+
+    /**
+     * Number of records appended, guarded by the write lock
+     */
+    private long appended = 0L;
+
+    /**
+     * Number of records written and forced to disk, guarded by the sync lock
+     */
+    private long synced = 0L;
+
+    /**
+     * Id of the last operation, guarded by the write lock
+     */
+    private long lastId = 0L;
+
+    /**
+     * The operations running, by id, guarded by the write lock
+     */
+    private final Map<Long, Entry> running = new HashMap<Long, Entry>();
+
+    /**
+     * The operations to recover, by id, guarded by the write lock
+     */
+    private final Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+
+    /**
+     * Lock guarding the records appended
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Lock held while the records are written to the file
+     */
+    private final Object syncLock = new Object();
+
+    /**
+     * Open a journal, loading the operations to recover
+     * @param file the journal file
+     * @param maxSize size (bytes) beyond which the journal is compacted
+     * @throws IOException if the file can't be read or written
+     */
+    public OperationJournal(File file, long maxSize) throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        if (file.exists()) {
+            load();
+        }
+        synchronized (syncLock) {
+            compact();
+        }
+        if (!pending.isEmpty()) {
+            logger.warn(pending.size() + " router operations to recover from the journal " + file);
+        }
+    }
+
+    /**
+     * @return the shared journal, null if it is disabled
+     */
+    public static OperationJournal getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record the intent of an operation, and wait for it to be on disk
+     * @param operation name of the operation
+     * @param routers names of the routers changed by the operation
+     * @return the id of the operation
+     * @throws RouterManagerBeanException if the journal can't be written
+     */
+    public long begin(String operation, Collection<String> routers) throws RouterManagerBeanException {
+        long id;
+        long sequence;
+        synchronized (writeLock) {
+            id = ++lastId;
+            Entry entry = new Entry(id, operation, new ArrayList<String>(routers));
+            running.put(id, entry);
+            sequence = append(entry.toRecord());
+        }
+        try {
+            sync(sequence, true);
+        } catch (IOException e) {
+            synchronized (writeLock) {
+                running.remove(id);
+            }
+            throw new RouterManagerBeanException("Unable to write the journal " + file + " !", e);
+        }
+        return id;
+    }
+
+    /**
+     * Record the end of an operation. A failed operation is kept to be recovered.
+     * @param id the id of the operation
+     * @param failed true if the operation failed
+     */
+    public void end(long id, boolean failed) {
+        long sequence;
+        synchronized (writeLock) {
+            Entry entry = running.remove(id);
+            if (entry == null) {
+                return;
+            }
+            if (failed) {
+                pending.put(id, entry);
+            }
+            sequence = append((failed ? FAIL : COMMIT) + " " + id);
+        }
+        write(sequence);
+    }
+
+    /**
+     * Get the routers of the operations to recover
+     * @return the ids of the operations to recover, by router
+     */
+    public Map<String, List<Long>> getPendingRouters() {
+        Map<String, List<Long>> routers = new LinkedHashMap<String, List<Long>>();
+        synchronized (writeLock) {
+            for (Entry entry : pending.values()) {
+                for (String routerName : entry.routers) {
+                    List<Long> ids = routers.get(routerName);
+                    if (ids == null) {
+                        ids = new ArrayList<Long>();
+                        routers.put(routerName, ids);
+                    }
+                    ids.add(entry.id);
+                }
+            }
+        }
+        return routers;
+    }
+
+    /**
+     * Record the recovery of a router: the operations to recover are over
+     * once all their routers are recovered
+     * @param routerName Name of the router
+     * @param ids the ids of the operations recovered on the router
+     */
+    public void recovered(String routerName, Collection<Long> ids) {
+        long sequence = -1L;
+        synchronized (writeLock) {
+            for (Long id : ids) {
+                Entry entry = pending.get(id);
+                if (entry != null) {
+                    entry.routers.remove(routerName);
+                    if (entry.routers.isEmpty()) {
+                        pending.remove(id);
+                        sequence = append(COMMIT + " " + id);
+                    } else {
+                        sequence = append(RECOVERED + " " + id + " " + Entry.encode(routerName));
+                    }
+                }
+            }
+        }
+        if (sequence >= 0) {
+            write(sequence);
+        }
+    }
+
+    /**
+     * Append a record
+     * @param record the record, without end of line
+     * @return the sequence of the record
+     */
+    private long append(String record) {
+        buffer.append(record).append('\n');
+        return ++appended;
+    }
+
+    /**
+     * Write the records appended, without waiting for the disk. The records
+     * are forced to disk by the next sync.
+     * @param sequence sequence of the last record to write
+     */
+    private void write(long sequence) {
+        try {
+            sync(sequence, false);
+        } catch (IOException e) {
+            logger.warn("Unable to write the journal " + file, e);
+        }
+    }
+
+    /**
+     * Write the records appended up to a sequence, then force them to disk.
+     * The records appended by the threads waiting for the lock are written
+     * with the same force.
+     * @param sequence sequence of the last record to write
+     * @param force true to wait for the disk
+     * @throws IOException if the file can't be written
+     */
+    private void sync(long sequence, boolean force) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= sequence) {
+                return;
+            }
+            String records;
+            long last;
+            synchronized (writeLock) {
+                records = buffer.toString();
+                buffer = new StringBuilder();
+                last = appended;
+            }
+            if (records.length() > 0) {
+                ByteBuffer bytes = ByteBuffer.wrap(records.getBytes(ENCODING));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+            if (force) {
+                channel.force(false);
+                synced = last;
+            }
+            if (channel.size() > maxSize) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Rewrite the journal with the intents of the operations running or to recover only.
+     * To be called with the sync lock held.
+     * @throws IOException if the file can't be written
+     */
+    private void compact() throws IOException {
+        StringBuilder records = new StringBuilder();
+        long last;
+        synchronized (writeLock) {
+            for (Entry entry : pending.values()) {
+                records.append(entry.toRecord()).append('\n');
+                records.append(FAIL).append(' ').append(entry.id).append('\n');
+            }
+            for (Entry entry : running.values()) {
+                records.append(entry.toRecord()).append('\n');
+            }
+            // the records appended are in the running and pending entries
+            buffer = new StringBuilder();
+            last = appended;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        try {
+            out.setLength(0L);
+            out.write(records.toString().getBytes(ENCODING));
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Unable to replace the journal " + file);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        channel.position(channel.size());
+        synced = last;
+    }
+
+    /**
+     * Load the operations to recover from the journal
+     * @throws IOException if the file can't be read
+     */
+    private void load() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                // a record cut by a crash is ignored
+                if (fields.length < 2) {
+                    continue;
+                }
+                long id;
+                try {
+                    id = Long.parseLong(fields[1]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                lastId = Math.max(lastId, id);
+                if (BEGIN.equals(fields[0]) && fields.length == 4) {
+                    pending.put(id, Entry.fromRecord(id, fields[2], fields[3]));
+                } else if (COMMIT.equals(fields[0])) {
+                    pending.remove(id);
+                } else if (RECOVERED.equals(fields[0]) && fields.length == 3 && pending.containsKey(id)) {
+                    pending.get(id).routers.remove(Entry.decode(fields[2]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the shared journal, null if it is disabled or can't be opened
+     */
+    private static OperationJournal create() {
+        String path = System.getProperty(FILE_PROPERTY);
+        if (path == null || path.length() == 0) {
+            return null;
+        }
+        try {
+            return new OperationJournal(new File(path), Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+        } catch (IOException e) {
+            logger.error("Unable to open the journal " + path + ", the router operations are not journaled", e);
+            return null;
+        }
+    }
+
+    /**
+     * An operation of the journal
+     */
+    private static class Entry {
+
+        /**
+         * Id of the operation
+         */
+        private final long id;
+
+        /**
+         * Name of the operation
+         */
+        private final String operation;
+
+        /**
+         * Names of the routers changed by the operation, not recovered yet
+         */
+        private final List<String> routers;
+
+        public Entry(long id, String operation, List<String> routers) {
+            this.id = id;
+            this.operation = operation;
+            this.routers = routers;
+        }
+
+        public String toRecord() {
+            StringBuilder record = new StringBuilder(BEGIN).append(' ').append(id).append(' ').append(operation)
+                    .append(' ');
+            for (int i = 0; i < routers.size(); i++) {
+                if (i > 0) {
+                    record.append(',');
+                }
+                record.append(encode(routers.get(i)));
+            }
+            return record.toString();
+        }
+
+        public static Entry fromRecord(long id, String operation, String routers) {
+            List<String> names = new ArrayList<String>();
+            for (String name : routers.split(",")) {
+                if (name.length() > 0) {
+                    names.add(decode(name));
+                }
+            }
+            return new Entry(id, operation, names);
+        }
+
+        public static String encode(String name) {
+            try {
+                return URLEncoder.encode(name, ENCODING);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public static String decode(String name) {
+            try {
+                return URLDecoder.decode(name, ENCODING);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
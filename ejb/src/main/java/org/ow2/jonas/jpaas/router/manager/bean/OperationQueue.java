@@ -0,0 +1,526 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.util.log.Log;
+import org.ow2.util.log.LogFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of the router operations, with one lane per agent.
+ * The operations of a lane are run by priority, then in submission order,
+ * by at most a fixed number of threads of a shared executor, so that a
+ * burst of provisioning on an agent can't delay the disabling of a worker
+ * more than the operations already running.
+ * The depth of a lane is bounded: the operations of low priority are
+ * rejected once the lane holds the maximum depth, the failover operations
+ * only once it holds twice as many.
+ * A lane can also be held back by a failover running outside of the queue,
+ * such as a synchronous call: while it is, only its failover operations
+ * are started.
+ * The queue and its executor are shared by the RouterManager beans: the
+ * first bean instance creates them, the last one shuts the executor down.
+ */
+public class OperationQueue {
+
+    /**
+     * The priority classes of the operations, the first ones being run first
+     */
+    public enum Priority {
+        /**
+         * Failover: disabling of workers and targets, stop of routers
+         */
+        FAILOVER,
+        /**
+         * Enabling of workers, start of routers
+         */
+        ENABLE,
+        /**
+         * Creation, removal and reconciliation
+         */
+        PROVISIONING
+    }
+
+    /**
+     * Name of the queue wait time metric
+     */
+    public static final String QUEUE_WAIT = "queueWait";
+
+    /**
+     * System property giving the number of threads running the operations
+     */
+    private static final String THREADS_PROPERTY = "jpaas.router.manager.async.threads";
+
+    /**
+     * System property giving the maximum number of queued operations
+     */
+    private static final String QUEUE_SIZE_PROPERTY = "jpaas.router.manager.async.queueSize";
+
+    /**
+     * System property giving the maximum number of queued operations of low priority per agent
+     */
+    private static final String AGENT_DEPTH_PROPERTY = "jpaas.router.manager.async.agentDepth";
+
+    /**
+     * System property giving the maximum number of operations run at the same time per agent
+     */
+    private static final String AGENT_THREADS_PROPERTY = "jpaas.router.manager.async.agentThreads";
+
+    /**
+     * Default number of threads running the operations
+     */
+    private static final int DEFAULT_THREADS = 16;
+
+    /**
+     * Default maximum number of queued operations
+     */
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * Default maximum number of queued operations of low priority per agent
+     */
+    private static final int DEFAULT_AGENT_DEPTH = 100;
+
+    /**
+     * Default maximum number of operations run at the same time per agent
+     */
+    private static final int DEFAULT_AGENT_THREADS = 2;
+
+    /**
+     * Idle time (s) after which a thread is stopped
+     */
+    private static final long KEEP_ALIVE_TIME = 60L;
+
+    /**
+     * Maximum number of operations run by a thread before it is given back to the other lanes
+     */
+    private static final int BATCH_SIZE = 16;
+
+    /**
+     * The logger
+     */
+    private Log logger = LogFactory.getLog(OperationQueue.class);
+
+    /**
+     * The shared queue, null when it has no user
+     */
+    private static OperationQueue instance = null;
+
+    /**
+     * Executor of the shared queue
+     */
+    private static ThreadPoolExecutor sharedExecutor = null;
+
+    /**
+     * Number of users of the shared queue
+     */
+    private static int references = 0;
+
+    /**
+     * The lanes, by agent
+     */
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+
+    /**
+     * Number of failovers holding back each lane, guarded by itself
+     */
+    private final Map<String, Integer> heldBack = new HashMap<String, Integer>();
+
+    /**
+     * Sequence giving the submission order
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Executor running the lanes
+     */
+    private final Executor executor;
+
+    /**
+     * Maximum number of queued operations of low priority in a lane
+     */
+    private final int depth;
+
+    /**
+     * Maximum number of operations of a lane run at the same time
+     */
+    private final int concurrency;
+
+    /**
+     * Constructor
+     * @param executor executor running the lanes
+     * @param depth maximum number of queued operations of low priority in a lane
+     * @param concurrency maximum number of operations of a lane run at the same time
+     */
+    public OperationQueue(Executor executor, int depth, int concurrency) {
+        this.executor = executor;
+        this.depth = depth;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Get the shared queue, creating it if needed.
+     * Each call must be balanced by a call to {@link #release()}.
+     * @return the shared queue
+     */
+    public static synchronized OperationQueue acquire() {
+        if (instance == null) {
+            sharedExecutor = createExecutor(Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS),
+                    Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE));
+            instance = new OperationQueue(sharedExecutor,
+                    Integer.getInteger(AGENT_DEPTH_PROPERTY, DEFAULT_AGENT_DEPTH),
+                    Integer.getInteger(AGENT_THREADS_PROPERTY, DEFAULT_AGENT_THREADS));
+        }
+        references++;
+        return instance;
+    }
+
+    /**
+     * Release the shared queue. Its executor is shut down when it has no more
+     * user, the operations already queued being run first.
+     */
+    public static synchronized void release() {
+        if (references > 0) {
+            references--;
+            if (references == 0) {
+                sharedExecutor.shutdown();
+                sharedExecutor = null;
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Queue an operation
+     * @param laneName the lane of the operation, usually its agent
+     * @param routerName Name of the router of the operation, may be null
+     * @param priority priority of the operation
+     * @param operation the operation
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the lane is full
+     */
+    public <T> Future<T> submit(String laneName, String routerName, Priority priority, Callable<T> operation)
+            throws RouterManagerBeanException {
+        QueuedOperation<T> queued = new QueuedOperation<T>(operation, routerName, priority,
+                sequence.incrementAndGet(), RouterMetrics.getInstance().start());
+        while (true) {
+            Lane lane = lanes.get(laneName);
+            if (lane == null) {
+                lane = new Lane(laneName);
+                Lane existing = lanes.putIfAbsent(laneName, lane);
+                if (existing != null) {
+                    lane = existing;
+                }
+            }
+            // retry with a new lane if this one has just been dropped
+            if (lane.offer(queued)) {
+                return queued;
+            }
+        }
+    }
+
+    /**
+     * Hold back the operations of a lane other than failover, until
+     * {@link #release(String)} is called: they are left queued. The
+     * operations already running go on.
+     * @param laneName the lane, usually the agent of a failover running outside of the queue
+     */
+    public void holdBack(String laneName) {
+        synchronized (heldBack) {
+            Integer count = heldBack.get(laneName);
+            heldBack.put(laneName, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Release a lane held back by {@link #holdBack(String)}, starting its
+     * queued operations once no failover holds it back anymore
+     * @param laneName the lane
+     */
+    public void release(String laneName) {
+        synchronized (heldBack) {
+            Integer count = heldBack.get(laneName);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                heldBack.put(laneName, count - 1);
+                return;
+            }
+            heldBack.remove(laneName);
+        }
+        Lane lane = lanes.get(laneName);
+        if (lane != null) {
+            lane.resume();
+        }
+    }
+
+    /**
+     * @param laneName the lane
+     * @return true if the lane is held back by a failover
+     */
+    private boolean isHeldBack(String laneName) {
+        synchronized (heldBack) {
+            return heldBack.containsKey(laneName);
+        }
+    }
+
+    /**
+     * @param laneName the lane
+     * @return the number of operations queued or running in a lane
+     */
+    public int getPendingOperations(String laneName) {
+        Lane lane = lanes.get(laneName);
+        return lane == null ? 0 : lane.size();
+    }
+
+    /**
+     * Create the executor running the operations of the shared queue
+     * @param threads number of threads
+     * @param queueSize maximum number of queued operations
+     * @return the executor
+     */
+    private static ThreadPoolExecutor createExecutor(int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "RouterManager-async-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // don't keep threads when there is nothing to do
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * The operations of an agent
+     */
+    private class Lane implements Runnable {
+
+        /**
+         * Name of the lane
+         */
+        private final String name;
+
+        /**
+         * The queued operations, by priority then submission order
+         */
+        private final PriorityQueue<QueuedOperation<?>> operations = new PriorityQueue<QueuedOperation<?>>();
+
+        /**
+         * Number of threads running the operations of the lane
+         */
+        private int running = 0;
+
+        /**
+         * True once the lane has been removed from the lanes
+         */
+        private boolean dropped = false;
+
+        public Lane(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Queue an operation, starting a thread if the lane has room for one
+         * @return false if the lane has been dropped
+         * @throws RouterManagerBeanException if the lane is full
+         */
+        public boolean offer(QueuedOperation<?> queued) throws RouterManagerBeanException {
+            synchronized (this) {
+                if (dropped) {
+                    return false;
+                }
+                int max = queued.priority == Priority.FAILOVER ? 2 * depth : depth;
+                if (operations.size() >= max) {
+                    RouterMetrics.getInstance().record(RouterMetrics.PHASE, QUEUE_WAIT, queued.start, true, name);
+                    logger.warn("Router operation rejected, " + operations.size() + " operations pending on '"
+                            + name + "'");
+                    throw new RouterManagerBeanException("Too many pending router operations on '" + name
+                            + "', retry later !");
+                }
+                operations.add(queued);
+                if (running >= concurrency) {
+                    return true;
+                }
+                running++;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    operations.remove(queued);
+                    running--;
+                }
+                logger.warn("Router operation rejected, no thread available for '" + name + "'");
+                throw new RouterManagerBeanException("Too many pending router operations, retry later !", e);
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of operations queued or running
+         */
+        public synchronized int size() {
+            return operations.size() + running;
+        }
+
+        /**
+         * Start threads for the operations left queued while the lane was held back
+         */
+        public void resume() {
+            int threads;
+            synchronized (this) {
+                if (dropped) {
+                    return;
+                }
+                threads = Math.min(concurrency - running, operations.size());
+                if (threads <= 0) {
+                    return;
+                }
+                running += threads;
+            }
+            for (int i = 0; i < threads; i++) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // the next operation offered starts the lane again
+                    synchronized (this) {
+                        running--;
+                    }
+                    logger.warn("No thread available to resume the lane '" + name + "'");
+                }
+            }
+        }
+
+        /**
+         * Run the operations of the lane, by priority
+         */
+        public void run() {
+            RouterMetrics metrics = RouterMetrics.getInstance();
+            while (true) {
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    QueuedOperation<?> queued = poll();
+                    if (queued == null) {
+                        return;
+                    }
+                    String previous = metrics.enter(queued.routerName);
+                    try {
+                        metrics.record(RouterMetrics.PHASE, QUEUE_WAIT, queued.start, false, name);
+                    } finally {
+                        metrics.exit(previous);
+                    }
+                    queued.run();
+                }
+                // give the thread back to the other lanes, or go on if the executor is full
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    logger.debug("No thread available, lane '" + name + "' goes on");
+                }
+            }
+        }
+
+        /**
+         * @return the next operation, null if there is none or if the lane is
+         * held back: the thread then leaves the lane
+         */
+        private QueuedOperation<?> poll() {
+            synchronized (this) {
+                QueuedOperation<?> queued = operations.peek();
+                if (queued != null && (queued.priority == Priority.FAILOVER || !isHeldBack(name))) {
+                    return operations.poll();
+                }
+                running--;
+                if (running > 0 || queued != null) {
+                    // the operations held back are started again on release
+                    return null;
+                }
+                dropped = true;
+            }
+            lanes.remove(name, this);
+            return null;
+        }
+    }
+
+    /**
+     * A queued operation
+     */
+    private static class QueuedOperation<T> extends FutureTask<T> implements Comparable<QueuedOperation<?>> {
+
+        /**
+         * Name of the router of the operation
+         */
+        private final String routerName;
+
+        /**
+         * Priority of the operation
+         */
+        private final Priority priority;
+
+        /**
+         * Submission order of the operation
+         */
+        private final long sequence;
+
+        /**
+         * Submission time, given by RouterMetrics
+         */
+        private final long start;
+
+        public QueuedOperation(Callable<T> operation, String routerName, Priority priority, long sequence,
+                long start) {
+            super(operation);
+            this.routerName = routerName;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.start = start;
+        }
+
+        public int compareTo(QueuedOperation<?> other) {
+            int result = priority.compareTo(other.priority);
+            if (result != 0) {
+                return result;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
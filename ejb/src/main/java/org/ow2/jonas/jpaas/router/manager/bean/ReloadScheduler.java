@@ -0,0 +1,252 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.bean.AgentClient.REST_TYPE;
+import org.ow2.util.log.Log;
+import org.ow2.util.log.LogFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the Apache reloads of the agents.
+ * A reload is sent after a window during which the other reload requests of
+ * the same agent are merged into it: all the requesters share the same
+ * Future. A request asking for a shorter delay than the pending reload
+ * brings it forward. A request arriving once the reload has started
+ * triggers a new one, so that its changes are always taken into account.
+ * The RouterManager beans share a single scheduler: it is created by the
+ * first bean instance and shut down when the last one releases it.
+ */
+public class ReloadScheduler {
+
+    /**
+     * The logger
+     */
+    private Log logger = LogFactory.getLog(ReloadScheduler.class);
+
+    /**
+     * System property giving the window (ms) during which the reloads of an agent are merged
+     */
+    private static final String WINDOW_PROPERTY = "jpaas.router.manager.reload.window";
+
+    /**
+     * System property giving the number of threads sending the reloads
+     */
+    private static final String THREADS_PROPERTY = "jpaas.router.manager.reload.threads";
+
+    /**
+     * Default window (ms) during which the reload requests are merged
+     */
+    public static final long DEFAULT_WINDOW = 200L;
+
+    /**
+     * Default number of threads sending the reloads
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Idle time (s) after which a thread is stopped
+     */
+    private static final long KEEP_ALIVE_TIME = 60L;
+
+    /**
+     * The shared scheduler, null when it has no user
+     */
+    private static ReloadScheduler instance = null;
+
+    /**
+     * Number of users of the shared scheduler
+     */
+    private static int references = 0;
+
+    /**
+     * The pending reloads, by agent API url
+     */
+    private final Map<String, PendingReload> pendingReloads = new HashMap<String, PendingReload>();
+
+    /**
+     * Executor sending the reloads
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Window (ms) during which the reload requests are merged
+     */
+    private final long window;
+
+    /**
+     * Constructor
+     * @param window window (ms) during which the reload requests are merged
+     * @param threads number of threads sending the reloads
+     */
+    public ReloadScheduler(long window, int threads) {
+        this.window = window;
+        this.executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RouterManager-reload-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // don't keep threads when there is nothing to reload
+        executor.setKeepAliveTime(KEEP_ALIVE_TIME, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the shared scheduler, creating it if needed.
+     * Each call must be balanced by a call to {@link #release()}.
+     * @return the shared scheduler
+     */
+    public static synchronized ReloadScheduler acquire() {
+        if (instance == null) {
+            instance = new ReloadScheduler(Long.getLong(WINDOW_PROPERTY, DEFAULT_WINDOW),
+                    Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+        }
+        references++;
+        return instance;
+    }
+
+    /**
+     * Release the shared scheduler. It is shut down when it has no more user.
+     */
+    public static synchronized void release() {
+        if (references > 0) {
+            references--;
+            if (references == 0) {
+                instance.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Stop the threads once the pending reloads are sent: no new reload can be requested
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Ask for a reload of the Apache of an agent
+     * @param endpoint the agent endpoint
+     * @return the reload, shared with the other requests merged into it
+     */
+    public Future<Void> requestReload(AgentEndpoint endpoint) {
+        return requestReload(endpoint, window);
+    }
+
+    /**
+     * Ask for a reload of the Apache of an agent, sent after a given delay.
+     * A reload of the agent already pending is shared, and brought forward
+     * if it was due later.
+     * @param endpoint the agent endpoint
+     * @param delay delay (ms) before the reload is sent
+     * @return the reload, shared with the other requests merged into it
+     */
+    public Future<Void> requestReload(final AgentEndpoint endpoint, long delay) {
+        final String agentApiUrl = endpoint.getBaseUrl();
+        long dueTime = System.currentTimeMillis() + delay;
+        synchronized (pendingReloads) {
+            PendingReload pending = pendingReloads.get(agentApiUrl);
+            if (pending != null) {
+                // not started yet, since a started reload is no more pending
+                if (dueTime < pending.dueTime && pending.trigger.cancel(false)) {
+                    pending.trigger = executor.schedule(pending.reload, delay, TimeUnit.MILLISECONDS);
+                    pending.dueTime = dueTime;
+                }
+                return pending.reload;
+            }
+            FutureTask<Void> reload = new FutureTask<Void>(new Callable<Void>() {
+                public Void call() throws Exception {
+                    // new requests will now wait for the next reload
+                    synchronized (pendingReloads) {
+                        pendingReloads.remove(agentApiUrl);
+                    }
+                    AgentClient agentClient = AgentClient.acquire();
+                    RouterMetrics metrics = RouterMetrics.getInstance();
+                    long start = metrics.start();
+                    boolean failed = true;
+                    try {
+                        agentClient.sendRequestWithReply(endpoint, REST_TYPE.POST, endpoint.getReloadUrl(),
+                                null, null);
+                        failed = false;
+                    } catch (Exception e) {
+                        // may be nobody waiting for this reload
+                        logger.error("Error on reload of the agent '" + agentApiUrl + "'", e);
+                        throw e;
+                    } finally {
+                        metrics.record(RouterMetrics.PHASE, RouterMetrics.RELOAD, start, failed,
+                                endpoint.getHostPort());
+                        AgentClient.release();
+                    }
+                    return null;
+                }
+            });
+            pending = new PendingReload(reload, executor.schedule(reload, delay, TimeUnit.MILLISECONDS), dueTime);
+            pendingReloads.put(agentApiUrl, pending);
+            return reload;
+        }
+    }
+
+    /**
+     * A reload not started yet
+     */
+    private static final class PendingReload {
+
+        /**
+         * The reload, shared by its requesters
+         */
+        private final FutureTask<Void> reload;
+
+        /**
+         * The scheduled run of the reload
+         */
+        private ScheduledFuture<?> trigger;
+
+        /**
+         * Time (ms) at which the reload is due
+         */
+        private long dueTime;
+
+        /**
+         * Constructor
+         * @param reload the reload
+         * @param trigger the scheduled run of the reload
+         * @param dueTime time (ms) at which the reload is due
+         */
+        private PendingReload(FutureTask<Void> reload, ScheduledFuture<?> trigger, long dueTime) {
+            this.reload = reload;
+            this.trigger = trigger;
+            this.dueTime = dueTime;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of the SR ApacheJk routers by name.
+ * Entries expire after a bounded TTL. An expired or invalidated entry is
+ * reloaded alone from the SR. An unknown name reloads the whole index with a
+ * single findApacheJkRouters() call, so that a lookup doesn't scan the SR
+ * routers list anymore. The check of a name before a creation reloads the
+ * index at most once per second.
+ * The RouterManagerBean keeps the index up to date on its own create, update
+ * and delete calls, once they are committed.
+ * The index keeps the routers serialized: each lookup returns its own copy,
+ * that the caller may change without altering the index nor the copies of
+ * the concurrent lookups.
+ */
+public class RouterCache {
+
+    /**
+     * Default time to live of an entry (ms)
+     */
+    public static final long DEFAULT_TTL = 30000L;
+
+    /**
+     * Minimum time (ms) between two loads of the index confirming unknown names
+     */
+    private static final long MIN_RELOAD_INTERVAL = 1000L;
+
+    /**
+     * The routers, by name
+     */
+    private final ConcurrentMap<String, CachedRouter> routers = new ConcurrentHashMap<String, CachedRouter>();
+
+    /**
+     * Time of the last load of the whole index (ms)
+     */
+    private volatile long indexLoadTime = 0L;
+
+    /**
+     * Lock used to load the index only once when several lookups miss at the same time
+     */
+    private final Object loadLock = new Object();
+
+    /**
+     * Time to live of an entry (ms)
+     */
+    private final long ttl;
+
+    /**
+     * Constructor
+     * @param ttl time to live of an entry (ms)
+     */
+    public RouterCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Get a router, loading the index from the SR if needed
+     * @param routerName Name of the router
+     * @param srApacheJkEjb SR facade router used to load the index
+     * @return a copy of the router or null if it doesn't exist
+     */
+    public ApacheJkVO get(String routerName, ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        CachedRouter cached = routers.get(routerName);
+        if (cached != null && !cached.isExpired()) {
+            return cached.getRouter();
+        }
+        if (cached != null) {
+            // known router, reload only this one
+            ApacheJkVO apacheJk = srApacheJkEjb.getApacheJkRouter(cached.getId());
+            if (apacheJk != null && routerName.equals(apacheJk.getName())) {
+                put(apacheJk);
+                return apacheJk;
+            }
+            routers.remove(routerName, cached);
+        }
+        synchronized (loadLock) {
+            // may have been loaded by another thread in the meantime
+            cached = routers.get(routerName);
+            if (cached == null || cached.isExpired()) {
+                load(srApacheJkEjb);
+                cached = routers.get(routerName);
+            }
+        }
+        if (cached == null) {
+            return null;
+        }
+        return cached.getRouter();
+    }
+
+    /**
+     * Tell if a router exists, before its creation. An unknown name is
+     * confirmed against the SR by reloading the whole index, at most once per
+     * second, so that checking a wave of new names doesn't load the index
+     * once per name.
+     * @param routerName Name of the router
+     * @param srApacheJkEjb SR facade router used to load the index
+     * @return true if the router exists
+     */
+    public boolean exists(String routerName, ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        if (routers.containsKey(routerName)) {
+            return get(routerName, srApacheJkEjb) != null;
+        }
+        synchronized (loadLock) {
+            // may have been loaded by another thread in the meantime
+            if (!routers.containsKey(routerName)
+                    && System.currentTimeMillis() - indexLoadTime >= MIN_RELOAD_INTERVAL) {
+                load(srApacheJkEjb);
+            }
+        }
+        return routers.containsKey(routerName);
+    }
+
+    /**
+     * Add or replace a router in the index
+     * @param apacheJk the router as known by the SR
+     */
+    public void put(ApacheJkVO apacheJk) {
+        routers.put(apacheJk.getName(), new CachedRouter(apacheJk, System.currentTimeMillis()));
+    }
+
+    /**
+     * Copy a router with all its workers and load balancers
+     * @param apacheJk the router
+     * @return the copy
+     */
+    public static ApacheJkVO copy(ApacheJkVO apacheJk) {
+        return deserialize(serialize(apacheJk));
+    }
+
+    /**
+     * Mark a router as modified in the SR. It will be reloaded from the SR on next lookup.
+     * @param routerName Name of the router
+     */
+    public void invalidate(String routerName) {
+        CachedRouter cached = routers.get(routerName);
+        if (cached != null) {
+            routers.replace(routerName, cached, new CachedRouter(cached, 0L));
+        }
+    }
+
+    /**
+     * Remove a deleted router from the index
+     * @param routerName Name of the router
+     */
+    public void remove(String routerName) {
+        routers.remove(routerName);
+    }
+
+    /**
+     * Remove all the routers from the index
+     */
+    public void clear() {
+        routers.clear();
+        indexLoadTime = 0L;
+    }
+
+    /**
+     * Reload the index from the SR
+     * @param srApacheJkEjb SR facade router
+     */
+    private void load(ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        long loadTime = System.currentTimeMillis();
+        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
+        Map<String, ApacheJkVO> loaded = new HashMap<String, ApacheJkVO>();
+        for (ApacheJkVO apacheJk : apacheJkVOList) {
+            loaded.put(apacheJk.getName(), apacheJk);
+        }
+        for (ApacheJkVO apacheJk : loaded.values()) {
+            CachedRouter existing = routers.get(apacheJk.getName());
+            // don't override an entry put by a bean call during the load
+            if (existing == null || existing.getLoadTime() <= loadTime) {
+                routers.put(apacheJk.getName(), new CachedRouter(apacheJk, loadTime));
+            }
+        }
+        // forget the routers removed from the SR
+        for (Map.Entry<String, CachedRouter> entry : routers.entrySet()) {
+            if (!loaded.containsKey(entry.getKey()) && entry.getValue().getLoadTime() <= loadTime) {
+                routers.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        indexLoadTime = loadTime;
+    }
+
+    /**
+     * @param apacheJk a router
+     * @return the serialized router
+     */
+    private static byte[] serialize(ApacheJkVO apacheJk) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(apacheJk);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot serialize router '" + apacheJk.getName() + "'", e);
+        }
+    }
+
+    /**
+     * @param state a serialized router
+     * @return the router
+     */
+    private static ApacheJkVO deserialize(byte[] state) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state)) {
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass desc)
+                        throws IOException, ClassNotFoundException {
+                    // the VO classes are not visible from the default class loader in OSGi
+                    return Class.forName(desc.getName(), false, ApacheJkVO.class.getClassLoader());
+                }
+            };
+            return (ApacheJkVO) in.readObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot deserialize a router", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Cannot deserialize a router", e);
+        }
+    }
+
+    /**
+     * A router of the index
+     */
+    private class CachedRouter {
+
+        /**
+         * Id of the router
+         */
+        private final String id;
+
+        /**
+         * The serialized router
+         */
+        private final byte[] state;
+
+        /**
+         * Time of the load from the SR (ms)
+         */
+        private final long loadTime;
+
+        public CachedRouter(ApacheJkVO router, long loadTime) {
+            this.id = router.getId();
+            this.state = serialize(router);
+            this.loadTime = loadTime;
+        }
+
+        public CachedRouter(CachedRouter cached, long loadTime) {
+            this.id = cached.id;
+            this.state = cached.state;
+            this.loadTime = loadTime;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return a copy of the router
+         */
+        public ApacheJkVO getRouter() {
+            return deserialize(state);
+        }
+
+        public long getLoadTime() {
+            return loadTime;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() - loadTime > ttl;
+        }
+    }
+}
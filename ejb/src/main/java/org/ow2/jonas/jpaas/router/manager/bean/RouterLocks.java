@@ -0,0 +1,194 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Striped locks serializing the operations on a router.
+ * A router name always maps to the same lock, so the read-modify-write
+ * updates of a router never overlap. Routers mapping to different stripes
+ * are updated in parallel. The locks are reentrant for their owner, which
+ * is a thread or a transaction: a lock owned by a transaction is kept until
+ * the transaction is completed, after its SR writes are committed.
+ */
+public class RouterLocks {
+
+    /**
+     * Default number of stripes
+     */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * The locks
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * Mask giving the stripe of a hash
+     */
+    private final int mask;
+
+    /**
+     * Constructor
+     * @param stripes number of stripes, rounded up to a power of two
+     */
+    public RouterLocks(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Lock a router for the current thread. The returned hold must be unlocked in a finally block.
+     * @param routerName Name of the router
+     * @return the hold of the lock
+     */
+    public Hold lock(String routerName) {
+        return lock(routerName, Thread.currentThread());
+    }
+
+    /**
+     * Lock a router for an owner, waiting while another owner holds the lock
+     * @param routerName Name of the router
+     * @param owner the thread or the transaction key holding the lock
+     * @return the hold of the lock
+     */
+    public Hold lock(String routerName, Object owner) {
+        Stripe stripe = stripes[indexOf(routerName)];
+        stripe.acquire(owner);
+        return new Hold(stripe, owner);
+    }
+
+    /**
+     * Sort routers in the order their locks must be taken by an owner locking
+     * several routers at once, so that two such owners never deadlock
+     * @param routerNames Names of the routers
+     * @return the names, by stripe
+     */
+    public List<String> inLockOrder(Collection<String> routerNames) {
+        List<String> sorted = new ArrayList<String>(routerNames);
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String name1, String name2) {
+                return indexOf(name1) - indexOf(name2);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @param routerName Name of the router
+     * @return the index of the stripe of the router
+     */
+    private int indexOf(String routerName) {
+        int hash = routerName.hashCode();
+        // spread the high bits, the names of the routers often differ by a suffix only
+        hash ^= (hash >>> 16);
+        return hash & mask;
+    }
+
+    /**
+     * A hold of the lock of a router by an owner
+     */
+    public static final class Hold {
+
+        /**
+         * The locked stripe
+         */
+        private final Stripe stripe;
+
+        /**
+         * The owner of the hold
+         */
+        private final Object owner;
+
+        private Hold(Stripe stripe, Object owner) {
+            this.stripe = stripe;
+            this.owner = owner;
+        }
+
+        /**
+         * Release the hold. The lock is free once all the holds of its owner are released.
+         */
+        public void unlock() {
+            stripe.release(owner);
+        }
+    }
+
+    /**
+     * A reentrant lock whose owner is any object
+     */
+    private static final class Stripe {
+
+        /**
+         * The owner, null when free
+         */
+        private Object owner;
+
+        /**
+         * Number of holds of the owner
+         */
+        private int holds;
+
+        /**
+         * Wait until the lock is free or already held by the owner, then hold it.
+         * Not interruptible, as a lock() call.
+         * @param owner the owner
+         */
+        synchronized void acquire(Object owner) {
+            boolean interrupted = false;
+            while (this.owner != null && !this.owner.equals(owner)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            this.owner = owner;
+            holds++;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Release a hold of the owner
+         * @param owner the owner
+         */
+        synchronized void release(Object owner) {
+            if (this.owner == null || !this.owner.equals(owner)) {
+                throw new IllegalMonitorStateException("Router lock not held by " + owner);
+            }
+            if (--holds == 0) {
+                this.owner = null;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -22,8 +22,19 @@ import org.ow2.easybeans.osgi.annotation.OSGiResource;
 import org.ow2.jonas.jpaas.catalog.api.IPaasCatalogFacade;
 import org.ow2.jonas.jpaas.catalog.api.PaasCatalogException;
 import org.ow2.jonas.jpaas.catalog.api.PaasConfiguration;
+import org.ow2.jonas.jpaas.router.manager.api.IdempotencyKey;
+import org.ow2.jonas.jpaas.router.manager.api.LoadBalancerLocation;
+import org.ow2.jonas.jpaas.router.manager.api.RollingReloadListener;
+import org.ow2.jonas.jpaas.router.manager.api.RollingReloadResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterChange;
+import org.ow2.jonas.jpaas.router.manager.api.RouterChangeResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterCreation;
+import org.ow2.jonas.jpaas.router.manager.api.RouterCreationResult;
 import org.ow2.jonas.jpaas.router.manager.api.RouterManager;
 import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.jonas.jpaas.router.manager.api.TargetFailoverResult;
+import org.ow2.jonas.jpaas.router.manager.api.WorkerLocation;
+import org.ow2.jonas.jpaas.router.manager.bean.AgentClient.REST_TYPE;
 import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentFacade;
 import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentIaasComputeLink;
 import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
@@ -38,25 +49,52 @@ import org.ow2.jonas.jpaas.sr.facade.vo.WorkerVO;
 import org.ow2.util.log.Log;
 import org.ow2.util.log.LogFactory;
 
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientResponse;
-import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.core.util.MultivaluedMapImpl;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Local;
 import javax.ejb.Remote;
+import javax.ejb.Schedule;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.interceptor.Interceptors;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.ws.rs.core.MultivaluedMap;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Stateless(mappedName = "RouterManagerBean")
 @Local(RouterManager.class)
 @Remote(RouterManager.class)
+@Interceptors({MetricsInterceptor.class, IdempotencyInterceptor.class, JournalInterceptor.class})
 public class RouterManagerBean implements RouterManager {
 
     /**
@@ -70,46 +108,167 @@ public class RouterManagerBean implements RouterManager {
     private static String CONTEXT = "jonas-api";
 
     /**
-     * Http accepted status
+     * Expected paas type
      */
-    private static final int HTTP_STATUS_ACCEPTED = 202;
+    private static final String PAAS_TYPE = "router";
 
     /**
-     * Http Ok status
+     * Expected paas subtype
      */
-    private static final int HTTP_STATUS_OK = 200;
+    private static final String PAAS_SUB_TYPE = "jk";
 
     /**
-     * Http no content status
+     * Sleeping period for async operation
      */
-    private static final int HTTP_STATUS_NO_CONTENT = 204;
+    private static final int SLEEPING_PERIOD = 1000;
 
     /**
-     * Http Created status
+     * System property giving the time to live (ms) of the routers index
      */
-    private static final int HTTP_STATUS_CREATED = 201;
+    private static final String ROUTER_CACHE_TTL_PROPERTY = "jpaas.router.manager.cache.ttl";
 
     /**
-     * Expected paas type
+     * Optional agent feature: the requests adding or removing a single load balancer member
      */
-    private static final String PAAS_TYPE = "router";
+    private static final String MEMBER_REQUESTS = "loadBalancerMember";
 
     /**
-     * Expected paas subtype
+     * System property giving the period (minutes) of the reconciliation of all the routers
      */
-    private static final String PAAS_SUB_TYPE = "jk";
+    private static final String RECONCILE_PERIOD_PROPERTY = "jpaas.router.manager.reconcile.period";
 
     /**
-     * Sleeping period for async operation
+     * System property giving the comma separated names of the routers whose
+     * whole jk configuration is pushed to the agent after each operation,
+     * instead of the fine grained jkmanager requests ("*" for all the routers)
      */
-    private static final int SLEEPING_PERIOD = 1000;
+    private static final String FULL_PUSH_ROUTERS_PROPERTY = "jpaas.router.manager.push.fullRouters";
 
     /**
-     * REST request type
+     * Names of the routers in full push mode, "*" standing for all the routers
      */
-    private enum REST_TYPE {
-        PUT, POST, GET, DELETE
-    }
+    private static final Set<String> fullPushRouters = parseNames(System.getProperty(FULL_PUSH_ROUTERS_PROPERTY));
+
+    /**
+     * Time of the last reconciliation of all the routers
+     */
+    private static final AtomicLong lastReconcile = new AtomicLong();
+
+    /**
+     * True while the routers of the journal are recovered
+     */
+    private static final AtomicBoolean recovering = new AtomicBoolean();
+
+    /**
+     * Index of the SR routers by name, shared by all the bean instances
+     */
+    private static final RouterCache routerCache = new RouterCache(
+            Long.getLong(ROUTER_CACHE_TTL_PROPERTY, RouterCache.DEFAULT_TTL));
+
+    /**
+     * System property giving the time to live (ms) of the agent endpoints index
+     */
+    private static final String ENDPOINT_CACHE_TTL_PROPERTY = "jpaas.router.manager.endpoint.ttl";
+
+    /**
+     * Index of the agent endpoints by router name, shared by all the bean instances
+     */
+    private static final AgentEndpointCache endpointCache = new AgentEndpointCache(
+            Long.getLong(ENDPOINT_CACHE_TTL_PROPERTY, AgentEndpointCache.DEFAULT_TTL));
+
+    /**
+     * System property giving the time to live (ms) of the agents index
+     */
+    private static final String AGENT_INDEX_TTL_PROPERTY = "jpaas.router.manager.agent.index.ttl";
+
+    /**
+     * Index of the SR agents by name and of their resources, shared by all the bean instances
+     */
+    private static final AgentIndex agentIndex = new AgentIndex(
+            Long.getLong(AGENT_INDEX_TTL_PROPERTY, AgentIndex.DEFAULT_TTL));
+
+    /**
+     * System property giving the time to live (ms) of the catalog configurations cache
+     */
+    private static final String CONFIGURATION_CACHE_TTL_PROPERTY = "jpaas.router.manager.catalog.ttl";
+
+    /**
+     * System property giving the maximum number of entries of the catalog configurations cache
+     */
+    private static final String CONFIGURATION_CACHE_SIZE_PROPERTY = "jpaas.router.manager.catalog.maxEntries";
+
+    /**
+     * Validated catalog configurations by name, shared by all the bean instances
+     */
+    private static final ConfigurationCache configurationCache = new ConfigurationCache(
+            Long.getLong(CONFIGURATION_CACHE_TTL_PROPERTY, ConfigurationCache.DEFAULT_TTL),
+            Integer.getInteger(CONFIGURATION_CACHE_SIZE_PROPERTY, ConfigurationCache.DEFAULT_MAX_ENTRIES));
+
+    /**
+     * System property giving the number of stripes of the router locks
+     */
+    private static final String LOCK_STRIPES_PROPERTY = "jpaas.router.manager.lock.stripes";
+
+    /**
+     * Locks serializing the operations on a router, shared by all the bean instances
+     */
+    private static final RouterLocks routerLocks = new RouterLocks(
+            Integer.getInteger(LOCK_STRIPES_PROPERTY, RouterLocks.DEFAULT_STRIPES));
+
+    /**
+     * System property giving the time to live (ms) of the targets index
+     */
+    private static final String TARGET_INDEX_TTL_PROPERTY = "jpaas.router.manager.target.index.ttl";
+
+    /**
+     * Reverse index of the workers by backend target and of the load balancers
+     * by member, shared by all the bean instances
+     */
+    private static final TargetIndex targetIndex = new TargetIndex(
+            Long.getLong(TARGET_INDEX_TTL_PROPERTY, TargetIndex.DEFAULT_TTL));
+
+    /**
+     * System property giving the delay (ms) before a worker status change, during
+     * which the calls on the same worker are coalesced with it
+     */
+    private static final String STATUS_DELAY_PROPERTY = "jpaas.router.manager.worker.statusDelay";
+
+    /**
+     * Lane of the asynchronous operations on several routers
+     */
+    private static final String GLOBAL_LANE = "*";
+
+    /**
+     * Coalescing of the status changes of the workers, shared by all the bean instances
+     */
+    private static final WorkerStatusCoalescer statusCoalescer = new WorkerStatusCoalescer(
+            Long.getLong(STATUS_DELAY_PROPERTY, WorkerStatusCoalescer.DEFAULT_DELAY));
+
+    /**
+     * System property giving the number of threads reloading the agents of a rolling reload
+     */
+    private static final String ROLLING_RELOAD_THREADS_PROPERTY = "jpaas.router.manager.rollingReload.threads";
+
+    /**
+     * Default number of threads reloading the agents of a rolling reload
+     */
+    private static final int DEFAULT_ROLLING_RELOAD_THREADS = 16;
+
+    /**
+     * Idle time (s) after which a rolling reload thread is stopped
+     */
+    private static final long ROLLING_RELOAD_KEEP_ALIVE_TIME = 60L;
+
+    /**
+     * Executor reloading the agents of a rolling reload concurrently, shared
+     * by the bean instances, null when it has no user
+     */
+    private static ThreadPoolExecutor sharedRollingReloadExecutor = null;
+
+    /**
+     * Number of bean instances using the shared rolling reload executor
+     */
+    private static int rollingReloadReferences = 0;
 
     /**
      * Catalog facade
@@ -147,12 +306,100 @@ public class RouterManagerBean implements RouterManager {
     @OSGiResource
     private ISrPaasResourceIaasComputeLink srPaasResourceIaasComputeLink;
 
+    /**
+     * Registry of the transactions, keeping the router locks until the commit
+     */
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+
+    /**
+     * Runner of the units of work locking the routers: their SR writes are
+     * committed and their locks released before the agent is reloaded
+     */
+    @EJB
+    private RouterTransactions transactions;
+
+    /**
+     * REST client of the agents
+     */
+    private AgentClient agentClient;
+
+    /**
+     * Queue of the asynchronous operations, held back by the synchronous failovers
+     */
+    private OperationQueue operationQueue;
+
+    /**
+     * Scheduler merging the reloads of the agents
+     */
+    private ReloadScheduler reloadScheduler;
+
+    /**
+     * Executor reloading the agents of a rolling reload
+     */
+    private ThreadPoolExecutor rollingReloadExecutor;
+
     /**
      * Constructor
      */
     public RouterManagerBean() {
     }
 
+    /**
+     * Get the shared REST client of the agents, queue of the operations and
+     * executors, time the calls of the facades and load the targets index
+     */
+    @PostConstruct
+    public void init() {
+        agentClient = AgentClient.acquire();
+        operationQueue = OperationQueue.acquire();
+        reloadScheduler = ReloadScheduler.acquire();
+        rollingReloadExecutor = acquireRollingReloadExecutor();
+        RouterMetrics.register();
+        RouterMetrics metrics = RouterMetrics.getInstance();
+        catalogEjb = metrics.instrument(IPaasCatalogFacade.class, catalogEjb, RouterMetrics.CATALOG,
+                RouterMetrics.CATALOG);
+        srApacheJkEjb = metrics.instrument(ISrPaasApacheJkRouterFacade.class, srApacheJkEjb, RouterMetrics.SR_READ,
+                RouterMetrics.SR_WRITE);
+        srAgentEjb = metrics.instrument(ISrPaasAgentFacade.class, srAgentEjb, RouterMetrics.SR_READ,
+                RouterMetrics.SR_WRITE);
+        srApacheAgentLinkEjb = metrics.instrument(ISrPaasResourcePaasAgentLink.class, srApacheAgentLinkEjb,
+                RouterMetrics.SR_READ, RouterMetrics.SR_WRITE);
+        srPaasAgentIaasComputeLink = metrics.instrument(ISrPaasAgentIaasComputeLink.class,
+                srPaasAgentIaasComputeLink, RouterMetrics.SR_READ, RouterMetrics.SR_WRITE);
+        srPaasResourceIaasComputeLink = metrics.instrument(ISrPaasResourceIaasComputeLink.class,
+                srPaasResourceIaasComputeLink, RouterMetrics.SR_READ, RouterMetrics.SR_WRITE);
+        // a failed operation is recovered from the journal only once it has written to the SR
+        srApacheJkEjb = JournalInterceptor.trackWrites(ISrPaasApacheJkRouterFacade.class, srApacheJkEjb);
+        srApacheAgentLinkEjb = JournalInterceptor.trackWrites(ISrPaasResourcePaasAgentLink.class,
+                srApacheAgentLinkEjb);
+        srPaasResourceIaasComputeLink = JournalInterceptor.trackWrites(ISrPaasResourceIaasComputeLink.class,
+                srPaasResourceIaasComputeLink);
+        // build the targets index at startup rather than on the first lookup
+        try {
+            targetIndex.ensureLoaded(srApacheJkEjb);
+        } catch (RuntimeException e) {
+            logger.warn("Cannot load the targets index, it will be loaded on first use", e);
+        }
+    }
+
+    /**
+     * Release the shared REST client of the agents, queue of the operations
+     * and executors: the last bean instance shuts their threads down
+     */
+    @PreDestroy
+    public void destroy() {
+        AgentClient.release();
+        agentClient = null;
+        OperationQueue.release();
+        operationQueue = null;
+        ReloadScheduler.release();
+        reloadScheduler = null;
+        releaseRollingReloadExecutor();
+        rollingReloadExecutor = null;
+        RouterMetrics.unregister();
+    }
+
     /**
      * Create a router
      * @param routerName Name of the router to create
@@ -169,44 +416,189 @@ public class RouterManagerBean implements RouterManager {
         logger.info("Router '" + routerName + "' creating ....");
 
         // Get the agent
-        PaasAgentVO agent = null;
-        List<PaasAgentVO> paasAgentVOList = srAgentEjb.findAgents();
-        for (PaasAgentVO tmp : paasAgentVOList) {
-            if (tmp.getName().equals(paasAgentName)) {
-                agent = tmp;
-                break;
-            }
+        PaasAgentVO agent = getAgent(paasAgentName);
+
+        // Check the configuration
+        checkConfiguration(paasConfigurationName);
+
+        RouterLocks.Hold lock = lockRouter(routerName);
+        try {
+            doCreateRouter(routerName, agent);
+        } finally {
+            lock.unlock();
         }
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent '" + paasAgentName + "' !");
+    }
+
+    /**
+     * Same as {@link #createRouter(String, String, String, Integer)}, run once per idempotency key by the
+     * IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void createRouter(String routerName, String paasAgentName,
+            String paasConfigurationName, Integer listenPort, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        createRouter(routerName, paasAgentName, paasConfigurationName, listenPort);
+    }
+
+    /**
+     * Create several routers. The agents, the configurations and the
+     * existing routers are resolved once for all of them. A failed creation
+     * doesn't prevent the next ones.
+     * @param creations the routers to create
+     * @return the outcome of each creation, in the same order
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<RouterCreationResult> createRouters(List<RouterCreation> creations)
+            throws RouterManagerBeanException {
+        logger.info("Create " + creations.size() + " routers");
+
+        List<RouterCreationResult> results = new ArrayList<RouterCreationResult>(creations.size());
+        // outcome of the check of each configuration, null if valid
+        Map<String, RouterManagerBeanException> checkedConfigurations =
+                new HashMap<String, RouterManagerBeanException>();
+        Set<String> routerNames = new HashSet<String>();
+        // the locks are kept until the commit: take them in the lock order
+        // rather than in the creations order to avoid deadlocks
+        Set<String> lockedNames = new HashSet<String>();
+        for (RouterCreation creation : creations) {
+            lockedNames.add(creation.getRouterName());
+        }
+        for (String routerName : routerLocks.inLockOrder(lockedNames)) {
+            lockRouter(routerName).unlock();
         }
+        for (RouterCreation creation : creations) {
+            String routerName = creation.getRouterName();
+            try {
+                if (!routerNames.add(routerName)) {
+                    throw new RouterManagerBeanException("Router '" + routerName + "' already exist!");
+                }
 
-        // Get configuration from catalog
-        PaasConfiguration containerConf = null;
-        try {
-            containerConf = catalogEjb
-                    .getPaasConfiguration(paasConfigurationName);
-        } catch (PaasCatalogException e) {
-            throw new RouterManagerBeanException("Error to find the PaaS Configuration named " +
-                    paasConfigurationName + ".", e);
+                // Get the agent
+                PaasAgentVO agent = getAgent(creation.getPaasAgentName());
+
+                // Check the configuration
+                String paasConfigurationName = creation.getPaasConfigurationName();
+                if (!checkedConfigurations.containsKey(paasConfigurationName)) {
+                    try {
+                        checkConfiguration(paasConfigurationName);
+                        checkedConfigurations.put(paasConfigurationName, null);
+                    } catch (RouterManagerBeanException e) {
+                        checkedConfigurations.put(paasConfigurationName, e);
+                    }
+                }
+                if (checkedConfigurations.get(paasConfigurationName) != null) {
+                    throw checkedConfigurations.get(paasConfigurationName);
+                }
+
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    doCreateRouter(routerName, agent);
+                } finally {
+                    lock.unlock();
+                }
+                results.add(new RouterCreationResult(creation, true, null));
+            } catch (RouterManagerBeanException e) {
+                logger.warn("Router '" + routerName + "' - Creation failed", e);
+                results.add(new RouterCreationResult(creation, false, e.getMessage()));
+            }
         }
-        if (!containerConf.getType().equals(PAAS_TYPE)) {
-            throw new RouterManagerBeanException("Invalid paas type : "
-                    + containerConf.getType().equals(PAAS_TYPE) + " - expected : "
-                    + PAAS_TYPE);
+
+        logger.info(creations.size() + " routers created !");
+        return results;
+    }
+
+    /**
+     * Same as {@link #createRouters(List)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of each creation, in the same order
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<RouterCreationResult> createRouters(List<RouterCreation> creations, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return createRouters(creations);
+    }
+
+    /**
+     * Check that a configuration of the catalog is a router configuration.
+     * The configuration and the outcome of its validation are taken from the
+     * configurations cache.
+     * @param paasConfigurationName Name of the PaasConfiguration to use
+     * @throws RouterManagerBeanException if the configuration can't be found or is not a router one
+     */
+    private void checkConfiguration(String paasConfigurationName) throws RouterManagerBeanException {
+        configurationCache.get(paasConfigurationName, new ConfigurationCache.Loader() {
+            public PaasConfiguration load(String name) throws RouterManagerBeanException {
+                // Get configuration from catalog
+                PaasConfiguration containerConf;
+                try {
+                    containerConf = catalogEjb.getPaasConfiguration(name);
+                } catch (PaasCatalogException e) {
+                    throw new RouterManagerBeanException("Error to find the PaaS Configuration named " +
+                            name + ".", e);
+                }
+                if (containerConf == null) {
+                    throw new RouterManagerBeanException("Error to find the PaaS Configuration named " +
+                            name + ".");
+                }
+                return containerConf;
+            }
+
+            public String validate(PaasConfiguration containerConf) {
+                if (!PAAS_TYPE.equals(containerConf.getType())) {
+                    return "Invalid paas type : " + containerConf.getType() + " - expected : " + PAAS_TYPE;
+                }
+                if (!PAAS_SUB_TYPE.equals(containerConf.getSubType())) {
+                    return "Invalid paas sub type : " + containerConf.getSubType() + " - expected : "
+                            + PAAS_SUB_TYPE;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Forget a cached catalog configuration, after its change in the catalog
+     * @param paasConfigurationName Name of the PaasConfiguration, null for all the configurations
+     */
+    public void invalidatePaasConfiguration(String paasConfigurationName) {
+        if (paasConfigurationName == null) {
+            configurationCache.clear();
+        } else {
+            configurationCache.invalidate(paasConfigurationName);
         }
-        if (!containerConf.getSubType().equals(PAAS_SUB_TYPE)) {
-            throw new RouterManagerBeanException("Invalid paas sub type : "
-                    + containerConf.getType().equals(PAAS_SUB_TYPE) + " - expected : "
-                    + PAAS_SUB_TYPE);
+        logger.info("PaaS Configuration " + (paasConfigurationName == null ? "cache cleared"
+                : "'" + paasConfigurationName + "' invalidated"));
+    }
+
+    /**
+     * Get an agent from the agents index
+     * @param paasAgentName Name of the PaasAgent
+     * @return the agent
+     * @throws RouterManagerBeanException if the agent doesn't exist
+     */
+    private PaasAgentVO getAgent(String paasAgentName) throws RouterManagerBeanException {
+        PaasAgentVO agent = agentIndex.getAgent(paasAgentName, srAgentEjb);
+        if (agent == null) {
+            throw new RouterManagerBeanException("Unable to get the agent '" + paasAgentName + "' !");
         }
+        return agent;
+    }
+
+    /**
+     * Create a router in the SR and link it to its agent
+     * @param routerName Name of the router to create
+     * @param agent the agent
+     * @throws RouterManagerBeanException if the router already exists
+     */
+    private void doCreateRouter(String routerName, PaasAgentVO agent) throws RouterManagerBeanException {
 
         // Create the router in the SR
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                throw new RouterManagerBeanException("Router '" + routerName + "' already exist!");
-            }
+        if (routerCache.exists(routerName, srApacheJkEjb)) {
+            throw new RouterManagerBeanException("Router '" + routerName + "' already exist!");
         }
 
         ApacheJkVO apacheJk = new ApacheJkVO();
@@ -215,22 +607,14 @@ public class RouterManagerBean implements RouterManager {
         apacheJk = srApacheJkEjb.createApacheJkRouter(apacheJk);
 
         // if the link doesn't exist between agent and router, create it
-        boolean alreadyExist = false;
-        List <PaasResourceVO> paasResources = srApacheAgentLinkEjb.findPaasResourcesByAgent(agent.getId());
-        for (PaasResourceVO paasResourceVO : paasResources) {
-            if (paasResourceVO instanceof ApacheJkVO) {
-                ApacheJkVO apacheJkResourceVO = (ApacheJkVO) paasResourceVO;
-                if (apacheJkResourceVO.getId().equals(apacheJk.getId())) {
-                    logger.debug("Link between router '"  + routerName + "' and agent '" + paasAgentName +
-                            "' already exist!");
-                    alreadyExist = true;
-                    break;
-                }
-            }
-        }
-        if (!alreadyExist) {
+        if (agentIndex.isLinked(agent.getId(), apacheJk.getId(), srApacheAgentLinkEjb)) {
+            logger.debug("Link between router '"  + routerName + "' and agent '" + agent.getName() +
+                    "' already exist!");
+        } else {
             srApacheAgentLinkEjb.addPaasResourceAgentLink(apacheJk.getId(), agent.getId());
+            agentIndex.addLink(agent.getId(), apacheJk.getId());
         }
+        endpointCache.put(apacheJk, new AgentEndpoint(agent));
 
         //create the link between the PaaS Router and the IaaS Compute
         IaasComputeVO iaasCompute = srPaasAgentIaasComputeLink.findIaasComputeByPaasAgent(agent.getId());
@@ -244,7 +628,8 @@ public class RouterManagerBean implements RouterManager {
 
         // update state in sr
         apacheJk.setState("CREATED");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
+        apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+        routerWritten(apacheJk);
 
         logger.info("Router '" + routerName + "' created. Status=" + apacheJk.getState());
 
@@ -261,93 +646,93 @@ public class RouterManagerBean implements RouterManager {
 
         logger.info("Router '" + routerName + "' deleting ....");
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
+        RouterLocks.Hold lock = lockRouter(routerName);
+        try {
+            // get the router from SR
+            ApacheJkVO apacheJk = getRouter(routerName);
 
-        apacheJk.setState("DELETING");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
+            apacheJk.setState("DELETING");
+            apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+            routerWritten(apacheJk);
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+            // Get the agent
+            AgentEndpoint endpoint = getEndpoint(apacheJk);
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
+            //TODO remove the vhost
 
-        //TODO remove the vhost
+            //remove apache - iaasCompute link
+            IaasComputeVO iaasCompute = srPaasResourceIaasComputeLink.findIaasComputeByPaasResource(apacheJk.getId());
+            if (iaasCompute != null) {
+                srPaasResourceIaasComputeLink.removePaasResourceIaasComputeLink(apacheJk.getId(),
+                        iaasCompute.getId());
+            }
 
-        //remove apache - iaasCompute link
-        IaasComputeVO iaasCompute = srPaasResourceIaasComputeLink.findIaasComputeByPaasResource(apacheJk.getId());
-        if (iaasCompute != null) {
-            srPaasResourceIaasComputeLink.removePaasResourceIaasComputeLink(apacheJk.getId(),
-                    iaasCompute.getId());
+            // remove router in sr
+            srApacheJkEjb.deleteApacheJkRouter(apacheJk.getId());
+            routerRemoved(routerName);
+            endpointCache.remove(routerName);
+            targetIndex.removeRouter(routerName);
+            agentIndex.removeLinks(apacheJk.getId());
+        } finally {
+            lock.unlock();
         }
 
-        // remove router in sr
-        srApacheJkEjb.deleteApacheJkRouter(apacheJk.getId());
-
         logger.info("Router '" + routerName + "' deleted.");
     }
 
+    /**
+     * Same as {@link #removeRouter(String)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void removeRouter(String routerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        removeRouter(routerName);
+    }
+
     /**
      * Start a router
      * @param routerName Name of the router to start
      * @throws RouterManagerBeanException
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void startRouter(String routerName)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void startRouter(final String routerName)
             throws RouterManagerBeanException {
 
         logger.info("Router '" + routerName + "' starting ....");
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                return setRouterState(routerName, "STARTING");
             }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
-
-        apacheJk.setState("STARTING");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
+        });
 
         //HTTPD should be already started.
         // Ask for a reload
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "apache-manager/server/action/reload"),
-                null,
-                null);
+        reload(endpoint);
 
         // update state in sr
-        apacheJk.setState("RUNNING");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
+        transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                return setRouterState(routerName, "RUNNING");
+            }
+        });
 
         logger.info("Router '" + routerName + "' started.");
     }
 
+    /**
+     * Same as {@link #startRouter(String)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void startRouter(String routerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        startRouter(routerName);
+    }
+
     /**
      * Stop a router
      * @param routerName Name of the router to stop
@@ -358,41 +743,69 @@ public class RouterManagerBean implements RouterManager {
 
         logger.info("Router '" + routerName + "' stopping ....");
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
+        RouterLocks.Hold lock = lockRouter(routerName);
+        try {
+            // get the router from SR
+            ApacheJkVO apacheJk = getRouter(routerName);
 
-        apacheJk.setState("STOPPING");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
+            apacheJk.setState("STOPPING");
+            apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+            routerWritten(apacheJk);
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+            // Get the agent
+            AgentEndpoint endpoint = getEndpoint(apacheJk);
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
+            // Stop httpd
+            sendRequestWithReply(
+                    endpoint,
+                    REST_TYPE.POST,
+                    endpoint.getStopUrl(),
+                    null,
+                    null);
+
+            // update state in sr
+            apacheJk.setState("STOPPED");
+            apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+            routerWritten(apacheJk);
+        } finally {
+            lock.unlock();
         }
 
-        // Stop httpd
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "apache-manager/server/action/stop"),
-                null,
-                null);
+        logger.info("Router '" + routerName + "' stopped.");
+    }
+
+    /**
+     * Same as {@link #stopRouter(String)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void stopRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        stopRouter(routerName);
+    }
 
-        // update state in sr
-        apacheJk.setState("STOPPED");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
+    /**
+     * Change the state of a router in the SR
+     * @param routerName Name of the router
+     * @param state the new state
+     * @return the agent endpoint of the router
+     * @throws RouterManagerBeanException
+     */
+    private AgentEndpoint setRouterState(String routerName, String state) throws RouterManagerBeanException {
+        RouterLocks.Hold lock = lockRouter(routerName);
+        try {
+            // get the router from SR
+            ApacheJkVO apacheJk = getRouter(routerName);
 
-        logger.info("Router '" + routerName + "' stopped.");
+            apacheJk.setState(state);
+            apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+            routerWritten(apacheJk);
+
+            // Get the agent
+            return getEndpoint(apacheJk);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -403,118 +816,1305 @@ public class RouterManagerBean implements RouterManager {
      * @param targetPortNumber the worker target port number
      * @throws RouterManagerBeanException
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void createWorker(String routerName, String workerName,
-            String targetHost, Integer targetPortNumber)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void createWorker(final String routerName, final String workerName,
+            final String targetHost, final Integer targetPortNumber)
             throws RouterManagerBeanException {
 
         logger.info("Router '" + routerName + "' - Create Worker '" +  workerName + "' (host=" + targetHost +
                 ", port=" + targetPortNumber + ")");
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // get the router from SR
+                    ApacheJkVO apacheJk = getRouter(routerName);
+
+                    // Get the agent
+                    AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                    if (!doCreateWorker(apacheJk, endpoint, workerName, targetHost, targetPortNumber)) {
+                        return null;
+                    }
+                    pushConfiguration(routerName, endpoint);
+                    return endpoint;
+                } finally {
+                    lock.unlock();
+                }
             }
+        });
+
+        if (endpoint != null) {
+            // Ask for a reload
+            reload(endpoint);
         }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
+    }
 
-        //Do nothing if there is already a worker with the same name
-        boolean workerExists = false;
-        List<WorkerVO> workerVOList = apacheJk.getWorkerList();
-        for (WorkerVO worker : workerVOList) {
-            if (worker.getName().equals(workerName)) {
-                workerExists=true;
-                break;
+    /**
+     * Same as {@link #createWorker(String, String, String, Integer)}, run once per idempotency key by the
+     * IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void createWorker(String routerName, String workerName,
+            String targetHost, Integer targetPortNumber, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        createWorker(routerName, workerName, targetHost, targetPortNumber);
+    }
+
+    /**
+     * Remove a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to remove
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void removeWorker(final String routerName, final String workerName)
+            throws RouterManagerBeanException {
+        logger.info("Router '" + routerName + "' - Delete Worker '" +  workerName + "'");
+
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // get the router from SR
+                    ApacheJkVO apacheJk = getRouter(routerName);
+
+                    // Get the agent
+                    AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                    doRemoveWorker(apacheJk, endpoint, workerName);
+                    pushConfiguration(routerName, endpoint);
+                    return endpoint;
+                } finally {
+                    lock.unlock();
+                }
             }
+        });
+
+        // Ask for a reload
+        reload(endpoint);
+    }
+
+    /**
+     * Same as {@link #removeWorker(String, String)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void removeWorker(String routerName, String workerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        removeWorker(routerName, workerName);
+    }
+
+    /**
+     * Disable a worker. The calls on the same worker arriving while this one
+     * waits for the router are coalesced: only the last status is applied.
+     * The queued asynchronous operations of the agent, failover excepted,
+     * are held back meanwhile.
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to disable
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void disableWorker(String routerName, String workerName)
+            throws RouterManagerBeanException {
+        logger.info("Router '" + routerName + "' - Disable Worker '" +  workerName + "'");
+
+        String lane = getLane(routerName);
+        operationQueue.holdBack(lane);
+        try {
+            setWorkerStatus(routerName, workerName, false);
+        } finally {
+            operationQueue.release(lane);
         }
+    }
 
-        if (!workerExists) {
-            // Get the agent
-            PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+    /**
+     * Same as {@link #disableWorker(String, String)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void disableWorker(String routerName, String workerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        disableWorker(routerName, workerName);
+    }
 
-            if (agent == null) {
-                throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
+    /**
+     * Enable a worker. The calls on the same worker arriving while this one
+     * waits for the router are coalesced: only the last status is applied.
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to enable
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void enableWorker(String routerName, String workerName)
+            throws RouterManagerBeanException {
+        logger.info("Router '" + routerName + "' - Enable Worker '" +  workerName + "'");
+
+        setWorkerStatus(routerName, workerName, true);
+    }
+
+    /**
+     * Same as {@link #enableWorker(String, String)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void enableWorker(String routerName, String workerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        enableWorker(routerName, workerName);
+    }
+
+    /**
+     * Create a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @param workedList  the workers balanced by this load balancer
+     * @param mountsPoints the mount Points of this load balancer
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void createLoadBalancer(final String routerName, final String lbName,
+            final List<String> workedList, final List<String> mountsPoints)
+            throws RouterManagerBeanException {
+
+        logger.info("Router '" + routerName + "' - Create Loadbalancer '" +  lbName + "' (wk=" + workedList +
+                ", mt=" + mountsPoints + ")");
+
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // get the router from SR
+                    ApacheJkVO apacheJk = getRouter(routerName);
+
+                    // Get the agent
+                    AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                    doCreateLoadBalancer(apacheJk, endpoint, lbName, workedList, mountsPoints);
+                    pushConfiguration(routerName, endpoint);
+                    return endpoint;
+                } finally {
+                    lock.unlock();
+                }
             }
+        });
 
-            // Add a worker
-            MultivaluedMap<String, String> params = new MultivaluedMapImpl();
-            params.add("name", workerName);
-            params.add("host", targetHost);
-            params.add("port", targetPortNumber.toString());
+        // Ask for a reload
+        reload(endpoint);
+    }
 
-            sendRequestWithReply(
-                    REST_TYPE.POST,
-                    getUrl(agent.getApiUrl(), "jkmanager/worker/" + workerName),
-                    params,
-                    null);
+    /**
+     * Same as {@link #createLoadBalancer(String, String, List, List)}, run once per idempotency key by the
+     * IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void createLoadBalancer(String routerName, String lbName,
+            List<String> workedList, List<String> mountsPoints, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        createLoadBalancer(routerName, lbName, workedList, mountsPoints);
+    }
 
-            // Ask for a reload
-            sendRequestWithReply(
-                    REST_TYPE.POST,
-                    getUrl(agent.getApiUrl(), "apache-manager/server/action/reload"),
-                    null,
-                    null);
+    /**
+     * Remove a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void removeLoadBalancer(final String routerName, final String lbName)
+            throws RouterManagerBeanException {
+        logger.info("Router '" + routerName + "' - Delete Loadbalancer '" +  lbName + "'");
+
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // get the router from SR
+                    ApacheJkVO apacheJk = getRouter(routerName);
+
+                    // Get the agent
+                    AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                    doRemoveLoadBalancer(apacheJk, endpoint, lbName);
+                    pushConfiguration(routerName, endpoint);
+                    return endpoint;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        // Ask for a reload
+        reload(endpoint);
+    }
+
+    /**
+     * Same as {@link #removeLoadBalancer(String, String)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void removeLoadBalancer(String routerName, String lbName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        removeLoadBalancer(routerName, lbName);
+    }
+
+    /**
+     * Replace the load balancers of mount points by a new one, with a single
+     * cutover reload. The new load balancer is created and the mount points are
+     * moved to it before the reload, so that Apache switches from the old
+     * configuration to the new one at once. The old load balancers left
+     * without mount point are removed after the cutover, followed by a
+     * second reload dropping them.
+     * @param routerName Name of the router
+     * @param lbName  Name of the new load balancer
+     * @param workedList  the workers balanced by the new load balancer
+     * @param mountsPoints the mount points moved to the new load balancer
+     * @return the names of the removed load balancers
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<String> swapLoadBalancer(final String routerName, final String lbName, final List<String> workedList,
+            final List<String> mountsPoints) throws RouterManagerBeanException {
 
-            // create the worker in sr
-            srApacheJkEjb.addWorker(apacheJk.getId(), workerName, targetHost, targetPortNumber);
+        logger.info("Router '" + routerName + "' - Swap to Loadbalancer '" +  lbName + "' (wk=" + workedList +
+                ", mt=" + mountsPoints + ")");
 
-            logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' created !");
+        final Set<String> replaced = new LinkedHashSet<String>();
+        final AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // get the router from SR
+                    ApacheJkVO apacheJk = getRouter(routerName);
+
+                    // Get the agent
+                    AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                    replaced.addAll(doSwapLoadBalancer(apacheJk, endpoint, lbName, workedList, mountsPoints));
+                    pushConfiguration(routerName, endpoint);
+                    return endpoint;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        // Ask for a reload, the cutover
+        reload(endpoint);
+
+        // remove the old load balancers, not mounted anymore
+        final List<String> removed = new ArrayList<String>();
+        transactions.run(new RouterTransactions.Work<Void>() {
+            public Void run() {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    for (String oldLbName : replaced) {
+                        try {
+                            ApacheJkVO apacheJk = getRouter(routerName);
+                            LoadBalancerVO loadBalancer = getLoadBalancer(apacheJk, oldLbName);
+                            // may have been mounted again since the swap
+                            if (loadBalancer.getMountPoints() == null || loadBalancer.getMountPoints().isEmpty()) {
+                                doRemoveLoadBalancer(apacheJk, endpoint, oldLbName);
+                                removed.add(oldLbName);
+                            }
+                        } catch (RouterManagerBeanException e) {
+                            // the cutover is done, the old load balancer is only unused
+                            logger.warn("Router '" + routerName + "' - Unable to remove the Loadbalancer '"
+                                    + oldLbName + "' replaced by '" + lbName + "'", e);
+                        }
+                    }
+                    if (!removed.isEmpty()) {
+                        pushConfiguration(routerName, endpoint);
+                    }
+                } catch (RouterManagerBeanException e) {
+                    // the agent is brought back to the SR by the next reconciliation
+                    logger.warn("Router '" + routerName + "' - Unable to push the configuration without the "
+                            + "Loadbalancers " + removed, e);
+                } finally {
+                    lock.unlock();
+                }
+                return null;
+            }
+        });
+
+        if (!removed.isEmpty()) {
+            // Ask for a reload dropping the old load balancers
+            try {
+                reload(endpoint);
+            } catch (RouterManagerBeanException e) {
+                // unused load balancers, dropped by the next reload
+                logger.warn("Router '" + routerName + "' - Unable to reload without the Loadbalancers " + removed, e);
+            }
         }
+
+        logger.info("Router '" + routerName + "' - Swapped to Loadbalancer '" +  lbName + "', removed " + removed);
+        return removed;
     }
 
     /**
-     * Remove a worker
+     * Same as {@link #swapLoadBalancer(String, String, List, List)}, run once per idempotency key by the
+     * IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the names of the removed load balancers
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<String> swapLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints, IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return swapLoadBalancer(routerName, lbName, workedList, mountsPoints);
+    }
+
+    /**
+     * add a worker to a loadbalancer
+     *
+     * @param routerName Name of the router
+     * @param lbName     Name of the load balancer
+     * @throws org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException
+     *
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void addWorkerToLoadBalancer(final String routerName, final String lbName,
+            final String workerName) throws RouterManagerBeanException {
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // get the router from SR
+                    ApacheJkVO apacheJk = getRouter(routerName);
+
+                    // Get the agent
+                    AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                    if (!doAddWorkerToLoadBalancer(apacheJk, endpoint, lbName, workerName)) {
+                        return null;
+                    }
+                    pushConfiguration(routerName, endpoint);
+                    return endpoint;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        // Ask for a reload
+        if (endpoint != null) {
+            reload(endpoint);
+        }
+    }
+
+    /**
+     * Same as {@link #addWorkerToLoadBalancer(String, String, String)}, run once per idempotency key by the
+     * IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void addWorkerToLoadBalancer(String routerName, String lbName, String workerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        addWorkerToLoadBalancer(routerName, lbName, workerName);
+    }
+
+    /**
+     * remove a worker from a loadbalancer, the worker itself being kept
+     *
      * @param routerName Name of the router
+     * @param lbName     Name of the load balancer
      * @param workerName Name of the worker to remove
      * @throws RouterManagerBeanException
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void removeWorker(String routerName, String workerName)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void removeWorkerFromLoadBalancer(final String routerName, final String lbName,
+            final String workerName) throws RouterManagerBeanException {
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // get the router from SR
+                    ApacheJkVO apacheJk = getRouter(routerName);
+
+                    // Get the agent
+                    AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                    if (!doRemoveWorkerFromLoadBalancer(apacheJk, endpoint, lbName, workerName)) {
+                        return null;
+                    }
+                    pushConfiguration(routerName, endpoint);
+                    return endpoint;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        // Ask for a reload
+        if (endpoint != null) {
+            reload(endpoint);
+        }
+    }
+
+    /**
+     * Same as {@link #removeWorkerFromLoadBalancer(String, String, String)}, run once per idempotency key by the
+     * IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void removeWorkerFromLoadBalancer(String routerName, String lbName, String workerName,
+            IdempotencyKey idempotencyKey)
             throws RouterManagerBeanException {
-        logger.info("Router '" + routerName + "' - Delete Worker '" +  workerName + "'");
+        removeWorkerFromLoadBalancer(routerName, lbName, workerName);
+    }
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
+    /**
+     * Apply a list of changes to a router in a single transaction, with a
+     * single reload. A failed change doesn't prevent the next ones.
+     * @param routerName Name of the router
+     * @param changes the changes to apply, in order
+     * @return the outcome of each change, in the same order
+     * @throws RouterManagerBeanException if the router or its agent can't be found
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<RouterChangeResult> applyChanges(final String routerName, final List<RouterChange> changes)
+            throws RouterManagerBeanException {
+        logger.info("Router '" + routerName + "' - Apply " + changes.size() + " changes");
+
+        final List<RouterChangeResult> results = new ArrayList<RouterChangeResult>(changes.size());
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                boolean reloadNeeded = false;
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // check the router and its agent before any change
+                    AgentEndpoint endpoint = getEndpoint(getRouter(routerName));
+
+                    for (RouterChange change : changes) {
+                        try {
+                            // a previous change may have modified the router
+                            ApacheJkVO apacheJk = getRouter(routerName);
+                            reloadNeeded |= applyChange(apacheJk, endpoint, change);
+                            results.add(new RouterChangeResult(change, true, null));
+                        } catch (RouterManagerBeanException e) {
+                            logger.warn("Router '" + routerName + "' - Change " + change + " failed", e);
+                            results.add(new RouterChangeResult(change, false, e.getMessage()));
+                        }
+                    }
+
+                    if (!reloadNeeded) {
+                        return null;
+                    }
+                    pushConfiguration(routerName, endpoint);
+                    return endpoint;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        if (endpoint != null) {
+            // Ask for a reload
+            reload(endpoint);
+        }
+
+        logger.info("Router '" + routerName + "' - " + changes.size() + " changes applied !");
+        return results;
+    }
+
+    /**
+     * Same as {@link #applyChanges(String, List)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of each change, in the same order
+     * @throws RouterManagerBeanException if the router or its agent can't be found
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<RouterChangeResult> applyChanges(String routerName, List<RouterChange> changes,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return applyChanges(routerName, changes);
+    }
+
+    /**
+     * Bring the jk configuration of the agent of a router to the state known
+     * by the SR. Only the differences are sent to the agent, followed by a
+     * single reload if needed.
+     * @param routerName Name of the router
+     * @return the number of changes sent to the agent
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int reconcileRouter(final String routerName) throws RouterManagerBeanException {
+        logger.info("Router '" + routerName + "' reconciling ....");
+
+        final int[] changes = new int[1];
+        AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+            public AgentEndpoint run() throws RouterManagerBeanException {
+                RouterLocks.Hold lock = lockRouter(routerName);
+                try {
+                    // the SR is the desired state, don't trust the routers index
+                    routerCache.invalidate(routerName);
+                    ApacheJkVO apacheJk = getRouter(routerName);
+
+                    // Get the agent
+                    AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                    changes[0] = doReconcile(apacheJk, endpoint);
+                    return changes[0] > 0 ? endpoint : null;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        if (endpoint != null) {
+            // Ask for a reload
+            reload(endpoint);
+        }
+
+        logger.info("Router '" + routerName + "' reconciled. " + changes[0] + " changes sent to the agent.");
+        return changes[0];
+    }
+
+    /**
+     * Same as {@link #reconcileRouter(String)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the number of changes sent to the agent
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int reconcileRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return reconcileRouter(routerName);
+    }
+
+    /**
+     * Disable a backend target on all the routers having a worker for it.
+     * The workers are found with the targets index and the routers are
+     * updated by one task per agent, run concurrently by the container, each
+     * router in its own transaction and each agent being reloaded once at
+     * once, without waiting for the reload window.
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @param timeout time budget (ms): the routers not updated within it are
+     * reported as pending, their update goes on
+     * @return the outcome of the disabling
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public TargetFailoverResult disableTarget(final String targetHost, final Integer targetPortNumber, long timeout)
+            throws RouterManagerBeanException {
+        logger.info("Target '" + targetHost + ":" + targetPortNumber + "' disabling on all the routers ....");
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+        TargetFailoverResult result = new TargetFailoverResult(targetHost, targetPortNumber);
+
+        // the workers of the target, by router
+        Map<String, List<String>> workersByRouter = new HashMap<String, List<String>>();
+        for (WorkerLocation location : targetIndex.getWorkers(targetHost, targetPortNumber, srApacheJkEjb)) {
+            List<String> workers = workersByRouter.get(location.getRouterName());
+            if (workers == null) {
+                workers = new ArrayList<String>();
+                workersByRouter.put(location.getRouterName(), workers);
+            }
+            workers.add(location.getWorkerName());
+        }
+
+        // the routers, by agent
+        Map<String, AgentEndpoint> endpoints = new HashMap<String, AgentEndpoint>();
+        Map<String, Map<String, List<String>>> routersByAgent = new HashMap<String, Map<String, List<String>>>();
+        for (Map.Entry<String, List<String>> entry : workersByRouter.entrySet()) {
+            try {
+                AgentEndpoint endpoint = getEndpoint(getRouter(entry.getKey()));
+                Map<String, List<String>> routers = routersByAgent.get(endpoint.getBaseUrl());
+                if (routers == null) {
+                    routers = new HashMap<String, List<String>>();
+                    routersByAgent.put(endpoint.getBaseUrl(), routers);
+                    endpoints.put(endpoint.getBaseUrl(), endpoint);
+                }
+                routers.put(entry.getKey(), entry.getValue());
+            } catch (RouterManagerBeanException e) {
+                result.getFailedRouters().put(entry.getKey(), e.getMessage());
+            }
+        }
+
+        // one task per agent, run by the container
+        Map<Future<TargetFailoverResult>, Set<String>> tasks =
+                new LinkedHashMap<Future<TargetFailoverResult>, Set<String>>();
+        final AtomicBoolean progress = JournalInterceptor.getProgress();
+        for (Map.Entry<String, Map<String, List<String>>> entry : routersByAgent.entrySet()) {
+            final AgentEndpoint endpoint = endpoints.get(entry.getKey());
+            final Map<String, List<String>> routers = entry.getValue();
+            try {
+                tasks.put(transactions.runAsync(new RouterTransactions.Work<TargetFailoverResult>() {
+                    public TargetFailoverResult run() {
+                        AtomicBoolean previous = JournalInterceptor.bindProgress(progress);
+                        try {
+                            return disableTarget(endpoint, routers, targetHost, targetPortNumber);
+                        } finally {
+                            JournalInterceptor.bindProgress(previous);
+                        }
+                    }
+                }), routers.keySet());
+            } catch (RouterManagerBeanException e) {
+                // run in the caller thread outside of a container
+                for (String routerName : routers.keySet()) {
+                    result.getFailedRouters().put(routerName, e.getMessage());
+                }
+            }
+        }
+
+        // wait for the tasks within the time budget
+        for (Map.Entry<Future<TargetFailoverResult>, Set<String>> task : tasks.entrySet()) {
+            try {
+                long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+                TargetFailoverResult agentResult = task.getKey().get(remaining, TimeUnit.MILLISECONDS);
+                result.getDisabledWorkers().addAll(agentResult.getDisabledWorkers());
+                result.getFailedRouters().putAll(agentResult.getFailedRouters());
+            } catch (TimeoutException e) {
+                result.getPendingRouters().addAll(task.getValue());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.getPendingRouters().addAll(task.getValue());
+            } catch (ExecutionException e) {
+                for (String routerName : task.getValue()) {
+                    result.getFailedRouters().put(routerName, String.valueOf(e.getCause()));
+                }
+            }
+        }
+        if (!result.getPendingRouters().isEmpty()) {
+            // the pending routers may still be changed after the return
+            JournalInterceptor.progress();
+        }
+        result.setElapsedTime(System.currentTimeMillis() - start);
+
+        logger.info("Target '" + targetHost + ":" + targetPortNumber + "' disabled : " + result);
+        return result;
+    }
+
+    /**
+     * Same as {@link #disableTarget(String, Integer, long)}, run once per idempotency key by the IdempotencyInterceptor
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of the disabling
+     * @throws RouterManagerBeanException
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public TargetFailoverResult disableTarget(final String targetHost, final Integer targetPortNumber, long timeout,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return disableTarget(targetHost, targetPortNumber, timeout);
+    }
+
+    /**
+     * Find the workers of a backend target, with the targets index
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @return the workers of the target, sorted by router and worker name
+     * @throws RouterManagerBeanException
+     */
+    public List<WorkerLocation> findWorkersByTarget(String targetHost, Integer targetPortNumber)
+            throws RouterManagerBeanException {
+        return new ArrayList<WorkerLocation>(targetIndex.getWorkers(targetHost, targetPortNumber, srApacheJkEjb));
+    }
+
+    /**
+     * Find the load balancers having a worker of a backend target as member, with the targets index
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @return the load balancers, sorted by router and load balancer name
+     * @throws RouterManagerBeanException
+     */
+    public List<LoadBalancerLocation> findLoadBalancersByTarget(String targetHost, Integer targetPortNumber)
+            throws RouterManagerBeanException {
+        return new ArrayList<LoadBalancerLocation>(targetIndex.getLoadBalancers(targetHost, targetPortNumber,
+                srApacheJkEjb));
+    }
+
+    /**
+     * Find the routers having a worker, with the targets index
+     * @param workerName Name of the worker
+     * @return the names of the routers, sorted
+     * @throws RouterManagerBeanException
+     */
+    public List<String> findRoutersByWorker(String workerName) throws RouterManagerBeanException {
+        return new ArrayList<String>(targetIndex.getRouters(workerName, srApacheJkEjb));
+    }
+
+    /**
+     * Find the load balancers having a worker as member, with the targets index
+     * @param workerName Name of the worker
+     * @return the load balancers, sorted by router and load balancer name
+     * @throws RouterManagerBeanException
+     */
+    public List<LoadBalancerLocation> findLoadBalancersByWorker(String workerName)
+            throws RouterManagerBeanException {
+        return new ArrayList<LoadBalancerLocation>(targetIndex.getLoadBalancers(workerName, srApacheJkEjb));
+    }
+
+    /**
+     * Disable the workers of a target on the routers of an agent, each router
+     * in its own transaction, followed by a single reload of the routers
+     * changed once committed. The queued asynchronous operations of the
+     * agent, failover excepted, are held back meanwhile.
+     * @param endpoint the agent endpoint
+     * @param workersByRouter the workers of the target, by router of the agent
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @return the outcome of the disabling on the routers of the agent
+     */
+    private TargetFailoverResult disableTarget(final AgentEndpoint endpoint, Map<String, List<String>> workersByRouter,
+            final String targetHost, final Integer targetPortNumber) {
+        final TargetFailoverResult result = new TargetFailoverResult(targetHost, targetPortNumber);
+        RouterMetrics metrics = RouterMetrics.getInstance();
+        List<String> changedRouters = new ArrayList<String>();
+        String lane = getLane(workersByRouter.keySet().iterator().next());
+        operationQueue.holdBack(lane);
+        try {
+            for (Map.Entry<String, List<String>> entry : workersByRouter.entrySet()) {
+                final String routerName = entry.getKey();
+                final List<String> workerNames = entry.getValue();
+                String previous = metrics.enter(routerName);
+                try {
+                    boolean changed = transactions.run(new RouterTransactions.Work<Boolean>() {
+                        public Boolean run() throws RouterManagerBeanException {
+                            RouterLocks.Hold lock = lockRouter(routerName);
+                            try {
+                                ApacheJkVO apacheJk = getRouter(routerName);
+                                boolean changed = false;
+                                for (String workerName : workerNames) {
+                                    WorkerVO worker = getWorker(apacheJk, workerName);
+                                    if (worker == null || !targetHost.equals(worker.getHost())
+                                            || !targetPortNumber.equals(worker.getPort())) {
+                                        // the index was out of date
+                                        targetIndex.removeWorker(routerName, workerName);
+                                        continue;
+                                    }
+                                    if (!"DISABLE".equals(worker.getStatus())) {
+                                        doSetWorkerStatus(apacheJk, endpoint, workerName, false);
+                                        changed = true;
+                                    }
+                                    result.getDisabledWorkers().add(new WorkerLocation(routerName, workerName));
+                                }
+                                if (changed) {
+                                    pushConfiguration(routerName, endpoint);
+                                }
+                                return changed;
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    });
+                    if (changed) {
+                        changedRouters.add(routerName);
+                    }
+                } catch (RouterManagerBeanException e) {
+                    logger.error("Router '" + routerName + "' - Unable to disable the target '" + targetHost + ":"
+                            + targetPortNumber + "'", e);
+                    result.getFailedRouters().put(routerName, e.getMessage());
+                } finally {
+                    metrics.exit(previous);
+                }
+            }
+
+            if (!changedRouters.isEmpty()) {
+                try {
+                    waitForReload(endpoint, reloadScheduler.requestReload(endpoint, 0L));
+                } catch (RouterManagerBeanException e) {
+                    for (String routerName : changedRouters) {
+                        result.getFailedRouters().put(routerName, e.getMessage());
+                    }
+                }
+            }
+        } finally {
+            operationQueue.release(lane);
+        }
+        return result;
+    }
+
+    /**
+     * Reload the Apache of several routers, batch after batch. The routers of
+     * a batch are grouped by agent and each agent is reloaded once, at once,
+     * by at most parallelism tasks at the same time, then checked by reading
+     * its jk configuration. The routers left are skipped as soon as the error
+     * rate exceeds the threshold at the end of a batch.
+     * @param routerNames Names of the routers, in the order of the reload
+     * @param batchSize number of routers of a batch
+     * @param parallelism maximum number of agents reloaded at the same time
+     * @param maxErrorRate ratio (0 to 1) of failed routers aborting the rolling reload when exceeded
+     * @param listener progress of the rolling reload, may be null
+     * @return the outcome of the rolling reload
+     * @throws RouterManagerBeanException if the parameters are invalid
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public RollingReloadResult reloadRouters(List<String> routerNames, int batchSize, int parallelism,
+            double maxErrorRate, RollingReloadListener listener) throws RouterManagerBeanException {
+        if (batchSize < 1 || parallelism < 1 || maxErrorRate < 0d || maxErrorRate > 1d) {
+            throw new RouterManagerBeanException("Invalid rolling reload : batch size " + batchSize
+                    + ", parallelism " + parallelism + ", maximum error rate " + maxErrorRate + " !");
+        }
+        List<String> names = new ArrayList<String>(new LinkedHashSet<String>(routerNames));
+        logger.info("Rolling reload of " + names.size() + " routers ....");
+        long start = System.currentTimeMillis();
+        RollingReloadResult result = new RollingReloadResult();
+
+        int agentTasks = Math.min(parallelism, rollingReloadExecutor.getMaximumPoolSize());
+        int batchCount = (names.size() + batchSize - 1) / batchSize;
+        for (int batch = 0; batch < batchCount; batch++) {
+            int next = Math.min(names.size(), (batch + 1) * batchSize);
+            boolean interrupted = !reloadBatch(names.subList(batch * batchSize, next), agentTasks, result,
+                    listener);
+            result.setCompletedBatches(batch + 1);
+            if (listener != null) {
+                try {
+                    listener.batchCompleted(batch + 1, batchCount, result);
+                } catch (RuntimeException e) {
+                    logger.warn("Rolling reload listener failed", e);
+                }
+            }
+            if (next < names.size() && (interrupted || result.getErrorRate() > maxErrorRate)) {
+                logger.error("Rolling reload aborted after batch " + (batch + 1) + "/" + batchCount + " : "
+                        + (interrupted ? "interrupted" : "error rate " + result.getErrorRate() + " > " + maxErrorRate));
+                result.setAborted(true);
+                result.getSkippedRouters().addAll(names.subList(next, names.size()));
                 break;
             }
         }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
+        result.setElapsedTime(System.currentTimeMillis() - start);
+
+        logger.info("Rolling reload done : " + result);
+        return result;
+    }
+
+    /**
+     * Get the shared executor of the rolling reloads, creating it if needed.
+     * Each call must be balanced by a call to {@link #releaseRollingReloadExecutor()}.
+     * @return the shared executor
+     */
+    private static synchronized ThreadPoolExecutor acquireRollingReloadExecutor() {
+        if (sharedRollingReloadExecutor == null) {
+            int threads = Integer.getInteger(ROLLING_RELOAD_THREADS_PROPERTY, DEFAULT_ROLLING_RELOAD_THREADS);
+            sharedRollingReloadExecutor = new ThreadPoolExecutor(threads, threads, ROLLING_RELOAD_KEEP_ALIVE_TIME,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "RouterManager-rollingReload-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            sharedRollingReloadExecutor.allowCoreThreadTimeOut(true);
         }
+        rollingReloadReferences++;
+        return sharedRollingReloadExecutor;
+    }
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+    /**
+     * Release the shared executor of the rolling reloads. It is shut down when it has no more user.
+     */
+    private static synchronized void releaseRollingReloadExecutor() {
+        if (rollingReloadReferences > 0) {
+            rollingReloadReferences--;
+            if (rollingReloadReferences == 0) {
+                sharedRollingReloadExecutor.shutdown();
+                sharedRollingReloadExecutor = null;
+            }
+        }
+    }
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
+    /**
+     * Reload the agents of a batch of routers, reporting each router as soon as its agent is done
+     * @param routerNames Names of the routers of the batch
+     * @param parallelism maximum number of agents reloaded at the same time
+     * @param result the outcome of the rolling reload, updated
+     * @param listener progress of the rolling reload, may be null
+     * @return false if interrupted, the routers not done being failed
+     */
+    private boolean reloadBatch(List<String> routerNames, int parallelism, RollingReloadResult result,
+            RollingReloadListener listener) {
+        // the routers, by agent
+        Map<String, AgentEndpoint> endpoints = new HashMap<String, AgentEndpoint>();
+        Map<String, List<String>> routersByAgent = new LinkedHashMap<String, List<String>>();
+        for (String routerName : routerNames) {
+            try {
+                AgentEndpoint endpoint = getEndpoint(getRouter(routerName));
+                List<String> routers = routersByAgent.get(endpoint.getBaseUrl());
+                if (routers == null) {
+                    routers = new ArrayList<String>();
+                    routersByAgent.put(endpoint.getBaseUrl(), routers);
+                    endpoints.put(endpoint.getBaseUrl(), endpoint);
+                }
+                routers.add(routerName);
+            } catch (RouterManagerBeanException e) {
+                reportReload(routerName, e.getMessage(), result, listener);
+            }
         }
 
-        // Remove a worker
+        // one task per agent, at most parallelism at the same time
+        CompletionService<Void> completionService = new ExecutorCompletionService<Void>(rollingReloadExecutor);
+        Map<Future<Void>, List<String>> tasks = new HashMap<Future<Void>, List<String>>();
+        Iterator<Map.Entry<String, List<String>>> agents = routersByAgent.entrySet().iterator();
+        while (agents.hasNext() || !tasks.isEmpty()) {
+            while (agents.hasNext() && tasks.size() < parallelism) {
+                Map.Entry<String, List<String>> entry = agents.next();
+                final AgentEndpoint endpoint = endpoints.get(entry.getKey());
+                tasks.put(completionService.submit(new Callable<Void>() {
+                    public Void call() throws RouterManagerBeanException {
+                        waitForReload(endpoint, reloadScheduler.requestReload(endpoint, 0L));
+                        // the agent must still answer once reloaded
+                        new JkReconciler(agentClient, endpoint).readConfiguration();
+                        return null;
+                    }
+                }), entry.getValue());
+            }
+
+            Future<Void> task;
+            try {
+                task = completionService.take();
+            } catch (InterruptedException e) {
+                // the running reloads go on without being reported
+                Thread.currentThread().interrupt();
+                List<String> left = new ArrayList<String>();
+                for (List<String> routers : tasks.values()) {
+                    left.addAll(routers);
+                }
+                while (agents.hasNext()) {
+                    left.addAll(agents.next().getValue());
+                }
+                for (String routerName : left) {
+                    reportReload(routerName, "Interrupted while reloading the router", result, listener);
+                }
+                return false;
+            }
+            String error = null;
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                // the task is done, can't happen
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                error = e.getCause() instanceof RouterManagerBeanException ? e.getCause().getMessage()
+                        : String.valueOf(e.getCause());
+            }
+            for (String routerName : tasks.remove(task)) {
+                reportReload(routerName, error, result, listener);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record the outcome of the reload of a router and report it to the listener
+     * @param routerName Name of the router
+     * @param error the error message, null if the router has been reloaded
+     * @param result the outcome of the rolling reload, updated
+     * @param listener progress of the rolling reload, may be null
+     */
+    private void reportReload(String routerName, String error, RollingReloadResult result,
+            RollingReloadListener listener) {
+        if (error == null) {
+            result.getReloadedRouters().add(routerName);
+        } else {
+            logger.error("Router '" + routerName + "' - Reload failed : " + error);
+            result.getFailedRouters().put(routerName, error);
+        }
+        if (listener != null) {
+            try {
+                listener.routerReloaded(routerName, error);
+            } catch (RuntimeException e) {
+                logger.warn("Rolling reload listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Recover the routers of the journal operations, then reconcile all the
+     * routers every jpaas.router.manager.reconcile.period minutes. The
+     * reconciliation of all the routers is disabled when the property is not set.
+     * No transaction: the SR is only read, and the lock of each router is
+     * released as soon as it is reconciled, before its agent is reloaded.
+     */
+    @Schedule(minute = "*", hour = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void reconcileRouters() {
+        recoverJournal();
+
+        long period = Long.getLong(RECONCILE_PERIOD_PROPERTY, 0L) * 60000L;
+        long last = lastReconcile.get();
+        long now = System.currentTimeMillis();
+        if (period <= 0 || now - last < period || !lastReconcile.compareAndSet(last, now)) {
+            return;
+        }
+
+        for (ApacheJkVO apacheJk : srApacheJkEjb.findApacheJkRouters()) {
+            if ("DELETING".equals(apacheJk.getState())) {
+                continue;
+            }
+            try {
+                AgentEndpoint endpoint = getEndpoint(apacheJk);
+                int changes;
+                RouterLocks.Hold lock = routerLocks.lock(apacheJk.getName());
+                try {
+                    changes = doReconcile(apacheJk, endpoint);
+                } finally {
+                    lock.unlock();
+                }
+                if (changes > 0) {
+                    reload(endpoint);
+                }
+            } catch (Exception e) {
+                logger.warn("Router '" + apacheJk.getName() + "' - Reconciliation failed", e);
+            }
+        }
+    }
+
+    /**
+     * Reconcile the routers of the journal operations interrupted by a crash
+     * or failed: the agent is brought to the state recorded by the SR, which
+     * replays the changes the SR has and rolls back the ones it hasn't. A
+     * router that can't be reconciled is retried on next call.
+     */
+    private void recoverJournal() {
+        OperationJournal journal = OperationJournal.getInstance();
+        if (journal == null || !recovering.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, List<Long>> entry : journal.getPendingRouters().entrySet()) {
+                String routerName = entry.getKey();
+                try {
+                    ApacheJkVO apacheJk;
+                    AgentEndpoint endpoint = null;
+                    int changes = 0;
+                    RouterLocks.Hold lock = routerLocks.lock(routerName);
+                    try {
+                        // the router in the routers index may be outdated by the failed operation
+                        routerCache.invalidate(routerName);
+                        apacheJk = routerCache.get(routerName, srApacheJkEjb);
+                        if (apacheJk != null) {
+                            endpoint = getEndpoint(apacheJk);
+                            changes = doReconcile(apacheJk, endpoint);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (apacheJk == null) {
+                        logger.warn("Router '" + routerName + "' - Not in the SR anymore, nothing to recover");
+                    } else {
+                        if (changes > 0) {
+                            reload(endpoint);
+                        }
+                        logger.info("Router '" + routerName + "' - Recovered from the journal, " + changes
+                                + " changes sent to the agent");
+                    }
+                    journal.recovered(routerName, entry.getValue());
+                } catch (Exception e) {
+                    logger.warn("Router '" + routerName + "' - Recovery failed, retried later", e);
+                }
+            }
+        } finally {
+            recovering.set(false);
+        }
+    }
+
+    /**
+     * Lock a router. Within a transaction, the lock is kept until the
+     * transaction is completed so that the next operation on the router reads
+     * the committed SR writes: the returned hold must be unlocked in a finally
+     * block all the same.
+     * @param routerName Name of the router
+     * @return the hold of the lock
+     */
+    private RouterLocks.Hold lockRouter(String routerName) {
+        RouterTransaction transaction = RouterTransaction.get(txRegistry, routerCache);
+        if (transaction == null) {
+            return routerLocks.lock(routerName);
+        }
+        return transaction.lock(routerLocks, routerName);
+    }
+
+    /**
+     * Record a router written to the SR. Within a transaction, the routers
+     * index gets it once the transaction is committed.
+     * @param apacheJk the router returned by the SR
+     */
+    private void routerWritten(ApacheJkVO apacheJk) {
+        RouterTransaction transaction = RouterTransaction.get(txRegistry, routerCache);
+        if (transaction == null) {
+            routerCache.put(apacheJk);
+        } else {
+            transaction.written(apacheJk);
+        }
+    }
+
+    /**
+     * Record a router changed in the SR without getting its new state. It is
+     * read again from the SR on next lookup.
+     * @param apacheJk the router before the change
+     */
+    private void routerChanged(ApacheJkVO apacheJk) {
+        RouterTransaction transaction = RouterTransaction.get(txRegistry, routerCache);
+        if (transaction == null) {
+            routerCache.invalidate(apacheJk.getName());
+        } else {
+            transaction.changed(apacheJk);
+        }
+    }
+
+    /**
+     * Record a router removed from the SR
+     * @param routerName Name of the router
+     */
+    private void routerRemoved(String routerName) {
+        RouterTransaction transaction = RouterTransaction.get(txRegistry, routerCache);
+        if (transaction == null) {
+            routerCache.remove(routerName);
+        } else {
+            transaction.removed(routerName);
+        }
+    }
+
+    /**
+     * Send to the agent the differences between its jk configuration and the router, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @return the number of changes sent to the agent
+     * @throws RouterManagerBeanException
+     */
+    private int doReconcile(ApacheJkVO apacheJk, AgentEndpoint endpoint) throws RouterManagerBeanException {
+        JkReconciler reconciler = new JkReconciler(agentClient, endpoint);
+        return reconciler.reconcile(JkConfiguration.fromRouter(apacheJk),
+                JkConfiguration.fromRouters(getAgentRouters(apacheJk, endpoint)), reconciler.readConfiguration());
+    }
+
+    /**
+     * Get the other routers linked to the agent of a router, sharing its mod_jk configuration
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @return the other routers of the agent
+     * @throws RouterManagerBeanException
+     */
+    private List<ApacheJkVO> getAgentRouters(ApacheJkVO apacheJk, AgentEndpoint endpoint)
+            throws RouterManagerBeanException {
+        List<ApacheJkVO> routers = new ArrayList<ApacheJkVO>();
+        List<PaasResourceVO> paasResources = srApacheAgentLinkEjb.findPaasResourcesByAgent(
+                endpoint.getAgent().getId());
+        for (PaasResourceVO paasResourceVO : paasResources) {
+            if (paasResourceVO instanceof ApacheJkVO && !apacheJk.getName().equals(paasResourceVO.getName())) {
+                // the link may return the router without its workers and load balancers
+                routers.add(getRouter(paasResourceVO.getName()));
+            }
+        }
+        return routers;
+    }
+
+    /**
+     * Apply a change to a router, without reload
+     * @param apacheJk the router
+     * @param change the change
+     * @return true if the router configuration has been modified
+     * @throws RouterManagerBeanException
+     */
+    private boolean applyChange(ApacheJkVO apacheJk, AgentEndpoint endpoint, RouterChange change)
+            throws RouterManagerBeanException {
+        switch (change.getType()) {
+            case CREATE_WORKER:
+                return doCreateWorker(apacheJk, endpoint, change.getWorkerName(), change.getTargetHost(),
+                        change.getTargetPortNumber());
+            case REMOVE_WORKER:
+                doRemoveWorker(apacheJk, endpoint, change.getWorkerName());
+                return true;
+            case ENABLE_WORKER:
+                doSetWorkerStatus(apacheJk, endpoint, change.getWorkerName(), true);
+                return true;
+            case DISABLE_WORKER:
+                doSetWorkerStatus(apacheJk, endpoint, change.getWorkerName(), false);
+                return true;
+            case CREATE_LOAD_BALANCER:
+                doCreateLoadBalancer(apacheJk, endpoint, change.getLbName(), change.getWorkers(),
+                        change.getMountPoints());
+                return true;
+            case REMOVE_LOAD_BALANCER:
+                doRemoveLoadBalancer(apacheJk, endpoint, change.getLbName());
+                return true;
+            case ADD_WORKER_TO_LOAD_BALANCER:
+                return doAddWorkerToLoadBalancer(apacheJk, endpoint, change.getLbName(), change.getWorkerName());
+            case REMOVE_WORKER_FROM_LOAD_BALANCER:
+                return doRemoveWorkerFromLoadBalancer(apacheJk, endpoint, change.getLbName(),
+                        change.getWorkerName());
+            case ADD_MOUNT_POINT:
+                for (String path : change.getMountPoints()) {
+                    doAddMountPoint(apacheJk, endpoint, change.getLbName(), path);
+                }
+                return true;
+            case REMOVE_MOUNT_POINT:
+                for (String path : change.getMountPoints()) {
+                    doRemoveMountPoint(apacheJk, endpoint, change.getLbName(), path);
+                }
+                return true;
+            default:
+                throw new RouterManagerBeanException("Unsupported change : " + change.getType());
+        }
+    }
+
+    /**
+     * Create a worker on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param workerName Name of the worker to create
+     * @param targetHost The worker target host
+     * @param targetPortNumber the worker target port number
+     * @return false if the worker already exists
+     * @throws RouterManagerBeanException
+     */
+    private boolean doCreateWorker(ApacheJkVO apacheJk, AgentEndpoint endpoint, String workerName,
+            String targetHost, Integer targetPortNumber) throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
+
+        //Do nothing if there is already a worker with the same name
+        List<WorkerVO> workerVOList = apacheJk.getWorkerList();
+        for (WorkerVO worker : workerVOList) {
+            if (worker.getName().equals(workerName)) {
+                return false;
+            }
+        }
+
+        // Add a worker
         MultivaluedMap<String, String> params = new MultivaluedMapImpl();
         params.add("name", workerName);
+        params.add("host", targetHost);
+        params.add("port", targetPortNumber.toString());
 
-        sendRequestWithReply(
-                REST_TYPE.DELETE,
-                getUrl(agent.getApiUrl(), "jkmanager/worker/" + workerName),
-                params,
-                null);
+        sendJkRequest(apacheJk, endpoint, REST_TYPE.POST, endpoint.getWorkerUrl(workerName), params);
 
-        // Ask for a reload
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "apache-manager/server/action/reload"),
-                null,
-                null);
+        // create the worker in sr
+        srApacheJkEjb.addWorker(apacheJk.getId(), workerName, targetHost, targetPortNumber);
+        routerChanged(apacheJk);
+        targetIndex.addWorker(routerName, workerName, targetHost, targetPortNumber);
+
+        logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' created !");
+        return true;
+    }
+
+    /**
+     * Remove a worker on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param workerName Name of the worker to remove
+     * @throws RouterManagerBeanException
+     */
+    private void doRemoveWorker(ApacheJkVO apacheJk, AgentEndpoint endpoint, String workerName)
+            throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
+
+        // Remove a worker
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add("name", workerName);
+
+        sendJkRequest(apacheJk, endpoint, REST_TYPE.DELETE, endpoint.getWorkerUrl(workerName), params);
 
         //remove the worker in LoadBalancer workers list
         List<LoadBalancerVO> loadBalancerVOList = apacheJk.getLoadBalancerList();
@@ -533,388 +2133,751 @@ public class RouterManagerBean implements RouterManager {
 
         // remove the worker in sr
         srApacheJkEjb.removeWorker(apacheJk.getId(), workerName);
+        routerChanged(apacheJk);
+        targetIndex.removeWorker(routerName, workerName);
 
         logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' removed !");
     }
 
     /**
-     * Disable a worker
+     * Enable or disable a worker, coalescing the calls on the same worker
+     * arriving while the router is busy or during the status delay. The owner of the change applies the
+     * last requested status, followed by a reload, and nothing at all when the
+     * coalesced calls bring the worker back to its status in the SR.
      * @param routerName Name of the router
-     * @param workerName Name of the worker to disable
+     * @param workerName Name of the worker
+     * @param enable true to enable the worker, false to disable it
      * @throws RouterManagerBeanException
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void disableWorker(String routerName, String workerName)
+    private void setWorkerStatus(final String routerName, final String workerName, boolean enable)
             throws RouterManagerBeanException {
-        logger.info("Router '" + routerName + "' - Disable Worker '" +  workerName + "'");
+        final WorkerStatusCoalescer.PendingStatus status = statusCoalescer.request(routerName, workerName, enable);
+        if (!status.isOwner()) {
+            logger.debug("Router '" + routerName + "' - Worker '" + workerName + "' status change coalesced");
+            status.await();
+            return;
+        }
+        RouterManagerBeanException failure = new RouterManagerBeanException("Status change of worker '"
+                + workerName + "' failed !");
+        try {
+            statusCoalescer.awaitCalls(status);
+            AgentEndpoint endpoint = transactions.run(new RouterTransactions.Work<AgentEndpoint>() {
+                public AgentEndpoint run() throws RouterManagerBeanException {
+                    RouterLocks.Hold lock = lockRouter(routerName);
+                    try {
+                        boolean enable = statusCoalescer.start(status);
+
+                        // get the router from SR
+                        ApacheJkVO apacheJk = getRouter(routerName);
+
+                        // Get the agent
+                        AgentEndpoint endpoint = getEndpoint(apacheJk);
+
+                        WorkerVO worker = getWorker(apacheJk, workerName);
+                        if (status.getRequests() > 1 && worker != null
+                                && (enable ? "ENABLE" : "DISABLE").equals(worker.getStatus())) {
+                            logger.info("Router '" + routerName + "' - Worker '" + workerName + "' already "
+                                    + (enable ? "enabled" : "disabled") + " after " + status.getRequests()
+                                    + " coalesced calls");
+                            releaseOnCompletion(status);
+                            return null;
+                        }
+                        doSetWorkerStatus(apacheJk, endpoint, workerName, enable);
+                        pushConfiguration(routerName, endpoint);
+                        releaseOnCompletion(status);
+                        return endpoint;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
+            // Ask for a reload
+            if (endpoint != null) {
+                reload(endpoint);
+            }
+            failure = null;
+        } catch (RouterManagerBeanException e) {
+            failure = e;
+            throw e;
+        } finally {
+            // release the coalesced calls not released by the transaction, even when the router could not be locked
+            statusCoalescer.start(status);
+            status.complete(failure);
+        }
+    }
+
+    /**
+     * Release the calls coalesced in a status change at the completion of the
+     * current transaction, so that they don't return before the change is
+     * committed. Without transaction, the owner releases them on return.
+     * @param status the pending change, applied by the current transaction
+     */
+    private void releaseOnCompletion(WorkerStatusCoalescer.PendingStatus status) {
+        if (txRegistry != null && txRegistry.getTransactionKey() != null) {
+            txRegistry.registerInterposedSynchronization(status);
+        }
+    }
+
+    /**
+     * Enable or disable a worker on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param workerName Name of the worker
+     * @param enable true to enable the worker, false to disable it
+     * @throws RouterManagerBeanException
+     */
+    private void doSetWorkerStatus(ApacheJkVO apacheJk, AgentEndpoint endpoint, String workerName, boolean enable)
+            throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
+
+        //Send request to the Agent to enable or disable the worker
+        sendJkRequest(apacheJk, endpoint, REST_TYPE.POST,
+                endpoint.getWorkerStatusUrl(workerName, enable), null);
+
+        //enable or disable the worker in sr
+        List<WorkerVO> workerVOs = apacheJk.getWorkerList();
+
+        for (WorkerVO wVO : workerVOs) {
+            if (wVO.getName().equals(workerName)) {
+                wVO.setStatus(enable ? "ENABLE" : "DISABLE");
                 break;
             }
         }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
+        apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+        routerWritten(apacheJk);
+
+        logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' " + (enable ? "enabled" : "disabled")
+                + " !");
+    }
+
+    /**
+     * Create a loadbalancer on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param lbName  Name of the load balancer
+     * @param workedList  the workers balanced by this load balancer
+     * @param mountsPoints the mount Points of this load balancer
+     * @throws RouterManagerBeanException
+     */
+    private void doCreateLoadBalancer(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName,
+            List<String> workedList, List<String> mountsPoints) throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
+
+        //Send request to the Agent to create the loadBalancer
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add("name", lbName);
+        params.add("wl", toWorkerList(workedList));
+
+        sendJkRequest(apacheJk, endpoint, REST_TYPE.POST, endpoint.getLoadBalancerUrl(lbName), params);
+
+
+        //Send requests to the Agent to create the loadBalancer Mount Points
+        sendJkRequests(apacheJk, endpoint, REST_TYPE.POST, endpoint.getMountUrl(lbName),
+                toPathParams(mountsPoints));
+
+        // create the LoadBalancer in sr
+        srApacheJkEjb.addLoadBalancer(apacheJk.getId(), lbName, mountsPoints, workedList);
+        routerChanged(apacheJk);
+        targetIndex.addLoadBalancer(routerName, lbName, workedList);
+
+        logger.info("Router '" + routerName + "' - Loadbalancer '" +  lbName + "' created !");
+    }
+
+    /**
+     * Remove a loadbalancer on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param lbName  Name of the load balancer
+     * @throws RouterManagerBeanException
+     */
+    private void doRemoveLoadBalancer(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName)
+            throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
+
+        // Get the Load Balancer
+        LoadBalancerVO loadBalancer = getLoadBalancer(apacheJk, lbName);
+
+        // Remove a loadbalancer
+
+        //Send request to the Agent to remove the Load Balancer
+        sendJkRequest(apacheJk, endpoint, REST_TYPE.DELETE, endpoint.getLoadBalancerUrl(lbName), null);
+
+        //Send requests to the Agent to remove the loadBalancer Mount Points
+        sendJkRequests(apacheJk, endpoint, REST_TYPE.DELETE, endpoint.getMountUrl(lbName),
+                toPathParams(loadBalancer.getMountPoints()));
+
+        // remove the loadbalancer in sr
+        srApacheJkEjb.removeLoadBalancer(apacheJk.getId(), lbName);
+        routerChanged(apacheJk);
+        targetIndex.removeLoadBalancer(routerName, lbName);
+
+        logger.info("Router '" + routerName + "' - Loadbalancer '" +  lbName + "' removed !");
+    }
+
+    /**
+     * Create a loadbalancer and move mount points to it from their current
+     * loadbalancers, on the agent and in the SR, without reload. The mount of
+     * a path on the new load balancer replaces its old mapping on the agent:
+     * the old mappings are not deleted, an agent deleting a mount by path
+     * would drop the new one too. The agent changes are rolled back on error.
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param lbName  Name of the new load balancer
+     * @param workedList  the workers balanced by the new load balancer
+     * @param mountsPoints the mount points moved to the new load balancer
+     * @return the names of the old load balancers left without mount point
+     * @throws RouterManagerBeanException if the new load balancer already exists or on agent error
+     */
+    private Set<String> doSwapLoadBalancer(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName,
+            List<String> workedList, List<String> mountsPoints) throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
+
+        // the mount points moved from each old load balancer
+        Map<LoadBalancerVO, List<String>> movedMounts = new LinkedHashMap<LoadBalancerVO, List<String>>();
+        if (apacheJk.getLoadBalancerList() != null) {
+            for (LoadBalancerVO loadBalancer : apacheJk.getLoadBalancerList()) {
+                if (lbName.equals(loadBalancer.getName())) {
+                    throw new RouterManagerBeanException("Loadbalancer '" + lbName + "' already exists for router '"
+                            + routerName + "' !");
+                }
+                List<String> moved = new ArrayList<String>();
+                if (loadBalancer.getMountPoints() != null) {
+                    for (String path : loadBalancer.getMountPoints()) {
+                        if (mountsPoints.contains(path)) {
+                            moved.add(path);
+                        }
+                    }
+                }
+                if (!moved.isEmpty()) {
+                    movedMounts.put(loadBalancer, moved);
+                }
+            }
+        }
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+        boolean created = false;
+        boolean done = false;
+        Set<String> replaced = new LinkedHashSet<String>();
+        try {
+            //Send request to the Agent to create the new loadBalancer
+            MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+            params.add("name", lbName);
+            params.add("wl", toWorkerList(workedList));
+
+            // a failed request may still have created it
+            created = true;
+            sendJkRequest(apacheJk, endpoint, REST_TYPE.POST, endpoint.getLoadBalancerUrl(lbName), params);
+
+            //Send requests to the Agent to mount the new loadBalancer, replacing the old mappings,
+            // applied all together by the next reload
+            sendJkRequests(apacheJk, endpoint, REST_TYPE.POST, endpoint.getMountUrl(lbName),
+                    toPathParams(mountsPoints));
+
+            // remove the moved mount points of the old load balancers in sr
+            if (!movedMounts.isEmpty()) {
+                for (Map.Entry<LoadBalancerVO, List<String>> entry : movedMounts.entrySet()) {
+                    LoadBalancerVO loadBalancer = entry.getKey();
+                    List<String> mountPoints = new LinkedList<String>(loadBalancer.getMountPoints());
+                    mountPoints.removeAll(entry.getValue());
+                    loadBalancer.setMountPoints(mountPoints);
+                    if (mountPoints.isEmpty()) {
+                        replaced.add(loadBalancer.getName());
+                    }
+                }
+                srApacheJkEjb.updateApacheJkRouter(apacheJk);
+            }
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
+            // create the new LoadBalancer in sr
+            srApacheJkEjb.addLoadBalancer(apacheJk.getId(), lbName, mountsPoints, workedList);
+            done = true;
+        } finally {
+            if (created && !done) {
+                rollbackSwap(apacheJk, endpoint, lbName, mountsPoints, movedMounts);
+            }
         }
+        routerChanged(apacheJk);
+        targetIndex.addLoadBalancer(routerName, lbName, workedList);
 
-        //Send request to the Agent to disable worker
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "jkmanager/worker/" + workerName + "/disable"),
-                null,
-                null);
-
-        // Ask for a reload
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "apache-manager/server/action/reload"),
-                null,
-                null);
-
-        // disable the worker in sr
-        List<WorkerVO> workerVOs = apacheJk.getWorkerList();
+        logger.info("Router '" + routerName + "' - Mount points " + mountsPoints + " moved to Loadbalancer '"
+                + lbName + "' !");
+        return replaced;
+    }
 
-        for (WorkerVO wVO : workerVOs) {
-            if (wVO.getName().equals(workerName)) {
-                wVO.setStatus("DISABLE");
-                break;
+    /**
+     * Undo the agent changes of a failed swap: unmount the new paths, mount
+     * the moved paths on their old load balancers again, replacing the new
+     * mappings, then remove the new load balancer. The errors are only
+     * logged, the next reconciliation bringing the agent back to the SR.
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param lbName  Name of the new load balancer
+     * @param mountsPoints the mount points of the new load balancer
+     * @param movedMounts the mount points moved from each old load balancer
+     */
+    private void rollbackSwap(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName, List<String> mountsPoints,
+            Map<LoadBalancerVO, List<String>> movedMounts) {
+        String routerName = apacheJk.getName();
+        logger.warn("Router '" + routerName + "' - Rolling back the swap to Loadbalancer '" + lbName + "'");
+        List<String> newMounts = new ArrayList<String>(mountsPoints);
+        for (List<String> moved : movedMounts.values()) {
+            newMounts.removeAll(moved);
+        }
+        if (!newMounts.isEmpty()) {
+            try {
+                sendJkRequests(apacheJk, endpoint, REST_TYPE.DELETE, endpoint.getMountUrl(lbName),
+                        toPathParams(newMounts));
+            } catch (RouterManagerBeanException e) {
+                logger.warn("Router '" + routerName + "' - Unable to unmount " + newMounts + " from Loadbalancer '"
+                        + lbName + "'", e);
             }
         }
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
+        for (Map.Entry<LoadBalancerVO, List<String>> entry : movedMounts.entrySet()) {
+            try {
+                sendJkRequests(apacheJk, endpoint, REST_TYPE.POST, endpoint.getMountUrl(entry.getKey().getName()),
+                        toPathParams(entry.getValue()));
+            } catch (RouterManagerBeanException e) {
+                logger.warn("Router '" + routerName + "' - Unable to mount again " + entry.getValue()
+                        + " on Loadbalancer '" + entry.getKey().getName() + "'", e);
+            }
+        }
+        try {
+            sendJkRequest(apacheJk, endpoint, REST_TYPE.DELETE, endpoint.getLoadBalancerUrl(lbName), null);
+        } catch (RouterManagerBeanException e) {
+            logger.warn("Router '" + routerName + "' - Unable to remove the Loadbalancer '" + lbName + "'", e);
+        }
+    }
 
-        logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' disabled !");
+    /**
+     * Add a worker to a loadbalancer on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param lbName  Name of the load balancer
+     * @param workerName Name of the worker to add
+     * @return false if the worker was already a member of the load balancer
+     * @throws RouterManagerBeanException
+     */
+    private boolean doAddWorkerToLoadBalancer(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName,
+            String workerName)
+            throws RouterManagerBeanException {
+        return doChangeLoadBalancerMember(apacheJk, endpoint, lbName, workerName, true);
     }
 
     /**
-     * Enable a worker
-     * @param routerName Name of the router
-     * @param workerName Name of the worker to enable
+     * Remove a worker from a loadbalancer on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param lbName  Name of the load balancer
+     * @param workerName Name of the worker to remove
+     * @return false if the worker was not a member of the load balancer
      * @throws RouterManagerBeanException
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void enableWorker(String routerName, String workerName)
+    private boolean doRemoveWorkerFromLoadBalancer(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName,
+            String workerName)
             throws RouterManagerBeanException {
-        logger.info("Router '" + routerName + "' - Enable Worker '" +  workerName + "'");
+        return doChangeLoadBalancerMember(apacheJk, endpoint, lbName, workerName, false);
+    }
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
+    /**
+     * Add or remove a member of a loadbalancer on the agent and in the SR,
+     * without reload. Only the member is sent to an agent supporting the
+     * member requests, the whole list of members to the other ones.
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param lbName  Name of the load balancer
+     * @param workerName Name of the worker
+     * @param add true to add the worker, false to remove it
+     * @return false if there was nothing to change
+     * @throws RouterManagerBeanException
+     */
+    private boolean doChangeLoadBalancerMember(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName,
+            String workerName, boolean add) throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
+
+        // Get the Load Balancer
+        LoadBalancerVO loadBalancer = getLoadBalancer(apacheJk, lbName);
+
+        // work on a copy, the router is shared through the routers index
+        List<String> workerList = new ArrayList<String>();
+        if (loadBalancer.getWorkers() != null) {
+            workerList.addAll(loadBalancer.getWorkers());
+        }
+        boolean changed;
+        if (add) {
+            changed = !workerList.contains(workerName);
+            if (changed) {
+                workerList.add(workerName);
             }
+        } else {
+            changed = workerList.remove(workerName);
         }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
+        if (!changed) {
+            logger.info("Router '" + routerName + "' - Worker '" + workerName + "' "
+                    + (add ? "already in" : "not in") + " Loadbalancer '" + lbName + "'");
+            return false;
         }
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+        //Send request to the Agent to add or remove the member, or to update the whole members list
+        if (!isFullPush(routerName) && !agentClient.sendOptionalRequest(endpoint, MEMBER_REQUESTS,
+                add ? REST_TYPE.PUT : REST_TYPE.DELETE, endpoint.getLoadBalancerMemberUrl(lbName, workerName),
+                null)) {
+            MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+            params.add("name", lbName);
+            params.add("wl", toWorkerList(workerList));
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
+            sendJkRequest(apacheJk, endpoint, REST_TYPE.PUT, endpoint.getLoadBalancerUrl(lbName), params);
         }
 
-        //Send request to the Agent to enable worker
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "jkmanager/worker/" + workerName + "/enable"),
-                null,
-                null);
-
-        // Ask for a reload
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "apache-manager/server/action/reload"),
-                null,
-                null);
-
-        //enable the worker in sr
-        List<WorkerVO> workerVOs = apacheJk.getWorkerList();
-
-        for (WorkerVO wVO : workerVOs) {
-            if (wVO.getName().equals(workerName)) {
-                wVO.setStatus("ENABLE");
-                break;
-            }
+        // update the members in sr with a single write, the whole configuration is rendered from it
+        loadBalancer.setWorkers(workerList);
+        apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+        routerWritten(apacheJk);
+        if (add) {
+            targetIndex.addMember(routerName, lbName, workerName);
+        } else {
+            targetIndex.removeMember(routerName, lbName, workerName);
         }
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
 
-
-        logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' enabled !");
+        logger.info("Router '" + routerName + "' - Worker '" + workerName + "' "
+                + (add ? "added to" : "removed from") + " Loadbalancer '" + lbName + "' !");
+        return true;
     }
 
     /**
-     * Create a loadbalancer
-     * @param routerName Name of the router
+     * Add a mount point to a loadbalancer on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
      * @param lbName  Name of the load balancer
-     * @param workedList  the workers balanced by this load balancer
-     * @param mountsPoints the mount Points of this load balancer
+     * @param path the mount point
      * @throws RouterManagerBeanException
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void createLoadBalancer(String routerName, String lbName,
-            List<String> workedList, List<String> mountsPoints)
+    private void doAddMountPoint(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName, String path)
             throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
 
-        logger.info("Router '" + routerName + "' - Create Loadbalancer '" +  lbName + "' (wk=" + workedList +
-                ", mt=" + mountsPoints + ")");
+        // Get the Load Balancer
+        LoadBalancerVO loadBalancer = getLoadBalancer(apacheJk, lbName);
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
+        //Send request to the Agent to create the Mount Point
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add("path", path);
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+        sendJkRequest(apacheJk, endpoint, REST_TYPE.POST, endpoint.getMountUrl(lbName), params);
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
+        // add the mount point in sr
+        List<String> mountPoints = new LinkedList<String>();
+        if (loadBalancer.getMountPoints() != null) {
+            mountPoints.addAll(loadBalancer.getMountPoints());
         }
-
-        // Create a String from the WorkedList
-        String wl = "";
-        boolean first = true;
-        for(String s : workedList) {
-            if (first) {
-                first=false;
-            } else {
-                wl += ",";
-            }
-            wl += s;
+        if (!mountPoints.contains(path)) {
+            mountPoints.add(path);
         }
+        loadBalancer.setMountPoints(mountPoints);
+        apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+        routerWritten(apacheJk);
 
-        //Send request to the Agent to create the loadBalancer
-        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
-        params.add("name", lbName);
-        params.add("wl", wl);
+        logger.info("Router '" + routerName + "' - Mount point '" + path + "' added to Loadbalancer '" +  lbName
+                + "' !");
+    }
+
+    /**
+     * Remove a mount point of a loadbalancer on the agent and in the SR, without reload
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param lbName  Name of the load balancer
+     * @param path the mount point
+     * @throws RouterManagerBeanException
+     */
+    private void doRemoveMountPoint(ApacheJkVO apacheJk, AgentEndpoint endpoint, String lbName, String path)
+            throws RouterManagerBeanException {
+        String routerName = apacheJk.getName();
 
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "jkmanager/loadbalancer/" + lbName),
-                params,
-                null);
+        // Get the Load Balancer
+        LoadBalancerVO loadBalancer = getLoadBalancer(apacheJk, lbName);
 
+        //Send request to the Agent to remove the Mount Point
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add("path", path);
 
-        //Send requests to the Agent to create the loadBalancer Mount Points
-        for (String path : mountsPoints) {
-            params.clear();
-            params.add("path", path);
+        sendJkRequest(apacheJk, endpoint, REST_TYPE.DELETE, endpoint.getMountUrl(lbName), params);
 
-            sendRequestWithReply(
-                    REST_TYPE.POST,
-                    getUrl(agent.getApiUrl(), "jkmanager/mount/" + lbName),
-                    params,
-                    null);
+        // remove the mount point in sr
+        List<String> mountPoints = new LinkedList<String>();
+        if (loadBalancer.getMountPoints() != null) {
+            mountPoints.addAll(loadBalancer.getMountPoints());
         }
+        mountPoints.remove(path);
+        loadBalancer.setMountPoints(mountPoints);
+        apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
+        routerWritten(apacheJk);
 
-        // Ask for a reload
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "apache-manager/server/action/reload"),
-                null,
-                null);
+        logger.info("Router '" + routerName + "' - Mount point '" + path + "' removed from Loadbalancer '" +  lbName
+                + "' !");
+    }
 
-        // create the LoadBalancer in sr
-        srApacheJkEjb.addLoadBalancer(apacheJk.getId(), lbName, mountsPoints, workedList);
+    /**
+     * Get the agent endpoint of a router from the endpoints index
+     * @param apacheJk the router
+     * @return the agent endpoint
+     * @throws RouterManagerBeanException if the router has no agent
+     */
+    private AgentEndpoint getEndpoint(ApacheJkVO apacheJk) throws RouterManagerBeanException {
+        AgentEndpoint endpoint = endpointCache.get(apacheJk, srApacheAgentLinkEjb);
 
-        logger.info("Router '" + routerName + "' - Loadbalancer '" +  lbName + "' created !");
+        if (endpoint == null) {
+            throw new RouterManagerBeanException("Unable to get the agent for router '" + apacheJk.getName() + "' !");
+        }
+        return endpoint;
     }
 
     /**
-     * Remove a loadbalancer
+     * Get the known agent (host:port) of a router, without any SR lookup
      * @param routerName Name of the router
-     * @param lbName  Name of the load balancer
-     * @throws RouterManagerBeanException
+     * @return the agent or null if it is not known yet
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void removeLoadBalancer(String routerName, String lbName)
-            throws RouterManagerBeanException {
-        logger.info("Router '" + routerName + "' - Delete Loadbalancer '" +  lbName + "'");
+    private static String getKnownAgent(String routerName) {
+        AgentEndpoint endpoint = endpointCache.peek(routerName);
+        return endpoint == null ? null : endpoint.getHostPort();
+    }
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
+    /**
+     * Get the lane of the operations of a router in the {@link OperationQueue}:
+     * the agent of the router, or the router itself while its agent is not
+     * known yet. The operations on several routers share a global lane.
+     * @param routerName Name of the router, null for the operations on several routers
+     * @return the lane of the operations of the router
+     */
+    static String getLane(String routerName) {
+        if (routerName == null) {
+            return GLOBAL_LANE;
         }
+        String agent = getKnownAgent(routerName);
+        return agent == null ? routerName : agent;
+    }
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
+    /**
+     * Get a worker of a router
+     * @param apacheJk the router
+     * @param workerName Name of the worker
+     * @return the worker or null if it doesn't exist
+     */
+    private WorkerVO getWorker(ApacheJkVO apacheJk, String workerName) {
+        if (apacheJk.getWorkerList() != null) {
+            for (WorkerVO worker : apacheJk.getWorkerList()) {
+                if (worker.getName().equals(workerName)) {
+                    return worker;
+                }
+            }
         }
+        return null;
+    }
 
-        // Get the Load Balancer
+    /**
+     * Get a load balancer of a router
+     * @param apacheJk the router
+     * @param lbName Name of the load balancer
+     * @return the load balancer
+     * @throws RouterManagerBeanException if the load balancer doesn't exist
+     */
+    private LoadBalancerVO getLoadBalancer(ApacheJkVO apacheJk, String lbName) throws RouterManagerBeanException {
         List<LoadBalancerVO> loadBalancerVOList = apacheJk.getLoadBalancerList();
-        LoadBalancerVO loadBalancer = null;
         for (LoadBalancerVO lbVO : loadBalancerVOList) {
             if (lbName.equals(lbVO.getName())) {
-                loadBalancer = lbVO;
-                break;
+                return lbVO;
             }
         }
-        if (loadBalancer == null) {
-            throw new RouterManagerBeanException("Unable to get the Load Balancer '" + lbName + "' for router '" +
-                    routerName + "' !");
-        }
-
-        // Remove a loadbalancer
-
-        //Send request to the Agent to remove the Load Balancer        
-        sendRequestWithReply(
-                REST_TYPE.DELETE,
-                getUrl(agent.getApiUrl(), "jkmanager/loadbalancer/" + lbName),
-                null,
-                null);
-
-        // Ask for a reload
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "apache-manager/server/action/reload"),
-                null,
-                null);
+        throw new RouterManagerBeanException("Unable to get the Load Balancer '" + lbName + "' for router '" +
+                apacheJk.getName() + "' !");
+    }
 
-        //Send requests to the Agent to remove the loadBalancer Mount Points
-        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
-        for (String path : loadBalancer.getMountPoints()) {
-            params.clear();
+    /**
+     * Create the parameters of the mount point requests
+     * @param mountPoints the mount points
+     * @return the parameters of each request
+     */
+    private List<MultivaluedMap<String, String>> toPathParams(List<String> mountPoints) {
+        List<MultivaluedMap<String, String>> paramsList = new ArrayList<MultivaluedMap<String, String>>(
+                mountPoints.size());
+        for (String path : mountPoints) {
+            MultivaluedMap<String, String> params = new MultivaluedMapImpl();
             params.add("path", path);
-
-            sendRequestWithReply(
-                    REST_TYPE.DELETE,
-                    getUrl(agent.getApiUrl(), "jkmanager/mount/" + lbName),
-                    params,
-                    null);
+            paramsList.add(params);
         }
-
-        // remove the loadbalancer in sr
-        srApacheJkEjb.removeLoadBalancer(apacheJk.getId(), lbName);
-
-        logger.info("Router '" + routerName + "' - Loadbalancer '" +  lbName + "' removed !");
+        return paramsList;
     }
 
     /**
-     * add a worker to a loadbalancer
-     *
-     * @param routerName Name of the router
-     * @param lbName     Name of the load balancer
-     * @throws org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException
-     *
+     * Create a String from a workers list
+     * @param workerList the workers
+     * @return the comma separated workers
      */
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void addWorkerToLoadBalancer(String routerName, String lbName, String workerName) throws RouterManagerBeanException {
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
+    private String toWorkerList(List<String> workerList) {
+        int length = 0;
+        for (String s : workerList) {
+            length += s.length() + 1;
+        }
+        StringBuilder wl = new StringBuilder(length);
+        for (String s : workerList) {
+            if (wl.length() > 0) {
+                wl.append(',');
             }
+            wl.append(s);
         }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
+        return wl.toString();
+    }
+
+    /**
+     * If the router is in full push mode, push its whole jk configuration to
+     * its agent, after an operation on the router and before the reload.
+     * @param routerName Name of the router
+     * @param endpoint the agent endpoint of the router
+     * @throws RouterManagerBeanException if the push fails
+     */
+    private void pushConfiguration(String routerName, AgentEndpoint endpoint) throws RouterManagerBeanException {
+        if (isFullPush(routerName)) {
+            pushConfiguration(getRouter(routerName), endpoint);
         }
+    }
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+    /**
+     * Push the whole jk configuration of the agent of a router, without reload.
+     * The files are shared by all the routers of the agent: they are rendered
+     * from the router and the other routers of the agent while they are uploaded.
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @throws RouterManagerBeanException on agent error
+     */
+    private void pushConfiguration(ApacheJkVO apacheJk, AgentEndpoint endpoint) throws RouterManagerBeanException {
+        List<ApacheJkVO> routers = new ArrayList<ApacheJkVO>();
+        routers.add(apacheJk);
+        routers.addAll(getAgentRouters(apacheJk, endpoint));
+        JkConfigurationWriter writer = new JkConfigurationWriter(routers);
+        agentClient.uploadFile(endpoint, endpoint.getWorkersPropertiesUrl(), writer.getWorkersProperties());
+        agentClient.uploadFile(endpoint, endpoint.getUriWorkerMapUrl(), writer.getUriWorkerMap());
+        logger.debug("Router '" + apacheJk.getName() + "' - jk configuration pushed to the agent");
+    }
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
+    /**
+     * @param routerName Name of the router
+     * @return true if the whole jk configuration of the router is pushed after each operation
+     */
+    private boolean isFullPush(String routerName) {
+        return fullPushRouters.contains("*") || fullPushRouters.contains(routerName);
+    }
 
-        // Get the Load Balancer
-        List<LoadBalancerVO> loadBalancerVOList = apacheJk.getLoadBalancerList();
-        LoadBalancerVO loadBalancer = null;
-        for (LoadBalancerVO lbVO : loadBalancerVOList) {
-            if (lbName.equals(lbVO.getName())) {
-                loadBalancer = lbVO;
-                break;
+    /**
+     * @param names comma separated names, may be null
+     * @return the names, trimmed
+     */
+    private static Set<String> parseNames(String names) {
+        Set<String> result = new HashSet<String>();
+        if (names != null) {
+            for (String name : names.split(",")) {
+                name = name.trim();
+                if (name.length() > 0) {
+                    result.add(name);
+                }
             }
         }
-        if (loadBalancer == null) {
-            throw new RouterManagerBeanException("Unable to get the Load Balancer '" + lbName + "' for router '" +
-                    routerName + "' !");
-        }
+        return Collections.unmodifiableSet(result);
+    }
 
-        List<String> workerList = loadBalancer.getWorkers();
-        if (workerList == null) {
-            workerList = new LinkedList<String>();
+    /**
+     * Send a jkmanager request to the agent of a router. Nothing is sent if
+     * the router is in full push mode, the configuration is pushed before the
+     * reload.
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param type Http type of the request
+     * @param url url of the request, built by the endpoint
+     * @param params parameters of the request
+     * @throws RouterManagerBeanException on agent error
+     */
+    private void sendJkRequest(ApacheJkVO apacheJk, AgentEndpoint endpoint, REST_TYPE type, String url,
+            MultivaluedMap<String, String> params) throws RouterManagerBeanException {
+        if (!isFullPush(apacheJk.getName())) {
+            sendRequestWithReply(endpoint, type, url, params, null);
         }
-        workerList.add(workerName);
+    }
 
-        // Create a String from the WorkerList
-        String wl = "";
-        boolean first = true;
-        for(String s : workerList) {
-            if (first) {
-                first=false;
-            } else {
-                wl += ",";
-            }
-            wl += s;
+    /**
+     * Send the same jkmanager request with several parameters sets to the
+     * agent of a router, concurrently. Nothing is sent if the router is in
+     * full push mode, the configuration is pushed before the reload.
+     * @param apacheJk the router
+     * @param endpoint the agent endpoint of the router
+     * @param type Http type of the requests
+     * @param url url of the requests, built by the endpoint
+     * @param paramsList parameters of each request
+     * @throws RouterManagerBeanException on agent error
+     */
+    private void sendJkRequests(ApacheJkVO apacheJk, AgentEndpoint endpoint, REST_TYPE type, String url,
+            List<MultivaluedMap<String, String>> paramsList) throws RouterManagerBeanException {
+        if (!isFullPush(apacheJk.getName())) {
+            agentClient.sendRequests(endpoint, type, url, paramsList);
         }
+    }
 
-        //Send request to the Agent to create the loadBalancer
-        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
-        params.add("name", lbName);
-        params.add("wl", wl);
-
-        sendRequestWithReply(
-                REST_TYPE.PUT,
-                getUrl(agent.getApiUrl(), "jkmanager/loadbalancer/" + lbName),
-                params,
-                null);
+    /**
+     * Ask for a reload of the Apache of an agent. The request is merged with
+     * the other ones of the same agent arriving in the reload window, then
+     * waited for: a caller not willing to wait uses the {@link RouterManagerAsync}.
+     * Called without router lock, once the changes are committed, so that the
+     * operations on the routers of the agent go on during the window and share the reload.
+     * @param endpoint the agent endpoint
+     * @throws RouterManagerBeanException if the reload fails
+     */
+    private void reload(AgentEndpoint endpoint) throws RouterManagerBeanException {
+        waitForReload(endpoint, reloadScheduler.requestReload(endpoint));
+    }
 
-        // Ask for a reload
-        sendRequestWithReply(
-                REST_TYPE.POST,
-                getUrl(agent.getApiUrl(), "apache-manager/server/action/reload"),
-                null,
-                null);
+    /**
+     * Wait for the end of a reload
+     * @param endpoint the agent endpoint
+     * @param reload the reload
+     * @throws RouterManagerBeanException if the reload fails
+     */
+    private void waitForReload(AgentEndpoint endpoint, Future<Void> reload) throws RouterManagerBeanException {
+        try {
+            reload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RouterManagerBeanException("Interrupted while reloading the agent '" + endpoint.getName() + "' !",
+                    e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RouterManagerBeanException) {
+                throw (RouterManagerBeanException) e.getCause();
+            }
+            throw new RouterManagerBeanException("Error on reload of the agent '" + endpoint.getName() + "' !",
+                    e.getCause());
+        }
     }
 
     /**
-     * @param agentApi the api url
-     * @param path the path to add
-     * @return the HTTP URL
+     * Get a router as written by the current transaction, or from the routers index
+     * @param routerName Name of the router
+     * @return a copy of the router, owned by the caller
+     * @throws RouterManagerBeanException if the router doesn't exist
      */
-    private String getUrl(final String agentApi, final String path) {
-        return agentApi + "/" + path;
+    private ApacheJkVO getRouter(String routerName) throws RouterManagerBeanException {
+        RouterTransaction transaction = RouterTransaction.peek(txRegistry);
+        ApacheJkVO apacheJk = null;
+        if (transaction != null) {
+            apacheJk = transaction.getRouter(routerName, srApacheJkEjb);
+        }
+        if (apacheJk == null) {
+            apacheJk = routerCache.get(routerName, srApacheJkEjb);
+        }
+        if (apacheJk == null) {
+            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
+        }
+        return apacheJk;
     }
 
     /**
      * Send a REST request and get response
      *
+     * @param endpoint
+     *            the agent endpoint
      * @param type
      *            Http type of the request
      * @param url
@@ -925,73 +2888,10 @@ public class RouterManagerBean implements RouterManager {
      *            response class
      * @return ResponseClass response class
      */
-    private <ResponseClass> ResponseClass sendRequestWithReply(REST_TYPE type,
+    private <ResponseClass> ResponseClass sendRequestWithReply(AgentEndpoint endpoint, REST_TYPE type,
             String url, MultivaluedMap<String, String> params,
             java.lang.Class<ResponseClass> responseClass)
             throws RouterManagerBeanException {
-
-        Client client = Client.create();
-
-        WebResource webResource = client.resource(removeRedundantForwardSlash(url));
-
-        if (params != null) {
-            webResource = webResource.queryParams(params);
-        }
-
-        ClientResponse clientResponse;
-        switch (type) {
-            case PUT:
-                clientResponse = webResource.put(ClientResponse.class);
-                break;
-            case GET:
-                clientResponse = webResource.get(ClientResponse.class);
-                break;
-            case POST:
-                clientResponse = webResource.post(ClientResponse.class);
-                break;
-            case DELETE:
-                clientResponse = webResource.delete(ClientResponse.class);
-                break;
-            default:// put
-                clientResponse = webResource.put(ClientResponse.class);
-                break;
-        }
-
-        int status = clientResponse.getStatus();
-
-        if (status != HTTP_STATUS_ACCEPTED && status != HTTP_STATUS_OK
-                && status != HTTP_STATUS_NO_CONTENT && status != HTTP_STATUS_CREATED) {
-            throw new RouterManagerBeanException(
-                    "Error on JOnAS agent request : " + status);
-        }
-
-        ResponseClass r = null;
-
-        if (status != HTTP_STATUS_NO_CONTENT) {
-            //ToDo Apache-Manager REST interfaces need to be harmonized
-/*            if (clientResponse.getType() != MediaType.APPLICATION_XML_TYPE) {
-                throw new RouterManagerBeanException(
-                        "Error on JOnAS agent response, unexpected type : "
-                                + clientResponse.getType());
-            }*/
-
-            if (responseClass != null)
-                r = clientResponse.getEntity(responseClass);
-        }
-
-        client.destroy();
-
-        return r;
-
-    }
-
-    /**
-     * Remove redundant forward slash in a String url
-     * @param s a String url
-     * @return The String url without redundant forward slash
-     */
-    private String removeRedundantForwardSlash(String s) {
-        String tmp = s.replaceAll("/+", "/");
-        return tmp.replaceAll(":/", "://");
+        return agentClient.sendRequestWithReply(endpoint, type, url, params, responseClass);
     }
 }
@@ -0,0 +1,485 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.util.log.Log;
+import org.ow2.util.log.LogFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and throughput metrics of the RouterManager.
+ * The RouterManager methods are timed by the {@link MetricsInterceptor} and
+ * their phases (SR read, SR write, catalog, agent call, reload) by the code
+ * doing them. Each metric is also split by router and by agent.
+ * The recording only updates atomic counters and a histogram with power of
+ * two buckets, so that it never takes a lock. The metrics are published as
+ * a platform MXBean, with the circuit breaker state of the agents, and can
+ * be switched off at runtime.
+ */
+public class RouterMetrics implements RouterMetricsMXBean {
+
+    /**
+     * The logger
+     */
+    private static Log logger = LogFactory.getLog(RouterMetrics.class);
+
+    /**
+     * System property telling if the metrics are recorded at startup (true by default)
+     */
+    public static final String ENABLED_PROPERTY = "jpaas.router.manager.metrics.enabled";
+
+    /**
+     * Name of the MXBean
+     */
+    public static final String OBJECT_NAME = "org.ow2.jonas.jpaas:type=RouterManager,name=Metrics";
+
+    /**
+     * Kind of the metrics of the RouterManager methods
+     */
+    public static final String METHOD = "method";
+
+    /**
+     * Kind of the metrics of the phases of the methods
+     */
+    public static final String PHASE = "phase";
+
+    /**
+     * Phase reading the SR
+     */
+    public static final String SR_READ = "srRead";
+
+    /**
+     * Phase writing the SR
+     */
+    public static final String SR_WRITE = "srWrite";
+
+    /**
+     * Phase reading the catalog
+     */
+    public static final String CATALOG = "catalog";
+
+    /**
+     * Phase sending a request to an agent
+     */
+    public static final String AGENT_CALL = "agentCall";
+
+    /**
+     * Phase reloading the Apache of an agent
+     */
+    public static final String RELOAD = "reload";
+
+    /**
+     * Start time of a call done while the metrics were disabled
+     */
+    public static final long NOT_STARTED = Long.MIN_VALUE;
+
+    /**
+     * Maximum number of routers or agents for which a metric is split
+     */
+    private static final int MAX_TAGS = 10000;
+
+    /**
+     * Number of buckets of the histograms, bucket n holding the times lower than 2^n us
+     */
+    private static final int BUCKETS = 40;
+
+    /**
+     * The shared metrics
+     */
+    private static final RouterMetrics instance = new RouterMetrics(
+            Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true")));
+
+    /**
+     * Number of users of the MXBean
+     */
+    private static int references = 0;
+
+    /**
+     * The metrics, by method or phase name
+     */
+    private final ConcurrentMap<String, MetricGroup> groups = new ConcurrentHashMap<String, MetricGroup>();
+
+    /**
+     * Name of the router handled by the current thread
+     */
+    private final ThreadLocal<String> currentRouter = new ThreadLocal<String>();
+
+    /**
+     * Health of the agents contacted by the shared {@link AgentClient}
+     */
+    private volatile Collection<AgentHealth> agentHealth = Collections.emptyList();
+
+    /**
+     * True if the metrics are recorded
+     */
+    private volatile boolean enabled;
+
+    /**
+     * Constructor
+     * @param enabled true if the metrics are recorded
+     */
+    private RouterMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the shared metrics
+     */
+    public static RouterMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Register the MXBean in the platform MBean server if needed.
+     * Each call must be balanced by a call to {@link #unregister()}.
+     */
+    public static synchronized void register() {
+        if (references++ == 0) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(instance, name);
+                }
+            } catch (JMException e) {
+                logger.warn("Unable to register the MBean '" + OBJECT_NAME + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Unregister the MXBean when it has no more user
+     */
+    public static synchronized void unregister() {
+        if (references > 0 && --references == 0) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                logger.warn("Unable to unregister the MBean '" + OBJECT_NAME + "'", e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        logger.info("RouterManager metrics " + (enabled ? "enabled" : "disabled"));
+        this.enabled = enabled;
+    }
+
+    public List<MetricSnapshot> getMetrics() {
+        List<MetricSnapshot> snapshots = new ArrayList<MetricSnapshot>();
+        for (MetricGroup group : new TreeMap<String, MetricGroup>(groups).values()) {
+            group.snapshot(snapshots);
+        }
+        return snapshots;
+    }
+
+    public List<AgentHealthSnapshot> getAgentHealth() {
+        Map<String, AgentHealthSnapshot> snapshots = new TreeMap<String, AgentHealthSnapshot>();
+        for (AgentHealth health : agentHealth) {
+            snapshots.put(health.getAgent(), health.snapshot());
+        }
+        return new ArrayList<AgentHealthSnapshot>(snapshots.values());
+    }
+
+    public void reset() {
+        groups.clear();
+    }
+
+    /**
+     * Publish the health of the agents of a client
+     * @param agentHealth live view of the health of the agents, null once the client is released
+     */
+    public void setAgentHealth(Collection<AgentHealth> agentHealth) {
+        this.agentHealth = agentHealth == null ? Collections.<AgentHealth>emptyList() : agentHealth;
+    }
+
+    /**
+     * Start timing a call
+     * @return the start time, {@link #NOT_STARTED} if the metrics are disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : NOT_STARTED;
+    }
+
+    /**
+     * Record a call, with the router handled by the current thread
+     * @param kind kind of the metric: {@link #METHOD} or {@link #PHASE}
+     * @param name name of the method or of the phase
+     * @param start start time given by {@link #start()}
+     * @param failed true if the call failed
+     * @param agent the agent (host:port) called, may be null
+     */
+    public void record(String kind, String name, long start, boolean failed, String agent) {
+        if (start == NOT_STARTED) {
+            return;
+        }
+        long time = (System.nanoTime() - start) / 1000L;
+        MetricGroup group = groups.get(name);
+        if (group == null) {
+            group = new MetricGroup(kind, name);
+            MetricGroup existing = groups.putIfAbsent(name, group);
+            if (existing != null) {
+                group = existing;
+            }
+        }
+        group.add(time, failed, currentRouter.get(), agent);
+    }
+
+    /**
+     * Set the router handled by the current thread
+     * @param routerName Name of the router, may be null
+     * @return the router previously handled by the thread, to give back to {@link #exit(String)}
+     */
+    public String enter(String routerName) {
+        String previous = currentRouter.get();
+        currentRouter.set(routerName);
+        return previous;
+    }
+
+    /**
+     * Restore the router handled by the current thread
+     * @param previous the value returned by {@link #enter(String)}
+     */
+    public void exit(String previous) {
+        if (previous == null) {
+            currentRouter.remove();
+        } else {
+            currentRouter.set(previous);
+        }
+    }
+
+    /**
+     * Wrap a facade so that its calls are recorded as phases
+     * @param itf interface of the facade
+     * @param target the facade
+     * @param readPhase phase of the find and get methods
+     * @param writePhase phase of the other methods
+     * @return the wrapped facade
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T instrument(Class<T> itf, T target, String readPhase, String writePhase) {
+        if (target == null || (Proxy.isProxyClass(target.getClass())
+                && Proxy.getInvocationHandler(target) instanceof PhaseHandler)) {
+            return target;
+        }
+        return (T) Proxy.newProxyInstance(itf.getClassLoader(), new Class<?>[] {itf},
+                new PhaseHandler(target, readPhase, writePhase));
+    }
+
+    /**
+     * Times the calls of a facade
+     */
+    private class PhaseHandler implements InvocationHandler {
+
+        /**
+         * The facade
+         */
+        private final Object target;
+
+        /**
+         * Phase of the find and get methods
+         */
+        private final String readPhase;
+
+        /**
+         * Phase of the other methods
+         */
+        private final String writePhase;
+
+        public PhaseHandler(Object target, String readPhase, String writePhase) {
+            this.target = target;
+            this.readPhase = readPhase;
+            this.writePhase = writePhase;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(target, args);
+            }
+            String methodName = method.getName();
+            String phase = methodName.startsWith("find") || methodName.startsWith("get") ? readPhase : writePhase;
+            long start = start();
+            boolean failed = true;
+            try {
+                Object result = method.invoke(target, args);
+                failed = false;
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                record(PHASE, phase, start, failed, null);
+            }
+        }
+    }
+
+    /**
+     * A metric and its split by router and by agent
+     */
+    private static class MetricGroup {
+
+        /**
+         * Kind of the metric
+         */
+        private final String kind;
+
+        /**
+         * Name of the method or of the phase
+         */
+        private final String name;
+
+        /**
+         * The whole metric
+         */
+        private final Metric total = new Metric();
+
+        /**
+         * The metric, by router name
+         */
+        private final ConcurrentMap<String, Metric> byRouter = new ConcurrentHashMap<String, Metric>();
+
+        /**
+         * The metric, by agent (host:port)
+         */
+        private final ConcurrentMap<String, Metric> byAgent = new ConcurrentHashMap<String, Metric>();
+
+        public MetricGroup(String kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        public void add(long time, boolean failed, String router, String agent) {
+            total.add(time, failed);
+            if (router != null) {
+                Metric metric = get(byRouter, router);
+                if (metric != null) {
+                    metric.add(time, failed);
+                }
+            }
+            if (agent != null) {
+                Metric metric = get(byAgent, agent);
+                if (metric != null) {
+                    metric.add(time, failed);
+                }
+            }
+        }
+
+        public void snapshot(List<MetricSnapshot> snapshots) {
+            snapshots.add(total.snapshot(kind, name, ""));
+            for (Map.Entry<String, Metric> entry : new TreeMap<String, Metric>(byRouter).entrySet()) {
+                snapshots.add(entry.getValue().snapshot(kind, name, "router=" + entry.getKey()));
+            }
+            for (Map.Entry<String, Metric> entry : new TreeMap<String, Metric>(byAgent).entrySet()) {
+                snapshots.add(entry.getValue().snapshot(kind, name, "agent=" + entry.getKey()));
+            }
+        }
+
+        /**
+         * @return the metric of a tag, created if needed, null if there are too many tags
+         */
+        private Metric get(ConcurrentMap<String, Metric> metrics, String tag) {
+            Metric metric = metrics.get(tag);
+            if (metric == null && metrics.size() < MAX_TAGS) {
+                metric = new Metric();
+                Metric existing = metrics.putIfAbsent(tag, metric);
+                if (existing != null) {
+                    metric = existing;
+                }
+            }
+            return metric;
+        }
+    }
+
+    /**
+     * Counters and histogram of the times (us) of a call
+     */
+    private static class Metric {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        private final AtomicLong totalTime = new AtomicLong();
+
+        private final AtomicLong maxTime = new AtomicLong();
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        public void add(long time, boolean failed) {
+            count.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            totalTime.addAndGet(time);
+            long max = maxTime.get();
+            while (time > max && !maxTime.compareAndSet(max, time)) {
+                max = maxTime.get();
+            }
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(time)));
+        }
+
+        public MetricSnapshot snapshot(String kind, String name, String tag) {
+            long n = count.get();
+            long max = maxTime.get();
+            return new MetricSnapshot(kind, name, tag, n, errors.get(), n == 0 ? 0 : totalTime.get() / n, max,
+                    percentile(n, 0.5, max), percentile(n, 0.9, max), percentile(n, 0.99, max));
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the percentile, at most the maximum time
+         */
+        private long percentile(long n, double p, long max) {
+            long rank = (long) Math.ceil(n * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min((1L << i) - 1, max);
+                }
+            }
+            return max;
+        }
+    }
+}
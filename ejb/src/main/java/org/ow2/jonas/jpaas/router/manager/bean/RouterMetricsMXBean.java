@@ -0,0 +1,53 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import java.util.List;
+
+/**
+ * Management interface of the RouterManager metrics
+ */
+public interface RouterMetricsMXBean {
+
+    /**
+     * @return true if the metrics are recorded
+     */
+    boolean isEnabled();
+
+    /**
+     * Start or stop the recording of the metrics
+     * @param enabled true to record the metrics
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return the metrics of the RouterManager methods and of their phases
+     */
+    List<MetricSnapshot> getMetrics();
+
+    /**
+     * @return the circuit breaker state and counters of the agents already contacted
+     */
+    List<AgentHealthSnapshot> getAgentHealth();
+
+    /**
+     * Forget all the recorded metrics, the agent health excepted
+     */
+    void reset();
+}
@@ -0,0 +1,238 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a transaction of the RouterManagerBean keeps until it is completed:
+ * the locks of the routers it changes, and their SR state as written by the
+ * transaction. The routers index gets the written routers only once they are
+ * committed, then the locks are released so that the next operation on a
+ * router always reads the committed SR writes. Releasing them at the return
+ * of the bean method would let it read the SR before the commit and lose the
+ * update.
+ */
+public class RouterTransaction implements Synchronization {
+
+    /**
+     * Key of the transaction resource
+     */
+    private static final Object RESOURCE_KEY = RouterTransaction.class;
+
+    /**
+     * Key of the transaction, owner of its locks
+     */
+    private final Object key;
+
+    /**
+     * The routers index updated at the commit
+     */
+    private final RouterCache routerCache;
+
+    /**
+     * Holds of the router locks released at the completion
+     */
+    private final List<RouterLocks.Hold> holds = new ArrayList<RouterLocks.Hold>();
+
+    /**
+     * The routers written by the transaction, by name
+     */
+    private final Map<String, WrittenRouter> routers = new HashMap<String, WrittenRouter>();
+
+    /**
+     * Constructor
+     * @param key key of the transaction
+     * @param routerCache the routers index updated at the commit
+     */
+    private RouterTransaction(Object key, RouterCache routerCache) {
+        this.key = key;
+        this.routerCache = routerCache;
+    }
+
+    /**
+     * Get the state of the current transaction, registering it for the
+     * completion of the transaction on first call
+     * @param registry the transaction synchronization registry, may be null
+     * @param routerCache the routers index updated at the commit
+     * @return the state of the transaction, null if there is no active transaction
+     */
+    public static RouterTransaction get(TransactionSynchronizationRegistry registry, RouterCache routerCache) {
+        if (registry == null) {
+            return null;
+        }
+        Object key = registry.getTransactionKey();
+        if (key == null) {
+            return null;
+        }
+        RouterTransaction transaction = (RouterTransaction) registry.getResource(RESOURCE_KEY);
+        if (transaction == null) {
+            transaction = new RouterTransaction(key, routerCache);
+            try {
+                registry.registerInterposedSynchronization(transaction);
+            } catch (IllegalStateException e) {
+                // completing or marked for rollback: nothing to keep until the completion
+                return null;
+            }
+            registry.putResource(RESOURCE_KEY, transaction);
+        }
+        return transaction;
+    }
+
+    /**
+     * Get the state of the current transaction without registering it
+     * @param registry the transaction synchronization registry, may be null
+     * @return the state of the transaction, null if it has neither locked nor written a router
+     */
+    public static RouterTransaction peek(TransactionSynchronizationRegistry registry) {
+        if (registry == null || registry.getTransactionKey() == null) {
+            return null;
+        }
+        return (RouterTransaction) registry.getResource(RESOURCE_KEY);
+    }
+
+    /**
+     * Lock a router until the completion of the transaction. The returned
+     * hold must still be unlocked in a finally block: the transaction keeps
+     * its own hold.
+     * @param routerLocks the router locks
+     * @param routerName Name of the router
+     * @return the hold of the lock
+     */
+    public RouterLocks.Hold lock(RouterLocks routerLocks, String routerName) {
+        RouterLocks.Hold hold = routerLocks.lock(routerName, key);
+        synchronized (holds) {
+            holds.add(routerLocks.lock(routerName, key));
+        }
+        return hold;
+    }
+
+    /**
+     * Record the SR state of a router written by the transaction
+     * @param apacheJk the router returned by the SR
+     */
+    public synchronized void written(ApacheJkVO apacheJk) {
+        routers.put(apacheJk.getName(), new WrittenRouter(apacheJk.getId(), RouterCache.copy(apacheJk)));
+    }
+
+    /**
+     * Record a router changed in the SR by the transaction, to read again from the SR
+     * @param apacheJk the router before the change
+     */
+    public synchronized void changed(ApacheJkVO apacheJk) {
+        routers.put(apacheJk.getName(), new WrittenRouter(apacheJk.getId(), null));
+    }
+
+    /**
+     * Record a router removed from the SR by the transaction
+     * @param routerName Name of the router
+     */
+    public synchronized void removed(String routerName) {
+        routers.put(routerName, new WrittenRouter(null, null));
+    }
+
+    /**
+     * Get a router as written by the transaction
+     * @param routerName Name of the router
+     * @param srApacheJkEjb SR facade router reading the changed routers
+     * @return a copy of the router, null if the transaction hasn't written it or has removed it
+     */
+    public synchronized ApacheJkVO getRouter(String routerName, ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        WrittenRouter written = routers.get(routerName);
+        if (written == null || written.id == null) {
+            return null;
+        }
+        if (written.router == null) {
+            // the SR returns the uncommitted writes of the transaction
+            ApacheJkVO apacheJk = srApacheJkEjb.getApacheJkRouter(written.id);
+            if (apacheJk == null) {
+                return null;
+            }
+            written = new WrittenRouter(written.id, RouterCache.copy(apacheJk));
+            routers.put(routerName, written);
+        }
+        return RouterCache.copy(written.router);
+    }
+
+    /**
+     * Nothing to do before the completion
+     */
+    public void beforeCompletion() {
+    }
+
+    /**
+     * Update the routers index with the committed routers, then release the
+     * router locks of the transaction
+     * @param status status of the completed transaction
+     */
+    public void afterCompletion(int status) {
+        synchronized (this) {
+            for (Map.Entry<String, WrittenRouter> entry : routers.entrySet()) {
+                WrittenRouter written = entry.getValue();
+                if (status != Status.STATUS_COMMITTED) {
+                    // untouched by the transaction, reloaded for safety only
+                    routerCache.invalidate(entry.getKey());
+                } else if (written.id == null) {
+                    routerCache.remove(entry.getKey());
+                } else if (written.router == null) {
+                    routerCache.invalidate(entry.getKey());
+                } else {
+                    routerCache.put(written.router);
+                }
+            }
+            routers.clear();
+        }
+        synchronized (holds) {
+            for (RouterLocks.Hold hold : holds) {
+                hold.unlock();
+            }
+            holds.clear();
+        }
+    }
+
+    /**
+     * A router written by the transaction
+     */
+    private static final class WrittenRouter {
+
+        /**
+         * Id of the router, null if removed
+         */
+        private final String id;
+
+        /**
+         * The router as written, null to read it again from the SR
+         */
+        private final ApacheJkVO router;
+
+        private WrittenRouter(String id, ApacheJkVO router) {
+            this.id = id;
+            this.router = router;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.concurrent.Future;
+
+/**
+ * Runs a unit of work of the RouterManagerBean in its own transaction, so
+ * that the router locks it takes are released once its SR writes are
+ * committed, before the caller waits for the reload of the agent. A work
+ * run on a container thread runs its own transactions the same way.
+ */
+public interface RouterTransactions {
+
+    /**
+     * Run a unit of work in a new transaction
+     * @param work the unit of work
+     * @param <T> type of the result
+     * @return the result of the work
+     * @throws RouterManagerBeanException the error of the work
+     */
+    <T> T run(Work<T> work) throws RouterManagerBeanException;
+
+    /**
+     * Run a unit of work on a container thread, without transaction: the
+     * work runs its SR writes with {@link #run(Work)}
+     * @param work the unit of work
+     * @param <T> type of the result
+     * @return the pending result of the work
+     * @throws RouterManagerBeanException the error of the work, given by the returned Future when the
+     * container runs it on another thread
+     */
+    <T> Future<T> runAsync(Work<T> work) throws RouterManagerBeanException;
+
+    /**
+     * A unit of work
+     * @param <T> type of the result
+     */
+    interface Work<T> {
+
+        /**
+         * @return the result of the work
+         * @throws RouterManagerBeanException the error of the work
+         */
+        T run() throws RouterManagerBeanException;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
+import javax.ejb.Local;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+import java.util.concurrent.Future;
+
+/**
+ * Runs the units of work of the RouterManagerBean, each one in a new
+ * transaction committed when the call returns, or on a container thread.
+ */
+@Stateless(mappedName = "RouterTransactionsBean")
+@Local(RouterTransactions.class)
+public class RouterTransactionsBean implements RouterTransactions {
+
+    /**
+     * Run a unit of work in a new transaction
+     * @param work the unit of work
+     * @param <T> type of the result
+     * @return the result of the work
+     * @throws RouterManagerBeanException the error of the work
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public <T> T run(Work<T> work) throws RouterManagerBeanException {
+        return work.run();
+    }
+
+    /**
+     * Run a unit of work on a container thread, without transaction
+     * @param work the unit of work
+     * @param <T> type of the result
+     * @return the pending result of the work
+     * @throws RouterManagerBeanException the error of the work, given by the returned Future
+     */
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public <T> Future<T> runAsync(Work<T> work) throws RouterManagerBeanException {
+        return new AsyncResult<T>(work.run());
+    }
+}
@@ -0,0 +1,468 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.LoadBalancerLocation;
+import org.ow2.jonas.jpaas.router.manager.api.WorkerLocation;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.LoadBalancerVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.WorkerVO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory reverse index of the routing: the workers by backend target
+ * (host:port), the routers by worker name and the load balancers by member.
+ * It is loaded from the SR at startup or on first use, then kept up to date
+ * by the RouterManagerBean. The bean may change the SR while the index is
+ * loaded, so an entry must be checked against its router before being
+ * changed. To catch up with the SR changes made by other nodes, the index is
+ * rebuilt once it expires, and an unknown target or worker rebuilds it, at
+ * most once per second. A rebuild keeps the index usable: the entries are
+ * added in place and only those found stale are removed.
+ */
+public class TargetIndex {
+
+    /**
+     * Default time to live of the index (ms)
+     */
+    public static final long DEFAULT_TTL = 300000L;
+
+    /**
+     * Minimum time (ms) between two rebuilds caused by unknown targets or workers
+     */
+    private static final long MIN_REBUILD_INTERVAL = 1000L;
+
+    /**
+     * The workers, by target (host:port)
+     */
+    private final ConcurrentMap<String, Set<WorkerLocation>> workersByTarget =
+            new ConcurrentHashMap<String, Set<WorkerLocation>>();
+
+    /**
+     * The target (host:port) of each worker
+     */
+    private final ConcurrentMap<WorkerLocation, String> targets = new ConcurrentHashMap<WorkerLocation, String>();
+
+    /**
+     * The routers, by worker name
+     */
+    private final ConcurrentMap<String, Set<String>> routersByWorker = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * The load balancers having a worker as member, by worker
+     */
+    private final ConcurrentMap<WorkerLocation, Set<String>> loadBalancersByMember =
+            new ConcurrentHashMap<WorkerLocation, Set<String>>();
+
+    /**
+     * The members of each load balancer
+     */
+    private final ConcurrentMap<LoadBalancerLocation, Set<String>> members =
+            new ConcurrentHashMap<LoadBalancerLocation, Set<String>>();
+
+    /**
+     * Time of the last load of the index (ms), 0 if not loaded
+     */
+    private volatile long loadTime = 0L;
+
+    /**
+     * Lock used to load the index only once when several lookups need it at the same time
+     */
+    private final Object loadLock = new Object();
+
+    /**
+     * Time to live of the index (ms)
+     */
+    private final long ttl;
+
+    /**
+     * Constructor
+     * @param ttl time to live of the index (ms)
+     */
+    public TargetIndex(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Load the index from the SR if it has not been loaded yet or has expired
+     * @param srApacheJkEjb SR facade router
+     */
+    public void ensureLoaded(ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        if (loadTime != 0L && System.currentTimeMillis() - loadTime <= ttl) {
+            return;
+        }
+        synchronized (loadLock) {
+            // may have been loaded by another thread in the meantime
+            if (loadTime == 0L || System.currentTimeMillis() - loadTime > ttl) {
+                load(srApacheJkEjb);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index after a lookup miss, unless it has just been loaded
+     * @param srApacheJkEjb SR facade router
+     * @return true if the index has been rebuilt
+     */
+    private boolean reloadOnMiss(ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        if (System.currentTimeMillis() - loadTime < MIN_REBUILD_INTERVAL) {
+            return false;
+        }
+        synchronized (loadLock) {
+            if (System.currentTimeMillis() - loadTime < MIN_REBUILD_INTERVAL) {
+                // rebuilt by another thread in the meantime
+                return true;
+            }
+            load(srApacheJkEjb);
+            return true;
+        }
+    }
+
+    /**
+     * Load the routers from the SR into the index, then remove the entries
+     * that were already there and are not in the SR anymore. The entries
+     * added by the bean during the load are kept.
+     * @param srApacheJkEjb SR facade router
+     */
+    private void load(ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        Set<WorkerLocation> previousWorkers = new HashSet<WorkerLocation>(targets.keySet());
+        Map<LoadBalancerLocation, Set<String>> previousMembers = new HashMap<LoadBalancerLocation, Set<String>>();
+        for (Map.Entry<LoadBalancerLocation, Set<String>> entry : members.entrySet()) {
+            previousMembers.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+        }
+
+        Set<WorkerLocation> workers = new HashSet<WorkerLocation>();
+        Map<LoadBalancerLocation, Set<String>> loadBalancers = new HashMap<LoadBalancerLocation, Set<String>>();
+        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
+        if (apacheJkVOList != null) {
+            for (ApacheJkVO apacheJk : apacheJkVOList) {
+                addRouter(apacheJk);
+                if (apacheJk.getWorkerList() != null) {
+                    for (WorkerVO worker : apacheJk.getWorkerList()) {
+                        workers.add(new WorkerLocation(apacheJk.getName(), worker.getName()));
+                    }
+                }
+                if (apacheJk.getLoadBalancerList() != null) {
+                    for (LoadBalancerVO loadBalancer : apacheJk.getLoadBalancerList()) {
+                        Set<String> lbWorkers = new HashSet<String>();
+                        if (loadBalancer.getWorkers() != null) {
+                            lbWorkers.addAll(loadBalancer.getWorkers());
+                        }
+                        loadBalancers.put(new LoadBalancerLocation(apacheJk.getName(), loadBalancer.getName()),
+                                lbWorkers);
+                    }
+                }
+            }
+        }
+
+        // the stale entries
+        for (WorkerLocation location : previousWorkers) {
+            if (!workers.contains(location)) {
+                removeWorker(location.getRouterName(), location.getWorkerName());
+            }
+        }
+        for (Map.Entry<LoadBalancerLocation, Set<String>> entry : previousMembers.entrySet()) {
+            LoadBalancerLocation location = entry.getKey();
+            Set<String> lbWorkers = loadBalancers.get(location);
+            if (lbWorkers == null) {
+                removeLoadBalancer(location.getRouterName(), location.getLbName());
+                continue;
+            }
+            for (String workerName : entry.getValue()) {
+                if (!lbWorkers.contains(workerName)) {
+                    removeMember(location.getRouterName(), location.getLbName(), workerName);
+                }
+            }
+        }
+        loadTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the workers of a target
+     * @param host the target host
+     * @param port the target port number
+     * @param srApacheJkEjb SR facade router used to load the index
+     * @return the workers of the target, sorted
+     */
+    public Set<WorkerLocation> getWorkers(String host, Integer port, ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        ensureLoaded(srApacheJkEjb);
+        String target = getTarget(host, port);
+        Set<WorkerLocation> workers = copy(workersByTarget.get(target));
+        if (workers.isEmpty() && reloadOnMiss(srApacheJkEjb)) {
+            workers = copy(workersByTarget.get(target));
+        }
+        return workers;
+    }
+
+    /**
+     * Get the load balancers having a worker of a target as member
+     * @param host the target host
+     * @param port the target port number
+     * @param srApacheJkEjb SR facade router used to load the index
+     * @return the load balancers, sorted
+     */
+    public Set<LoadBalancerLocation> getLoadBalancers(String host, Integer port,
+            ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        Set<LoadBalancerLocation> loadBalancers = new TreeSet<LoadBalancerLocation>();
+        for (WorkerLocation worker : getWorkers(host, port, srApacheJkEjb)) {
+            addLoadBalancers(loadBalancers, worker);
+        }
+        return loadBalancers;
+    }
+
+    /**
+     * Get the routers having a worker
+     * @param workerName Name of the worker
+     * @param srApacheJkEjb SR facade router used to load the index
+     * @return the names of the routers, sorted
+     */
+    public Set<String> getRouters(String workerName, ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        ensureLoaded(srApacheJkEjb);
+        Set<String> routers = copy(routersByWorker.get(workerName));
+        if (routers.isEmpty() && reloadOnMiss(srApacheJkEjb)) {
+            routers = copy(routersByWorker.get(workerName));
+        }
+        return routers;
+    }
+
+    /**
+     * Get the load balancers having a worker as member
+     * @param workerName Name of the worker
+     * @param srApacheJkEjb SR facade router used to load the index
+     * @return the load balancers, sorted
+     */
+    public Set<LoadBalancerLocation> getLoadBalancers(String workerName, ISrPaasApacheJkRouterFacade srApacheJkEjb) {
+        Set<LoadBalancerLocation> loadBalancers = new TreeSet<LoadBalancerLocation>();
+        for (String routerName : getRouters(workerName, srApacheJkEjb)) {
+            addLoadBalancers(loadBalancers, new WorkerLocation(routerName, workerName));
+        }
+        return loadBalancers;
+    }
+
+    /**
+     * Record the workers and load balancers of a router
+     * @param apacheJk the router
+     */
+    public void addRouter(ApacheJkVO apacheJk) {
+        if (apacheJk.getWorkerList() != null) {
+            for (WorkerVO worker : apacheJk.getWorkerList()) {
+                addWorker(apacheJk.getName(), worker.getName(), worker.getHost(), worker.getPort());
+            }
+        }
+        if (apacheJk.getLoadBalancerList() != null) {
+            for (LoadBalancerVO loadBalancer : apacheJk.getLoadBalancerList()) {
+                addLoadBalancer(apacheJk.getName(), loadBalancer.getName(), loadBalancer.getWorkers());
+            }
+        }
+    }
+
+    /**
+     * Record a new worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker
+     * @param host the target host
+     * @param port the target port number
+     */
+    public void addWorker(String routerName, String workerName, String host, Integer port) {
+        WorkerLocation location = new WorkerLocation(routerName, workerName);
+        String target = getTarget(host, port);
+        String previous = targets.put(location, target);
+        if (previous != null && !previous.equals(target)) {
+            remove(workersByTarget, previous, location);
+        }
+        add(workersByTarget, target, location);
+        add(routersByWorker, workerName, routerName);
+    }
+
+    /**
+     * Forget a removed worker, and its load balancer memberships
+     * @param routerName Name of the router
+     * @param workerName Name of the worker
+     */
+    public void removeWorker(String routerName, String workerName) {
+        WorkerLocation location = new WorkerLocation(routerName, workerName);
+        String target = targets.remove(location);
+        if (target != null) {
+            remove(workersByTarget, target, location);
+        }
+        remove(routersByWorker, workerName, routerName);
+        Set<String> loadBalancers = loadBalancersByMember.remove(location);
+        if (loadBalancers != null) {
+            for (String lbName : loadBalancers) {
+                remove(members, new LoadBalancerLocation(routerName, lbName), workerName);
+            }
+        }
+    }
+
+    /**
+     * Record a new load balancer
+     * @param routerName Name of the router
+     * @param lbName Name of the load balancer
+     * @param workers the members of the load balancer
+     */
+    public void addLoadBalancer(String routerName, String lbName, Collection<String> workers) {
+        if (workers != null) {
+            for (String workerName : workers) {
+                addMember(routerName, lbName, workerName);
+            }
+        }
+    }
+
+    /**
+     * Record a new member of a load balancer
+     * @param routerName Name of the router
+     * @param lbName Name of the load balancer
+     * @param workerName Name of the worker
+     */
+    public void addMember(String routerName, String lbName, String workerName) {
+        add(members, new LoadBalancerLocation(routerName, lbName), workerName);
+        add(loadBalancersByMember, new WorkerLocation(routerName, workerName), lbName);
+    }
+
+    /**
+     * Forget a member of a load balancer
+     * @param routerName Name of the router
+     * @param lbName Name of the load balancer
+     * @param workerName Name of the worker
+     */
+    public void removeMember(String routerName, String lbName, String workerName) {
+        remove(members, new LoadBalancerLocation(routerName, lbName), workerName);
+        remove(loadBalancersByMember, new WorkerLocation(routerName, workerName), lbName);
+    }
+
+    /**
+     * Forget a removed load balancer
+     * @param routerName Name of the router
+     * @param lbName Name of the load balancer
+     */
+    public void removeLoadBalancer(String routerName, String lbName) {
+        Set<String> workers = members.remove(new LoadBalancerLocation(routerName, lbName));
+        if (workers != null) {
+            for (String workerName : workers) {
+                remove(loadBalancersByMember, new WorkerLocation(routerName, workerName), lbName);
+            }
+        }
+    }
+
+    /**
+     * Forget the workers and load balancers of a removed router
+     * @param routerName Name of the router
+     */
+    public void removeRouter(String routerName) {
+        for (WorkerLocation location : new ArrayList<WorkerLocation>(targets.keySet())) {
+            if (location.getRouterName().equals(routerName)) {
+                removeWorker(routerName, location.getWorkerName());
+            }
+        }
+        for (LoadBalancerLocation location : new ArrayList<LoadBalancerLocation>(members.keySet())) {
+            if (location.getRouterName().equals(routerName)) {
+                removeLoadBalancer(routerName, location.getLbName());
+            }
+        }
+    }
+
+    /**
+     * Forget everything, the index is loaded again on next use
+     */
+    public void clear() {
+        synchronized (loadLock) {
+            loadTime = 0L;
+            workersByTarget.clear();
+            targets.clear();
+            routersByWorker.clear();
+            loadBalancersByMember.clear();
+            members.clear();
+        }
+    }
+
+    /**
+     * Add the load balancers of a worker to a set
+     */
+    private void addLoadBalancers(Set<LoadBalancerLocation> loadBalancers, WorkerLocation worker) {
+        Set<String> lbNames = loadBalancersByMember.get(worker);
+        if (lbNames != null) {
+            for (String lbName : lbNames) {
+                loadBalancers.add(new LoadBalancerLocation(worker.getRouterName(), lbName));
+            }
+        }
+    }
+
+    /**
+     * Add a value to the set of a key
+     */
+    private static <K, V> void add(ConcurrentMap<K, Set<V>> map, K key, V value) {
+        while (true) {
+            Set<V> values = map.get(key);
+            if (values == null) {
+                values = Collections.newSetFromMap(new ConcurrentHashMap<V, Boolean>());
+                Set<V> existing = map.putIfAbsent(key, values);
+                if (existing != null) {
+                    values = existing;
+                }
+            }
+            values.add(value);
+            if (map.get(key) == values) {
+                return;
+            }
+            // the set was pruned while empty by a concurrent remove: add to the new one
+        }
+    }
+
+    /**
+     * Remove a value from the set of a key, and the set once empty
+     */
+    private static <K, V> void remove(ConcurrentMap<K, Set<V>> map, K key, V value) {
+        Set<V> values = map.get(key);
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                map.remove(key, values);
+            }
+        }
+    }
+
+    /**
+     * @return a sorted copy of a set, which may be null
+     */
+    private static <V> Set<V> copy(Set<V> values) {
+        if (values == null) {
+            return new TreeSet<V>();
+        }
+        return new TreeSet<V>(values);
+    }
+
+    /**
+     * @return the key of a target (host:port)
+     */
+    private static String getTarget(String host, Integer port) {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.jonas.jpaas.router.manager.api.WorkerLocation;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalescing of the enabling and disabling of the workers.
+ * The first call on a worker owns a pending status change. The calls on the
+ * same worker arriving during the delay of the owner or before it holds the
+ * router lock only replace the requested status and wait for the owner: the
+ * last requested status is applied once, with a single set of agent calls,
+ * SR update and reload. The waiting calls are released at the completion of
+ * the transaction of the owner, failing if it is rolled back.
+ */
+public class WorkerStatusCoalescer {
+
+    /**
+     * Default delay (ms) of a status change before it is applied: a fraction
+     * of the reload window waited for anyway
+     */
+    public static final long DEFAULT_DELAY = 50L;
+
+    /**
+     * The pending status changes not started yet, by worker
+     */
+    private final Map<WorkerLocation, PendingStatus> pending = new HashMap<WorkerLocation, PendingStatus>();
+
+    /**
+     * Delay (ms) of a status change before it is applied
+     */
+    private final long delay;
+
+    /**
+     * Constructor
+     * @param delay delay (ms) of a status change before it is applied, during
+     * which the calls on the same worker are coalesced with it
+     */
+    public WorkerStatusCoalescer(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Request a status change, joining the pending change of the worker if any
+     * @param routerName Name of the router
+     * @param workerName Name of the worker
+     * @param enable true to enable the worker, false to disable it
+     * @return the pending change, owned by the current thread if it is a new one
+     */
+    public synchronized PendingStatus request(String routerName, String workerName, boolean enable) {
+        WorkerLocation location = new WorkerLocation(routerName, workerName);
+        PendingStatus status = pending.get(location);
+        if (status == null) {
+            status = new PendingStatus(location);
+            pending.put(location, status);
+        }
+        status.enable = enable;
+        status.requests++;
+        return status;
+    }
+
+    /**
+     * Wait for the delay of a pending change, letting the calls on the same worker coalesce with it
+     * @param status the pending change, owned by the current thread
+     * @throws RouterManagerBeanException if interrupted
+     */
+    public void awaitCalls(PendingStatus status) throws RouterManagerBeanException {
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RouterManagerBeanException("Interrupted while waiting on router '"
+                    + status.location.getRouterName() + "' !", e);
+        }
+    }
+
+    /**
+     * Start a pending change: the later calls on the worker open a new one.
+     * To be called by the owner once it holds the router lock, or on failure.
+     * @param status the pending change
+     * @return the status to apply: true to enable the worker
+     */
+    public synchronized boolean start(PendingStatus status) {
+        if (pending.get(status.location) == status) {
+            pending.remove(status.location);
+        }
+        return status.enable;
+    }
+
+    /**
+     * A pending status change of a worker, completed at the completion of the
+     * transaction applying it, or by its owner
+     */
+    public static class PendingStatus implements Synchronization {
+
+        /**
+         * The worker
+         */
+        private final WorkerLocation location;
+
+        /**
+         * The thread applying the change
+         */
+        private final Thread owner = Thread.currentThread();
+
+        /**
+         * Released once the change is applied
+         */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * True once completed
+         */
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        /**
+         * The last requested status, guarded by the coalescer
+         */
+        private boolean enable;
+
+        /**
+         * Number of coalesced calls, guarded by the coalescer
+         */
+        private int requests = 0;
+
+        /**
+         * The failure of the change, null on success
+         */
+        private volatile RouterManagerBeanException failure;
+
+        public PendingStatus(WorkerLocation location) {
+            this.location = location;
+        }
+
+        /**
+         * @return true if the current thread applies the change
+         */
+        public boolean isOwner() {
+            return owner == Thread.currentThread();
+        }
+
+        /**
+         * @return the number of calls coalesced in the change, to read once started by the owner
+         */
+        public int getRequests() {
+            return requests;
+        }
+
+        /**
+         * Release the waiting calls, if not released yet
+         * @param failure the failure of the change, null on success
+         */
+        public void complete(RouterManagerBeanException failure) {
+            if (completed.compareAndSet(false, true)) {
+                this.failure = failure;
+                done.countDown();
+            }
+        }
+
+        /**
+         * Nothing to do before the completion
+         */
+        public void beforeCompletion() {
+        }
+
+        /**
+         * Release the waiting calls once the transaction applying the change is completed
+         * @param status status of the completed transaction
+         */
+        public void afterCompletion(int status) {
+            if (status == Status.STATUS_COMMITTED) {
+                complete(null);
+            } else {
+                complete(new RouterManagerBeanException("Status change of worker '" + location.getWorkerName()
+                        + "' of router '" + location.getRouterName() + "' rolled back !"));
+            }
+        }
+
+        /**
+         * Wait for the change to be applied
+         * @throws RouterManagerBeanException if the change failed
+         */
+        public void await() throws RouterManagerBeanException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RouterManagerBeanException("Interrupted while waiting for the worker '"
+                        + location.getWorkerName() + "' of router '" + location.getRouterName() + "' !", e);
+            }
+            if (failure != null) {
+                throw new RouterManagerBeanException(failure.getMessage(), failure);
+            }
+        }
+    }
+}
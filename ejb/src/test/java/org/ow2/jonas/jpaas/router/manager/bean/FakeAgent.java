@@ -0,0 +1,166 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process JOnAS agent answering all the requests with an empty reply.
+ * The requests are recorded, and the Apache reloads counted and delayed by
+ * an injected latency, so that a test can tell how many reloads an
+ * operation costs and make a reload last.
+ */
+public class FakeAgent {
+
+    /**
+     * Status of the replies
+     */
+    private static final int HTTP_STATUS_NO_CONTENT = 204;
+
+    /**
+     * The HTTP server
+     */
+    private final HttpServer server;
+
+    /**
+     * Threads handling the requests
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * The requests (method, path and query), in the order they are received
+     */
+    private final List<String> requests = new ArrayList<String>();
+
+    /**
+     * Number of Apache reloads
+     */
+    private final AtomicInteger reloadCount = new AtomicInteger();
+
+    /**
+     * Time (ms) taken by a reload
+     */
+    private volatile long reloadLatency = 0L;
+
+    /**
+     * Constructor, listening on an ephemeral port of the loopback
+     * @throws IOException if the server can't be created
+     */
+    public FakeAgent() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                FakeAgent.this.handle(exchange);
+            }
+        });
+    }
+
+    /**
+     * Start the agent
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop the agent
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the API url of the agent
+     */
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @param reloadLatency time (ms) taken by a reload
+     */
+    public void setReloadLatency(long reloadLatency) {
+        this.reloadLatency = reloadLatency;
+    }
+
+    /**
+     * @return the number of Apache reloads started
+     */
+    public int getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * @return the requests received, as "METHOD path?query"
+     */
+    public List<String> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<String>(requests);
+        }
+    }
+
+    /**
+     * Reply to a request
+     * @param exchange the request
+     * @throws IOException on network error
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            // read the uploaded files
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                continue;
+            }
+            in.close();
+
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getQuery();
+            synchronized (requests) {
+                requests.add(exchange.getRequestMethod() + " " + path + (query == null ? "" : "?" + query));
+            }
+            if (path.endsWith(AgentEndpoint.RELOAD_PATH)) {
+                reloadCount.incrementAndGet();
+                if (reloadLatency > 0) {
+                    try {
+                        Thread.sleep(reloadLatency);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            exchange.sendResponseHeaders(HTTP_STATUS_NO_CONTENT, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.Test;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link IdempotencyCache} and of the fingerprint of the arguments
+ */
+public class IdempotencyCacheTest {
+
+    /**
+     * A duplicate gets the result of the first call
+     */
+    @Test
+    public void testDuplicate() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(IdempotencyCache.DEFAULT_TTL, IdempotencyCache.DEFAULT_MAX_KEYS);
+        IdempotencyCache.Call call = cache.start("k1", "createRouter", "f1");
+        assertTrue(call.isOwner());
+        cache.end(call, "result", false);
+
+        IdempotencyCache.Call duplicate = cache.start("k1", "createRouter", "f1");
+
+        assertFalse(duplicate.isOwner());
+        assertEquals("result", duplicate.getResult());
+    }
+
+    /**
+     * A duplicate made while the first call runs waits for its outcome
+     */
+    @Test
+    public void testConcurrentDuplicate() throws Exception {
+        final IdempotencyCache cache = new IdempotencyCache(IdempotencyCache.DEFAULT_TTL,
+                IdempotencyCache.DEFAULT_MAX_KEYS);
+        IdempotencyCache.Call call = cache.start("k1", "createRouter", "f1");
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread duplicate = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    IdempotencyCache.Call call = cache.start("k1", "createRouter", "f1");
+                    result.set(call.isOwner() ? "owner" : call.getResult());
+                } catch (RouterManagerBeanException e) {
+                    result.set(e);
+                }
+            }
+        });
+        duplicate.start();
+        duplicate.join(100L);
+        assertTrue(duplicate.isAlive());
+
+        cache.end(call, "result", false);
+        duplicate.join();
+
+        assertEquals("result", result.get());
+    }
+
+    /**
+     * The key of a failed call is released
+     */
+    @Test
+    public void testFailed() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(IdempotencyCache.DEFAULT_TTL, IdempotencyCache.DEFAULT_MAX_KEYS);
+        cache.end(cache.start("k1", "createRouter", "f1"), null, true);
+
+        assertTrue(cache.start("k1", "createRouter", "f1").isOwner());
+    }
+
+    /**
+     * The outcome of a call is forgotten once expired
+     */
+    @Test
+    public void testExpired() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(0L, IdempotencyCache.DEFAULT_MAX_KEYS);
+        cache.end(cache.start("k1", "createRouter", "f1"), "result", false);
+        Thread.sleep(10L);
+
+        assertTrue(cache.start("k1", "createRouter", "f1").isOwner());
+    }
+
+    /**
+     * The least recently used outcomes are evicted beyond the maximum number of keys
+     */
+    @Test
+    public void testEviction() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(IdempotencyCache.DEFAULT_TTL, 2);
+        cache.end(cache.start("k1", "createRouter", "f1"), "result", false);
+        cache.end(cache.start("k2", "createRouter", "f1"), "result", false);
+        cache.end(cache.start("k3", "createRouter", "f1"), "result", false);
+
+        assertFalse(cache.start("k3", "createRouter", "f1").isOwner());
+        assertTrue(cache.start("k1", "createRouter", "f1").isOwner());
+    }
+
+    /**
+     * A key can't be reused by another method or with other arguments
+     */
+    @Test
+    public void testReusedKey() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(IdempotencyCache.DEFAULT_TTL, IdempotencyCache.DEFAULT_MAX_KEYS);
+        cache.end(cache.start("k1", "createRouter", "f1"), "result", false);
+
+        try {
+            cache.start("k1", "deleteRouter", "f1");
+            fail("a key used by another method must be rejected");
+        } catch (RouterManagerBeanException e) {
+            // expected
+        }
+        try {
+            cache.start("k1", "createRouter", "f2");
+            fail("a key used with other arguments must be rejected");
+        } catch (RouterManagerBeanException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The fingerprint depends on the value of the arguments only
+     */
+    @Test
+    public void testFingerprint() throws Exception {
+        String fingerprint = IdempotencyInterceptor.fingerprint(new Object[] {"router1", "worker1", 8009});
+
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint,
+                IdempotencyInterceptor.fingerprint(new Object[] {new String("router1"), "worker1", 8009}));
+        assertFalse(fingerprint.equals(IdempotencyInterceptor.fingerprint(new Object[] {"router1", "worker1", 8010})));
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the parsing of the mod_jk configuration files by {@link JkConfiguration}
+ */
+public class JkConfigurationTest {
+
+    /**
+     * The workers, load balancers and mount points are read from the files
+     */
+    @Test
+    public void testParse() throws Exception {
+        JkConfiguration configuration = JkConfiguration.parse(
+                "worker.list=lb1,jkstatus\n"
+                        + "worker.w1.type=ajp13\nworker.w1.host= h1 \nworker.w1.port= 8009\n"
+                        + "worker.w2.type=ajp13\nworker.w2.host=h2\nworker.w2.port=8010\nworker.w2.activation=d\n"
+                        + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1, w2,\n"
+                        + "worker.jkstatus.type=status\n",
+                "# comment\n"
+                        + "/app/*=lb1\n"
+                        + "!/app/static/*=lb1\n"
+                        + "-/old/*=lb1\n"
+                        + "\n"
+                        + " /other/* = lb1 \n");
+
+        assertEquals(2, configuration.getWorkers().size());
+        JkConfiguration.Worker w1 = configuration.getWorkers().get("w1");
+        assertEquals("h1", w1.getHost());
+        assertEquals(Integer.valueOf(8009), w1.getPort());
+        assertFalse(w1.isDisabled());
+        assertTrue(configuration.getWorkers().get("w2").isDisabled());
+
+        assertEquals(Collections.singletonMap("lb1", Arrays.asList("w1", "w2")),
+                configuration.getLoadBalancers());
+
+        assertEquals(2, configuration.getMountPoints().size());
+        assertEquals("lb1", configuration.getMountPoints().get("/app/*"));
+        assertEquals("lb1", configuration.getMountPoints().get("/other/*"));
+        assertNull(configuration.getMountPoints().get("/app/static/*"));
+    }
+
+    /**
+     * Missing files give an empty configuration
+     */
+    @Test
+    public void testParseEmpty() throws Exception {
+        JkConfiguration configuration = JkConfiguration.parse(null, null);
+
+        assertTrue(configuration.getWorkers().isEmpty());
+        assertTrue(configuration.getLoadBalancers().isEmpty());
+        assertTrue(configuration.getMountPoints().isEmpty());
+    }
+
+    /**
+     * Workers have the same target when their host and port are equal, whatever their status
+     */
+    @Test
+    public void testSameTarget() {
+        JkConfiguration.Worker worker = new JkConfiguration.Worker("h1", 8009, false);
+
+        assertTrue(worker.hasSameTarget(new JkConfiguration.Worker("h1", 8009, true)));
+        assertFalse(worker.hasSameTarget(new JkConfiguration.Worker("h1", 8010, false)));
+        assertFalse(worker.hasSameTarget(new JkConfiguration.Worker("h2", 8009, false)));
+        assertTrue(new JkConfiguration.Worker(null, null, false)
+                .hasSameTarget(new JkConfiguration.Worker(null, null, true)));
+    }
+}
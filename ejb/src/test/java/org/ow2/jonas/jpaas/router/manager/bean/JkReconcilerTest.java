@@ -0,0 +1,261 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the requests computed by {@link JkReconciler#diff(JkConfiguration, JkConfiguration, JkConfiguration)}
+ */
+public class JkReconcilerTest {
+
+    /**
+     * An empty configuration
+     */
+    private static final JkConfiguration EMPTY = configuration("", "");
+
+    /**
+     * The agent endpoint
+     */
+    private AgentEndpoint endpoint;
+
+    /**
+     * The reconciler, without REST client: only the diff is tested
+     */
+    private JkReconciler reconciler;
+
+    @Before
+    public void setUp() {
+        PaasAgentVO agent = new PaasAgentVO();
+        agent.setName("agent1");
+        agent.setApiUrl("http://localhost:9000/");
+        endpoint = new AgentEndpoint(agent);
+        reconciler = new JkReconciler(null, endpoint);
+    }
+
+    /**
+     * Nothing is sent when the agent is up to date
+     */
+    @Test
+    public void testUpToDate() {
+        JkConfiguration desired = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n"
+                        + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1\n",
+                "/app/*=lb1\n");
+        JkConfiguration current = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n"
+                        + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1\n",
+                "# comment\n/app/*=lb1\n");
+
+        assertEquals(Collections.<String>emptyList(), describe(reconciler.diff(desired, EMPTY, current)));
+    }
+
+    /**
+     * A router is created on an empty agent: workers, then load balancers, then mount points
+     */
+    @Test
+    public void testCreate() {
+        JkConfiguration desired = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n"
+                        + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1\n",
+                "/app/*=lb1\n");
+
+        List<JkReconciler.Request> requests = reconciler.diff(desired, EMPTY, EMPTY);
+
+        assertEquals(Arrays.asList(
+                "POST " + endpoint.getWorkerUrl("w1"),
+                "POST " + endpoint.getLoadBalancerUrl("lb1"),
+                "POST " + endpoint.getMountUrl("lb1")),
+                describe(requests));
+        assertEquals("w1", requests.get(0).getParams().getFirst("name"));
+        assertEquals("h1", requests.get(0).getParams().getFirst("host"));
+        assertEquals("8009", requests.get(0).getParams().getFirst("port"));
+        assertEquals("lb1", requests.get(1).getParams().getFirst("name"));
+        assertEquals("w1", requests.get(1).getParams().getFirst("wl"));
+        assertEquals("/app/*", requests.get(2).getParams().getFirst("path"));
+    }
+
+    /**
+     * A disabled worker is created then disabled
+     */
+    @Test
+    public void testCreateDisabled() {
+        JkConfiguration desired = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\nworker.w1.activation=D\n", "");
+
+        assertEquals(Arrays.asList(
+                "POST " + endpoint.getWorkerUrl("w1"),
+                "POST " + endpoint.getWorkerStatusUrl("w1", false)),
+                describe(reconciler.diff(desired, EMPTY, EMPTY)));
+    }
+
+    /**
+     * Only the status of a worker whose activation differs is sent
+     */
+    @Test
+    public void testStatus() {
+        JkConfiguration desired = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n", "");
+        JkConfiguration current = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\nworker.w1.activation=D\n", "");
+
+        assertEquals(Collections.singletonList("POST " + endpoint.getWorkerStatusUrl("w1", true)),
+                describe(reconciler.diff(desired, EMPTY, current)));
+    }
+
+    /**
+     * A worker whose target changed is deleted then created again
+     */
+    @Test
+    public void testWorkerMoved() {
+        JkConfiguration desired = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h2\nworker.w1.port=8010\n", "");
+        JkConfiguration current = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n", "");
+
+        List<JkReconciler.Request> requests = reconciler.diff(desired, EMPTY, current);
+
+        assertEquals(Arrays.asList(
+                "DELETE " + endpoint.getWorkerUrl("w1"),
+                "POST " + endpoint.getWorkerUrl("w1")),
+                describe(requests));
+        assertEquals("h2", requests.get(1).getParams().getFirst("host"));
+        assertEquals("8010", requests.get(1).getParams().getFirst("port"));
+    }
+
+    /**
+     * The members of an existing load balancer are updated in place
+     */
+    @Test
+    public void testLoadBalancerMembers() {
+        String workers = "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n"
+                + "worker.w2.type=ajp13\nworker.w2.host=h2\nworker.w2.port=8009\n";
+        JkConfiguration desired = configuration(workers
+                + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1,w2\n", "");
+        JkConfiguration current = configuration(workers
+                + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1\n", "");
+
+        List<JkReconciler.Request> requests = reconciler.diff(desired, EMPTY, current);
+
+        assertEquals(Collections.singletonList("PUT " + endpoint.getLoadBalancerUrl("lb1")), describe(requests));
+        assertEquals("w1,w2", requests.get(0).getParams().getFirst("wl"));
+    }
+
+    /**
+     * A mount point moved to another load balancer is unmounted then mounted again
+     */
+    @Test
+    public void testMountPointMoved() {
+        String workers = "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n"
+                + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1\n"
+                + "worker.lb2.type=lb\nworker.lb2.balance_workers=w1\n";
+        JkConfiguration desired = configuration(workers, "/app/*=lb2\n");
+        JkConfiguration current = configuration(workers, "/app/*=lb1\n");
+
+        assertEquals(Arrays.asList(
+                "DELETE " + endpoint.getMountUrl("lb1"),
+                "POST " + endpoint.getMountUrl("lb2")),
+                describe(reconciler.diff(desired, EMPTY, current)));
+    }
+
+    /**
+     * What is not desired anymore is removed: mount points, then load balancers, then workers
+     */
+    @Test
+    public void testRemove() {
+        JkConfiguration current = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n"
+                        + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1\n",
+                "/app/*=lb1\n");
+
+        List<JkReconciler.Request> requests = reconciler.diff(EMPTY, EMPTY, current);
+
+        assertEquals(Arrays.asList(
+                "DELETE " + endpoint.getMountUrl("lb1"),
+                "DELETE " + endpoint.getLoadBalancerUrl("lb1"),
+                "DELETE " + endpoint.getWorkerUrl("w1")),
+                describe(requests));
+        assertEquals("/app/*", requests.get(0).getParams().getFirst("path"));
+        assertEquals("w1", requests.get(2).getParams().getFirst("name"));
+    }
+
+    /**
+     * The entries of the other routers of the agent are kept
+     */
+    @Test
+    public void testOtherRoutersKept() {
+        JkConfiguration desired = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n"
+                        + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1\n",
+                "/app/*=lb1\n");
+        JkConfiguration others = configuration(
+                "worker.w2.type=ajp13\nworker.w2.host=h2\nworker.w2.port=8009\n"
+                        + "worker.lb2.type=lb\nworker.lb2.balance_workers=w2\n",
+                "/other/*=lb2\n");
+        JkConfiguration current = configuration(
+                "worker.w1.type=ajp13\nworker.w1.host=h1\nworker.w1.port=8009\n"
+                        + "worker.w2.type=ajp13\nworker.w2.host=h2\nworker.w2.port=8009\n"
+                        + "worker.w3.type=ajp13\nworker.w3.host=h3\nworker.w3.port=8009\n"
+                        + "worker.lb1.type=lb\nworker.lb1.balance_workers=w1\n"
+                        + "worker.lb2.type=lb\nworker.lb2.balance_workers=w2\n",
+                "/app/*=lb1\n/other/*=lb2\n");
+
+        List<String> requests = describe(reconciler.diff(desired, others, current));
+
+        // only the worker no router of the agent desires is deleted
+        assertEquals(Collections.singletonList("DELETE " + endpoint.getWorkerUrl("w3")), requests);
+        assertTrue(reconciler.diff(EMPTY, others, others).isEmpty());
+    }
+
+    /**
+     * @param workersProperties content of the workers.properties file
+     * @param uriWorkerMap content of the uriworkermap.properties file
+     * @return the parsed configuration
+     */
+    private static JkConfiguration configuration(String workersProperties, String uriWorkerMap) {
+        try {
+            return JkConfiguration.parse(workersProperties, uriWorkerMap);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param requests requests to the agent
+     * @return the Http type and url of each request
+     */
+    private static List<String> describe(List<JkReconciler.Request> requests) {
+        List<String> descriptions = new ArrayList<String>();
+        for (JkReconciler.Request request : requests) {
+            descriptions.add(request.getType() + " " + request.getUrl());
+        }
+        return descriptions;
+    }
+}
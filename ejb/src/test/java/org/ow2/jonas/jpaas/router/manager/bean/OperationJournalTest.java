@@ -0,0 +1,210 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the replay of the {@link OperationJournal} after a restart
+ */
+public class OperationJournalTest {
+
+    /**
+     * Size (bytes) beyond which the journals of the tests are compacted
+     */
+    private static final long MAX_SIZE = 1024L * 1024L;
+
+    /**
+     * The journal file
+     */
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("journal", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    /**
+     * The operations interrupted by a crash or failed are recovered, the committed ones are not
+     */
+    @Test
+    public void testReplay() throws Exception {
+        OperationJournal journal = new OperationJournal(file, MAX_SIZE);
+        long interrupted = journal.begin("createRouter", Collections.singletonList("r1"));
+        long committed = journal.begin("createRouter", Collections.singletonList("r2"));
+        journal.end(committed, false);
+        long failed = journal.begin("createWorker", Arrays.asList("r1", "r3"));
+        journal.end(failed, true);
+
+        // restart without ending the interrupted operation
+        Map<String, List<Long>> pending = new OperationJournal(file, MAX_SIZE).getPendingRouters();
+
+        assertEquals(2, pending.size());
+        assertEquals(Arrays.asList(interrupted, failed), pending.get("r1"));
+        assertEquals(Collections.singletonList(failed), pending.get("r3"));
+        assertNull(pending.get("r2"));
+    }
+
+    /**
+     * An operation is over once all its routers are recovered, across restarts
+     */
+    @Test
+    public void testRecovered() throws Exception {
+        OperationJournal journal = new OperationJournal(file, MAX_SIZE);
+        long first = journal.begin("createRouter", Collections.singletonList("r1"));
+        long second = journal.begin("createWorker", Arrays.asList("r1", "r2 with spaces"));
+
+        journal = new OperationJournal(file, MAX_SIZE);
+        journal.recovered("r1", Arrays.asList(first, second));
+        assertEquals(Collections.singletonMap("r2 with spaces", Collections.singletonList(second)),
+                journal.getPendingRouters());
+
+        journal = new OperationJournal(file, MAX_SIZE);
+        assertEquals(Collections.singletonMap("r2 with spaces", Collections.singletonList(second)),
+                journal.getPendingRouters());
+        journal.recovered("r2 with spaces", Collections.singletonList(second));
+
+        assertTrue(new OperationJournal(file, MAX_SIZE).getPendingRouters().isEmpty());
+    }
+
+    /**
+     * The records cut by a crash are ignored
+     */
+    @Test
+    public void testTornRecords() throws Exception {
+        write("B 1 createRouter r1\n"
+                + "B 2 createRouter r2\n"
+                + "C 2\n"
+                + "B 3 createWork\n"
+                + "C");
+
+        OperationJournal journal = new OperationJournal(file, MAX_SIZE);
+
+        assertEquals(Collections.singletonMap("r1", Collections.singletonList(1L)), journal.getPendingRouters());
+        // the ids of the journal are not reused
+        assertTrue(journal.begin("createRouter", Collections.singletonList("r4")) > 3L);
+    }
+
+    /**
+     * The journal is compacted beyond its maximum size, keeping the operations to recover
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        long maxSize = 512L;
+        OperationJournal journal = new OperationJournal(file, maxSize);
+        long failed = journal.begin("createWorker", Collections.singletonList("r1"));
+        journal.end(failed, true);
+        long running = journal.begin("createWorker", Collections.singletonList("r2"));
+        for (int i = 0; i < 100; i++) {
+            journal.end(journal.begin("createRouter", Collections.singletonList("router" + i)), false);
+            assertTrue("journal size " + file.length(), file.length() <= maxSize);
+        }
+
+        Map<String, List<Long>> pending = new OperationJournal(file, maxSize).getPendingRouters();
+
+        assertEquals(2, pending.size());
+        assertEquals(Collections.singletonList(failed), pending.get("r1"));
+        assertEquals(Collections.singletonList(running), pending.get("r2"));
+    }
+
+    /**
+     * Concurrent operations get distinct ids and are all durable
+     */
+    @Test
+    public void testConcurrentBegins() throws Exception {
+        final OperationJournal journal = new OperationJournal(file, MAX_SIZE);
+        final int threads = 8;
+        final int operations = 50;
+        final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final String routerName = "r" + i;
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < operations; j++) {
+                            long id = journal.begin("createWorker", Collections.singletonList(routerName));
+                            ids.add(id);
+                            // the last operation of each thread is left running
+                            if (j < operations - 1) {
+                                journal.end(id, false);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertNull(error.get());
+        assertEquals(threads * operations, ids.size());
+        Map<String, List<Long>> pending = new OperationJournal(file, MAX_SIZE).getPendingRouters();
+        assertEquals(threads, pending.size());
+        for (List<Long> routerIds : pending.values()) {
+            assertEquals(1, routerIds.size());
+        }
+    }
+
+    /**
+     * @param records the records of the journal
+     * @throws IOException if the journal can't be written
+     */
+    private void write(String records) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(records.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
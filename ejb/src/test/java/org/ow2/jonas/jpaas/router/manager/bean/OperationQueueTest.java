@@ -0,0 +1,167 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.jonas.jpaas.router.manager.bean.OperationQueue.Priority;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link OperationQueue}, run step by step by a manual executor
+ */
+public class OperationQueueTest {
+
+    /**
+     * The lanes started on the executor, not run yet
+     */
+    private final List<Runnable> started = new ArrayList<Runnable>();
+
+    /**
+     * The operations run, in order
+     */
+    private final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Executor queueing the lanes, run by {@link #runStarted()}
+     */
+    private Executor executor;
+
+    @Before
+    public void setUp() {
+        executor = new Executor() {
+            public void execute(Runnable command) {
+                started.add(command);
+            }
+        };
+    }
+
+    /**
+     * The operations of a lane run by priority, then in submission order
+     */
+    @Test
+    public void testPriority() throws Exception {
+        OperationQueue queue = new OperationQueue(executor, 10, 1);
+        queue.submit("a", "r1", Priority.PROVISIONING, operation("p1"));
+        queue.submit("a", "r1", Priority.ENABLE, operation("e1"));
+        queue.submit("a", "r1", Priority.PROVISIONING, operation("p2"));
+        queue.submit("a", "r1", Priority.FAILOVER, operation("f1"));
+        assertEquals(1, started.size());
+
+        runStarted();
+
+        assertEquals(Arrays.asList("f1", "e1", "p1", "p2"), done);
+        assertEquals(0, queue.getPendingOperations("a"));
+    }
+
+    /**
+     * A lane rejects the operations of low priority beyond its depth, the
+     * failover operations beyond twice its depth
+     */
+    @Test
+    public void testDepth() throws Exception {
+        OperationQueue queue = new OperationQueue(executor, 2, 1);
+        queue.submit("a", "r1", Priority.PROVISIONING, operation("p1"));
+        queue.submit("a", "r1", Priority.PROVISIONING, operation("p2"));
+        assertRejected(queue, Priority.PROVISIONING);
+        assertRejected(queue, Priority.ENABLE);
+        queue.submit("a", "r1", Priority.FAILOVER, operation("f1"));
+        queue.submit("a", "r1", Priority.FAILOVER, operation("f2"));
+        assertRejected(queue, Priority.FAILOVER);
+
+        // the other lanes are not affected
+        queue.submit("b", "r2", Priority.PROVISIONING, operation("p3"));
+
+        runStarted();
+        assertEquals(Arrays.asList("f1", "f2", "p1", "p2", "p3"), done);
+    }
+
+    /**
+     * A lane held back only runs its failover operations until it is released
+     */
+    @Test
+    public void testHoldBack() throws Exception {
+        OperationQueue queue = new OperationQueue(executor, 10, 1);
+        queue.holdBack("a");
+        queue.holdBack("a");
+        queue.submit("a", "r1", Priority.PROVISIONING, operation("p1"));
+        queue.submit("a", "r1", Priority.FAILOVER, operation("f1"));
+
+        runStarted();
+
+        assertEquals(Collections.singletonList("f1"), done);
+        assertEquals(1, queue.getPendingOperations("a"));
+
+        // still held back by the second failover
+        queue.release("a");
+        runStarted();
+        assertEquals(Collections.singletonList("f1"), done);
+
+        queue.release("a");
+        runStarted();
+        assertEquals(Arrays.asList("f1", "p1"), done);
+        assertEquals(0, queue.getPendingOperations("a"));
+    }
+
+    /**
+     * Run the lanes started on the executor, and the ones they start
+     */
+    private void runStarted() {
+        while (!started.isEmpty()) {
+            started.remove(0).run();
+        }
+    }
+
+    /**
+     * @param name name of the operation
+     * @return an operation recording its run
+     */
+    private Callable<Void> operation(final String name) {
+        return new Callable<Void>() {
+            public Void call() {
+                done.add(name);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Check that the lane "a" rejects an operation
+     * @param queue the queue
+     * @param priority priority of the operation
+     */
+    private void assertRejected(OperationQueue queue, Priority priority) {
+        try {
+            queue.submit("a", "r1", priority, operation("rejected"));
+            fail(priority + " operation accepted");
+        } catch (RouterManagerBeanException e) {
+            // expected
+        }
+    }
+}
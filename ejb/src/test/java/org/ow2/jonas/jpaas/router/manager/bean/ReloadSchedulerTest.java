@@ -0,0 +1,188 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link ReloadScheduler}, reloading a {@link FakeAgent}
+ */
+public class ReloadSchedulerTest {
+
+    /**
+     * The agent
+     */
+    private FakeAgent agent;
+
+    /**
+     * The agent endpoint
+     */
+    private AgentEndpoint endpoint;
+
+    /**
+     * Start the agent
+     */
+    @Before
+    public void setUp() throws Exception {
+        agent = new FakeAgent();
+        agent.start();
+        PaasAgentVO paasAgent = new PaasAgentVO();
+        paasAgent.setName("agent");
+        paasAgent.setApiUrl(agent.getApiUrl());
+        endpoint = new AgentEndpoint(paasAgent);
+    }
+
+    /**
+     * Stop the agent
+     */
+    @After
+    public void tearDown() {
+        agent.stop();
+    }
+
+    /**
+     * The requests arriving in the window share a single reload
+     */
+    @Test
+    public void testMerge() throws Exception {
+        ReloadScheduler scheduler = new ReloadScheduler(500L, 2);
+
+        Future<Void> first = scheduler.requestReload(endpoint);
+        Future<Void> second = scheduler.requestReload(endpoint);
+        second.get(5L, TimeUnit.SECONDS);
+
+        assertSame(first, second);
+        assertEquals(1, agent.getReloadCount());
+    }
+
+    /**
+     * A request with a shorter delay brings the pending reload forward
+     */
+    @Test
+    public void testBringForward() throws Exception {
+        ReloadScheduler scheduler = new ReloadScheduler(60000L, 2);
+
+        Future<Void> pending = scheduler.requestReload(endpoint);
+        Future<Void> urgent = scheduler.requestReload(endpoint, 0L);
+        // would time out if still due in a minute
+        pending.get(5L, TimeUnit.SECONDS);
+
+        assertSame(pending, urgent);
+        assertEquals(1, agent.getReloadCount());
+    }
+
+    /**
+     * A request arriving once the reload has started triggers a new reload
+     */
+    @Test
+    public void testRequestAfterStart() throws Exception {
+        ReloadScheduler scheduler = new ReloadScheduler(0L, 2);
+        agent.setReloadLatency(300L);
+
+        Future<Void> first = scheduler.requestReload(endpoint);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (agent.getReloadCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Future<Void> second = scheduler.requestReload(endpoint);
+        first.get(5L, TimeUnit.SECONDS);
+        second.get(5L, TimeUnit.SECONDS);
+
+        assertNotSame(first, second);
+        assertEquals(2, agent.getReloadCount());
+    }
+
+    /**
+     * The reloads of different agents are not merged
+     */
+    @Test
+    public void testAgents() throws Exception {
+        FakeAgent otherAgent = new FakeAgent();
+        otherAgent.start();
+        try {
+            PaasAgentVO paasAgent = new PaasAgentVO();
+            paasAgent.setName("other");
+            paasAgent.setApiUrl(otherAgent.getApiUrl());
+            ReloadScheduler scheduler = new ReloadScheduler(100L, 2);
+
+            Future<Void> reload = scheduler.requestReload(endpoint);
+            Future<Void> otherReload = scheduler.requestReload(new AgentEndpoint(paasAgent));
+            reload.get(5L, TimeUnit.SECONDS);
+            otherReload.get(5L, TimeUnit.SECONDS);
+
+            assertNotSame(reload, otherReload);
+            assertEquals(1, agent.getReloadCount());
+            assertEquals(1, otherAgent.getReloadCount());
+        } finally {
+            otherAgent.stop();
+        }
+    }
+
+    /**
+     * A reload pending at the shut down is still sent, a new one is refused
+     */
+    @Test
+    public void testShutdown() throws Exception {
+        ReloadScheduler scheduler = new ReloadScheduler(100L, 2);
+        Future<Void> reload = scheduler.requestReload(endpoint);
+
+        scheduler.shutdown();
+
+        reload.get(5L, TimeUnit.SECONDS);
+        assertEquals(1, agent.getReloadCount());
+        try {
+            scheduler.requestReload(endpoint);
+            fail("reload requested after the shut down");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The shared scheduler lives until its last user releases it
+     */
+    @Test
+    public void testAcquireRelease() throws Exception {
+        ReloadScheduler scheduler = ReloadScheduler.acquire();
+        assertSame(scheduler, ReloadScheduler.acquire());
+        ReloadScheduler.release();
+
+        scheduler.requestReload(endpoint, 0L).get(5L, TimeUnit.SECONDS);
+        ReloadScheduler.release();
+
+        ReloadScheduler next = ReloadScheduler.acquire();
+        try {
+            assertNotSame(scheduler, next);
+        } finally {
+            ReloadScheduler.release();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link RouterCache} checks before a creation
+ */
+public class RouterCacheTest {
+
+    /**
+     * The SR
+     */
+    private InMemorySr sr;
+
+    /**
+     * The agent of the routers
+     */
+    private PaasAgentVO agent;
+
+    /**
+     * Number of loads of the whole index
+     */
+    private final AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * SR facade router counting the loads of the whole index
+     */
+    private ISrPaasApacheJkRouterFacade srApacheJkEjb;
+
+    /**
+     * Initialize the SR
+     */
+    @Before
+    public void setUp() {
+        sr = new InMemorySr();
+        agent = sr.addAgent("agent", "http://localhost:1/");
+        final ISrPaasApacheJkRouterFacade facade = sr.getFacade(ISrPaasApacheJkRouterFacade.class);
+        srApacheJkEjb = (ISrPaasApacheJkRouterFacade) Proxy.newProxyInstance(
+                ISrPaasApacheJkRouterFacade.class.getClassLoader(), new Class<?>[] {ISrPaasApacheJkRouterFacade.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("findApacheJkRouters".equals(method.getName())) {
+                            loads.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(facade, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * A router created in the SR by another node after the load of the index
+     * is seen before a creation, once the index may be reloaded
+     */
+    @Test
+    public void testExistsConfirmed() throws Exception {
+        RouterCache cache = new RouterCache(RouterCache.DEFAULT_TTL);
+        sr.addRouter("r1", agent);
+        assertTrue(cache.exists("r1", srApacheJkEjb));
+
+        sr.addRouter("r2", agent);
+        Thread.sleep(1100L);
+
+        assertTrue(cache.exists("r2", srApacheJkEjb));
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * A wave of unknown names costs a single load of the index per second
+     */
+    @Test
+    public void testExistsBounded() throws Exception {
+        RouterCache cache = new RouterCache(RouterCache.DEFAULT_TTL);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(cache.exists("r" + i, srApacheJkEjb));
+        }
+        assertEquals(1, loads.get());
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link RouterLocks}
+ */
+public class RouterLocksTest {
+
+    /**
+     * A lock is reentrant for its thread, and free once all its holds are released
+     */
+    @Test
+    public void testReentrant() throws Exception {
+        RouterLocks locks = new RouterLocks(RouterLocks.DEFAULT_STRIPES);
+        RouterLocks.Hold first = locks.lock("r1");
+        RouterLocks.Hold second = locks.lock("r1");
+        Thread other = lockInThread(locks, "r1", null);
+
+        second.unlock();
+        other.join(100L);
+        assertTrue(other.isAlive());
+
+        first.unlock();
+        other.join(1000L);
+        assertFalse(other.isAlive());
+    }
+
+    /**
+     * A lock owned by a transaction is reentrant for all the threads of the
+     * transaction, and kept until the transaction releases its holds
+     */
+    @Test
+    public void testTransactionOwner() throws Exception {
+        RouterLocks locks = new RouterLocks(RouterLocks.DEFAULT_STRIPES);
+        Object transaction = new Object();
+        RouterLocks.Hold hold = locks.lock("r1", transaction);
+
+        Thread sameTransaction = lockInThread(locks, "r1", transaction);
+        sameTransaction.join(1000L);
+        assertFalse(sameTransaction.isAlive());
+
+        Thread other = lockInThread(locks, "r1", null);
+        other.join(100L);
+        assertTrue(other.isAlive());
+
+        hold.unlock();
+        other.join(1000L);
+        assertFalse(other.isAlive());
+    }
+
+    /**
+     * A released hold can't be released again
+     */
+    @Test
+    public void testUnlockNotHeld() {
+        RouterLocks locks = new RouterLocks(RouterLocks.DEFAULT_STRIPES);
+        RouterLocks.Hold hold = locks.lock("r1", "tx1");
+        hold.unlock();
+        try {
+            hold.unlock();
+            fail("Released twice");
+        } catch (IllegalMonitorStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Several routers are always locked in the same order
+     */
+    @Test
+    public void testInLockOrder() {
+        RouterLocks locks = new RouterLocks(1024);
+        List<String> names = Arrays.asList("r1", "r2", "r3", "r4", "r5", "r6", "r7", "r8");
+        List<String> reversed = Arrays.asList("r8", "r7", "r6", "r5", "r4", "r3", "r2", "r1");
+
+        assertEquals(locks.inLockOrder(names), locks.inLockOrder(reversed));
+        assertEquals(names.size(), locks.inLockOrder(names).size());
+    }
+
+    /**
+     * Lock a router in a new thread, then release it
+     * @param locks the locks
+     * @param routerName Name of the router
+     * @param owner the owner of the lock, null for the thread
+     * @return the started thread
+     */
+    private Thread lockInThread(final RouterLocks locks, final String routerName, final Object owner) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                RouterLocks.Hold hold = owner == null ? locks.lock(routerName) : locks.lock(routerName, owner);
+                hold.unlock();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
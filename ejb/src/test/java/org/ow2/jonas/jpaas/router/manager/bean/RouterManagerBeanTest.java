@@ -0,0 +1,216 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.jonas.jpaas.router.manager.api.TargetFailoverResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link RouterManagerBean} operations, with an in-memory SR and a {@link FakeAgent}
+ */
+public class RouterManagerBeanTest {
+
+    /**
+     * Number of concurrent calls
+     */
+    private static final int CALLS = 8;
+
+    /**
+     * Path of the mount requests of an agent, followed by the load balancer name
+     */
+    private static final String MOUNT_PATH = "/jkmanager/mount/";
+
+    /**
+     * The bean and its SR and agent
+     */
+    private RouterManagerFixture fixture;
+
+    /**
+     * Initialize the bean
+     */
+    @Before
+    public void setUp() throws Exception {
+        fixture = new RouterManagerFixture();
+    }
+
+    /**
+     * Release the bean
+     */
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * Concurrent creations of workers on a router share a single reload: the
+     * router is unlocked once each creation is committed, before the reload
+     */
+    @Test
+    public void testConcurrentCreateWorker() throws Exception {
+        final String routerName = fixture.addRouter("r1");
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < CALLS; i++) {
+            final int worker = i;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        fixture.getRouterManager().createWorker(routerName, "w" + worker, "host", 8000 + worker);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000L);
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(CALLS, fixture.getSrRouter(routerName).getWorkerList().size());
+        assertEquals(1, fixture.getAgent().getReloadCount());
+    }
+
+    /**
+     * The routers of a target are disabled with one reload per agent, and
+     * disabling the target again changes nothing
+     */
+    @Test
+    public void testDisableTarget() throws Exception {
+        RouterManagerBean routerManager = fixture.getRouterManager();
+        FakeAgent otherAgent = fixture.addAgent();
+        String host = fixture.getPrefix() + "target";
+        List<String> routerNames = new ArrayList<String>();
+        routerNames.add(fixture.addRouter("r1"));
+        routerNames.add(fixture.addRouter("r2"));
+        routerNames.add(fixture.addRouter("r3", otherAgent));
+        for (String routerName : routerNames) {
+            routerManager.createWorker(routerName, "w1", host, 8080);
+        }
+        int reloads = fixture.getAgent().getReloadCount();
+        int otherReloads = otherAgent.getReloadCount();
+
+        TargetFailoverResult result = routerManager.disableTarget(host, 8080, 10000L);
+
+        assertTrue(result.toString(), result.isComplete());
+        assertEquals(3, result.getDisabledWorkers().size());
+        assertEquals(reloads + 1, fixture.getAgent().getReloadCount());
+        assertEquals(otherReloads + 1, otherAgent.getReloadCount());
+        for (String routerName : routerNames) {
+            assertEquals("DISABLE", fixture.getSrRouter(routerName).getWorkerList().get(0).getStatus());
+        }
+
+        // nothing left to change: no reload
+        result = routerManager.disableTarget(host, 8080, 10000L);
+
+        assertTrue(result.toString(), result.isComplete());
+        assertEquals(3, result.getDisabledWorkers().size());
+        assertEquals(reloads + 1, fixture.getAgent().getReloadCount());
+        assertEquals(otherReloads + 1, otherAgent.getReloadCount());
+    }
+
+    /**
+     * A worker moved to another target behind the back of the targets index
+     * is left as is and removed from the index
+     */
+    @Test
+    public void testDisableTargetStaleIndex() throws Exception {
+        RouterManagerBean routerManager = fixture.getRouterManager();
+        String host = fixture.getPrefix() + "target";
+        String routerName = fixture.addRouter("r1");
+        routerManager.createWorker(routerName, "w1", host, 8080);
+        String id = fixture.getSrRouter(routerName).getId();
+        fixture.getSr().removeWorker(id, "w1");
+        fixture.getSr().addWorker(id, "w1", fixture.getPrefix() + "other", 8080);
+        fixture.invalidateRouter(routerName);
+        int requests = fixture.getAgent().getRequests().size();
+
+        TargetFailoverResult result = routerManager.disableTarget(host, 8080, 10000L);
+
+        assertTrue(result.toString(), result.isComplete());
+        assertTrue(result.getDisabledWorkers().isEmpty());
+        assertEquals("ENABLE", fixture.getSrRouter(routerName).getWorkerList().get(0).getStatus());
+        assertEquals(requests, fixture.getAgent().getRequests().size());
+        assertTrue(routerManager.findWorkersByTarget(host, 8080).isEmpty());
+    }
+
+    /**
+     * A swapped mount point ends up mapped to the new load balancer on an
+     * agent applying the mount requests by path, as the SR says
+     */
+    @Test
+    public void testSwapLoadBalancer() throws Exception {
+        RouterManagerBean routerManager = fixture.getRouterManager();
+        String routerName = fixture.addRouter("r1");
+        routerManager.createWorker(routerName, "w1", "host", 8009);
+        routerManager.createLoadBalancer(routerName, "lb1", Collections.singletonList("w1"),
+                Arrays.asList("/app/*", "/other/*"));
+
+        List<String> removed = routerManager.swapLoadBalancer(routerName, "lb2", Collections.singletonList("w1"),
+                Arrays.asList("/app/*", "/other/*"));
+
+        assertEquals(Collections.singletonList("lb1"), removed);
+        Map<String, String> mountPoints = getMountPoints(fixture.getAgent().getRequests());
+        assertEquals("lb2", mountPoints.get("/app/*"));
+        assertEquals(JkConfiguration.fromRouter(fixture.getSrRouter(routerName)).getMountPoints(), mountPoints);
+    }
+
+    /**
+     * Apply the mount requests received by an agent, a mount being deleted by path
+     * @param requests the requests received by the agent, as "METHOD path?query"
+     * @return the load balancer of each mount point, by path
+     */
+    private static Map<String, String> getMountPoints(List<String> requests) {
+        Map<String, String> mountPoints = new HashMap<String, String>();
+        for (String request : requests) {
+            int mount = request.indexOf(MOUNT_PATH);
+            int query = request.indexOf("?path=");
+            if (mount < 0 || query < 0) {
+                continue;
+            }
+            String path = request.substring(query + "?path=".length());
+            if (request.startsWith("POST ")) {
+                mountPoints.put(path, request.substring(mount + MOUNT_PATH.length(), query));
+            } else if (request.startsWith("DELETE ")) {
+                mountPoints.remove(path);
+            }
+        }
+        return mountPoints;
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.catalog.api.IPaasCatalogFacade;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentFacade;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentIaasComputeLink;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasResourceIaasComputeLink;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasResourcePaasAgentLink;
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A RouterManagerBean wired, outside of any container, to an in-memory SR,
+ * to {@link TestTransactions} and to {@link FakeAgent}s. The indexes of the
+ * bean are shared by all the tests of the JVM: each fixture names its
+ * routers and agents with its own prefix.
+ */
+public class RouterManagerFixture {
+
+    /**
+     * Number of the fixture, prefix of its names
+     */
+    private static final AtomicInteger fixtures = new AtomicInteger();
+
+    /**
+     * Prefix of the names of the fixture
+     */
+    private final String prefix = "f" + fixtures.incrementAndGet() + "-";
+
+    /**
+     * The in-memory SR
+     */
+    private final InMemorySr sr = new InMemorySr();
+
+    /**
+     * The transactions of the bean
+     */
+    private final TestTransactions transactions = new TestTransactions();
+
+    /**
+     * The agents in the SR, by agent, the first one being the default agent
+     */
+    private final Map<FakeAgent, PaasAgentVO> agents = new LinkedHashMap<FakeAgent, PaasAgentVO>();
+
+    /**
+     * The default agent
+     */
+    private final FakeAgent agent;
+
+    /**
+     * The bean
+     */
+    private final RouterManagerBean routerManager = new RouterManagerBean();
+
+    /**
+     * Start an agent and initialize the bean
+     * @throws IOException if the agent can't be started
+     */
+    public RouterManagerFixture() throws IOException {
+        agent = addAgent();
+        inject(IPaasCatalogFacade.class, sr.getFacade(IPaasCatalogFacade.class));
+        inject(ISrPaasApacheJkRouterFacade.class, sr.getFacade(ISrPaasApacheJkRouterFacade.class));
+        inject(ISrPaasAgentFacade.class, sr.getFacade(ISrPaasAgentFacade.class));
+        inject(ISrPaasResourcePaasAgentLink.class, sr.getFacade(ISrPaasResourcePaasAgentLink.class));
+        inject(ISrPaasAgentIaasComputeLink.class, sr.getFacade(ISrPaasAgentIaasComputeLink.class));
+        inject(ISrPaasResourceIaasComputeLink.class, sr.getFacade(ISrPaasResourceIaasComputeLink.class));
+        inject(TransactionSynchronizationRegistry.class, transactions);
+        inject(RouterTransactions.class, transactions);
+        routerManager.init();
+    }
+
+    /**
+     * Release the bean and stop the agents
+     */
+    public void close() {
+        routerManager.destroy();
+        for (FakeAgent fakeAgent : agents.keySet()) {
+            fakeAgent.stop();
+        }
+    }
+
+    /**
+     * Start an agent and add it to the SR
+     * @return the agent
+     * @throws IOException if the agent can't be started
+     */
+    public FakeAgent addAgent() throws IOException {
+        FakeAgent fakeAgent = new FakeAgent();
+        fakeAgent.start();
+        agents.put(fakeAgent, sr.addAgent(prefix + "agent" + (agents.size() + 1), fakeAgent.getApiUrl()));
+        return fakeAgent;
+    }
+
+    /**
+     * Add a router of the default agent to the SR
+     * @param name Name of the router, without the prefix of the fixture
+     * @return the name of the router
+     */
+    public String addRouter(String name) {
+        return addRouter(name, agent);
+    }
+
+    /**
+     * Add a router of an agent to the SR
+     * @param name Name of the router, without the prefix of the fixture
+     * @param fakeAgent the agent
+     * @return the name of the router
+     */
+    public String addRouter(String name, FakeAgent fakeAgent) {
+        sr.addRouter(prefix + name, agents.get(fakeAgent));
+        return prefix + name;
+    }
+
+    /**
+     * Get a router from the SR, bypassing the indexes of the bean
+     * @param routerName Name of the router
+     * @return the router, null if it doesn't exist
+     */
+    public ApacheJkVO getSrRouter(String routerName) {
+        for (ApacheJkVO apacheJk : sr.findApacheJkRouters()) {
+            if (apacheJk.getName().equals(routerName)) {
+                return apacheJk;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make the bean reload a router from the SR on next lookup, as after a
+     * change of the SR by another node
+     * @param routerName Name of the router
+     */
+    public void invalidateRouter(String routerName) {
+        ((RouterCache) get(RouterCache.class)).invalidate(routerName);
+    }
+
+    /**
+     * @return the bean
+     */
+    public RouterManagerBean getRouterManager() {
+        return routerManager;
+    }
+
+    /**
+     * @return the in-memory SR
+     */
+    public InMemorySr getSr() {
+        return sr;
+    }
+
+    /**
+     * @return the prefix of the names of the fixture
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the default agent
+     */
+    public FakeAgent getAgent() {
+        return agent;
+    }
+
+    /**
+     * Get the field of the bean having a given type
+     * @param type type of the field
+     * @return the value of the field
+     */
+    private Object get(Class<?> type) {
+        try {
+            return getField(type).get(routerManager);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Set the field of the bean having a given type
+     * @param type type of the field
+     * @param value the facade or bean
+     */
+    private void inject(Class<?> type, Object value) {
+        try {
+            getField(type).set(routerManager, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param type type of a field
+     * @return the field of the bean having this type
+     */
+    private static Field getField(Class<?> type) {
+        for (Field field : RouterManagerBean.class.getDeclaredFields()) {
+            if (field.getType() == type) {
+                field.setAccessible(true);
+                return field;
+            }
+        }
+        throw new IllegalStateException("No field of type " + type.getName() + " in RouterManagerBean");
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.Test;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
+import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
+import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link RouterTransaction}
+ */
+public class RouterTransactionTest {
+
+    /**
+     * The SR
+     */
+    private final InMemorySr sr = new InMemorySr();
+
+    /**
+     * SR facade router
+     */
+    private final ISrPaasApacheJkRouterFacade srApacheJkEjb = sr.getFacade(ISrPaasApacheJkRouterFacade.class);
+
+    /**
+     * The transactions
+     */
+    private final TestTransactions transactions = new TestTransactions();
+
+    /**
+     * The routers index
+     */
+    private final RouterCache routerCache = new RouterCache(RouterCache.DEFAULT_TTL);
+
+    /**
+     * The router locks
+     */
+    private final RouterLocks routerLocks = new RouterLocks(RouterLocks.DEFAULT_STRIPES);
+
+    /**
+     * There is no state without active transaction
+     */
+    @Test
+    public void testNoTransaction() {
+        assertNull(RouterTransaction.get(null, routerCache));
+        assertNull(RouterTransaction.get(transactions, routerCache));
+        assertNull(RouterTransaction.peek(transactions));
+    }
+
+    /**
+     * The state of a transaction is registered once
+     */
+    @Test
+    public void testSameTransaction() throws Exception {
+        transactions.run(new RouterTransactions.Work<Void>() {
+            public Void run() {
+                assertNull(RouterTransaction.peek(transactions));
+                RouterTransaction transaction = RouterTransaction.get(transactions, routerCache);
+                assertNotNull(transaction);
+                assertTrue(transaction == RouterTransaction.get(transactions, routerCache));
+                assertTrue(transaction == RouterTransaction.peek(transactions));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The lock of a router is kept until the transaction is completed, even once unlocked
+     */
+    @Test
+    public void testLockKeptUntilCompletion() throws Exception {
+        final Thread[] other = new Thread[1];
+        transactions.run(new RouterTransactions.Work<Void>() {
+            public Void run() throws RouterManagerBeanException {
+                RouterTransaction.get(transactions, routerCache).lock(routerLocks, "r1").unlock();
+                other[0] = new Thread(new Runnable() {
+                    public void run() {
+                        routerLocks.lock("r1").unlock();
+                    }
+                });
+                other[0].start();
+                try {
+                    other[0].join(100L);
+                } catch (InterruptedException e) {
+                    throw new RouterManagerBeanException("Interrupted", e);
+                }
+                assertTrue(other[0].isAlive());
+                return null;
+            }
+        });
+        other[0].join(1000L);
+        assertFalse(other[0].isAlive());
+    }
+
+    /**
+     * A written router is seen by the transaction, and by the routers index once committed
+     */
+    @Test
+    public void testWrittenOnCommit() throws Exception {
+        final ApacheJkVO apacheJk = addRouter("r1");
+        assertEquals("RUNNING", routerCache.get("r1", srApacheJkEjb).getState());
+
+        transactions.run(new RouterTransactions.Work<Void>() {
+            public Void run() {
+                ApacheJkVO written = RouterCache.copy(apacheJk);
+                written.setState("STOPPED");
+                RouterTransaction.get(transactions, routerCache).written(written);
+
+                assertEquals("STOPPED", RouterTransaction.peek(transactions).getRouter("r1", srApacheJkEjb)
+                        .getState());
+                // not committed yet
+                assertEquals("RUNNING", routerCache.get("r1", srApacheJkEjb).getState());
+                return null;
+            }
+        });
+
+        assertEquals("STOPPED", routerCache.get("r1", srApacheJkEjb).getState());
+    }
+
+    /**
+     * A rolled back transaction leaves the routers index reading the SR again
+     */
+    @Test
+    public void testRollback() throws Exception {
+        final ApacheJkVO apacheJk = addRouter("r1");
+        routerCache.get("r1", srApacheJkEjb);
+        try {
+            transactions.run(new RouterTransactions.Work<Void>() {
+                public Void run() {
+                    ApacheJkVO written = RouterCache.copy(apacheJk);
+                    written.setState("STOPPED");
+                    RouterTransaction.get(transactions, routerCache).written(written);
+                    throw new IllegalStateException("rollback");
+                }
+            });
+            fail("Not rolled back");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // the SR changed meanwhile
+        apacheJk.setState("STARTING");
+
+        assertEquals("STARTING", routerCache.get("r1", srApacheJkEjb).getState());
+    }
+
+    /**
+     * A changed router is read again from the SR, a removed one doesn't exist anymore
+     */
+    @Test
+    public void testChangedAndRemoved() throws Exception {
+        final ApacheJkVO changed = addRouter("r1");
+        addRouter("r2");
+        routerCache.get("r1", srApacheJkEjb);
+
+        transactions.run(new RouterTransactions.Work<Void>() {
+            public Void run() {
+                RouterTransaction transaction = RouterTransaction.get(transactions, routerCache);
+                transaction.changed(changed);
+                transaction.removed("r2");
+                changed.setState("STOPPED");
+
+                assertEquals("STOPPED", transaction.getRouter("r1", srApacheJkEjb).getState());
+                assertNull(transaction.getRouter("r2", srApacheJkEjb));
+                return null;
+            }
+        });
+
+        assertEquals("STOPPED", routerCache.get("r1", srApacheJkEjb).getState());
+    }
+
+    /**
+     * Add a router to the SR
+     * @param name Name of the router
+     * @return the router
+     */
+    private ApacheJkVO addRouter(String name) {
+        PaasAgentVO agent = sr.addAgent("agent", "http://localhost:9000/");
+        return sr.addRouter(name, agent);
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Stand-in of the container transactions of the RouterManagerBean: each
+ * unit of work runs in a new transaction bound to the caller thread, whose
+ * synchronizations are completed when the work returns, committed unless
+ * the work throws a runtime exception or the transaction is marked for
+ * rollback. An asynchronous work runs on a thread of its own.
+ */
+public class TestTransactions implements RouterTransactions, TransactionSynchronizationRegistry {
+
+    /**
+     * The transaction of the current thread
+     */
+    private final ThreadLocal<Transaction> current = new ThreadLocal<Transaction>();
+
+    /**
+     * Run a unit of work in a new transaction
+     * @param work the unit of work
+     * @param <T> type of the result
+     * @return the result of the work
+     * @throws RouterManagerBeanException the error of the work
+     */
+    public <T> T run(Work<T> work) throws RouterManagerBeanException {
+        Transaction previous = current.get();
+        Transaction transaction = new Transaction();
+        current.set(transaction);
+        boolean failed = true;
+        try {
+            T result = work.run();
+            failed = false;
+            return result;
+        } catch (RouterManagerBeanException e) {
+            // an application exception doesn't roll back the transaction
+            failed = false;
+            throw e;
+        } finally {
+            current.set(previous);
+            transaction.complete(failed || transaction.rollbackOnly ? Status.STATUS_ROLLEDBACK
+                    : Status.STATUS_COMMITTED);
+        }
+    }
+
+    /**
+     * Run a unit of work on a new thread, without transaction
+     * @param work the unit of work
+     * @param <T> type of the result
+     * @return the pending result of the work
+     */
+    public <T> Future<T> runAsync(final Work<T> work) {
+        FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+            public T call() throws RouterManagerBeanException {
+                return work.run();
+            }
+        });
+        Thread thread = new Thread(task, "TestTransactions-async");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * @return the key of the transaction of the current thread, null if none
+     */
+    public Object getTransactionKey() {
+        return current.get();
+    }
+
+    /**
+     * Add a resource to the transaction of the current thread
+     * @param key key of the resource
+     * @param value the resource
+     */
+    public void putResource(Object key, Object value) {
+        getTransaction().resources.put(key, value);
+    }
+
+    /**
+     * @param key key of the resource
+     * @return a resource of the transaction of the current thread
+     */
+    public Object getResource(Object key) {
+        return getTransaction().resources.get(key);
+    }
+
+    /**
+     * Register a synchronization of the transaction of the current thread
+     * @param synchronization the synchronization
+     */
+    public void registerInterposedSynchronization(Synchronization synchronization) {
+        getTransaction().synchronizations.add(synchronization);
+    }
+
+    /**
+     * @return the status of the transaction of the current thread
+     */
+    public int getTransactionStatus() {
+        Transaction transaction = current.get();
+        if (transaction == null) {
+            return Status.STATUS_NO_TRANSACTION;
+        }
+        return transaction.rollbackOnly ? Status.STATUS_MARKED_ROLLBACK : Status.STATUS_ACTIVE;
+    }
+
+    /**
+     * Mark the transaction of the current thread for rollback
+     */
+    public void setRollbackOnly() {
+        getTransaction().rollbackOnly = true;
+    }
+
+    /**
+     * @return true if the transaction of the current thread is marked for rollback
+     */
+    public boolean getRollbackOnly() {
+        return getTransaction().rollbackOnly;
+    }
+
+    /**
+     * @return the transaction of the current thread
+     * @throws IllegalStateException if there is none
+     */
+    private Transaction getTransaction() {
+        Transaction transaction = current.get();
+        if (transaction == null) {
+            throw new IllegalStateException("No transaction");
+        }
+        return transaction;
+    }
+
+    /**
+     * A transaction
+     */
+    private static final class Transaction {
+
+        /**
+         * The resources, by key
+         */
+        private final Map<Object, Object> resources = new HashMap<Object, Object>();
+
+        /**
+         * The synchronizations
+         */
+        private final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+
+        /**
+         * True if marked for rollback
+         */
+        private boolean rollbackOnly;
+
+        /**
+         * Complete the synchronizations
+         * @param status status of the completed transaction
+         */
+        private void complete(int status) {
+            if (status == Status.STATUS_COMMITTED) {
+                for (Synchronization synchronization : synchronizations) {
+                    synchronization.beforeCompletion();
+                }
+            }
+            for (Synchronization synchronization : synchronizations) {
+                synchronization.afterCompletion(status);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.junit.Test;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import javax.transaction.Status;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link WorkerStatusCoalescer}
+ */
+public class WorkerStatusCoalescerTest {
+
+    /**
+     * The calls made before the start join the change of the owner, whose last status wins
+     */
+    @Test
+    public void testLastWriterWins() throws Exception {
+        WorkerStatusCoalescer coalescer = new WorkerStatusCoalescer(0L);
+        WorkerStatusCoalescer.PendingStatus status = coalescer.request("r1", "w1", false);
+        assertTrue(status.isOwner());
+
+        WorkerStatusCoalescer.PendingStatus joined = request(coalescer, "r1", "w1", true);
+
+        assertSame(status, joined);
+        assertTrue(coalescer.start(status));
+        assertEquals(2, status.getRequests());
+    }
+
+    /**
+     * A call made once the change is started opens a new one
+     */
+    @Test
+    public void testRequestAfterStart() throws Exception {
+        WorkerStatusCoalescer coalescer = new WorkerStatusCoalescer(0L);
+        WorkerStatusCoalescer.PendingStatus status = coalescer.request("r1", "w1", false);
+        assertFalse(coalescer.start(status));
+
+        WorkerStatusCoalescer.PendingStatus next = request(coalescer, "r1", "w1", true);
+
+        assertNotSame(status, next);
+        assertEquals(1, next.getRequests());
+    }
+
+    /**
+     * The waiting calls are released by the commit of the owner, the later
+     * completion by the owner being ignored
+     */
+    @Test
+    public void testReleasedOnCommit() throws Exception {
+        WorkerStatusCoalescer coalescer = new WorkerStatusCoalescer(0L);
+        WorkerStatusCoalescer.PendingStatus status = coalescer.request("r1", "w1", false);
+        Thread waiter = await(status, new AtomicReference<Throwable>());
+        waiter.join(200L);
+        assertTrue(waiter.isAlive());
+
+        status.afterCompletion(Status.STATUS_COMMITTED);
+        status.complete(new RouterManagerBeanException("reload failed"));
+
+        status.await();
+        waiter.join(5000L);
+        assertFalse(waiter.isAlive());
+    }
+
+    /**
+     * The waiting calls fail when the transaction of the owner is rolled back
+     */
+    @Test
+    public void testRolledBack() throws Exception {
+        WorkerStatusCoalescer coalescer = new WorkerStatusCoalescer(0L);
+        WorkerStatusCoalescer.PendingStatus status = coalescer.request("r1", "w1", false);
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread waiter = await(status, error);
+
+        status.afterCompletion(Status.STATUS_ROLLEDBACK);
+
+        waiter.join(5000L);
+        assertTrue(String.valueOf(error.get()), error.get() instanceof RouterManagerBeanException);
+        try {
+            status.await();
+            fail("rolled back");
+        } catch (RouterManagerBeanException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The owner waits for the delay before applying the change
+     */
+    @Test
+    public void testDelay() throws Exception {
+        WorkerStatusCoalescer coalescer = new WorkerStatusCoalescer(100L);
+        WorkerStatusCoalescer.PendingStatus status = coalescer.request("r1", "w1", false);
+        long start = System.currentTimeMillis();
+
+        coalescer.awaitCalls(status);
+
+        assertTrue(System.currentTimeMillis() - start >= 100L);
+    }
+
+    /**
+     * Request a status change from another thread
+     * @param coalescer the coalescer
+     * @param routerName Name of the router
+     * @param workerName Name of the worker
+     * @param enable true to enable the worker
+     * @return the pending change
+     */
+    private static WorkerStatusCoalescer.PendingStatus request(final WorkerStatusCoalescer coalescer,
+            final String routerName, final String workerName, final boolean enable) throws InterruptedException {
+        final AtomicReference<WorkerStatusCoalescer.PendingStatus> status =
+                new AtomicReference<WorkerStatusCoalescer.PendingStatus>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                status.set(coalescer.request(routerName, workerName, enable));
+            }
+        });
+        thread.start();
+        thread.join(5000L);
+        return status.get();
+    }
+
+    /**
+     * Wait for a change from another thread
+     * @param status the pending change
+     * @param error the failure of the change, set once released
+     * @return the waiting thread
+     */
+    private static Thread await(final WorkerStatusCoalescer.PendingStatus status,
+            final AtomicReference<Throwable> error) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    status.await();
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
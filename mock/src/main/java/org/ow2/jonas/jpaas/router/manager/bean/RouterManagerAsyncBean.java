@@ -0,0 +1,581 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.ow2.jonas.jpaas.router.manager.api.IdempotencyKey;
+import org.ow2.jonas.jpaas.router.manager.api.RollingReloadListener;
+import org.ow2.jonas.jpaas.router.manager.api.RollingReloadResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterChange;
+import org.ow2.jonas.jpaas.router.manager.api.RouterChangeResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterCreation;
+import org.ow2.jonas.jpaas.router.manager.api.RouterCreationResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManager;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerAsync;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+import org.ow2.jonas.jpaas.router.manager.api.TargetFailoverResult;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+
+
+/**
+ * Asynchronous RouterManager mock. The operations are run at once by the
+ * RouterManager mock and the returned Future is already completed.
+ */
+@Component
+@Provides
+@Instantiate
+public class RouterManagerAsyncBean implements RouterManagerAsync {
+
+    /**
+     * The router manager mock
+     */
+    @Requires
+    private RouterManager routerManager;
+
+    /**
+     * Create a router
+     * @param routerName Name of the router to create
+     * @param paasAgentName Name of the PaasAgent
+     * @param paasConfigurationName Name of the PaasConfiguration to use
+     * @param listenPort the listen port
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createRouter(final String routerName, final String paasAgentName,
+            final String paasConfigurationName, final Integer listenPort) throws RouterManagerBeanException {
+        return createRouter(routerName, paasAgentName, paasConfigurationName, listenPort, null);
+    }
+
+    /**
+     * Same as {@link #createRouter(String, String, String, Integer)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createRouter(final String routerName, final String paasAgentName,
+            final String paasConfigurationName, final Integer listenPort,
+            final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.createRouter(routerName, paasAgentName, paasConfigurationName, listenPort,
+                        idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Create several routers
+     * @param creations the routers to create
+     * @return the pending operation, giving the outcome of each creation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<RouterCreationResult>> createRouters(final List<RouterCreation> creations)
+            throws RouterManagerBeanException {
+        return createRouters(creations, null);
+    }
+
+    /**
+     * Same as {@link #createRouters(List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the outcome of each creation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<RouterCreationResult>> createRouters(final List<RouterCreation> creations,
+            final IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return submit(new Callable<List<RouterCreationResult>>() {
+            public List<RouterCreationResult> call() throws Exception {
+                return routerManager.createRouters(creations, idempotencyKey);
+            }
+        });
+    }
+
+    /**
+     * Remove a router
+     * @param routerName name of the router to remove
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeRouter(final String routerName) throws RouterManagerBeanException {
+        return removeRouter(routerName, null);
+    }
+
+    /**
+     * Same as {@link #removeRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeRouter(final String routerName,
+            final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.removeRouter(routerName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Start a router
+     * @param routerName Name of the router to start
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> startRouter(final String routerName) throws RouterManagerBeanException {
+        return startRouter(routerName, null);
+    }
+
+    /**
+     * Same as {@link #startRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> startRouter(final String routerName,
+            final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.startRouter(routerName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stop a router
+     * @param routerName Name of the router to stop
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> stopRouter(final String routerName) throws RouterManagerBeanException {
+        return stopRouter(routerName, null);
+    }
+
+    /**
+     * Same as {@link #stopRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> stopRouter(final String routerName,
+            final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.stopRouter(routerName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Add a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to create
+     * @param targetHost The worker target host
+     * @param targetPortNumber the worker target port number
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createWorker(final String routerName, final String workerName, final String targetHost,
+            final Integer targetPortNumber) throws RouterManagerBeanException {
+        return createWorker(routerName, workerName, targetHost, targetPortNumber, null);
+    }
+
+    /**
+     * Same as {@link #createWorker(String, String, String, Integer)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createWorker(final String routerName, final String workerName, final String targetHost,
+            final Integer targetPortNumber, final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.createWorker(routerName, workerName, targetHost, targetPortNumber, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Remove a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to remove
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeWorker(final String routerName, final String workerName)
+            throws RouterManagerBeanException {
+        return removeWorker(routerName, workerName, null);
+    }
+
+    /**
+     * Same as {@link #removeWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeWorker(final String routerName, final String workerName,
+            final IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.removeWorker(routerName, workerName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Disable a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to disable
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> disableWorker(final String routerName, final String workerName)
+            throws RouterManagerBeanException {
+        return disableWorker(routerName, workerName, null);
+    }
+
+    /**
+     * Same as {@link #disableWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> disableWorker(final String routerName, final String workerName,
+            final IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.disableWorker(routerName, workerName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Enable a worker
+     * @param routerName Name of the router
+     * @param workerName Name of the worker to enable
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> enableWorker(final String routerName, final String workerName)
+            throws RouterManagerBeanException {
+        return enableWorker(routerName, workerName, null);
+    }
+
+    /**
+     * Same as {@link #enableWorker(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> enableWorker(final String routerName, final String workerName,
+            final IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.enableWorker(routerName, workerName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Create a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @param workedList  the workers balanced by this load balancer
+     * @param mountsPoints the mount Points of this load balancer
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createLoadBalancer(final String routerName, final String lbName,
+            final List<String> workedList, final List<String> mountsPoints) throws RouterManagerBeanException {
+        return createLoadBalancer(routerName, lbName, workedList, mountsPoints, null);
+    }
+
+    /**
+     * Same as {@link #createLoadBalancer(String, String, List, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> createLoadBalancer(final String routerName, final String lbName,
+            final List<String> workedList, final List<String> mountsPoints,
+            final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.createLoadBalancer(routerName, lbName, workedList, mountsPoints, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Remove a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeLoadBalancer(final String routerName, final String lbName)
+            throws RouterManagerBeanException {
+        return removeLoadBalancer(routerName, lbName, null);
+    }
+
+    /**
+     * Same as {@link #removeLoadBalancer(String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeLoadBalancer(final String routerName, final String lbName,
+            final IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.removeLoadBalancer(routerName, lbName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Replace the load balancers of mount points by a new one, with a single reload
+     * @param routerName Name of the router
+     * @param lbName  Name of the new load balancer
+     * @param workedList  the workers balanced by the new load balancer
+     * @param mountsPoints the mount Points moved to the new load balancer
+     * @return the pending operation, giving the names of the removed load balancers
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<String>> swapLoadBalancer(final String routerName, final String lbName,
+            final List<String> workedList, final List<String> mountsPoints) throws RouterManagerBeanException {
+        return swapLoadBalancer(routerName, lbName, workedList, mountsPoints, null);
+    }
+
+    /**
+     * Same as {@link #swapLoadBalancer(String, String, List, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the names of the removed load balancers
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<String>> swapLoadBalancer(final String routerName, final String lbName,
+            final List<String> workedList, final List<String> mountsPoints,
+            final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<List<String>>() {
+            public List<String> call() throws Exception {
+                return routerManager.swapLoadBalancer(routerName, lbName, workedList, mountsPoints, idempotencyKey);
+            }
+        });
+    }
+
+    /**
+     * add a worker to a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @param workerName Name of the worker to add
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> addWorkerToLoadBalancer(final String routerName, final String lbName,
+            final String workerName) throws RouterManagerBeanException {
+        return addWorkerToLoadBalancer(routerName, lbName, workerName, null);
+    }
+
+    /**
+     * Same as {@link #addWorkerToLoadBalancer(String, String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> addWorkerToLoadBalancer(final String routerName, final String lbName,
+            final String workerName, final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.addWorkerToLoadBalancer(routerName, lbName, workerName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * remove a worker from a loadbalancer, the worker itself being kept
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @param workerName Name of the worker to remove
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeWorkerFromLoadBalancer(final String routerName, final String lbName,
+            final String workerName) throws RouterManagerBeanException {
+        return removeWorkerFromLoadBalancer(routerName, lbName, workerName, null);
+    }
+
+    /**
+     * Same as {@link #removeWorkerFromLoadBalancer(String, String, String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Void> removeWorkerFromLoadBalancer(final String routerName, final String lbName,
+            final String workerName, final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                routerManager.removeWorkerFromLoadBalancer(routerName, lbName, workerName, idempotencyKey);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Apply a list of changes to a router
+     * @param routerName Name of the router
+     * @param changes the changes to apply, in order
+     * @return the pending operation, giving the outcome of each change
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<RouterChangeResult>> applyChanges(final String routerName, final List<RouterChange> changes)
+            throws RouterManagerBeanException {
+        return applyChanges(routerName, changes, null);
+    }
+
+    /**
+     * Same as {@link #applyChanges(String, List)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the outcome of each change
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<List<RouterChangeResult>> applyChanges(final String routerName, final List<RouterChange> changes,
+            final IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return submit(new Callable<List<RouterChangeResult>>() {
+            public List<RouterChangeResult> call() throws Exception {
+                return routerManager.applyChanges(routerName, changes, idempotencyKey);
+            }
+        });
+    }
+
+    /**
+     * Bring the jk configuration of the agent of a router to the state known by the SR
+     * @param routerName Name of the router
+     * @return the pending operation, giving the number of changes sent to the agent
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Integer> reconcileRouter(final String routerName) throws RouterManagerBeanException {
+        return reconcileRouter(routerName, null);
+    }
+
+    /**
+     * Same as {@link #reconcileRouter(String)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the number of changes sent to the agent
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<Integer> reconcileRouter(final String routerName,
+            final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                return routerManager.reconcileRouter(routerName, idempotencyKey);
+            }
+        });
+    }
+
+    /**
+     * Disable a backend target on all the routers having a worker for it
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @param timeout time budget (ms) of the disabling
+     * @return the pending operation, giving the outcome of the disabling
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<TargetFailoverResult> disableTarget(final String targetHost, final Integer targetPortNumber,
+            final long timeout) throws RouterManagerBeanException {
+        return disableTarget(targetHost, targetPortNumber, timeout, null);
+    }
+
+    /**
+     * Same as {@link #disableTarget(String, Integer, long)}, run once per idempotency key
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the pending operation, giving the outcome of the disabling
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<TargetFailoverResult> disableTarget(final String targetHost, final Integer targetPortNumber,
+            final long timeout, final IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return submit(new Callable<TargetFailoverResult>() {
+            public TargetFailoverResult call() throws Exception {
+                return routerManager.disableTarget(targetHost, targetPortNumber, timeout, idempotencyKey);
+            }
+        });
+    }
+
+    /**
+     * Reload the Apache of several routers, batch after batch
+     * @param routerNames Names of the routers, in the order of the reload
+     * @param batchSize number of routers of a batch
+     * @param parallelism maximum number of agents reloaded at the same time
+     * @param maxErrorRate ratio (0 to 1) of failed routers aborting the rolling reload when exceeded
+     * @param listener progress of the rolling reload, may be null
+     * @return the pending operation, giving the outcome of the rolling reload
+     * @throws RouterManagerBeanException if the operation can't be queued
+     */
+    public Future<RollingReloadResult> reloadRouters(final List<String> routerNames, final int batchSize,
+            final int parallelism, final double maxErrorRate, final RollingReloadListener listener)
+            throws RouterManagerBeanException {
+        return submit(new Callable<RollingReloadResult>() {
+            public RollingReloadResult call() throws Exception {
+                return routerManager.reloadRouters(routerNames, batchSize, parallelism, maxErrorRate, listener);
+            }
+        });
+    }
+
+    /**
+     * Get the number of pending operations, always 0 as the operations are run at once
+     * @param routerName Name of the router
+     * @return 0
+     */
+    public int getPendingOperations(String routerName) {
+        return 0;
+    }
+
+    /**
+     * Run an operation
+     * @param operation the operation
+     * @return the completed operation
+     */
+    private <T> Future<T> submit(Callable<T> operation) {
+        FutureTask<T> future = new FutureTask<T>(operation);
+        future.run();
+        return future;
+    }
+}
@@ -13,7 +13,7 @@
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
  * See the License for the specific language governing permissions and
  * limitations under the License.
- * 
+ *
  * $Id:$
  */
 package org.ow2.jonas.jpaas.router.manager.bean;
@@ -25,28 +25,33 @@ import org.apache.felix.ipojo.annotations.Requires;
 import org.ow2.jonas.jpaas.catalog.api.IPaasCatalogFacade;
 import org.ow2.jonas.jpaas.catalog.api.PaasCatalogException;
 import org.ow2.jonas.jpaas.catalog.api.PaasConfiguration;
+import org.ow2.jonas.jpaas.router.manager.api.IdempotencyKey;
+import org.ow2.jonas.jpaas.router.manager.api.LoadBalancerLocation;
+import org.ow2.jonas.jpaas.router.manager.api.RollingReloadListener;
+import org.ow2.jonas.jpaas.router.manager.api.RollingReloadResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterChange;
+import org.ow2.jonas.jpaas.router.manager.api.RouterChangeResult;
+import org.ow2.jonas.jpaas.router.manager.api.RouterCreation;
+import org.ow2.jonas.jpaas.router.manager.api.RouterCreationResult;
 import org.ow2.jonas.jpaas.router.manager.api.RouterManager;
 import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
-import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentFacade;
-import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasAgentIaasComputeLink;
-import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasApacheJkRouterFacade;
-import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasResourceIaasComputeLink;
-import org.ow2.jonas.jpaas.sr.facade.api.ISrPaasResourcePaasAgentLink;
-import org.ow2.jonas.jpaas.sr.facade.vo.ApacheJkVO;
-import org.ow2.jonas.jpaas.sr.facade.vo.IaasComputeVO;
-import org.ow2.jonas.jpaas.sr.facade.vo.LoadBalancerVO;
-import org.ow2.jonas.jpaas.sr.facade.vo.PaasAgentVO;
-import org.ow2.jonas.jpaas.sr.facade.vo.PaasResourceVO;
-import org.ow2.jonas.jpaas.sr.facade.vo.WorkerVO;
+import org.ow2.jonas.jpaas.router.manager.api.TargetFailoverResult;
+import org.ow2.jonas.jpaas.router.manager.api.WorkerLocation;
 import org.ow2.util.log.Log;
 import org.ow2.util.log.LogFactory;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
-
+import java.util.Set;
+import java.util.TreeSet;
 
 
+/**
+ * RouterManager mock. The routers are simulated in memory by the
+ * {@link RouterSimulator}, without SR nor agent, with the validations of
+ * the RouterManager. The PaaS configurations are checked only when a
+ * catalog is available.
+ */
 @Component
 @Provides
 @Instantiate
@@ -67,41 +72,17 @@ public class RouterManagerBean implements RouterManager {
      */
     private static final String PAAS_SUB_TYPE = "jk";
 
-     /**
-     * Catalog facade
-     */
-    @Requires
-    private IPaasCatalogFacade catalogEjb;
-
-    /**
-     * SR facade router
-     */
-    @Requires
-    private ISrPaasApacheJkRouterFacade srApacheJkEjb;
-
     /**
-     * SR facade agent
+     * Catalog facade, null if there is no catalog
      */
-    @Requires
-    private ISrPaasAgentFacade srAgentEjb;
-
-    /**
-     * SR facade apache - agent link
-     */
-    @Requires
-    private ISrPaasResourcePaasAgentLink srApacheAgentLinkEjb;
-
-    /**
-     * SR facade agent - iaasCompute link
-     */
-    @Requires
-    private ISrPaasAgentIaasComputeLink srPaasAgentIaasComputeLink;
+    @Requires(optional = true, nullable = false)
+    private IPaasCatalogFacade catalogEjb;
 
     /**
-     * SR facade paasResource - iaasCompute link
+     * The simulated routers
      */
     @Requires
-    private ISrPaasResourceIaasComputeLink srPaasResourceIaasComputeLink;
+    private RouterSimulator simulator;
 
     /**
      * Constructor
@@ -120,89 +101,59 @@ public class RouterManagerBean implements RouterManager {
     public void createRouter(String routerName, String paasAgentName,
             String paasConfigurationName, Integer listenPort)
             throws RouterManagerBeanException {
+        simulator.simulate(routerName, "createRouter");
 
-        logger.info("Router '" + routerName + "' creating ....");
-
-        // Get the agent
-        PaasAgentVO agent = null;
-        List<PaasAgentVO> paasAgentVOList = srAgentEjb.findAgents();
-        for (PaasAgentVO tmp : paasAgentVOList) {
-            if (tmp.getName().equals(paasAgentName)) {
-                agent = tmp;
-                break;
-            }
-        }
-        if (agent == null) {
+        if (paasAgentName == null) {
             throw new RouterManagerBeanException("Unable to get the agent '" + paasAgentName + "' !");
         }
+        checkConfiguration(paasConfigurationName);
 
-        // Get configuration from catalog
-        PaasConfiguration containerConf = null;
-        try {
-            containerConf = catalogEjb
-                    .getPaasConfiguration(paasConfigurationName);
-        } catch (PaasCatalogException e) {
-            throw new RouterManagerBeanException("Error to find the PaaS Configuration named " +
-                    paasConfigurationName + ".", e);
-        }
-        if (!containerConf.getType().equals(PAAS_TYPE)) {
-            throw new RouterManagerBeanException("Invalid paas type : "
-                    + containerConf.getType().equals(PAAS_TYPE) + " - expected : "
-                    + PAAS_TYPE);
-        }
-        if (!containerConf.getSubType().equals(PAAS_SUB_TYPE)) {
-            throw new RouterManagerBeanException("Invalid paas sub type : "
-                    + containerConf.getType().equals(PAAS_SUB_TYPE) + " - expected : "
-                    + PAAS_SUB_TYPE);
-        }
+        simulator.createRouter(routerName);
+        logger.debug("Router '" + routerName + "' created.");
+    }
 
-        // Create the router in the SR
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                throw new RouterManagerBeanException("Router '" + routerName + "' already exist!");
-            }
-        }
+    /**
+     * Same as {@link #createRouter(String, String, String, Integer)}, the simulator keeps no outcome: the idempotency
+     * key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void createRouter(String routerName, String paasAgentName,
+            String paasConfigurationName, Integer listenPort, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        createRouter(routerName, paasAgentName, paasConfigurationName, listenPort);
+    }
 
-        ApacheJkVO apacheJk = new ApacheJkVO();
-        apacheJk.setName(routerName);
-        apacheJk.setState("Init");
-        apacheJk = srApacheJkEjb.createApacheJkRouter(apacheJk);
-
-        // if the link doesn't exist between agent and router, create it
-        boolean alreadyExist = false;
-        List <PaasResourceVO> paasResources = srApacheAgentLinkEjb.findPaasResourcesByAgent(agent.getId());
-        for (PaasResourceVO paasResourceVO : paasResources) {
-            if (paasResourceVO instanceof ApacheJkVO) {
-                ApacheJkVO apacheJkResourceVO = (ApacheJkVO) paasResourceVO;
-                if (apacheJkResourceVO.getId().equals(apacheJk.getId())) {
-                    logger.debug("Link between router '"  + routerName + "' and agent '" + paasAgentName +
-                            "' already exist!");
-                    alreadyExist = true;
-                    break;
-                }
+    /**
+     * Create several routers. A failed creation doesn't prevent the next ones.
+     * @param creations the routers to create
+     * @return the outcome of each creation, in the same order
+     * @throws RouterManagerBeanException
+     */
+    public List<RouterCreationResult> createRouters(List<RouterCreation> creations)
+            throws RouterManagerBeanException {
+        List<RouterCreationResult> results = new ArrayList<RouterCreationResult>(creations.size());
+        for (RouterCreation creation : creations) {
+            try {
+                createRouter(creation.getRouterName(), creation.getPaasAgentName(),
+                        creation.getPaasConfigurationName(), creation.getListenPort());
+                results.add(new RouterCreationResult(creation, true, null));
+            } catch (RouterManagerBeanException e) {
+                results.add(new RouterCreationResult(creation, false, e.getMessage()));
             }
         }
-        if (!alreadyExist) {
-            srApacheAgentLinkEjb.addPaasResourceAgentLink(apacheJk.getId(), agent.getId());
-        }
-
-        //create the link between the PaaS Router and the IaaS Compute
-        IaasComputeVO iaasCompute = srPaasAgentIaasComputeLink.findIaasComputeByPaasAgent(agent.getId());
-        if (iaasCompute != null) {
-            srPaasResourceIaasComputeLink.addPaasResourceIaasComputeLink(apacheJk.getId(), iaasCompute.getId());
-        }
-
-        // TODO use port range to customize apache conf (vhost)
-
-        // TODO Create the virtual host for this router
-
-        // update state in sr
-        apacheJk.setState("CREATED");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
-        logger.info("Router '" + routerName + "' created. Status=" + apacheJk.getState());
+        return results;
+    }
 
+    /**
+     * Same as {@link #createRouters(List)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of each creation, in the same order
+     * @throws RouterManagerBeanException
+     */
+    public List<RouterCreationResult> createRouters(List<RouterCreation> creations, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return createRouters(creations);
     }
 
     /**
@@ -212,45 +163,19 @@ public class RouterManagerBean implements RouterManager {
      */
     public void removeRouter(String routerName)
             throws RouterManagerBeanException {
+        simulator.simulate(routerName, "removeRouter");
+        simulator.removeRouter(routerName);
+        logger.debug("Router '" + routerName + "' deleted.");
+    }
 
-        logger.info("Router '" + routerName + "' deleting ....");
-
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
-
-        apacheJk.setState("DELETING");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
-
-        //TODO remove the vhost
-
-        //remove apache - iaasCompute link
-        IaasComputeVO iaasCompute = srPaasResourceIaasComputeLink.findIaasComputeByPaasResource(apacheJk.getId());
-        if (iaasCompute != null) {
-            srPaasResourceIaasComputeLink.removePaasResourceIaasComputeLink(apacheJk.getId(),
-                    iaasCompute.getId());
-        }
-
-        // remove router in sr
-        srApacheJkEjb.deleteApacheJkRouter(apacheJk.getId());
-
-        logger.info("Router '" + routerName + "' deleted.");
+    /**
+     * Same as {@link #removeRouter(String)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void removeRouter(String routerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        removeRouter(routerName);
     }
 
     /**
@@ -260,37 +185,19 @@ public class RouterManagerBean implements RouterManager {
      */
     public void startRouter(String routerName)
             throws RouterManagerBeanException {
+        simulator.simulate(routerName, "startRouter");
+        simulator.getRouter(routerName).setState("RUNNING");
+        logger.debug("Router '" + routerName + "' started.");
+    }
 
-        logger.info("Router '" + routerName + "' starting ....");
-
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
-
-        apacheJk.setState("STARTING");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
-
-        // update state in sr
-        apacheJk.setState("RUNNING");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
-        logger.info("Router '" + routerName + "' started.");
+    /**
+     * Same as {@link #startRouter(String)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void startRouter(String routerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        startRouter(routerName);
     }
 
     /**
@@ -299,37 +206,18 @@ public class RouterManagerBean implements RouterManager {
      * @throws RouterManagerBeanException
      */
     public void stopRouter(String routerName) throws RouterManagerBeanException {
+        simulator.simulate(routerName, "stopRouter");
+        simulator.getRouter(routerName).setState("STOPPED");
+        logger.debug("Router '" + routerName + "' stopped.");
+    }
 
-        logger.info("Router '" + routerName + "' stopping ....");
-
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
-
-        apacheJk.setState("STOPPING");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
-
-              // update state in sr
-        apacheJk.setState("STOPPED");
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
-        logger.info("Router '" + routerName + "' stopped.");
+    /**
+     * Same as {@link #stopRouter(String)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void stopRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        stopRouter(routerName);
     }
 
     /**
@@ -343,46 +231,24 @@ public class RouterManagerBean implements RouterManager {
     public void createWorker(String routerName, String workerName,
             String targetHost, Integer targetPortNumber)
             throws RouterManagerBeanException {
-
-        logger.info("Router '" + routerName + "' - Create Worker '" +  workerName + "' (host=" + targetHost +
-                ", port=" + targetPortNumber + ")");
-
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
+        simulator.simulate(routerName, "createWorker");
 
         //Do nothing if there is already a worker with the same name
-        boolean workerExists = false;
-        List<WorkerVO> workerVOList = apacheJk.getWorkerList();
-        for (WorkerVO worker : workerVOList) {
-            if (worker.getName().equals(workerName)) {
-                workerExists=true;
-                break;
-            }
+        if (simulator.getRouter(routerName).addWorker(workerName, targetHost, targetPortNumber)) {
+            logger.debug("Router '" + routerName + "' - Worker '" +  workerName + "' created !");
         }
+    }
 
-        if (!workerExists) {
-            // Get the agent
-            PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-            if (agent == null) {
-                throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-            }
-
-            // create the worker in sr
-            srApacheJkEjb.addWorker(apacheJk.getId(), workerName, targetHost, targetPortNumber);
-
-            logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' created !");
-        }
+    /**
+     * Same as {@link #createWorker(String, String, String, Integer)}, the simulator keeps no outcome: the idempotency
+     * key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void createWorker(String routerName, String workerName,
+            String targetHost, Integer targetPortNumber, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        createWorker(routerName, workerName, targetHost, targetPortNumber);
     }
 
     /**
@@ -393,47 +259,19 @@ public class RouterManagerBean implements RouterManager {
      */
     public void removeWorker(String routerName, String workerName)
             throws RouterManagerBeanException {
-        logger.info("Router '" + routerName + "' - Delete Worker '" +  workerName + "'");
-
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
-
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
-
-        //remove the worker in LoadBalancer workers list
-        List<LoadBalancerVO> loadBalancerVOList = apacheJk.getLoadBalancerList();
-        for (LoadBalancerVO loadBalancer : loadBalancerVOList) {
-            List<String> workers = loadBalancer.getWorkers();
-            for (ListIterator<String> iterator = workers.listIterator(); iterator.hasNext();) {
-                String tmp = iterator.next();
-                if (tmp.equals(workerName)) {
-                    iterator.remove();
-                    logger.debug("Worker " + workerName + " removed in LoadBalancer " + loadBalancer.getName() + ".");
-                    break;
-                }
-            }
-        }
-        apacheJk = srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
-        // remove the worker in sr
-        srApacheJkEjb.removeWorker(apacheJk.getId(), workerName);
+        simulator.simulate(routerName, "removeWorker");
+        simulator.getRouter(routerName).removeWorker(workerName);
+        logger.debug("Router '" + routerName + "' - Worker '" +  workerName + "' removed !");
+    }
 
-        logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' removed !");
+    /**
+     * Same as {@link #removeWorker(String, String)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void removeWorker(String routerName, String workerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        removeWorker(routerName, workerName);
     }
 
     /**
@@ -444,41 +282,19 @@ public class RouterManagerBean implements RouterManager {
      */
     public void disableWorker(String routerName, String workerName)
             throws RouterManagerBeanException {
-        logger.info("Router '" + routerName + "' - Disable Worker '" +  workerName + "'");
-
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
-
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
-
-        // disable the worker in sr
-        List<WorkerVO> workerVOs = apacheJk.getWorkerList();
-
-        for (WorkerVO wVO : workerVOs) {
-            if (wVO.getName().equals(workerName)) {
-                wVO.setStatus("DISABLE");
-                break;
-            }
-        }
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
+        simulator.simulate(routerName, "disableWorker");
+        simulator.getRouter(routerName).setWorkerStatus(workerName, false);
+        logger.debug("Router '" + routerName + "' - Worker '" +  workerName + "' disabled !");
+    }
 
-        logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' disabled !");
+    /**
+     * Same as {@link #disableWorker(String, String)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void disableWorker(String routerName, String workerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        disableWorker(routerName, workerName);
     }
 
     /**
@@ -489,41 +305,19 @@ public class RouterManagerBean implements RouterManager {
      */
     public void enableWorker(String routerName, String workerName)
             throws RouterManagerBeanException {
-        logger.info("Router '" + routerName + "' - Enable Worker '" +  workerName + "'");
-
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
-
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
-
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
-
-        //enable the worker in sr
-        List<WorkerVO> workerVOs = apacheJk.getWorkerList();
-
-        for (WorkerVO wVO : workerVOs) {
-            if (wVO.getName().equals(workerName)) {
-                wVO.setStatus("ENABLE");
-                break;
-            }
-        }
-        srApacheJkEjb.updateApacheJkRouter(apacheJk);
-
+        simulator.simulate(routerName, "enableWorker");
+        simulator.getRouter(routerName).setWorkerStatus(workerName, true);
+        logger.debug("Router '" + routerName + "' - Worker '" +  workerName + "' enabled !");
+    }
 
-        logger.info("Router '" + routerName + "' - Worker '" +  workerName + "' enabled !");
+    /**
+     * Same as {@link #enableWorker(String, String)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void enableWorker(String routerName, String workerName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        enableWorker(routerName, workerName);
     }
 
     /**
@@ -537,134 +331,425 @@ public class RouterManagerBean implements RouterManager {
     public void createLoadBalancer(String routerName, String lbName,
             List<String> workedList, List<String> mountsPoints)
             throws RouterManagerBeanException {
+        simulator.simulate(routerName, "createLoadBalancer");
+        simulator.getRouter(routerName).addLoadBalancer(lbName, workedList, mountsPoints);
+        logger.debug("Router '" + routerName + "' - Loadbalancer '" +  lbName + "' created !");
+    }
 
-        logger.info("Router '" + routerName + "' - Create Loadbalancer '" +  lbName + "' (wk=" + workedList +
-                ", mt=" + mountsPoints + ")");
+    /**
+     * Same as {@link #createLoadBalancer(String, String, List, List)}, the simulator keeps no outcome: the idempotency
+     * key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void createLoadBalancer(String routerName, String lbName,
+            List<String> workedList, List<String> mountsPoints, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        createLoadBalancer(routerName, lbName, workedList, mountsPoints);
+    }
 
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
-            }
-        }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
+    /**
+     * Remove a loadbalancer
+     * @param routerName Name of the router
+     * @param lbName  Name of the load balancer
+     * @throws RouterManagerBeanException
+     */
+    public void removeLoadBalancer(String routerName, String lbName)
+            throws RouterManagerBeanException {
+        simulator.simulate(routerName, "removeLoadBalancer");
+        simulator.getRouter(routerName).removeLoadBalancer(lbName);
+        logger.debug("Router '" + routerName + "' - Loadbalancer '" +  lbName + "' removed !");
+    }
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+    /**
+     * Same as {@link #removeLoadBalancer(String, String)}, the simulator keeps no outcome: the idempotency key is
+     * ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void removeLoadBalancer(String routerName, String lbName, IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        removeLoadBalancer(routerName, lbName);
+    }
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
+    /**
+     * Replace the load balancers of mount points by a new one at once
+     * @param routerName Name of the router
+     * @param lbName  Name of the new load balancer
+     * @param workedList  the workers balanced by the new load balancer
+     * @param mountsPoints the mount Points moved to the new load balancer
+     * @return the names of the removed load balancers
+     * @throws RouterManagerBeanException
+     */
+    public List<String> swapLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints) throws RouterManagerBeanException {
+        simulator.simulate(routerName, "swapLoadBalancer");
+        List<String> removed = simulator.getRouter(routerName).swapLoadBalancer(lbName, workedList, mountsPoints);
+        logger.debug("Router '" + routerName + "' - Swapped to Loadbalancer '" +  lbName + "', removed " + removed);
+        return removed;
+    }
 
-        // create the LoadBalancer in sr
-        srApacheJkEjb.addLoadBalancer(apacheJk.getId(), lbName, mountsPoints, workedList);
+    /**
+     * Same as {@link #swapLoadBalancer(String, String, List, List)}, the simulator keeps no outcome: the idempotency
+     * key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the names of the removed load balancers
+     * @throws RouterManagerBeanException
+     */
+    public List<String> swapLoadBalancer(String routerName, String lbName, List<String> workedList,
+            List<String> mountsPoints, IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return swapLoadBalancer(routerName, lbName, workedList, mountsPoints);
+    }
 
-        logger.info("Router '" + routerName + "' - Loadbalancer '" +  lbName + "' created !");
+    /**
+     * add a worker to a loadbalancer
+     *
+     * @param routerName Name of the router
+     * @param lbName     Name of the load balancer
+     * @throws org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException
+     *
+     */
+    public void addWorkerToLoadBalancer(String routerName, String lbName,
+            String workerName) throws RouterManagerBeanException {
+        simulator.simulate(routerName, "addWorkerToLoadBalancer");
+        simulator.getRouter(routerName).addWorkerToLoadBalancer(lbName, workerName);
     }
 
     /**
-     * Remove a loadbalancer
+     * Same as {@link #addWorkerToLoadBalancer(String, String, String)}, the simulator keeps no outcome: the
+     * idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException
+     */
+    public void addWorkerToLoadBalancer(String routerName, String lbName, String workerName,
+            IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        addWorkerToLoadBalancer(routerName, lbName, workerName);
+    }
+
+    /**
+     * remove a worker from a loadbalancer, the worker itself being kept
+     *
      * @param routerName Name of the router
-     * @param lbName  Name of the load balancer
+     * @param lbName     Name of the load balancer
+     * @param workerName Name of the worker to remove
      * @throws RouterManagerBeanException
      */
-    public void removeLoadBalancer(String routerName, String lbName)
+    public void removeWorkerFromLoadBalancer(String routerName, String lbName, String workerName)
             throws RouterManagerBeanException {
-        logger.info("Router '" + routerName + "' - Delete Loadbalancer '" +  lbName + "'");
-
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
-                break;
+        simulator.simulate(routerName, "removeWorkerFromLoadBalancer");
+        simulator.getRouter(routerName).removeWorkerFromLoadBalancer(lbName, workerName);
+    }
+
+    /**
+     * Same as {@link #removeWorkerFromLoadBalancer(String, String, String)}, the simulator keeps no outcome: the
+     * idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @throws RouterManagerBeanException
+     */
+    public void removeWorkerFromLoadBalancer(String routerName, String lbName, String workerName,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        removeWorkerFromLoadBalancer(routerName, lbName, workerName);
+    }
+
+    /**
+     * Apply a list of changes to a router. A failed change doesn't prevent the next ones.
+     * @param routerName Name of the router
+     * @param changes the changes to apply, in order
+     * @return the outcome of each change, in the same order
+     * @throws RouterManagerBeanException if the router doesn't exist
+     */
+    public List<RouterChangeResult> applyChanges(String routerName, List<RouterChange> changes)
+            throws RouterManagerBeanException {
+        simulator.getRouter(routerName);
+
+        List<RouterChangeResult> results = new ArrayList<RouterChangeResult>(changes.size());
+        for (RouterChange change : changes) {
+            try {
+                applyChange(routerName, change);
+                results.add(new RouterChangeResult(change, true, null));
+            } catch (RouterManagerBeanException e) {
+                results.add(new RouterChangeResult(change, false, e.getMessage()));
             }
         }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
-        }
+        return results;
+    }
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+    /**
+     * Same as {@link #applyChanges(String, List)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of each change, in the same order
+     * @throws RouterManagerBeanException if the router doesn't exist
+     */
+    public List<RouterChangeResult> applyChanges(String routerName, List<RouterChange> changes,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return applyChanges(routerName, changes);
+    }
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
-        }
+    /**
+     * Bring the jk configuration of the agent of a router to the state known
+     * by the SR. The simulated agent always has the configuration of the
+     * simulated router, so there is nothing to do.
+     * @param routerName Name of the router
+     * @return the number of changes sent to the agent
+     * @throws RouterManagerBeanException if the router doesn't exist
+     */
+    public int reconcileRouter(String routerName) throws RouterManagerBeanException {
+        simulator.simulate(routerName, "reconcileRouter");
+        simulator.getRouter(routerName);
+        return 0;
+    }
 
-        // Get the Load Balancer
-        List<LoadBalancerVO> loadBalancerVOList = apacheJk.getLoadBalancerList();
-        LoadBalancerVO loadBalancer = null;
-        for (LoadBalancerVO lbVO : loadBalancerVOList) {
-            if (lbName.equals(lbVO.getName())) {
-                loadBalancer = lbVO;
-                break;
+    /**
+     * Same as {@link #reconcileRouter(String)}, the simulator keeps no outcome: the idempotency key is ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the number of changes sent to the agent
+     * @throws RouterManagerBeanException if the router doesn't exist
+     */
+    public int reconcileRouter(String routerName, IdempotencyKey idempotencyKey) throws RouterManagerBeanException {
+        return reconcileRouter(routerName);
+    }
+
+    /**
+     * Disable a backend target on all the simulated routers having a worker for it
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @param timeout time budget (ms) of the disabling, the simulated routers are updated at once
+     * @return the outcome of the disabling
+     * @throws RouterManagerBeanException
+     */
+    public TargetFailoverResult disableTarget(String targetHost, Integer targetPortNumber, long timeout)
+            throws RouterManagerBeanException {
+        long start = System.currentTimeMillis();
+        simulator.simulate(targetHost + ":" + targetPortNumber, "disableTarget");
+
+        TargetFailoverResult result = new TargetFailoverResult(targetHost, targetPortNumber);
+        for (SimulatedRouter router : simulator.getRouters()) {
+            for (String workerName : router.disableTarget(targetHost, targetPortNumber)) {
+                result.getDisabledWorkers().add(new WorkerLocation(router.getName(), workerName));
             }
         }
-        if (loadBalancer == null) {
-            throw new RouterManagerBeanException("Unable to get the Load Balancer '" + lbName + "' for router '" +
-                    routerName + "' !");
-        }
-
-        // remove the loadbalancer in sr
-        srApacheJkEjb.removeLoadBalancer(apacheJk.getId(), lbName);
+        result.setElapsedTime(System.currentTimeMillis() - start);
+        logger.debug("Target '" + targetHost + ":" + targetPortNumber + "' disabled : " + result);
+        return result;
+    }
 
-        logger.info("Router '" + routerName + "' - Loadbalancer '" +  lbName + "' removed !");
+    /**
+     * Same as {@link #disableTarget(String, Integer, long)}, the simulator keeps no outcome: the idempotency key is
+     * ignored
+     * @param idempotencyKey the idempotency key of the call, null for none
+     * @return the outcome of the disabling
+     * @throws RouterManagerBeanException
+     */
+    public TargetFailoverResult disableTarget(String targetHost, Integer targetPortNumber, long timeout,
+            IdempotencyKey idempotencyKey)
+            throws RouterManagerBeanException {
+        return disableTarget(targetHost, targetPortNumber, timeout);
     }
 
     /**
-     * add a worker to a loadbalancer
-     *
-     * @param routerName Name of the router
-     * @param lbName     Name of the load balancer
-     * @throws org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException
-     *
+     * Reload several simulated routers, batch after batch, one router at a time
+     * @param routerNames Names of the routers, in the order of the reload
+     * @param batchSize number of routers of a batch
+     * @param parallelism maximum number of agents reloaded at the same time, unused by the mock
+     * @param maxErrorRate ratio (0 to 1) of failed routers aborting the rolling reload when exceeded
+     * @param listener progress of the rolling reload, may be null
+     * @return the outcome of the rolling reload
+     * @throws RouterManagerBeanException if the parameters are invalid
      */
-    public void addWorkerToLoadBalancer(String routerName, String lbName, String workerName) throws RouterManagerBeanException {
-        // get the router from SR
-        ApacheJkVO apacheJk = null;
-        List<ApacheJkVO> apacheJkVOList = srApacheJkEjb.findApacheJkRouters();
-        for (ApacheJkVO tmp : apacheJkVOList) {
-            if (tmp.getName().equals(routerName)) {
-                apacheJk = tmp;
+    public RollingReloadResult reloadRouters(List<String> routerNames, int batchSize, int parallelism,
+            double maxErrorRate, RollingReloadListener listener) throws RouterManagerBeanException {
+        if (batchSize < 1 || parallelism < 1 || maxErrorRate < 0d || maxErrorRate > 1d) {
+            throw new RouterManagerBeanException("Invalid rolling reload : batch size " + batchSize
+                    + ", parallelism " + parallelism + ", maximum error rate " + maxErrorRate + " !");
+        }
+        long start = System.currentTimeMillis();
+        RollingReloadResult result = new RollingReloadResult();
+        int batchCount = (routerNames.size() + batchSize - 1) / batchSize;
+        for (int batch = 0; batch < batchCount; batch++) {
+            int next = Math.min(routerNames.size(), (batch + 1) * batchSize);
+            for (String routerName : routerNames.subList(batch * batchSize, next)) {
+                String error = null;
+                try {
+                    simulator.simulate(routerName, "reloadRouters");
+                    simulator.getRouter(routerName);
+                    result.getReloadedRouters().add(routerName);
+                } catch (RouterManagerBeanException e) {
+                    error = e.getMessage();
+                    result.getFailedRouters().put(routerName, error);
+                }
+                if (listener != null) {
+                    listener.routerReloaded(routerName, error);
+                }
+            }
+            result.setCompletedBatches(batch + 1);
+            if (listener != null) {
+                listener.batchCompleted(batch + 1, batchCount, result);
+            }
+            if (next < routerNames.size() && result.getErrorRate() > maxErrorRate) {
+                result.setAborted(true);
+                result.getSkippedRouters().addAll(routerNames.subList(next, routerNames.size()));
                 break;
             }
         }
-        if (apacheJk == null) {
-            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
+        result.setElapsedTime(System.currentTimeMillis() - start);
+        logger.debug("Rolling reload done : " + result);
+        return result;
+    }
+
+    /**
+     * Nothing to do, the catalog configurations are not cached by the mock
+     * @param paasConfigurationName Name of the PaasConfiguration, null for all the configurations
+     */
+    public void invalidatePaasConfiguration(String paasConfigurationName) {
+    }
+
+    /**
+     * Find the workers of a backend target on the simulated routers
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @return the workers of the target, sorted by router and worker name
+     * @throws RouterManagerBeanException
+     */
+    public List<WorkerLocation> findWorkersByTarget(String targetHost, Integer targetPortNumber)
+            throws RouterManagerBeanException {
+        Set<WorkerLocation> found = new TreeSet<WorkerLocation>();
+        for (SimulatedRouter router : simulator.getRouters()) {
+            for (String workerName : router.getWorkers(targetHost, targetPortNumber)) {
+                found.add(new WorkerLocation(router.getName(), workerName));
+            }
         }
+        return new ArrayList<WorkerLocation>(found);
+    }
 
-        // Get the agent
-        PaasAgentVO agent = srApacheAgentLinkEjb.findAgentByPaasResource(apacheJk.getId());
+    /**
+     * Find the load balancers having a worker of a backend target as member on the simulated routers
+     * @param targetHost The target host
+     * @param targetPortNumber The target port number
+     * @return the load balancers, sorted by router and load balancer name
+     * @throws RouterManagerBeanException
+     */
+    public List<LoadBalancerLocation> findLoadBalancersByTarget(String targetHost, Integer targetPortNumber)
+            throws RouterManagerBeanException {
+        Set<LoadBalancerLocation> found = new TreeSet<LoadBalancerLocation>();
+        for (SimulatedRouter router : simulator.getRouters()) {
+            for (String workerName : router.getWorkers(targetHost, targetPortNumber)) {
+                for (String lbName : router.getLoadBalancers(workerName)) {
+                    found.add(new LoadBalancerLocation(router.getName(), lbName));
+                }
+            }
+        }
+        return new ArrayList<LoadBalancerLocation>(found);
+    }
 
-        if (agent == null) {
-            throw new RouterManagerBeanException("Unable to get the agent for router '" + routerName + "' !");
+    /**
+     * Find the simulated routers having a worker
+     * @param workerName Name of the worker
+     * @return the names of the routers, sorted
+     * @throws RouterManagerBeanException
+     */
+    public List<String> findRoutersByWorker(String workerName) throws RouterManagerBeanException {
+        Set<String> found = new TreeSet<String>();
+        for (SimulatedRouter router : simulator.getRouters()) {
+            if (router.hasWorker(workerName)) {
+                found.add(router.getName());
+            }
         }
+        return new ArrayList<String>(found);
+    }
 
-        // Get the Load Balancer
-        List<LoadBalancerVO> loadBalancerVOList = apacheJk.getLoadBalancerList();
-        LoadBalancerVO loadBalancer = null;
-        for (LoadBalancerVO lbVO : loadBalancerVOList) {
-            if (lbName.equals(lbVO.getName())) {
-                loadBalancer = lbVO;
-                break;
+    /**
+     * Find the load balancers having a worker as member on the simulated routers
+     * @param workerName Name of the worker
+     * @return the load balancers, sorted by router and load balancer name
+     * @throws RouterManagerBeanException
+     */
+    public List<LoadBalancerLocation> findLoadBalancersByWorker(String workerName)
+            throws RouterManagerBeanException {
+        Set<LoadBalancerLocation> found = new TreeSet<LoadBalancerLocation>();
+        for (SimulatedRouter router : simulator.getRouters()) {
+            for (String lbName : router.getLoadBalancers(workerName)) {
+                found.add(new LoadBalancerLocation(router.getName(), lbName));
             }
         }
-        if (loadBalancer == null) {
-            throw new RouterManagerBeanException("Unable to get the Load Balancer '" + lbName + "' for router '" +
-                    routerName + "' !");
+        return new ArrayList<LoadBalancerLocation>(found);
+    }
+
+    /**
+     * Apply a change to a router
+     * @param routerName Name of the router
+     * @param change the change
+     * @throws RouterManagerBeanException
+     */
+    private void applyChange(String routerName, RouterChange change) throws RouterManagerBeanException {
+        switch (change.getType()) {
+            case CREATE_WORKER:
+                createWorker(routerName, change.getWorkerName(), change.getTargetHost(), change.getTargetPortNumber());
+                break;
+            case REMOVE_WORKER:
+                removeWorker(routerName, change.getWorkerName());
+                break;
+            case ENABLE_WORKER:
+                enableWorker(routerName, change.getWorkerName());
+                break;
+            case DISABLE_WORKER:
+                disableWorker(routerName, change.getWorkerName());
+                break;
+            case CREATE_LOAD_BALANCER:
+                createLoadBalancer(routerName, change.getLbName(), change.getWorkers(), change.getMountPoints());
+                break;
+            case REMOVE_LOAD_BALANCER:
+                removeLoadBalancer(routerName, change.getLbName());
+                break;
+            case ADD_WORKER_TO_LOAD_BALANCER:
+                addWorkerToLoadBalancer(routerName, change.getLbName(), change.getWorkerName());
+                break;
+            case REMOVE_WORKER_FROM_LOAD_BALANCER:
+                removeWorkerFromLoadBalancer(routerName, change.getLbName(), change.getWorkerName());
+                break;
+            case ADD_MOUNT_POINT:
+                simulator.simulate(routerName, "addMountPoint");
+                simulator.getRouter(routerName).addMountPoints(change.getLbName(), change.getMountPoints());
+                break;
+            case REMOVE_MOUNT_POINT:
+                simulator.simulate(routerName, "removeMountPoint");
+                simulator.getRouter(routerName).removeMountPoints(change.getLbName(), change.getMountPoints());
+                break;
+            default:
+                throw new RouterManagerBeanException("Unsupported change : " + change.getType());
         }
+    }
 
-        List<String> workerList = loadBalancer.getWorkers();
-        if (workerList == null) {
-            workerList = new LinkedList<String>();
+    /**
+     * Check that a configuration of the catalog is a router configuration.
+     * Nothing is checked when there is no catalog.
+     * @param paasConfigurationName Name of the PaasConfiguration to use
+     * @throws RouterManagerBeanException if the configuration can't be found or is not a router one
+     */
+    private void checkConfiguration(String paasConfigurationName) throws RouterManagerBeanException {
+        IPaasCatalogFacade catalog = catalogEjb;
+        if (catalog == null) {
+            return;
         }
-        workerList.add(workerName);
 
+        // Get configuration from catalog
+        PaasConfiguration containerConf = null;
+        try {
+            containerConf = catalog.getPaasConfiguration(paasConfigurationName);
+        } catch (PaasCatalogException e) {
+            throw new RouterManagerBeanException("Error to find the PaaS Configuration named " +
+                    paasConfigurationName + ".", e);
+        }
+        if (!containerConf.getType().equals(PAAS_TYPE)) {
+            throw new RouterManagerBeanException("Invalid paas type : "
+                    + containerConf.getType().equals(PAAS_TYPE) + " - expected : "
+                    + PAAS_TYPE);
+        }
+        if (!containerConf.getSubType().equals(PAAS_SUB_TYPE)) {
+            throw new RouterManagerBeanException("Invalid paas sub type : "
+                    + containerConf.getType().equals(PAAS_SUB_TYPE) + " - expected : "
+                    + PAAS_SUB_TYPE);
+        }
     }
 }
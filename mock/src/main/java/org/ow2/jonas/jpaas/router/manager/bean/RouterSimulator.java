@@ -0,0 +1,220 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory routers behind the RouterManager mock, without SR nor agent.
+ * Each operation can be slowed down by an injected latency and made to fail
+ * at a given rate, before it changes the model, so that the load tests of
+ * the orchestration layer can exercise its error paths. The jk
+ * configuration of a router can be read at any time.
+ */
+@Component
+@Provides
+@Instantiate
+public class RouterSimulator {
+
+    /**
+     * System property giving the latency (ms) added to each operation
+     */
+    public static final String LATENCY_PROPERTY = "jpaas.router.manager.mock.latency";
+
+    /**
+     * System property giving the rate (0 to 1) of the failed operations
+     */
+    public static final String FAILURE_RATE_PROPERTY = "jpaas.router.manager.mock.failureRate";
+
+    /**
+     * The routers, by name
+     */
+    private final ConcurrentMap<String, SimulatedRouter> routers = new ConcurrentHashMap<String, SimulatedRouter>();
+
+    /**
+     * Number of operations
+     */
+    private final AtomicLong operations = new AtomicLong();
+
+    /**
+     * Number of injected failures
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Generator of the failures
+     */
+    private final Random random = new Random();
+
+    /**
+     * Latency (ms) added to each operation
+     */
+    private volatile long latency = Long.getLong(LATENCY_PROPERTY, 0L);
+
+    /**
+     * Rate (0 to 1) of the failed operations
+     */
+    private volatile double failureRate = Double.parseDouble(System.getProperty(FAILURE_RATE_PROPERTY, "0"));
+
+    /**
+     * Start an operation: wait for the latency and fail at the failure rate
+     * @param routerName Name of the router
+     * @param operation Name of the operation
+     * @throws RouterManagerBeanException if the operation fails
+     */
+    public void simulate(String routerName, String operation) throws RouterManagerBeanException {
+        operations.incrementAndGet();
+        long delay = latency;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RouterManagerBeanException("Interrupted " + operation + " on router '" + routerName + "'");
+            }
+        }
+        double rate = failureRate;
+        if (rate > 0 && random.nextDouble() < rate) {
+            failures.incrementAndGet();
+            throw new RouterManagerBeanException("Simulated failure of " + operation + " on router '" + routerName
+                    + "'");
+        }
+    }
+
+    /**
+     * Create a router
+     * @param routerName Name of the router
+     * @return the router
+     * @throws RouterManagerBeanException if the router already exists
+     */
+    public SimulatedRouter createRouter(String routerName) throws RouterManagerBeanException {
+        SimulatedRouter router = new SimulatedRouter(routerName);
+        if (routers.putIfAbsent(routerName, router) != null) {
+            throw new RouterManagerBeanException("Router '" + routerName + "' already exist!");
+        }
+        return router;
+    }
+
+    /**
+     * Get a router
+     * @param routerName Name of the router
+     * @return the router
+     * @throws RouterManagerBeanException if the router doesn't exist
+     */
+    public SimulatedRouter getRouter(String routerName) throws RouterManagerBeanException {
+        SimulatedRouter router = routers.get(routerName);
+        if (router == null) {
+            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
+        }
+        return router;
+    }
+
+    /**
+     * Remove a router
+     * @param routerName Name of the router
+     * @throws RouterManagerBeanException if the router doesn't exist
+     */
+    public void removeRouter(String routerName) throws RouterManagerBeanException {
+        if (routers.remove(routerName) == null) {
+            throw new RouterManagerBeanException("Router '" + routerName + "' doesn't exist !");
+        }
+    }
+
+    /**
+     * @return the routers
+     */
+    public Collection<SimulatedRouter> getRouters() {
+        return routers.values();
+    }
+
+    /**
+     * @return the names of the routers, sorted
+     */
+    public Set<String> getRouterNames() {
+        return new TreeSet<String>(routers.keySet());
+    }
+
+    /**
+     * @param routerName Name of the router
+     * @return the workers.properties file of the router
+     * @throws RouterManagerBeanException if the router doesn't exist
+     */
+    public String getWorkersProperties(String routerName) throws RouterManagerBeanException {
+        return getRouter(routerName).getWorkersProperties();
+    }
+
+    /**
+     * @param routerName Name of the router
+     * @return the uriworkermap.properties file of the router
+     * @throws RouterManagerBeanException if the router doesn't exist
+     */
+    public String getUriWorkerMap(String routerName) throws RouterManagerBeanException {
+        return getRouter(routerName).getUriWorkerMap();
+    }
+
+    /**
+     * Remove all the routers and reset the counters
+     */
+    public void reset() {
+        routers.clear();
+        operations.set(0);
+        failures.set(0);
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @return the number of operations
+     */
+    public long getOperationCount() {
+        return operations.get();
+    }
+
+    /**
+     * @return the number of injected failures
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ * JPaaS
+ * Copyright 2012 Bull S.A.S.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id:$
+ */
+package org.ow2.jonas.jpaas.router.manager.bean;
+
+import org.ow2.jonas.jpaas.router.manager.api.RouterManagerBeanException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory model of a router: its state, workers, load balancers and
+ * mount points. The methods are synchronized on the router, the operations
+ * on different routers don't wait for each other.
+ */
+public class SimulatedRouter {
+
+    /**
+     * Header of the rendered files
+     */
+    private static final String HEADER = "# Generated by the JPaaS router manager for router ";
+
+    /**
+     * Name of the router
+     */
+    private final String name;
+
+    /**
+     * State of the router
+     */
+    private String state = "CREATED";
+
+    /**
+     * The workers, by name, in creation order
+     */
+    private final Map<String, Worker> workers = new LinkedHashMap<String, Worker>();
+
+    /**
+     * The load balancers, by name, in creation order
+     */
+    private final Map<String, LoadBalancer> loadBalancers = new LinkedHashMap<String, LoadBalancer>();
+
+    /**
+     * Constructor
+     * @param name Name of the router
+     */
+    public SimulatedRouter(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the router
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the state of the router
+     */
+    public synchronized String getState() {
+        return state;
+    }
+
+    /**
+     * @param state the state of the router
+     */
+    public synchronized void setState(String state) {
+        this.state = state;
+    }
+
+    /**
+     * Add a worker
+     * @param workerName Name of the worker
+     * @param host the worker target host
+     * @param port the worker target port number
+     * @return false if there is already a worker with the same name
+     */
+    public synchronized boolean addWorker(String workerName, String host, Integer port) {
+        if (workers.containsKey(workerName)) {
+            return false;
+        }
+        workers.put(workerName, new Worker(host, port));
+        return true;
+    }
+
+    /**
+     * Remove a worker, from the router and from its load balancers
+     * @param workerName Name of the worker
+     */
+    public synchronized void removeWorker(String workerName) {
+        for (LoadBalancer loadBalancer : loadBalancers.values()) {
+            loadBalancer.workers.remove(workerName);
+        }
+        workers.remove(workerName);
+    }
+
+    /**
+     * Enable or disable a worker. Nothing is done if the worker doesn't exist.
+     * @param workerName Name of the worker
+     * @param enable true to enable the worker
+     */
+    public synchronized void setWorkerStatus(String workerName, boolean enable) {
+        Worker worker = workers.get(workerName);
+        if (worker != null) {
+            worker.enabled = enable;
+        }
+    }
+
+    /**
+     * Disable the workers of a backend target
+     * @param host the target host
+     * @param port the target port number
+     * @return the names of the workers of the target
+     */
+    public synchronized List<String> disableTarget(String host, Integer port) {
+        List<String> disabled = new ArrayList<String>();
+        for (Map.Entry<String, Worker> entry : workers.entrySet()) {
+            Worker worker = entry.getValue();
+            if (host.equals(worker.host) && port.equals(worker.port)) {
+                worker.enabled = false;
+                disabled.add(entry.getKey());
+            }
+        }
+        return disabled;
+    }
+
+    /**
+     * Get the workers of a backend target
+     * @param host the target host
+     * @param port the target port number
+     * @return the names of the workers of the target
+     */
+    public synchronized List<String> getWorkers(String host, Integer port) {
+        List<String> found = new ArrayList<String>();
+        for (Map.Entry<String, Worker> entry : workers.entrySet()) {
+            Worker worker = entry.getValue();
+            if (host.equals(worker.host) && port.equals(worker.port)) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param workerName Name of the worker
+     * @return true if the router has the worker
+     */
+    public synchronized boolean hasWorker(String workerName) {
+        return workers.containsKey(workerName);
+    }
+
+    /**
+     * Get the load balancers having a worker as member
+     * @param workerName Name of the worker
+     * @return the names of the load balancers
+     */
+    public synchronized List<String> getLoadBalancers(String workerName) {
+        List<String> found = new ArrayList<String>();
+        for (Map.Entry<String, LoadBalancer> entry : loadBalancers.entrySet()) {
+            if (entry.getValue().workers.contains(workerName)) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Add or replace a load balancer
+     * @param lbName Name of the load balancer
+     * @param members the workers balanced by this load balancer
+     * @param mountPoints the mount points of this load balancer
+     */
+    public synchronized void addLoadBalancer(String lbName, List<String> members, List<String> mountPoints) {
+        LoadBalancer loadBalancer = new LoadBalancer();
+        if (members != null) {
+            loadBalancer.workers.addAll(members);
+        }
+        if (mountPoints != null) {
+            loadBalancer.mountPoints.addAll(mountPoints);
+        }
+        loadBalancers.put(lbName, loadBalancer);
+    }
+
+    /**
+     * Remove a load balancer
+     * @param lbName Name of the load balancer
+     * @throws RouterManagerBeanException if the load balancer doesn't exist
+     */
+    public synchronized void removeLoadBalancer(String lbName) throws RouterManagerBeanException {
+        getLoadBalancer(lbName);
+        loadBalancers.remove(lbName);
+    }
+
+    /**
+     * Create a load balancer and move mount points to it, the old load
+     * balancers left without mount point being removed
+     * @param lbName Name of the new load balancer
+     * @param members the workers balanced by the new load balancer
+     * @param mountPoints the mount points moved to the new load balancer
+     * @return the names of the removed load balancers
+     * @throws RouterManagerBeanException if the new load balancer already exists
+     */
+    public synchronized List<String> swapLoadBalancer(String lbName, List<String> members, List<String> mountPoints)
+            throws RouterManagerBeanException {
+        if (loadBalancers.containsKey(lbName)) {
+            throw new RouterManagerBeanException("Loadbalancer '" + lbName + "' already exists for router '" + name
+                    + "' !");
+        }
+        List<String> removed = new ArrayList<String>();
+        for (Iterator<Map.Entry<String, LoadBalancer>> it = loadBalancers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, LoadBalancer> entry = it.next();
+            List<String> paths = entry.getValue().mountPoints;
+            if (paths.removeAll(mountPoints) && paths.isEmpty()) {
+                it.remove();
+                removed.add(entry.getKey());
+            }
+        }
+        addLoadBalancer(lbName, members, mountPoints);
+        return removed;
+    }
+
+    /**
+     * Add a worker to a load balancer, nothing is done if it is already a member
+     * @param lbName Name of the load balancer
+     * @param workerName Name of the worker
+     * @throws RouterManagerBeanException if the load balancer doesn't exist
+     */
+    public synchronized void addWorkerToLoadBalancer(String lbName, String workerName)
+            throws RouterManagerBeanException {
+        List<String> members = getLoadBalancer(lbName).workers;
+        if (!members.contains(workerName)) {
+            members.add(workerName);
+        }
+    }
+
+    /**
+     * Remove a worker from a load balancer
+     * @param lbName Name of the load balancer
+     * @param workerName Name of the worker
+     * @throws RouterManagerBeanException if the load balancer doesn't exist
+     */
+    public synchronized void removeWorkerFromLoadBalancer(String lbName, String workerName)
+            throws RouterManagerBeanException {
+        getLoadBalancer(lbName).workers.remove(workerName);
+    }
+
+    /**
+     * Add mount points to a load balancer, the existing ones being ignored
+     * @param lbName Name of the load balancer
+     * @param paths the mount points
+     * @throws RouterManagerBeanException if the load balancer doesn't exist
+     */
+    public synchronized void addMountPoints(String lbName, Collection<String> paths)
+            throws RouterManagerBeanException {
+        List<String> mountPoints = getLoadBalancer(lbName).mountPoints;
+        for (String path : paths) {
+            if (!mountPoints.contains(path)) {
+                mountPoints.add(path);
+            }
+        }
+    }
+
+    /**
+     * Remove mount points from a load balancer
+     * @param lbName Name of the load balancer
+     * @param paths the mount points
+     * @throws RouterManagerBeanException if the load balancer doesn't exist
+     */
+    public synchronized void removeMountPoints(String lbName, Collection<String> paths)
+            throws RouterManagerBeanException {
+        getLoadBalancer(lbName).mountPoints.removeAll(paths);
+    }
+
+    /**
+     * @return the workers.properties file of the router
+     */
+    public synchronized String getWorkersProperties() {
+        StringBuilder sb = new StringBuilder(HEADER).append(name).append('\n');
+
+        // the load balancers and the workers are all declared
+        List<String> list = new ArrayList<String>(loadBalancers.keySet());
+        list.addAll(workers.keySet());
+        sb.append("worker.list=");
+        appendList(sb, list);
+        sb.append('\n');
+
+        for (Map.Entry<String, Worker> entry : workers.entrySet()) {
+            Worker worker = entry.getValue();
+            appendProperty(sb, entry.getKey(), "type", "ajp13");
+            appendProperty(sb, entry.getKey(), "host", worker.host);
+            appendProperty(sb, entry.getKey(), "port", String.valueOf(worker.port));
+            if (!worker.enabled) {
+                appendProperty(sb, entry.getKey(), "activation", "D");
+            }
+        }
+        for (Map.Entry<String, LoadBalancer> entry : loadBalancers.entrySet()) {
+            appendProperty(sb, entry.getKey(), "type", "lb");
+            sb.append("worker.").append(entry.getKey()).append(".balance_workers=");
+            appendList(sb, entry.getValue().workers);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the uriworkermap.properties file of the router
+     */
+    public synchronized String getUriWorkerMap() {
+        StringBuilder sb = new StringBuilder(HEADER).append(name).append('\n');
+        for (Map.Entry<String, LoadBalancer> entry : loadBalancers.entrySet()) {
+            for (String path : entry.getValue().mountPoints) {
+                sb.append(path).append('=').append(entry.getKey()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param lbName Name of a load balancer
+     * @return the load balancer
+     * @throws RouterManagerBeanException if the load balancer doesn't exist
+     */
+    private LoadBalancer getLoadBalancer(String lbName) throws RouterManagerBeanException {
+        LoadBalancer loadBalancer = loadBalancers.get(lbName);
+        if (loadBalancer == null) {
+            throw new RouterManagerBeanException("Unable to get the Load Balancer '" + lbName + "' for router '" +
+                    name + "' !");
+        }
+        return loadBalancer;
+    }
+
+    /**
+     * Append a worker.name.key=value line
+     */
+    private static void appendProperty(StringBuilder sb, String name, String key, String value) {
+        sb.append("worker.").append(name).append('.').append(key).append('=').append(value).append('\n');
+    }
+
+    /**
+     * Append a comma separated list
+     */
+    private static void appendList(StringBuilder sb, List<String> elements) {
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(elements.get(i));
+        }
+    }
+
+    /**
+     * A worker of the router
+     */
+    private static class Worker {
+
+        private final String host;
+
+        private final Integer port;
+
+        private boolean enabled = true;
+
+        public Worker(String host, Integer port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    /**
+     * A load balancer of the router
+     */
+    private static class LoadBalancer {
+
+        private final List<String> workers = new ArrayList<String>();
+
+        private final List<String> mountPoints = new ArrayList<String>();
+    }
+}